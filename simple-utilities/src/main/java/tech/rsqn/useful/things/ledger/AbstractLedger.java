@@ -2,12 +2,12 @@ package tech.rsqn.useful.things.ledger;
 
 import tech.rsqn.useful.things.apps.KeepRunning;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
@@ -19,10 +19,24 @@ import java.util.logging.Logger;
 /**
  * Abstract base class for ledgers.
  * <p>
- * Notification uses a lock-free {@link ConcurrentLinkedQueue} with dedicated consumer threads.
- * Producers never block on enqueue (CAS-only). Consumers park when the queue is empty and are
- * unparked by the producer, eliminating the lock contention inherent in BlockingQueue-based
- * executors.
+ * Notification uses a {@link LedgerRingBuffer} with dedicated consumer threads: the record itself
+ * is published into a slot (CAS on the tail, no per-record node or task), and consumers dispatch
+ * it to the subscriber snapshot current at dispatch time. Writers never wait on notification by
+ * default: when the ring is full, records spill to an unbounded overflow list, as with the
+ * original unbounded queue. With an explicit
+ * {@link #setNotificationBackpressure(RingBackpressure)} writers wait instead, except on a
+ * notification thread of any ledger, which notifies inline so that subscribers writing into each
+ * other's ledgers cannot wait on each other.
+ * <p>
+ * With {@link NotificationDispatch#PER_SUBSCRIBER} (or the
+ * {@link #subscribe(Predicate, Consumer, int, LaneOverflow)} overload) a subscriber instead gets its
+ * own {@link SubscriberLane}: the writer applies its filter and publishes into the lane, and one
+ * dedicated thread delivers to it in order, so a slow subscriber cannot delay the others. Lanes are
+ * fed through a {@link LaneSequencer}, so they receive records in sequence-id order even when
+ * several threads write concurrently.
+ * <p>
+ * All background loops are created through {@link #newLedgerThread(Runnable, String)}, as platform
+ * or virtual threads per {@link #setThreadMode(LedgerThreadMode)}.
  *
  * @param <T> The type of record stored.
  */
@@ -34,13 +48,31 @@ public abstract class AbstractLedger<T extends Record> implements Ledger<T> {
     /** Default maximum pool size (kept for API compat — consumers fixed at core size). */
     public static final int DEFAULT_NOTIFICATION_MAX_POOL_SIZE = 10;
 
-    /** Default capacity — unused with ConcurrentLinkedQueue (unbounded) but kept for API compat. */
-    public static final int DEFAULT_NOTIFICATION_QUEUE_CAPACITY = 1000;
+    /**
+     * Default number of notifications held in the ring before writers spill to the overflow list
+     * (or wait, with an explicit backpressure).
+     */
+    public static final int DEFAULT_NOTIFICATION_QUEUE_CAPACITY = 65_536;
 
     /** Default keep-alive — unused but kept for API compat. */
     public static final long DEFAULT_NOTIFICATION_KEEP_ALIVE_SECONDS = 60;
 
+    /** Default {@link ConsumerMode#HYBRID} busy-spin iterations before yielding. */
+    public static final int DEFAULT_HYBRID_SPIN_ITERATIONS = 1_000;
+
+    /** Default {@link ConsumerMode#HYBRID} yields before parking. */
+    public static final int DEFAULT_HYBRID_YIELD_ITERATIONS = 100;
+
+    /** Default {@link ConsumerMode#HYBRID} upper bound of the exponential park backoff. */
+    public static final long DEFAULT_HYBRID_MAX_PARK_NANOS = 1_000_000L;
+
+    /** Default number of records a {@link SubscriberLane} may hold before its overflow policy applies. */
+    public static final int DEFAULT_SUBSCRIBER_LANE_CAPACITY = 65_536;
+
     private static final Logger LOG = Logger.getLogger(AbstractLedger.class.getName());
+
+    /** Set on notification consumer and lane threads of every ledger. */
+    private static final ThreadLocal<Boolean> NOTIFICATION_THREAD = new ThreadLocal<>();
     protected final RecordType recordType;
     protected final PersistenceDriver<T> driver;
     protected final AtomicLong sequenceCounter = new AtomicLong(0);
@@ -50,14 +82,24 @@ public abstract class AbstractLedger<T extends Record> implements Ledger<T> {
     private int notificationMaxPoolSize = DEFAULT_NOTIFICATION_MAX_POOL_SIZE;
     private int notificationQueueCapacity = DEFAULT_NOTIFICATION_QUEUE_CAPACITY;
     private long notificationKeepAliveSeconds = DEFAULT_NOTIFICATION_KEEP_ALIVE_SECONDS;
+    private volatile NotificationDispatch notificationDispatch = NotificationDispatch.SHARED;
+    private int subscriberLaneCapacity = DEFAULT_SUBSCRIBER_LANE_CAPACITY;
+    private LaneOverflow subscriberLaneOverflow = LaneOverflow.BLOCK;
 
     private final Object subscriberLock = new Object();
     private final List<SubscriberRecord<T>> subscribers = new ArrayList<>();
     private volatile List<SubscriberRecord<T>> subscriberSnapshot = List.of();
+    private volatile LaneSequencer<T> laneSequencer;
 
-    private final ConcurrentLinkedQueue<Runnable> notificationQueue = new ConcurrentLinkedQueue<>();
-    private final LinkedBlockingQueue<Runnable> blockingNotificationQueue = new LinkedBlockingQueue<>();
+    private volatile LedgerRingBuffer<T> notificationRing;
+    private volatile RingBackpressure notificationBackpressure;
     private volatile ConsumerMode consumerMode = ConsumerMode.SPIN;
+    private int hybridSpinIterations = DEFAULT_HYBRID_SPIN_ITERATIONS;
+    private int hybridYieldIterations = DEFAULT_HYBRID_YIELD_ITERATIONS;
+    private long hybridMaxParkNanos = DEFAULT_HYBRID_MAX_PARK_NANOS;
+    private final ConsumerIdler.Stats consumerIdleStats = new ConsumerIdler.Stats();
+    private volatile LedgerThreadMode threadMode = LedgerThreadMode.PLATFORM;
+    private volatile boolean threadsCreated = false;
     private volatile Thread[] consumerThreads;
     private volatile boolean consumersRunning = false;
     private final Object consumerInitLock = new Object();
@@ -79,10 +121,56 @@ public abstract class AbstractLedger<T extends Record> implements Ledger<T> {
         this.notificationMaxPoolSize = notificationMaxPoolSize;
     }
 
+    /**
+     * Sets how many notifications the ring holds before writers spill to the overflow list (or
+     * wait, with an explicit backpressure). Must be called before the first notification starts
+     * the consumer threads.
+     */
     public void setNotificationQueueCapacity(int notificationQueueCapacity) {
+        if (notificationQueueCapacity <= 0) {
+            throw new IllegalArgumentException("notificationQueueCapacity must be positive");
+        }
         this.notificationQueueCapacity = notificationQueueCapacity;
     }
 
+    /**
+     * Makes writers wait, per {@code notificationBackpressure}, while the notification ring is full.
+     * By default they never wait and full-ring notifications spill to an unbounded overflow list.
+     * Writers on a ledger notification thread are still notified inline rather than waiting. Also
+     * the wait strategy of {@link LaneOverflow#BLOCK} lanes ({@link RingBackpressure#BLOCK} if
+     * unset). Must be called before the first notification starts the consumer threads.
+     */
+    public void setNotificationBackpressure(RingBackpressure notificationBackpressure) {
+        if (notificationBackpressure == null) {
+            throw new IllegalArgumentException("notificationBackpressure must not be null");
+        }
+        if (consumerThreads != null) {
+            throw new IllegalStateException(
+                    "Cannot change notification backpressure after consumers have started (ledger: " + recordType.getValue() + ")");
+        }
+        this.notificationBackpressure = notificationBackpressure;
+    }
+
+    /** @return the configured backpressure, or null when writers never wait (default) */
+    public RingBackpressure getNotificationBackpressure() {
+        return notificationBackpressure;
+    }
+
+    private RingBackpressure waitStrategy() {
+        RingBackpressure backpressure = notificationBackpressure;
+        return backpressure == null ? RingBackpressure.BLOCK : backpressure;
+    }
+
+    /** Marks the calling thread as a notification thread; see {@link #isNotificationThread()}. */
+    static void markNotificationThread() {
+        NOTIFICATION_THREAD.set(Boolean.TRUE);
+    }
+
+    /** @return true on a notification consumer or lane thread of any ledger */
+    static boolean isNotificationThread() {
+        return NOTIFICATION_THREAD.get() != null;
+    }
+
     public void setNotificationKeepAliveSeconds(long notificationKeepAliveSeconds) {
         this.notificationKeepAliveSeconds = notificationKeepAliveSeconds;
     }
@@ -92,7 +180,9 @@ public abstract class AbstractLedger<T extends Record> implements Ledger<T> {
      *
      * <ul>
      *   <li>{@link ConsumerMode#SPIN} — 1µs parkNanos busy-wait (default, backtest throughput).</li>
-     *   <li>{@link ConsumerMode#BLOCK} — {@code LinkedBlockingQueue.take()} (zero CPU, live/paper).</li>
+     *   <li>{@link ConsumerMode#BLOCK} — waits on the ring until signalled (zero CPU, live/paper).</li>
+     *   <li>{@link ConsumerMode#HYBRID} — spin, then yield, then park with exponential backoff;
+     *       woken by the publishing writer (bursty live traffic).</li>
      * </ul>
      *
      * @param mode the consumer mode
@@ -113,16 +203,115 @@ public abstract class AbstractLedger<T extends Record> implements Ledger<T> {
         return consumerMode;
     }
 
+    /**
+     * Tunes {@link ConsumerMode#HYBRID}: busy-spin {@code spinIterations} polls, then
+     * {@code yieldIterations} yielding polls, then park from 1µs doubling up to {@code maxParkNanos}.
+     * Must be called before consumers start.
+     */
+    public void setHybridBackoff(int spinIterations, int yieldIterations, long maxParkNanos) {
+        if (spinIterations < 0 || yieldIterations < 0) {
+            throw new IllegalArgumentException("spin and yield iterations must not be negative");
+        }
+        if (maxParkNanos < ConsumerIdler.MIN_PARK_NANOS) {
+            throw new IllegalArgumentException("maxParkNanos must be at least " + ConsumerIdler.MIN_PARK_NANOS);
+        }
+        if (consumerThreads != null) {
+            throw new IllegalStateException(
+                    "Cannot change hybrid backoff after consumers have started (ledger: " + recordType.getValue() + ")");
+        }
+        this.hybridSpinIterations = spinIterations;
+        this.hybridYieldIterations = yieldIterations;
+        this.hybridMaxParkNanos = maxParkNanos;
+    }
+
+    /**
+     * Sets whether the writer, notification consumers and subscriber lanes run on platform or
+     * virtual threads (default {@link LedgerThreadMode#PLATFORM}). Must be called before the ledger
+     * starts any thread, i.e. before {@code init()} for write-behind ledgers.
+     *
+     * @throws IllegalStateException if a ledger thread has already been created
+     */
+    public void setThreadMode(LedgerThreadMode threadMode) {
+        if (threadMode == null) {
+            throw new IllegalArgumentException("threadMode must not be null");
+        }
+        if (threadsCreated) {
+            throw new IllegalStateException(
+                    "Cannot change thread mode after ledger threads have started (ledger: " + recordType.getValue() + ")");
+        }
+        this.threadMode = threadMode;
+    }
+
+    public LedgerThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    /** Creates an unstarted daemon thread for a ledger loop in the configured {@link LedgerThreadMode}. */
+    protected Thread newLedgerThread(Runnable task, String name) {
+        threadsCreated = true;
+        return threadMode.newThread(task, name);
+    }
+
+    private ConsumerIdler newConsumerIdler() {
+        return new ConsumerIdler(consumerMode, hybridSpinIterations, hybridYieldIterations, hybridMaxParkNanos,
+                consumerIdleStats);
+    }
+
+    /**
+     * Sets how {@link #subscribe(Predicate, Consumer)} subscribers are notified. Must be called
+     * before the first {@code subscribe()} call.
+     *
+     * @throws IllegalStateException if there are already subscribers
+     */
+    public void setNotificationDispatch(NotificationDispatch notificationDispatch) {
+        if (notificationDispatch == null) {
+            throw new IllegalArgumentException("notificationDispatch must not be null");
+        }
+        synchronized (subscriberLock) {
+            if (!subscribers.isEmpty()) {
+                throw new IllegalStateException(
+                        "Cannot change notification dispatch after subscribe (ledger: " + recordType.getValue() + ")");
+            }
+            this.notificationDispatch = notificationDispatch;
+        }
+    }
+
+    public NotificationDispatch getNotificationDispatch() {
+        return notificationDispatch;
+    }
+
+    /**
+     * Lane capacity for subscribers added via {@link #subscribe(Predicate, Consumer)} under
+     * {@link NotificationDispatch#PER_SUBSCRIBER}.
+     */
+    public void setSubscriberLaneCapacity(int subscriberLaneCapacity) {
+        if (subscriberLaneCapacity <= 0) {
+            throw new IllegalArgumentException("subscriberLaneCapacity must be positive");
+        }
+        this.subscriberLaneCapacity = subscriberLaneCapacity;
+    }
+
+    /**
+     * Lane overflow policy for subscribers added via {@link #subscribe(Predicate, Consumer)} under
+     * {@link NotificationDispatch#PER_SUBSCRIBER}.
+     */
+    public void setSubscriberLaneOverflow(LaneOverflow subscriberLaneOverflow) {
+        if (subscriberLaneOverflow == null) {
+            throw new IllegalArgumentException("subscriberLaneOverflow must not be null");
+        }
+        this.subscriberLaneOverflow = subscriberLaneOverflow;
+    }
+
     private void ensureConsumersStarted() {
         if (consumerThreads == null) {
             synchronized (consumerInitLock) {
                 if (consumerThreads == null) {
+                    notificationRing = new LedgerRingBuffer<>(notificationQueueCapacity, waitStrategy());
                     consumersRunning = true;
                     int threadCount = notificationCorePoolSize;
                     consumerThreads = new Thread[threadCount];
                     for (int i = 0; i < threadCount; i++) {
-                        Thread t = new Thread(this::consumerLoop, "ledger-notify-" + recordType.getValue());
-                        t.setDaemon(true);
+                        Thread t = newLedgerThread(this::consumerLoop, "ledger-notify-" + recordType.getValue());
                         t.start();
                         consumerThreads[i] = t;
                     }
@@ -131,90 +320,101 @@ public abstract class AbstractLedger<T extends Record> implements Ledger<T> {
         }
     }
 
+    /** Polls the shared ring, idling per {@link ConsumerMode} when it is empty. */
     private void consumerLoop() {
-        if (consumerMode == ConsumerMode.BLOCK) {
-            consumerLoopBlock();
-        } else {
-            consumerLoopSpin();
+        markNotificationThread();
+        LedgerRingBuffer<T> ring = notificationRing;
+        ConsumerIdler idler = newConsumerIdler();
+        while (consumersRunning) {
+            T record = ring.poll();
+            if (record != null) {
+                idler.onWork();
+                dispatchQuietly(record);
+                continue;
+            }
+            try {
+                idler.idle(ring);
+            } catch (InterruptedException e) {
+                if (!consumersRunning) break;
+            }
         }
+        drainOnShutdown(ring);
     }
 
-    /** SPIN mode: ConcurrentLinkedQueue + parkNanos(1µs). Unchanged from original. */
-    private void consumerLoopSpin() {
-        while (consumersRunning) {
-            Runnable task = notificationQueue.poll();
-            if (task != null) {
-                try {
-                    task.run();
-                } catch (Exception e) {
-                    LOG.log(Level.WARNING, "Error in notification consumer", e);
-                }
-                // Batch drain — process all available before parking
-                while ((task = notificationQueue.poll()) != null) {
-                    try {
-                        task.run();
-                    } catch (Exception e) {
-                        LOG.log(Level.WARNING, "Error in notification consumer", e);
-                    }
-                }
-            } else {
-                LockSupport.parkNanos(1_000L); // 1µs — busy-spin tradeoff for throughput
-            }
+    private void dispatchQuietly(T record) {
+        try {
+            dispatchNotifySubscribers(record, subscriberSnapshot, false);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Error in notification consumer", e);
         }
-        // Drain remaining on shutdown
-        Runnable task;
-        while ((task = notificationQueue.poll()) != null) {
+    }
+
+    private void drainOnShutdown(LedgerRingBuffer<T> ring) {
+        T record;
+        while ((record = ring.poll()) != null) {
             try {
-                task.run();
+                dispatchNotifySubscribers(record, subscriberSnapshot, false);
             } catch (Exception e) {
                 LOG.log(Level.WARNING, "Error in notification consumer during shutdown", e);
             }
         }
     }
 
-    /** BLOCK mode: LinkedBlockingQueue.take(). Zero CPU when idle, instant wake on offer(). */
-    private void consumerLoopBlock() {
-        while (consumersRunning) {
-            Runnable task;
-            try {
-                task = blockingNotificationQueue.take();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                if (!consumersRunning) break;
-                continue;
-            }
-            try {
-                task.run();
-            } catch (Exception e) {
-                LOG.log(Level.WARNING, "Error in notification consumer", e);
-            }
-            // Batch drain — process all available before blocking again
-            while ((task = blockingNotificationQueue.poll()) != null) {
-                try {
-                    task.run();
-                } catch (Exception e) {
-                    LOG.log(Level.WARNING, "Error in notification consumer", e);
-                }
-            }
+    /**
+     * Watermark of records handed to the driver, or null when {@link #write} persists before
+     * returning (then {@link #writeAsync} and {@link #awaitPersisted} complete immediately).
+     */
+    PersistedWatermark persistedWatermark() {
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<Long> writeAsync(T record) {
+        long sequenceId = write(record);
+        if (sequenceId < 0) {
+            return CompletableFuture.failedFuture(
+                    new IllegalStateException("Ledger " + recordType.getValue() + " did not accept the write"));
         }
-        // Drain remaining on shutdown
-        Runnable task;
-        while ((task = blockingNotificationQueue.poll()) != null) {
-            try {
-                task.run();
-            } catch (Exception e) {
-                LOG.log(Level.WARNING, "Error in notification consumer during shutdown", e);
+        PersistedWatermark watermark = persistedWatermark();
+        return watermark == null ? CompletableFuture.completedFuture(sequenceId) : watermark.futureFor(sequenceId);
+    }
+
+    @Override
+    public boolean awaitPersisted(long sequenceId, Duration timeout) throws InterruptedException {
+        PersistedWatermark watermark = persistedWatermark();
+        return watermark == null || watermark.await(sequenceId, timeout);
+    }
+
+    /**
+     * Releases {@code sequenceId} after its enqueue failed: reused by the next write when no later
+     * id was handed out, otherwise skipped by the watermark and the subscriber lanes.
+     */
+    protected void abandonSequence(long sequenceId) {
+        if (!sequenceCounter.compareAndSet(sequenceId, sequenceId - 1)) {
+            PersistedWatermark watermark = persistedWatermark();
+            if (watermark != null) {
+                watermark.abandon(sequenceId);
             }
+            skipNotification(sequenceId);
+        }
+    }
+
+    /**
+     * Tells the subscriber lanes that {@code sequenceId} will never be notified, so later records
+     * are not held back waiting for it. Called when a write fails after its id was assigned.
+     */
+    protected void skipNotification(long sequenceId) {
+        LaneSequencer<T> sequencer = laneSequencer;
+        if (sequencer != null) {
+            sequencer.skip(sequenceId);
         }
     }
 
     private void recoverSequenceId() {
-        driver.readReverse(-1, record -> {
-            if (record != null && record.getSequenceId() != null) {
-                sequenceCounter.set(record.getSequenceId());
-            }
-            return false;
-        });
+        long last = driver.lastSequenceId();
+        if (last != -1) {
+            sequenceCounter.set(last);
+        }
     }
 
     protected void beforeDriverClose() throws Exception {
@@ -226,6 +426,11 @@ public abstract class AbstractLedger<T extends Record> implements Ledger<T> {
         flush();
         beforeDriverClose();
         driver.close();
+        for (SubscriberRecord<T> sub : subscriberSnapshot) {
+            if (sub.lane != null) {
+                sub.lane.stop();
+            }
+        }
         consumersRunning = false;
         Thread[] threads = consumerThreads;
         if (threads != null) {
@@ -244,44 +449,128 @@ public abstract class AbstractLedger<T extends Record> implements Ledger<T> {
 
     @Override
     public void subscribe(Predicate<T> filter, Consumer<T> subscriber) {
+        if (notificationDispatch == NotificationDispatch.PER_SUBSCRIBER) {
+            subscribe(filter, subscriber, subscriberLaneCapacity, subscriberLaneOverflow);
+            return;
+        }
         synchronized (subscriberLock) {
-            subscribers.add(new SubscriberRecord<>(subscriber, filter));
+            subscribers.add(new SubscriberRecord<>(subscriber, filter, null));
             subscriberSnapshot = List.copyOf(subscribers);
         }
     }
 
+    /**
+     * Subscribes with a dedicated {@link SubscriberLane} regardless of {@link NotificationDispatch}:
+     * records are delivered in sequence order on the lane's own thread, and when {@code laneCapacity}
+     * records are pending {@code overflow} applies to this subscriber only.
+     *
+     * @return the lane, for lag and drop counters
+     */
+    public SubscriberLane<T> subscribe(Predicate<T> filter, Consumer<T> subscriber, int laneCapacity,
+                                       LaneOverflow overflow) {
+        synchronized (subscriberLock) {
+            if (laneSequencer == null) {
+                // Set before the lane is visible: a writer that sees the lane also sees the sequencer.
+                laneSequencer = new LaneSequencer<>(sequenceCounter.get() + 1, this::publishToLanes);
+            }
+            SubscriberLane<T> lane = new SubscriberLane<>(
+                    "ledger-lane-" + recordType.getValue() + "-" + subscribers.size(),
+                    filter, subscriber, laneCapacity, overflow, waitStrategy());
+            lane.start(newLedgerThread(lane::run, lane.getName()), newConsumerIdler());
+            subscribers.add(new SubscriberRecord<>(subscriber, filter, lane));
+            subscriberSnapshot = List.copyOf(subscribers);
+            return lane;
+        }
+    }
+
+    private void removeDisconnectedLanes() {
+        synchronized (subscriberLock) {
+            if (subscribers.removeIf(sub -> sub.lane != null && sub.lane.isDisconnected())) {
+                subscriberSnapshot = List.copyOf(subscribers);
+            }
+        }
+    }
+
     protected void notifySubscribers(T record) {
+        LaneSequencer<T> sequencer = laneSequencer;
         List<SubscriberRecord<T>> snapshot = subscriberSnapshot;
-        if (snapshot.isEmpty()) {
+        if (snapshot.isEmpty() && sequencer == null) {
+            return;
+        }
+        if (Boolean.getBoolean("pysol.ledger.sync-notifications") || Boolean.getBoolean("tech.rsqn.useful.things.ledger.sync")) {
+            if (sequencer != null) {
+                sequencer.skip(record.getSequenceId());
+            }
+            dispatchNotifySubscribers(record, snapshot, true);
             return;
         }
-        boolean anyMatch = false;
+        if (sequencer != null) {
+            sequencer.submit(record.getSequenceId(), record);
+        }
+
+        boolean sharedMatch = false;
         for (SubscriberRecord<T> sub : snapshot) {
-            if (sub.filter == null || sub.filter.test(record)) {
-                anyMatch = true;
+            if (sub.lane == null && (sub.filter == null || sub.filter.test(record))) {
+                sharedMatch = true;
                 break;
             }
         }
-        if (!anyMatch) {
+        if (!sharedMatch) {
             return;
         }
 
-        if (Boolean.getBoolean("pysol.ledger.sync-notifications") || Boolean.getBoolean("tech.rsqn.useful.things.ledger.sync")) {
-            dispatchNotifySubscribers(record, snapshot);
+        ensureConsumersStarted();
+        LedgerRingBuffer<T> ring = notificationRing;
+        if (notificationBackpressure == null) {
+            ring.putOrSpill(record);
+            return;
+        }
+        if (ring.offer(record)) {
             return;
         }
+        if (isNotificationThread()) {
+            // A subscriber writing into this or another ledger could otherwise wait on itself.
+            dispatchNotifySubscribers(record, snapshot, false);
+            return;
+        }
+        try {
+            ring.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dispatchNotifySubscribers(record, snapshot, false);
+        }
+    }
 
-        ensureConsumersStarted();
-        T recordRef = record;
-        if (consumerMode == ConsumerMode.BLOCK) {
-            blockingNotificationQueue.offer(() -> dispatchNotifySubscribers(recordRef, snapshot));
-        } else {
-            notificationQueue.offer(() -> dispatchNotifySubscribers(recordRef, snapshot));
+    /** Called by the {@link LaneSequencer}, one record at a time in sequence order. */
+    private void publishToLanes(T record) {
+        boolean disconnected = false;
+        for (SubscriberRecord<T> sub : subscriberSnapshot) {
+            if (sub.lane == null) {
+                continue;
+            }
+            try {
+                if ((sub.filter == null || sub.filter.test(record)) && !sub.lane.publish(record)) {
+                    disconnected = true;
+                }
+            } catch (RuntimeException e) {
+                // One lane's filter must not fail the writer or hide the record from other lanes.
+                LOG.log(Level.WARNING, "Error publishing to subscriber lane " + sub.lane.getName(), e);
+            }
+        }
+        if (disconnected) {
+            removeDisconnectedLanes();
         }
     }
 
-    private void dispatchNotifySubscribers(T record, List<SubscriberRecord<T>> snapshot) {
+    /**
+     * Notifies matching subscribers on the calling thread; lane subscribers are skipped unless
+     * {@code includeLanes} (synchronous mode).
+     */
+    private void dispatchNotifySubscribers(T record, List<SubscriberRecord<T>> snapshot, boolean includeLanes) {
         for (SubscriberRecord<T> sub : snapshot) {
+            if (sub.lane != null && !includeLanes) {
+                continue;
+            }
             if (sub.filter == null || sub.filter.test(record)) {
                 try {
                     sub.subscriber.accept(record);
@@ -298,20 +587,35 @@ public abstract class AbstractLedger<T extends Record> implements Ledger<T> {
         status.put("recordType", recordType.getValue());
         status.put("started", started);
         status.put("sequenceCounter", sequenceCounter.get());
-        status.put("notificationQueueSize", notificationQueue.size());
+        LedgerRingBuffer<T> ring = notificationRing;
+        status.put("notificationQueueSize", ring == null ? 0 : ring.size());
+        status.put("notificationQueueCapacity", ring == null ? notificationQueueCapacity : ring.capacity());
         synchronized (subscriberLock) {
             status.put("subscriberCount", subscribers.size());
         }
+        List<Map<String, Object>> lanes = new ArrayList<>();
+        for (SubscriberRecord<T> sub : subscriberSnapshot) {
+            if (sub.lane != null) {
+                lanes.add(sub.lane.healthCheck());
+            }
+        }
+        if (!lanes.isEmpty()) {
+            status.put("subscriberLanes", lanes);
+        }
+        status.put("consumerIdle", consumerIdleStats.toMap(consumerMode));
         return status;
     }
 
-    private static class SubscriberRecord<T> {
+    private static class SubscriberRecord<T extends Record> {
         final Consumer<T> subscriber;
         final Predicate<T> filter;
+        /** Dedicated lane, or null for the shared notification ring. */
+        final SubscriberLane<T> lane;
 
-        SubscriberRecord(Consumer<T> subscriber, Predicate<T> filter) {
+        SubscriberRecord(Consumer<T> subscriber, Predicate<T> filter, SubscriberLane<T> lane) {
             this.subscriber = subscriber;
             this.filter = filter;
+            this.lane = lane;
         }
     }
 }
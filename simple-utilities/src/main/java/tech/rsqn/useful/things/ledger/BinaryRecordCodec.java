@@ -0,0 +1,550 @@
+package tech.rsqn.useful.things.ledger;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Compact binary {@link RecordCodec} driven by the per-type {@link RecordSchema} registered in
+ * {@link LedgerRegistry}.
+ * <p>
+ * Line payload:
+ * <pre>
+ * marker u8 = 0x01, version u8 = 2
+ * type       varint length + UTF-8
+ * fieldCount varint
+ * layout     int32 LE, {@link RecordSchema#fingerprint(int)} of the fieldCount names written
+ * repeated fieldCount times, in schema order:
+ *   tag u8, then value: varint (zigzag) | float32 LE | float64 LE | varint length + bytes |
+ *   instant (zigzag seconds, varint nanos) | decimal (zigzag scale, length + unscaled bytes)
+ * </pre>
+ * Every value is tagged, so fields appended to or removed from the end of a schema stay readable
+ * in both directions. A reader whose schema has at least {@code fieldCount} fields checks the
+ * layout fingerprint against its own prefix and fails with an {@link IOException} on mismatch; a
+ * reader with fewer fields (older code, newer data) cannot check it and trusts the positions.
+ * Version 1 lines (no fingerprint) are still read positionally. To keep the ledger newline-framed, bytes {@code 0x0A}, {@code 0x0D} and
+ * {@code 0x1B} are escaped as {@code 0x1B, b ^ 0x20} while encoding (a few bytes per record in
+ * practice). Fields of other types are embedded as Gson JSON; records whose type has no schema
+ * are written as plain JSON lines, which readers accept alongside binary lines.
+ * <p>
+ * Use {@link LedgerDump} to turn a binary ledger back into JSONL.
+ */
+public class BinaryRecordCodec implements RecordCodec {
+    static final byte MARKER = 0x01;
+    static final byte VERSION = 2;
+    private static final int VERSION_UNCHECKED = 1;
+
+    private static final int ESC = 0x1B;
+
+    private static final int T_NULL = 0;
+    private static final int T_FALSE = 1;
+    private static final int T_TRUE = 2;
+    private static final int T_VARINT = 3;
+    private static final int T_FLOAT = 4;
+    private static final int T_DOUBLE = 5;
+    private static final int T_STRING = 6;
+    private static final int T_INSTANT = 7;
+    private static final int T_DECIMAL = 8;
+    private static final int T_JSON = 9;
+
+    private final LedgerRegistry ledgerRegistry;
+    private final Gson gson;
+    private final JsonlRecordCodec jsonFallback;
+
+    public BinaryRecordCodec(LedgerRegistry ledgerRegistry) {
+        this.ledgerRegistry = ledgerRegistry;
+        this.gson = LedgerGson.create();
+        this.jsonFallback = new JsonlRecordCodec(ledgerRegistry);
+    }
+
+    @Override
+    public byte[] encode(Record record) throws IOException {
+        RecordType type = record.getType();
+        RecordSchema schema = type == null ? null : ledgerRegistry.getRecordSchema(type);
+        if (schema == null || schema.getRecordClass() != record.getClass()) {
+            return jsonFallback.encode(record);
+        }
+        Out out = new Out();
+        out.raw(MARKER);
+        out.raw(VERSION);
+        out.string(type.getValue());
+        out.varint(schema.size());
+        out.fixed(schema.fingerprint(schema.size()), 4);
+        try {
+            for (int i = 0; i < schema.size(); i++) {
+                writeField(out, record, schema.field(i), schema.kind(i));
+            }
+        } catch (IllegalAccessException e) {
+            throw new IOException("Cannot read field of " + record.getClass().getName(), e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Record decode(byte[] line, int offset, int length) throws IOException {
+        In in = new In(line, offset, offset + length);
+        if (in.get() != MARKER) {
+            throw new IOException("Not a binary ledger record");
+        }
+        int version = in.get();
+        if (version != VERSION && version != VERSION_UNCHECKED) {
+            throw new IOException("Unsupported binary ledger record version " + version);
+        }
+        RecordType type = RecordType.of(in.string());
+        RecordSchema schema = ledgerRegistry.getRecordSchema(type);
+        if (schema == null) {
+            return null;
+        }
+        int fieldCount = (int) in.varint();
+        if (version == VERSION) {
+            int layout = (int) in.fixed(4);
+            if (fieldCount <= schema.size() && layout != schema.fingerprint(fieldCount)) {
+                throw new IOException("Binary record of type " + type + " was written with a different field layout than "
+                        + schema.getFieldNames().subList(0, fieldCount) + "; register an explicit RecordSchema that keeps the written order");
+            }
+        }
+        try {
+            Record record = schema.newInstance();
+            record.setType(type);
+            int known = Math.min(fieldCount, schema.size());
+            for (int i = 0; i < known; i++) {
+                readField(in, record, schema.field(i), schema.kind(i));
+            }
+            for (int i = known; i < fieldCount; i++) {
+                in.skip(in.get());
+            }
+            return record;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IOException("Malformed binary record of type " + type, e);
+        }
+    }
+
+    @Override
+    public boolean canDecode(byte[] line, int offset, int length) {
+        return length >= 2 && line[offset] == MARKER;
+    }
+
+    private void writeField(Out out, Record record, Field f, RecordSchema.Kind kind) throws IllegalAccessException {
+        switch (kind) {
+            case BOOLEAN:
+                out.raw(f.getBoolean(record) ? T_TRUE : T_FALSE);
+                return;
+            case BYTE:
+                out.tagged(f.getByte(record));
+                return;
+            case SHORT:
+                out.tagged(f.getShort(record));
+                return;
+            case CHAR:
+                out.tagged(f.getChar(record));
+                return;
+            case INT:
+                out.tagged(f.getInt(record));
+                return;
+            case LONG:
+                out.tagged(f.getLong(record));
+                return;
+            case FLOAT:
+                out.raw(T_FLOAT);
+                out.fixed(Float.floatToRawIntBits(f.getFloat(record)), 4);
+                return;
+            case DOUBLE:
+                out.raw(T_DOUBLE);
+                out.fixed(Double.doubleToRawLongBits(f.getDouble(record)), 8);
+                return;
+            default:
+                break;
+        }
+        Object value = f.get(record);
+        if (value == null) {
+            out.raw(T_NULL);
+            return;
+        }
+        switch (kind) {
+            case BOXED_BOOLEAN:
+                out.raw((Boolean) value ? T_TRUE : T_FALSE);
+                break;
+            case BOXED_CHAR:
+                out.tagged((Character) value);
+                break;
+            case BOXED_BYTE:
+            case BOXED_SHORT:
+            case BOXED_INT:
+            case BOXED_LONG:
+                out.tagged(((Number) value).longValue());
+                break;
+            case BOXED_FLOAT:
+                out.raw(T_FLOAT);
+                out.fixed(Float.floatToRawIntBits((Float) value), 4);
+                break;
+            case BOXED_DOUBLE:
+                out.raw(T_DOUBLE);
+                out.fixed(Double.doubleToRawLongBits((Double) value), 8);
+                break;
+            case STRING:
+                out.raw(T_STRING);
+                out.string((String) value);
+                break;
+            case RECORD_TYPE:
+                out.raw(T_STRING);
+                out.string(((RecordType) value).getValue());
+                break;
+            case ENUM:
+                out.raw(T_STRING);
+                out.string(((Enum<?>) value).name());
+                break;
+            case INSTANT:
+                Instant instant = (Instant) value;
+                out.raw(T_INSTANT);
+                out.varint(zigzag(instant.getEpochSecond()));
+                out.varint(instant.getNano());
+                break;
+            case DECIMAL:
+                BigDecimal decimal = (BigDecimal) value;
+                byte[] unscaled = decimal.unscaledValue().toByteArray();
+                out.raw(T_DECIMAL);
+                out.varint(zigzag(decimal.scale()));
+                out.varint(unscaled.length);
+                out.bytes(unscaled, 0, unscaled.length);
+                break;
+            default:
+                out.raw(T_JSON);
+                out.string(gson.toJson(value, f.getGenericType()));
+                break;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void readField(In in, Record record, Field f, RecordSchema.Kind kind) throws IOException, IllegalAccessException {
+        int tag = in.get();
+        if (tag == T_NULL) {
+            if (!f.getType().isPrimitive()) {
+                f.set(record, null);
+            }
+            return;
+        }
+        switch (kind) {
+            case BOOLEAN:
+                f.setBoolean(record, bool(tag));
+                break;
+            case BYTE:
+                f.setByte(record, (byte) in.number(tag));
+                break;
+            case SHORT:
+                f.setShort(record, (short) in.number(tag));
+                break;
+            case CHAR:
+                f.setChar(record, (char) in.number(tag));
+                break;
+            case INT:
+                f.setInt(record, (int) in.number(tag));
+                break;
+            case LONG:
+                f.setLong(record, in.number(tag));
+                break;
+            case FLOAT:
+                f.setFloat(record, (float) in.decimal(tag));
+                break;
+            case DOUBLE:
+                f.setDouble(record, in.decimal(tag));
+                break;
+            case BOXED_BOOLEAN:
+                f.set(record, bool(tag));
+                break;
+            case BOXED_BYTE:
+                f.set(record, (byte) in.number(tag));
+                break;
+            case BOXED_SHORT:
+                f.set(record, (short) in.number(tag));
+                break;
+            case BOXED_CHAR:
+                f.set(record, (char) in.number(tag));
+                break;
+            case BOXED_INT:
+                f.set(record, (int) in.number(tag));
+                break;
+            case BOXED_LONG:
+                f.set(record, in.number(tag));
+                break;
+            case BOXED_FLOAT:
+                f.set(record, (float) in.decimal(tag));
+                break;
+            case BOXED_DOUBLE:
+                f.set(record, in.decimal(tag));
+                break;
+            case STRING:
+                f.set(record, in.taggedString(tag));
+                break;
+            case RECORD_TYPE:
+                f.set(record, RecordType.of(in.taggedString(tag)));
+                break;
+            case ENUM:
+                String name = in.taggedString(tag);
+                Object constant = null;
+                try {
+                    constant = Enum.valueOf((Class<? extends Enum>) f.getType(), name);
+                } catch (IllegalArgumentException ignored) {
+                    // Unknown constant (enum changed since write): same as Gson, leave null.
+                }
+                f.set(record, constant);
+                break;
+            case INSTANT:
+                expect(tag, T_INSTANT);
+                long seconds = unzigzag(in.varint());
+                f.set(record, Instant.ofEpochSecond(seconds, in.varint()));
+                break;
+            case DECIMAL:
+                f.set(record, in.bigDecimal(tag));
+                break;
+            default:
+                f.set(record, gson.fromJson(in.taggedString(tag), f.getGenericType()));
+                break;
+        }
+    }
+
+    private static boolean bool(int tag) throws IOException {
+        if (tag != T_TRUE && tag != T_FALSE) {
+            throw new IOException("Expected boolean tag, got " + tag);
+        }
+        return tag == T_TRUE;
+    }
+
+    private static void expect(int tag, int expected) throws IOException {
+        if (tag != expected) {
+            throw new IOException("Expected tag " + expected + ", got " + tag);
+        }
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** Growable output buffer that escapes line-framing bytes as they are written. */
+    private static final class Out {
+        private byte[] buf = new byte[128];
+        private int len;
+
+        void raw(int b) {
+            if (len == buf.length) {
+                buf = Arrays.copyOf(buf, len * 2);
+            }
+            buf[len++] = (byte) b;
+        }
+
+        void put(int b) {
+            b &= 0xFF;
+            if (b == '\n' || b == '\r' || b == ESC) {
+                raw(ESC);
+                raw(b ^ 0x20);
+            } else {
+                raw(b);
+            }
+        }
+
+        void varint(long v) {
+            while ((v & ~0x7FL) != 0) {
+                put((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            put((int) v);
+        }
+
+        void tagged(long v) {
+            raw(T_VARINT);
+            varint(zigzag(v));
+        }
+
+        void fixed(long v, int bytes) {
+            for (int i = 0; i < bytes; i++) {
+                put((int) (v >>> (8 * i)));
+            }
+        }
+
+        void bytes(byte[] b, int off, int n) {
+            for (int i = off; i < off + n; i++) {
+                put(b[i]);
+            }
+        }
+
+        void string(String s) {
+            int n = s.length();
+            boolean ascii = true;
+            for (int i = 0; i < n && ascii; i++) {
+                ascii = s.charAt(i) < 0x80;
+            }
+            if (ascii) {
+                varint(n);
+                for (int i = 0; i < n; i++) {
+                    put(s.charAt(i));
+                }
+            } else {
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                varint(utf8.length);
+                bytes(utf8, 0, utf8.length);
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, len);
+        }
+    }
+
+    /** Reader over one escaped line payload. */
+    private static final class In {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        In(byte[] buf, int pos, int end) {
+            this.buf = buf;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        int get() throws IOException {
+            if (pos >= end) {
+                throw new IOException("Truncated binary record");
+            }
+            int b = buf[pos++] & 0xFF;
+            if (b == ESC) {
+                if (pos >= end) {
+                    throw new IOException("Truncated escape in binary record");
+                }
+                b = (buf[pos++] & 0xFF) ^ 0x20;
+            }
+            return b;
+        }
+
+        long varint() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = get();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+            throw new IOException("Malformed varint in binary record");
+        }
+
+        long fixed(int bytes) throws IOException {
+            long v = 0;
+            for (int i = 0; i < bytes; i++) {
+                v |= (long) get() << (8 * i);
+            }
+            return v;
+        }
+
+        byte[] bytes(int n) throws IOException {
+            byte[] out = new byte[n];
+            for (int i = 0; i < n; i++) {
+                out[i] = (byte) get();
+            }
+            return out;
+        }
+
+        String string() throws IOException {
+            int n = (int) varint();
+            if (n < 0 || n > end - pos) {
+                throw new IOException("Bad string length " + n + " in binary record");
+            }
+            boolean escaped = false;
+            for (int i = pos; i < pos + n && !escaped; i++) {
+                escaped = buf[i] == ESC;
+            }
+            if (!escaped) {
+                String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+                pos += n;
+                return s;
+            }
+            return new String(bytes(n), StandardCharsets.UTF_8);
+        }
+
+        String taggedString(int tag) throws IOException {
+            if (tag != T_STRING && tag != T_JSON) {
+                throw new IOException("Expected string tag, got " + tag);
+            }
+            return string();
+        }
+
+        long number(int tag) throws IOException {
+            switch (tag) {
+                case T_VARINT:
+                    return unzigzag(varint());
+                case T_FLOAT:
+                    return (long) Float.intBitsToFloat((int) fixed(4));
+                case T_DOUBLE:
+                    return (long) Double.longBitsToDouble(fixed(8));
+                default:
+                    throw new IOException("Expected numeric tag, got " + tag);
+            }
+        }
+
+        double decimal(int tag) throws IOException {
+            switch (tag) {
+                case T_FLOAT:
+                    return Float.intBitsToFloat((int) fixed(4));
+                case T_DOUBLE:
+                    return Double.longBitsToDouble(fixed(8));
+                case T_VARINT:
+                    return unzigzag(varint());
+                default:
+                    throw new IOException("Expected numeric tag, got " + tag);
+            }
+        }
+
+        BigDecimal bigDecimal(int tag) throws IOException {
+            if (tag == T_DECIMAL) {
+                int scale = (int) unzigzag(varint());
+                return new BigDecimal(new BigInteger(bytes((int) varint())), scale);
+            }
+            if (tag == T_STRING || tag == T_JSON) {
+                return new BigDecimal(string());
+            }
+            return BigDecimal.valueOf(number(tag));
+        }
+
+        /** Skips one value with the given tag (trailing field unknown to this schema). */
+        void skip(int tag) throws IOException {
+            switch (tag) {
+                case T_NULL:
+                case T_FALSE:
+                case T_TRUE:
+                    return;
+                case T_VARINT:
+                    varint();
+                    return;
+                case T_FLOAT:
+                    fixed(4);
+                    return;
+                case T_DOUBLE:
+                    fixed(8);
+                    return;
+                case T_STRING:
+                case T_JSON:
+                    string();
+                    return;
+                case T_INSTANT:
+                    varint();
+                    varint();
+                    return;
+                case T_DECIMAL:
+                    varint();
+                    bytes((int) varint());
+                    return;
+                default:
+                    throw new IOException("Unknown tag " + tag + " in binary record");
+            }
+        }
+    }
+}
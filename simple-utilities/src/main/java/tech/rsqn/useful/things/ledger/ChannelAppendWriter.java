@@ -0,0 +1,81 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends to a plain ledger file through a {@link FileChannel} and an owned direct buffer.
+ * <p>
+ * Bytes collect in the buffer until it is full or {@link #flush()} is called, then go out in one
+ * {@code write} straight from native memory (no per-call heap-to-native copy, as
+ * {@link java.io.FileOutputStream} makes). Writes at least as large as the buffer bypass it. Not
+ * thread-safe; {@link DiskPersistenceDriver} calls it under its file lock.
+ */
+final class ChannelAppendWriter extends OutputStream {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    ChannelAppendWriter(Path file, int bufferBytes) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.buffer = ByteBuffer.allocateDirect(bufferBytes);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > buffer.remaining()) {
+            drain();
+            if (len >= buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(b, off, len));
+                return;
+            }
+        }
+        buffer.put(b, off, len);
+    }
+
+    /** Hands buffered bytes to the OS (visible to readers, not forced to disk). */
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    FileChannel channel() {
+        return channel;
+    }
+
+    private void drain() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wait strategy of one notification consumer thread (shared pool or {@link SubscriberLane}) while
+ * its ring is empty, per {@link ConsumerMode}. Not thread-safe: one instance per consumer thread;
+ * the {@link Stats} may be shared.
+ * <p>
+ * {@link ConsumerMode#HYBRID} spins {@code spinIterations} times, then yields
+ * {@code yieldIterations} times, then parks for 1µs doubling up to {@code maxParkNanos}. Parked
+ * consumers are registered with the ring, so a publishing writer unparks them immediately.
+ */
+final class ConsumerIdler {
+    static final long MIN_PARK_NANOS = 1_000L;
+
+    private final ConsumerMode mode;
+    private final int spinIterations;
+    private final int yieldIterations;
+    private final long maxParkNanos;
+    private final Stats stats;
+
+    private long idleRounds;
+    private long idleSince;
+    private long parkNanos;
+
+    ConsumerIdler(ConsumerMode mode, int spinIterations, int yieldIterations, long maxParkNanos, Stats stats) {
+        this.mode = mode;
+        this.spinIterations = spinIterations;
+        this.yieldIterations = yieldIterations;
+        this.maxParkNanos = maxParkNanos;
+        this.stats = stats;
+    }
+
+    ConsumerMode mode() {
+        return mode;
+    }
+
+    /** Called after a poll found nothing; returns once the caller should poll again. */
+    void idle(LedgerRingBuffer<?> ring) throws InterruptedException {
+        if (idleRounds++ == 0) {
+            idleSince = System.nanoTime();
+        }
+        switch (mode) {
+            case BLOCK -> ring.awaitNotEmpty(0);
+            case HYBRID -> {
+                if (idleRounds <= spinIterations) {
+                    Thread.onSpinWait();
+                } else if (idleRounds <= (long) spinIterations + yieldIterations) {
+                    Thread.yield();
+                } else {
+                    parkNanos = parkNanos == 0 ? MIN_PARK_NANOS : Math.min(parkNanos * 2, maxParkNanos);
+                    long parkStart = System.nanoTime();
+                    stats.parks.increment();
+                    ring.parkConsumer(parkNanos);
+                    long signalled = ring.lastWakeSignalNanos();
+                    if (signalled != Long.MIN_VALUE && signalled - parkStart >= 0) {
+                        stats.recordWakeLatency(System.nanoTime() - signalled);
+                    }
+                }
+            }
+            default -> LockSupport.parkNanos(MIN_PARK_NANOS); // SPIN: 1µs busy-spin tradeoff for throughput
+        }
+    }
+
+    /** Called when a poll returned work; closes the current idle period. */
+    void onWork() {
+        if (idleRounds == 0) {
+            return;
+        }
+        if (mode == ConsumerMode.HYBRID) {
+            if (idleRounds <= spinIterations) {
+                stats.spinWakeups.increment();
+            } else if (idleRounds <= (long) spinIterations + yieldIterations) {
+                stats.yieldWakeups.increment();
+            } else {
+                stats.parkWakeups.increment();
+            }
+        }
+        stats.idlePeriods.increment();
+        stats.idleNanos.add(System.nanoTime() - idleSince);
+        idleRounds = 0;
+        parkNanos = 0;
+    }
+
+    /** Idle / wake-up counters for all consumers of one ledger, reported by {@code healthCheck()}. */
+    static final class Stats {
+        final LongAdder idlePeriods = new LongAdder();
+        final LongAdder idleNanos = new LongAdder();
+        final LongAdder spinWakeups = new LongAdder();
+        final LongAdder yieldWakeups = new LongAdder();
+        final LongAdder parkWakeups = new LongAdder();
+        final LongAdder parks = new LongAdder();
+        private final LongAdder wakeLatencyCount = new LongAdder();
+        private final LongAdder wakeLatencyNanos = new LongAdder();
+        private final AtomicLong maxWakeLatencyNanos = new AtomicLong();
+
+        void recordWakeLatency(long nanos) {
+            wakeLatencyCount.increment();
+            wakeLatencyNanos.add(nanos);
+            maxWakeLatencyNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        Map<String, Object> toMap(ConsumerMode mode) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("mode", mode.name());
+            m.put("idlePeriods", idlePeriods.sum());
+            m.put("idleNanos", idleNanos.sum());
+            m.put("spinWakeups", spinWakeups.sum());
+            m.put("yieldWakeups", yieldWakeups.sum());
+            m.put("parkWakeups", parkWakeups.sum());
+            m.put("parks", parks.sum());
+            long signalledWakeups = wakeLatencyCount.sum();
+            m.put("signalledWakeups", signalledWakeups);
+            m.put("avgWakeLatencyNanos", signalledWakeups == 0 ? 0 : wakeLatencyNanos.sum() / signalledWakeups);
+            m.put("maxWakeLatencyNanos", maxWakeLatencyNanos.get());
+            return m;
+        }
+    }
+}
@@ -6,8 +6,11 @@ package tech.rsqn.useful.things.ledger;
  * <ul>
  *   <li><b>SPIN</b> — {@code parkNanos(1µs)} busy-wait. Maximum throughput for backtest/replay
  *       where events arrive back-to-back with no real-time gaps.</li>
- *   <li><b>BLOCK</b> — {@code LinkedBlockingQueue.take()}. Zero idle CPU for live/paper
+ *   <li><b>BLOCK</b> — waits on the notification ring until a writer publishes. Zero idle CPU for live/paper
  *       where events arrive every few seconds.</li>
+ *   <li><b>HYBRID</b> — busy-spin, then yield, then park with exponential backoff (1µs doubling to a
+ *       cap); a publishing writer unparks the consumer at once. For live traffic that swings between
+ *       bursts and long gaps. Tuned via {@link AbstractLedger#setHybridBackoff(int, int, long)}.</li>
  * </ul>
  *
  * <p>Must be set via {@link AbstractLedger#setConsumerMode(ConsumerMode)} <b>before</b> the first
@@ -21,8 +24,14 @@ public enum ConsumerMode {
     SPIN,
 
     /**
-     * Blocking wait via LinkedBlockingQueue.take(). Zero CPU when idle, instant wake on offer().
+     * Blocking wait on the notification ring. Zero CPU when idle, woken when a record is published.
      * Ideal for live/paper trading where events are infrequent.
      */
-    BLOCK
+    BLOCK,
+
+    /**
+     * Spin, then yield, then park with exponential backoff; woken immediately by the writer.
+     * Idle and wake-latency statistics are reported under {@code consumerIdle} in {@code healthCheck()}.
+     */
+    HYBRID
 }
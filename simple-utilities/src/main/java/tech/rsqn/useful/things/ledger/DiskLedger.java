@@ -52,6 +52,9 @@ public class DiskLedger<T extends Record> extends AbstractLedger<T> {
             driver.write(record);
         } catch (IOException e) {
             LOG.log(Level.SEVERE, "Error writing to disk ledger", e);
+        } catch (RuntimeException e) {
+            skipNotification(sequenceId);
+            throw e;
         }
 
         incrementCachedSizeAfterLogicalWrite();
@@ -74,7 +77,12 @@ public class DiskLedger<T extends Record> extends AbstractLedger<T> {
 
     @Override
     public void read(long fromSequence, Predicate<T> filter, ReadCallback<T> callback) {
-        driver.read(fromSequence, record -> {
+        read(fromSequence, null, filter, callback);
+    }
+
+    @Override
+    public void read(long fromSequence, RawLineFilter rawFilter, Predicate<T> filter, ReadCallback<T> callback) {
+        driver.read(fromSequence, rawFilter, record -> {
             if (filter != null && !filter.test(record)) {
                 return true;
             }
@@ -1,19 +1,29 @@
 package tech.rsqn.useful.things.ledger;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import jakarta.annotation.PostConstruct;
 
 import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,7 +33,14 @@ import java.util.logging.Logger;
  * Supports optional streaming {@link LedgerCompression#ZSTD} compression. Default is
  * {@link LedgerCompression#NONE} (plain JSONL). When ZSTD is enabled, logical records remain
  * JSONL inside concatenated zstd frames; reverse read and {@link #count()} use a sidecar
- * {@code .idx} file. See package {@code ledger/README.md}.
+ * {@code .idx} file. Lines are produced by a {@link RecordCodec} (default
+ * {@link JsonlRecordCodec}). When bytes are forced to stable storage is set by a
+ * {@link DurabilityPolicy}. Record count and newest record are checkpointed in a
+ * {@link LedgerMetadata} sidecar so {@link #count()} and {@link #lastSequenceId()} do not depend on
+ * ledger size. ZSTD ledgers also keep a per-frame {@link ZstdFrameZoneMap} so
+ * {@link #readTimeRange} and {@link #readSequenceRange} skip frames outside the range, and decompress
+ * up to {@link #setReadParallelism readParallelism} frames concurrently on reads. See package
+ * {@code ledger/README.md}.
  *
  * @param <T> The type of record stored.
  */
@@ -32,14 +49,44 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
 
     /** Buffer size for {@link #count()} newline scanning (single-byte delimiters, JSONL lines). */
     private static final int COUNT_SCAN_BUFFER_SIZE = 32 * 1024;
+    private static final int ZONE_REBUILD_BATCH = 1024;
     static final int ZSTD_MAGIC = 0xFD2FB528;
     static final int DEFAULT_ZSTD_LEVEL = 3;
     static final int DEFAULT_ZSTD_FRAME_FLUSH_BYTES = 1_048_576;
+    static final int DEFAULT_SEQUENCE_INDEX_INTERVAL = 4096;
+    static final int DEFAULT_WRITE_BUFFER_BYTES = 256 * 1024;
+    /** Minimum time between {@code .meta} checkpoints written at flush points (close always writes). */
+    static final long METADATA_INTERVAL_NANOS = 1_000_000_000L;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    /** Default {@link #setReadParallelism readParallelism}: parallel frame reads are opt-in. */
+    public static final int DEFAULT_READ_PARALLELISM = 1;
+    /** Older frames {@link #readReverse} decompresses ahead, whatever the read parallelism. */
+    static final int MAX_REVERSE_READ_AHEAD = 2;
+    /** Worker threads shared by every driver's frame reads. */
+    static final int ZSTD_FRAME_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Shared daemon pool of at most {@link #ZSTD_FRAME_THREADS} threads that reads, decompresses
+     * and (forward reads) parses ZSTD frames; each read keeps at most {@link #readParallelism} of
+     * its frames in flight here, and frames of concurrent reads queue rather than add threads.
+     */
+    private static final ExecutorService ZSTD_FRAME_EXECUTOR = newFrameExecutor();
+
+    private static ExecutorService newFrameExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(ZSTD_FRAME_THREADS, ZSTD_FRAME_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "LedgerZstdFrame");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
     private final Path ledgerFile;
-    private final Gson gson;
     private final Object fileLock = new Object();
-    private BufferedWriter fileWriter;
+    private ChannelAppendWriter plainOutput;
     private FileOutputStream fileOutputStream;
     private OutputStream compressedOutput;
     private volatile boolean started = false;
@@ -50,6 +97,9 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
     private int flushIntervalWrites = 5000;
     private long flushIntervalNanos = 5_000_000_000L;
     private final LedgerRegistry ledgerRegistry;
+    private final JsonlRecordCodec jsonCodec;
+    private RecordCodec codec;
+    private BinaryRecordCodec binaryCodec;
 
     private LedgerCompression compression = LedgerCompression.NONE;
     private int zstdLevel = DEFAULT_ZSTD_LEVEL;
@@ -57,12 +107,55 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
     private ZstdLedgerIndex zstdIndex;
     private long currentFrameFileOffset;
     private long uncompressedBytesInFrame;
-    private final List<ZstdLedgerIndex.Entry> pendingIndexEntries = new ArrayList<>();
+    private final ZstdLedgerIndex.EntryBuffer pendingIndexEntries = new ZstdLedgerIndex.EntryBuffer();
+    private boolean frameZoneMaps = true;
+    private volatile int readParallelism = DEFAULT_READ_PARALLELISM;
+    private volatile ZstdFrameZoneMap zoneMap;
+    private volatile boolean zoneMapReady;
+    private final Object zoneMapLock = new Object();
+    /** Statistics of the frame being written; appended to {@link #zoneMap} when it ends. */
+    private final ZstdFrameZoneMap.Zone currentZone = new ZstdFrameZoneMap.Zone();
+
+    private int sequenceIndexInterval = DEFAULT_SEQUENCE_INDEX_INTERVAL;
+    private int writeBufferBytes = DEFAULT_WRITE_BUFFER_BYTES;
+    private volatile LedgerSequenceIndex sequenceIndex;
+    private volatile boolean sequenceIndexReady;
+    private final Object sequenceIndexLock = new Object();
+    private long plainAppendOffset;
+    /** Running id state behind {@link #sequenceIndex}; written under {@link #fileLock}. */
+    private SequenceSampler sequenceSampler;
+
+    /** Encodes under {@link #fileLock} into {@link #lineBuffer}; created by {@link #start()}. */
+    private RecordCodec.LineEncoder lineEncoder;
+    private final LineBuffer lineBuffer = new LineBuffer();
+    /** {@link #writeBatch}: start / end offset of each encoded line in {@link #lineBuffer}. */
+    private int[] lineBounds = new int[64];
+
+    /** Totals of every record written by this started driver, flushed or not. */
+    private long writtenCount;
+    private long writtenLastSequence = -1;
+    private Instant writtenLastTimestamp;
+    /** Totals as of the last flush point (what the file holds); set by {@link #start()}. */
+    private volatile LedgerMetadata metadata;
+    private LedgerMetadata persistedMetadata;
+    private long lastMetadataPersistNanos;
+
+    /** Null: {@link DurabilityPolicy#EVERY_FRAME} for ZSTD, {@link DurabilityPolicy#NONE} for plain. */
+    private DurabilityPolicy durabilityPolicy;
+    private long recordsSinceSync;
+    /** Registered with the {@link FsyncCoordinator} while started under a scheduled policy. */
+    private final Runnable syncTick = this::syncIfDueOnTick;
+    private long lastSyncNanos = System.nanoTime();
+    /** Plain: buffered bytes were flushed to the file since the last sync request. */
+    private boolean unsyncedFlush;
+    /** Bytes were written that no completed (waited-for) sync covers yet. */
+    private boolean unsynced;
 
     public DiskPersistenceDriver(Path ledgerFile, LedgerRegistry ledgerRegistry) {
         this.ledgerFile = ledgerFile;
         this.ledgerRegistry = ledgerRegistry;
-        this.gson = LedgerGson.create();
+        this.jsonCodec = new JsonlRecordCodec(ledgerRegistry);
+        this.codec = jsonCodec;
     }
 
     public void setAutoFlush(boolean autoFlush) {
@@ -137,10 +230,168 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
         }
     }
 
+    /**
+     * Sets the codec used to write records. Default {@link JsonlRecordCodec}. Reads always accept
+     * lines from the built-in codecs, so an existing JSONL ledger can be switched to
+     * {@link BinaryRecordCodec} in place. Must be called before {@link #start()}.
+     *
+     * @param codec record codec (not null)
+     * @throws IllegalArgumentException if codec is null
+     * @throws IllegalStateException if the driver has already been started
+     */
+    public void setCodec(RecordCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("codec must not be null");
+        }
+        synchronized (fileLock) {
+            if (started) {
+                throw new IllegalStateException("Cannot change codec after start()");
+            }
+            this.codec = codec;
+        }
+    }
+
+    public RecordCodec getCodec() {
+        return codec;
+    }
+
     public LedgerCompression getCompression() {
         return compression;
     }
 
+    /**
+     * Records between samples in the sparse {@code .seq} sidecar used to seek forward reads that
+     * start from a sequence id. Default {@value #DEFAULT_SEQUENCE_INDEX_INTERVAL}; {@code 0}
+     * disables the sidecar (every {@link #read} scans from the start of the file).
+     * <p>
+     * Seeking assumes sequence ids are written in increasing order, as assigned by
+     * {@link AbstractLedger}. The driver stops maintaining the sidecar if it sees otherwise.
+     *
+     * @param interval records per sample, or 0 to disable
+     * @throws IllegalArgumentException if interval is negative
+     * @throws IllegalStateException if the driver has already been started
+     */
+    public void setSequenceIndexInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("sequenceIndexInterval must be >= 0");
+        }
+        synchronized (fileLock) {
+            if (started) {
+                throw new IllegalStateException("Cannot change sequenceIndexInterval after start()");
+            }
+            this.sequenceIndexInterval = interval;
+        }
+    }
+
+    /**
+     * Whether ZSTD ledgers keep the {@code .zone} sidecar of per-frame sequence / timestamp bounds
+     * and record types used by {@link #readTimeRange} and {@link #readSequenceRange} to skip frames.
+     * Default true; when false those reads decompress every frame. Plain ledgers ignore it.
+     *
+     * @throws IllegalStateException if the driver has already been started
+     */
+    public void setFrameZoneMaps(boolean enabled) {
+        synchronized (fileLock) {
+            if (started) {
+                throw new IllegalStateException("Cannot change frameZoneMaps after start()");
+            }
+            this.frameZoneMaps = enabled;
+        }
+    }
+
+    /**
+     * ZSTD frames a read keeps in flight on a shared worker pool. {@link #read} has them
+     * decompressed and parsed concurrently and hands records to the callback in file order on the
+     * calling thread; {@link #readUnordered} runs the callback on the workers; {@link #readReverse}
+     * (and so {@link MemoryLedger} hydration) decompresses that many older frames ahead, at most
+     * {@link #MAX_REVERSE_READ_AHEAD}. Default {@link #DEFAULT_READ_PARALLELISM}: {@link #read}
+     * decompresses the ledger as one stream on the calling thread. Reads of every driver share
+     * {@link #ZSTD_FRAME_THREADS} workers, so higher values help a single large scan rather than
+     * many concurrent readers. Plain ledgers ignore it. May be changed at any time.
+     *
+     * @param parallelism frames in flight, at least 1
+     * @throws IllegalArgumentException if parallelism &lt; 1
+     */
+    public void setReadParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("readParallelism must be >= 1");
+        }
+        this.readParallelism = parallelism;
+    }
+
+    public int getReadParallelism() {
+        return readParallelism;
+    }
+
+    /**
+     * Size of the direct buffer plain ledgers append through. Default
+     * {@value #DEFAULT_WRITE_BUFFER_BYTES}. Buffered lines reach the file when the buffer fills or on
+     * the next flush (per write with auto-flush, else by {@link #setFlushIntervalWrites} /
+     * {@link #setFlushIntervalSeconds}); ZSTD ledgers ignore it. Must be called before {@link #start()}.
+     *
+     * @param bytes positive buffer size
+     * @throws IllegalArgumentException if bytes &lt;= 0
+     * @throws IllegalStateException if the driver has already been started
+     */
+    public void setWriteBufferBytes(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("writeBufferBytes must be > 0");
+        }
+        synchronized (fileLock) {
+            if (started) {
+                throw new IllegalStateException("Cannot change writeBufferBytes after start()");
+            }
+            this.writeBufferBytes = bytes;
+        }
+    }
+
+    public int getWriteBufferBytes() {
+        return writeBufferBytes;
+    }
+
+    /**
+     * Sets when written bytes are forced to stable storage. Default {@link DurabilityPolicy#NONE}
+     * for plain ledgers and {@link DurabilityPolicy#EVERY_FRAME} for ZSTD ledgers.
+     * Must be called before {@link #start()}.
+     *
+     * @param policy durability policy (not null)
+     * @throws IllegalArgumentException if policy is null
+     * @throws IllegalStateException if the driver has already been started
+     */
+    public void setDurabilityPolicy(DurabilityPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("durabilityPolicy must not be null");
+        }
+        synchronized (fileLock) {
+            if (started) {
+                throw new IllegalStateException("Cannot change durabilityPolicy after start()");
+            }
+            this.durabilityPolicy = policy;
+        }
+    }
+
+    /** The effective policy, including the compression-dependent default. */
+    public DurabilityPolicy getDurabilityPolicy() {
+        if (durabilityPolicy != null) {
+            return durabilityPolicy;
+        }
+        return compression == LedgerCompression.ZSTD ? DurabilityPolicy.EVERY_FRAME : DurabilityPolicy.NONE;
+    }
+
+    Path getLedgerFile() {
+        return ledgerFile;
+    }
+
+    /**
+     * Bytes this started driver has appended to its file so far: the file length for plain
+     * ledgers, the end of the last completed frame for ZSTD ledgers.
+     */
+    long appendedLength() {
+        synchronized (fileLock) {
+            return compression == LedgerCompression.ZSTD ? currentFrameFileOffset : plainAppendOffset;
+        }
+    }
+
     @PostConstruct
     public void init() {
         if (ledgerFile == null) {
@@ -167,11 +418,24 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
                 ZstdNativeSupport.ensureAvailable();
                 this.zstdIndex = new ZstdLedgerIndex(ledgerFile);
                 reconcileZstdIndexOnStart();
+                reconcileSequenceIndex(true);
+                reconcileZoneMap(true);
                 openZstdAppendWriter();
             } else {
-                this.fileWriter = new BufferedWriter(new FileWriter(ledgerFile.toFile(), true));
+                reconcileSequenceIndex(true);
+                this.plainOutput = new ChannelAppendWriter(ledgerFile, writeBufferBytes);
+                this.plainAppendOffset = Files.exists(ledgerFile) ? Files.size(ledgerFile) : 0;
             }
+            startMetadata();
+            this.lineEncoder = codec.newLineEncoder();
+            this.recordsSinceSync = 0;
+            this.lastSyncNanos = System.nanoTime();
+            this.unsyncedFlush = false;
+            this.unsynced = false;
             this.started = true;
+            if (getDurabilityPolicy().scheduled()) {
+                FsyncCoordinator.shared().register(syncTick);
+            }
         }
     }
 
@@ -180,6 +444,7 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
         this.currentFrameFileOffset = fileOutputStream.getChannel().position();
         this.uncompressedBytesInFrame = 0;
         this.pendingIndexEntries.clear();
+        this.currentZone.reset(currentFrameFileOffset);
         this.compressedOutput = ZstdNativeSupport.wrappingCompressor(fileOutputStream, zstdLevel);
         this.dirty = false;
         this.writeCountSinceFlush = 0;
@@ -198,15 +463,14 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
             return;
         }
         if (zstdIndex.size() == 0) {
-            List<ZstdLedgerIndex.Entry> rebuilt = rebuildIndexFromLedger();
-            zstdIndex.replaceAll(rebuilt);
+            zstdIndex.replaceAll(rebuildIndexFromLedger());
             return;
         }
         long fileSize = Files.size(ledgerFile);
-        ZstdLedgerIndex.Entry last = zstdIndex.get(zstdIndex.size() - 1);
+        long lastFrameOffset = zstdIndex.frameFileOffset(zstdIndex.size() - 1);
         ZstdNativeSupport.LocatedFrame lastFrame;
         try {
-            lastFrame = ZstdNativeSupport.readFrameAt(ledgerFile, last.frameFileOffset);
+            lastFrame = ZstdNativeSupport.readFrameAt(ledgerFile, lastFrameOffset);
             ZstdNativeSupport.decompressExactFrame(lastFrame.compressedBytes);
         } catch (IOException e) {
             throw new IOException("Corrupt or truncated zstd frame while verifying index for "
@@ -214,13 +478,13 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
         }
         long pos = lastFrame.nextFileOffset;
         if (pos > fileSize) {
-            throw new IOException("Truncated zstd frame at offset " + last.frameFileOffset
+            throw new IOException("Truncated zstd frame at offset " + lastFrameOffset
                     + " in " + ledgerFile);
         }
         if (pos == fileSize) {
             return;
         }
-        List<ZstdLedgerIndex.Entry> extra = new ArrayList<>();
+        ZstdLedgerIndex.EntryBuffer extra = new ZstdLedgerIndex.EntryBuffer();
         while (pos < fileSize) {
             ZstdNativeSupport.LocatedFrame frame;
             try {
@@ -240,8 +504,8 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
         }
     }
 
-    private List<ZstdLedgerIndex.Entry> rebuildIndexFromLedger() throws IOException {
-        List<ZstdLedgerIndex.Entry> rebuilt = new ArrayList<>();
+    private ZstdLedgerIndex.EntryBuffer rebuildIndexFromLedger() throws IOException {
+        ZstdLedgerIndex.EntryBuffer rebuilt = new ZstdLedgerIndex.EntryBuffer();
         long fileSize = Files.size(ledgerFile);
         long pos = 0;
         while (pos < fileSize) {
@@ -259,7 +523,7 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
         return rebuilt;
     }
 
-    private static void addLinesForFrame(List<ZstdLedgerIndex.Entry> out, long frameOffset, byte[] uncompressed) {
+    private static void addLinesForFrame(ZstdLedgerIndex.EntryBuffer out, long frameOffset, byte[] uncompressed) {
         long offset = 0;
         int i = 0;
         while (i < uncompressed.length) {
@@ -273,7 +537,7 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
             }
             int contentLen = (endedWithNl ? i - 1 : i) - start;
             if (contentLen > 0) {
-                out.add(new ZstdLedgerIndex.Entry(frameOffset, offset));
+                out.add(frameOffset, offset);
             }
             offset = i;
             if (!endedWithNl) {
@@ -284,17 +548,21 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
 
     @Override
     public void close() throws Exception {
+        FsyncCoordinator.shared().unregister(syncTick);
         flush();
         synchronized (fileLock) {
+            if (started) {
+                checkpointMetadata(true);
+            }
             if (compression == LedgerCompression.ZSTD) {
                 closeZstdWriter();
-            } else if (fileWriter != null) {
+            } else if (plainOutput != null) {
                 try {
-                    fileWriter.close();
+                    plainOutput.close();
                 } catch (IOException e) {
                     LOG.log(Level.WARNING, "Error closing ledger file writer", e);
                 }
-                fileWriter = null;
+                plainOutput = null;
             }
             this.started = false;
         }
@@ -314,7 +582,7 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
 
     @Override
     public void write(T record) throws IOException {
-        String json = gson.toJson(record);
+        FileChannel toSync = null;
 
         synchronized (fileLock) {
             if (!started) {
@@ -323,206 +591,1172 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
                             "Cannot write with LedgerCompression.ZSTD before start(); "
                                     + "refusing one-shot uncompressed append into a compressed ledger");
                 }
+                byte[] line = codec.encode(record);
                 if (ledgerFile.getParent() != null) {
                     Files.createDirectories(ledgerFile.getParent());
                 }
-                try (BufferedWriter writer = new BufferedWriter(new FileWriter(ledgerFile.toFile(), true))) {
-                    writer.write(json);
-                    writer.newLine();
+                try (OutputStream out = new FileOutputStream(ledgerFile.toFile(), true)) {
+                    out.write(line);
+                    out.write(LINE_SEPARATOR);
                 }
                 return;
             }
 
+            lineBuffer.reset();
+            lineEncoder.encode(record, lineBuffer);
             if (compression == LedgerCompression.ZSTD) {
-                writeZstdRecord(json);
-            } else if (fileWriter != null) {
-                fileWriter.write(json);
-                fileWriter.newLine();
+                appendZstdLine(record, lineBuffer.array(), 0, lineBuffer.size());
+                maybeEndZstdFrame();
+            } else if (plainOutput != null) {
+                sampleSequence(record, plainAppendOffset, true);
+                noteWritten(record);
+                lineBuffer.write(LINE_SEPARATOR);
+                plainOutput.write(lineBuffer.array(), 0, lineBuffer.size());
+                plainAppendOffset += lineBuffer.size();
                 dirty = true;
                 writeCountSinceFlush++;
+                recordsSinceSync++;
+                unsynced = true;
+                maybeFlushUnlocked();
+                toSync = takePlainSyncIfDue();
+            }
+        }
+        syncPlain(toSync);
+    }
+
+    /**
+     * Writes {@code records} as one group: all lines are encoded up front into the driver's reusable
+     * line buffer, plain ledgers append them with a single buffered write, and the flush / frame-end
+     * policy is applied once per group (so with auto-flush, one flush per batch rather than per
+     * record). Nothing is written if any record fails to encode.
+     */
+    @Override
+    public void writeBatch(List<T> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        int n = records.size();
+        FileChannel toSync = null;
+
+        synchronized (fileLock) {
+            if (!started) {
+                for (T record : records) {
+                    write(record);
+                }
+                return;
+            }
+
+            boolean zstd = compression == LedgerCompression.ZSTD;
+            if (lineBounds.length < 2 * n) {
+                lineBounds = new int[Math.max(2 * n, 2 * lineBounds.length)];
+            }
+            lineBuffer.reset();
+            for (int i = 0; i < n; i++) {
+                lineBounds[2 * i] = lineBuffer.size();
+                lineEncoder.encode(records.get(i), lineBuffer);
+                lineBounds[2 * i + 1] = lineBuffer.size();
+                if (!zstd) {
+                    lineBuffer.write(LINE_SEPARATOR);
+                }
+            }
+            byte[] buf = lineBuffer.array();
+
+            if (zstd) {
+                for (int i = 0; i < n; i++) {
+                    appendZstdLine(records.get(i), buf, lineBounds[2 * i], lineBounds[2 * i + 1] - lineBounds[2 * i]);
+                }
+                maybeEndZstdFrame();
+            } else if (plainOutput != null) {
+                for (int i = 0; i < n; i++) {
+                    sampleSequence(records.get(i), plainAppendOffset + lineBounds[2 * i], true);
+                    noteWritten(records.get(i));
+                }
+                int pos = lineBuffer.size();
+                plainOutput.write(buf, 0, pos);
+                plainAppendOffset += pos;
+                dirty = true;
+                writeCountSinceFlush += n;
+                recordsSinceSync += n;
+                unsynced = true;
                 maybeFlushUnlocked();
+                toSync = takePlainSyncIfDue();
+            }
+        }
+        syncPlain(toSync);
+    }
+
+    /**
+     * Plain ledgers: if the durability policy wants a sync after this write, flushes the buffer,
+     * resets the sync counters and returns the channel to sync once {@link #fileLock} is released
+     * (so writers to other ledgers, and this ledger's next write, are not held behind the fsync).
+     * Caller holds {@link #fileLock}.
+     */
+    private FileChannel takePlainSyncIfDue() throws IOException {
+        DurabilityPolicy policy = getDurabilityPolicy();
+        long now = System.nanoTime();
+        boolean due = policy.getMode() == DurabilityPolicy.Mode.EVERY_FRAME
+                ? unsyncedFlush
+                : policy.syncDue(recordsSinceSync, now - lastSyncNanos);
+        return due ? takePlainSync(policy, now) : null;
+    }
+
+    /** Flushes and resets the sync counters; returns the channel to sync. Caller holds {@link #fileLock}. */
+    private FileChannel takePlainSync(DurabilityPolicy policy, long now) throws IOException {
+        if (dirty) {
+            plainOutput.flush();
+            persistSequenceSamples();
+            checkpointMetadata(false);
+            dirty = false;
+            writeCountSinceFlush = 0;
+            lastFlushTime = now;
+        }
+        recordsSinceSync = 0;
+        lastSyncNanos = now;
+        unsyncedFlush = false;
+        if (policy.waits()) {
+            unsynced = false;
+        }
+        return plainOutput.channel();
+    }
+
+    /**
+     * {@link FsyncCoordinator} tick for INTERVAL and EVERY_N_RECORDS policies: syncs what was
+     * written since the last sync once it is due by time, so records are not left unsynced until
+     * the next write. Plain syncs are requested in the background; ZSTD ends the frame and syncs
+     * under {@link #fileLock}, as on a write.
+     */
+    private void syncIfDueOnTick() {
+        FileChannel toSync = null;
+        try {
+            synchronized (fileLock) {
+                if (!started) {
+                    return;
+                }
+                DurabilityPolicy policy = getDurabilityPolicy();
+                long now = System.nanoTime();
+                if (!policy.tickDue(recordsSinceSync, now - lastSyncNanos, flushIntervalNanos)) {
+                    return;
+                }
+                if (compression == LedgerCompression.ZSTD) {
+                    endFrameAndPersistIndex(true);
+                } else if (plainOutput != null) {
+                    toSync = takePlainSync(policy, now);
+                }
+            }
+            syncPlain(toSync);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Scheduled sync failed for " + ledgerFile, e);
+        }
+    }
+
+    /** Waits for, or requests in the background, a sync taken by {@link #takePlainSyncIfDue()}. */
+    private void syncPlain(FileChannel channel) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        if (getDurabilityPolicy().waits()) {
+            syncWaiting(channel);
+            return;
+        }
+        FsyncCoordinator.shared().requestSync(channel).whenComplete((v, e) -> {
+            if (e != null && !(e instanceof ClosedChannelException)) {
+                LOG.log(Level.WARNING, "Background fsync failed for " + ledgerFile, e);
             }
+        });
+    }
+
+    private void syncWaiting(FileChannel channel) throws IOException {
+        try {
+            FsyncCoordinator.shared().sync(channel);
+        } catch (IOException e) {
+            synchronized (fileLock) {
+                unsynced = true;
+            }
+            throw e;
         }
     }
 
-    private void writeZstdRecord(String json) throws IOException {
-        byte[] line = (json + "\n").getBytes(StandardCharsets.UTF_8);
-        pendingIndexEntries.add(new ZstdLedgerIndex.Entry(currentFrameFileOffset, uncompressedBytesInFrame));
-        compressedOutput.write(line);
-        uncompressedBytesInFrame += line.length;
+    private void appendZstdLine(T record, byte[] buf, int off, int len) throws IOException {
+        sampleSequence(record, currentFrameFileOffset, uncompressedBytesInFrame == 0);
+        pendingIndexEntries.add(currentFrameFileOffset, uncompressedBytesInFrame);
+        currentZone.add(record);
+        noteWritten(record);
+        compressedOutput.write(buf, off, len);
+        compressedOutput.write('\n');
+        uncompressedBytesInFrame += len + 1;
         dirty = true;
         writeCountSinceFlush++;
+        recordsSinceSync++;
+        unsynced = true;
+    }
 
+    /**
+     * Ends the frame when the flush policy or the durability policy asks for it. ZSTD syncs run under
+     * {@link #fileLock} so frame bytes are durable before the index entries pointing at them.
+     */
+    private void maybeEndZstdFrame() throws IOException {
+        DurabilityPolicy policy = getDurabilityPolicy();
+        long now = System.nanoTime();
+        if (policy.syncDue(recordsSinceSync, now - lastSyncNanos)) {
+            endFrameAndPersistIndex(true);
+            return;
+        }
+        boolean syncFrames = policy.getMode() == DurabilityPolicy.Mode.EVERY_FRAME;
         boolean sizeTrigger = uncompressedBytesInFrame >= zstdFrameFlushBytes;
         if (autoFlush || sizeTrigger) {
-            endFrameAndPersistIndex();
-        } else {
-            long now = System.nanoTime();
-            if (writeCountSinceFlush >= flushIntervalWrites || (now - lastFlushTime) >= flushIntervalNanos) {
-                endFrameAndPersistIndex();
-            }
+            endFrameAndPersistIndex(syncFrames);
+        } else if (writeCountSinceFlush >= flushIntervalWrites || (now - lastFlushTime) >= flushIntervalNanos) {
+            endFrameAndPersistIndex(syncFrames);
         }
     }
 
     private void maybeFlushUnlocked() throws IOException {
         if (autoFlush) {
-            fileWriter.flush();
+            plainOutput.flush();
+            persistSequenceSamples();
+            checkpointMetadata(false);
             dirty = false;
             writeCountSinceFlush = 0;
+            unsyncedFlush = true;
         } else {
             long now = System.nanoTime();
             if (writeCountSinceFlush >= flushIntervalWrites || (now - lastFlushTime) >= flushIntervalNanos) {
-                fileWriter.flush();
+                plainOutput.flush();
+                persistSequenceSamples();
+                checkpointMetadata(false);
                 dirty = false;
                 writeCountSinceFlush = 0;
                 lastFlushTime = now;
+                unsyncedFlush = true;
             }
         }
     }
 
+    /** Adds {@code record} to the written totals. Caller holds {@link #fileLock}. */
+    private void noteWritten(T record) {
+        writtenCount++;
+        Long seq = record.getSequenceId();
+        if (seq != null) {
+            writtenLastSequence = seq;
+        }
+        if (record.getTimestamp() != null) {
+            writtenLastTimestamp = record.getTimestamp();
+        }
+    }
+
     /**
-     * Ends the current zstd frame, flushes the file, and persists pending index entries.
-     * Starts the next frame at the new file position.
+     * Flush point: publishes the written totals as {@link #metadata} (everything written is now in
+     * the file) and persists them when {@code force} or {@link #METADATA_INTERVAL_NANOS} has passed
+     * since the last checkpoint. Caller holds {@link #fileLock}.
      */
-    private void endFrameAndPersistIndex() throws IOException {
-        if (compressedOutput == null) {
-            return;
+    private void checkpointMetadata(boolean force) {
+        long length = compression == LedgerCompression.ZSTD ? currentFrameFileOffset : plainAppendOffset;
+        LedgerMetadata m = metadata;
+        if (m == null || m.fileLength != length) {
+            m = new LedgerMetadata(length, writtenCount, writtenLastSequence, writtenLastTimestamp);
+            metadata = m;
         }
-        compressedOutput.flush();
-        fileOutputStream.flush();
-        fileOutputStream.getFD().sync();
-        if (!pendingIndexEntries.isEmpty()) {
-            zstdIndex.appendEntries(new ArrayList<>(pendingIndexEntries));
-            pendingIndexEntries.clear();
+        long now = System.nanoTime();
+        if (m != persistedMetadata && (force || now - lastMetadataPersistNanos >= METADATA_INTERVAL_NANOS)) {
+            try {
+                m.persist(ledgerFile);
+                persistedMetadata = m;
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Error writing ledger metadata for " + ledgerFile, e);
+            }
+            lastMetadataPersistNanos = now;
         }
-        currentFrameFileOffset = fileOutputStream.getChannel().position();
-        uncompressedBytesInFrame = 0;
-        dirty = false;
-        writeCountSinceFlush = 0;
-        lastFlushTime = System.nanoTime();
     }
 
-    @Override
-    public void read(long fromSequence, ReadCallback<T> callback) {
-        if (!Files.exists(ledgerFile)) {
+    /**
+     * Queues a sparse sequence sample for {@code record} at {@code fileOffset} once
+     * {@link #sequenceIndexInterval} records have passed, {@code sampleable} (plain: every line
+     * start; ZSTD: frame start only) and its id is greater than every id written before it.
+     * Caller holds {@link #fileLock}.
+     */
+    private void sampleSequence(T record, long fileOffset, boolean sampleable) {
+        LedgerSequenceIndex idx = sequenceIndex;
+        if (idx == null) {
+            return;
+        }
+        Long seq = record.getSequenceId();
+        if (seq == null) {
+            disableSequenceIndex("a record has no sequence id");
             return;
         }
+        SequenceSampler sampler = sequenceSampler;
+        boolean wasOrdered = sampler.ordered;
+        if (sampler.next(seq, sampleable ? fileOffset : -1)) {
+            idx.addPending(seq, fileOffset);
+        }
+        if (wasOrdered && !sampler.ordered) {
+            idx.markUnordered();
+        }
+    }
 
+    /** Persists queued samples; the ledger bytes they point at must already be flushed. */
+    private void persistSequenceSamples() {
+        LedgerSequenceIndex idx = sequenceIndex;
+        if (idx == null || !idx.hasPending()) {
+            return;
+        }
         try {
-            if (shouldReadAsZstd()) {
-                readZstdForward(fromSequence, callback);
-            } else {
-                try (BufferedReader reader = new BufferedReader(new FileReader(ledgerFile.toFile()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        if (!dispatchParsed(line, fromSequence, callback)) {
-                            break;
-                        }
-                    }
-                }
-            }
+            idx.persistPending();
         } catch (IOException e) {
-            if (compression == LedgerCompression.ZSTD || fileHasZstdMagicQuiet()) {
-                throw new UncheckedIOException("Error reading from ledger " + ledgerFile, e);
-            }
-            LOG.log(Level.SEVERE, "Error reading from ledger", e);
+            LOG.log(Level.WARNING, "Error writing ledger sequence index " + idx.getIndexPath(), e);
+            disableSequenceIndex("sidecar write failed");
         }
     }
 
-    private boolean fileHasZstdMagicQuiet() {
+    private void disableSequenceIndex(String reason) {
+        LedgerSequenceIndex idx = sequenceIndex;
+        sequenceIndex = null;
+        if (idx == null) {
+            return;
+        }
+        LOG.log(Level.INFO, "Disabling sequence index for {0}: {1}", new Object[]{ledgerFile, reason});
         try {
-            return fileStartsWithZstdMagic(ledgerFile);
+            idx.delete();
         } catch (IOException e) {
-            return false;
+            LOG.log(Level.WARNING, "Error deleting ledger sequence index " + idx.getIndexPath(), e);
         }
     }
 
-    private void readZstdForward(long fromSequence, ReadCallback<T> callback) throws IOException {
-        try (InputStream fin = Files.newInputStream(ledgerFile);
-             InputStream zin = ZstdNativeSupport.wrappingDecompressor(fin);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(zin, StandardCharsets.UTF_8))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (!dispatchParsed(line, fromSequence, callback)) {
-                    break;
+    /**
+     * @return the sequence index for seeking reads, reconciling it on first use; null when disabled
+     */
+    private LedgerSequenceIndex sequenceIndexForRead() {
+        if (sequenceIndexInterval <= 0) {
+            return null;
+        }
+        if (!sequenceIndexReady) {
+            synchronized (sequenceIndexLock) {
+                if (!sequenceIndexReady) {
+                    try {
+                        reconcileSequenceIndex(false);
+                    } catch (IOException e) {
+                        LOG.log(Level.WARNING, "Ignoring unreadable ledger sequence index for " + ledgerFile, e);
+                        sequenceIndex = null;
+                        sequenceIndexReady = true;
+                    }
                 }
             }
         }
+        return sequenceIndex;
     }
 
-    private boolean dispatchParsed(String line, long fromSequence, ReadCallback<T> callback) {
-        T record = parseRecord(line);
-        if (record == null) {
-            return true;
+    /**
+     * Loads the {@code .seq} sidecar, drops samples past the end of the ledger, checks that the
+     * newest sample still points at a record with its sequence id and parses the records from there
+     * to the end to pick up the running maximum id and any disorder. A missing or stale sidecar is
+     * rebuilt when {@code writable} (the started writer); read-only instances fall back to full scans.
+     */
+    private void reconcileSequenceIndex(boolean writable) throws IOException {
+        synchronized (sequenceIndexLock) {
+            sequenceIndex = null;
+            sequenceIndexReady = true;
+            if (sequenceIndexInterval <= 0) {
+                return;
+            }
+            SequenceSampler sampler = new SequenceSampler(sequenceIndexInterval);
+            LedgerSequenceIndex idx = new LedgerSequenceIndex(ledgerFile);
+            long fileSize = Files.exists(ledgerFile) ? Files.size(ledgerFile) : 0;
+            boolean valid;
+            try {
+                valid = idx.load();
+                if (valid && writable) {
+                    idx.dropEntriesAtOrBeyond(fileSize);
+                }
+                valid = valid && idx.isMonotonic() && lastSampleMatchesLedger(idx, fileSize);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Discarding unreadable ledger sequence index " + idx.getIndexPath(), e);
+                valid = false;
+            }
+            boolean covered;
+            if (valid) {
+                int n = idx.size();
+                covered = fileSize == 0 || scanSequences(n == 0 ? 0 : idx.offsetAt(n - 1), sampler);
+                if (!sampler.ordered) {
+                    idx.markUnordered();
+                }
+            } else {
+                if (!writable) {
+                    return;
+                }
+                if (fileSize > 0) {
+                    covered = rebuildSequenceIndex(idx, sampler);
+                } else {
+                    idx.delete();
+                    covered = true;
+                }
+            }
+            if (!covered) {
+                LOG.log(Level.INFO, "Ledger {0} has records without a sequence id; sequence index disabled", ledgerFile);
+                if (writable) {
+                    idx.delete();
+                }
+                return;
+            }
+            sequenceSampler = sampler;
+            sequenceIndex = idx;
         }
-        if (fromSequence != -1 && record.getSequenceId() != null && record.getSequenceId() <= fromSequence) {
+    }
+
+    private boolean lastSampleMatchesLedger(LedgerSequenceIndex idx, long fileSize) throws IOException {
+        int n = idx.size();
+        if (n == 0) {
             return true;
         }
-        return callback.onRecord(record);
+        long offset = idx.offsetAt(n - 1);
+        if (offset >= fileSize) {
+            return false;
+        }
+        Long seq = sequenceIdAtOffset(offset);
+        return seq != null && seq == idx.sequenceAt(n - 1);
     }
 
-    private boolean shouldReadAsZstd() throws IOException {
+    /** Sequence id of the first record at a line start (plain) or frame start (ZSTD). */
+    private Long sequenceIdAtOffset(long offset) throws IOException {
         if (compression == LedgerCompression.ZSTD) {
-            return Files.size(ledgerFile) > 0;
+            Long[] first = {null};
+            forEachRecord(readAndDecompressFrame(offset), r -> {
+                first[0] = r.getSequenceId();
+                return false;
+            });
+            return first[0];
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(ledgerFile.toFile(), "r")) {
+            raf.seek(offset);
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            byte[] buf = new byte[4096];
+            int n;
+            outer:
+            while ((n = raf.read(buf)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] == '\n') {
+                        line.write(buf, 0, i);
+                        break outer;
+                    }
+                }
+                line.write(buf, 0, n);
+            }
+            T record = parseLine(line.toByteArray(), 0, line.size());
+            return record == null ? null : record.getSequenceId();
         }
-        return fileStartsWithZstdMagic(ledgerFile);
     }
 
-    static boolean fileStartsWithZstdMagic(Path file) throws IOException {
-        if (!Files.exists(file) || Files.size(file) < 4) {
+    /**
+     * Rebuilds the sidecar from a parse of every record, so samples and the ordered flag hold for
+     * ids written out of order by concurrent producers.
+     *
+     * @return false if a record has no sequence id
+     */
+    private boolean rebuildSequenceIndex(LedgerSequenceIndex idx, SequenceSampler sampler) throws IOException {
+        sampler.collectSamples();
+        if (!scanSequences(0, sampler)) {
             return false;
         }
-        try (InputStream in = Files.newInputStream(file)) {
-            byte[] m = in.readNBytes(4);
-            if (m.length < 4) {
+        idx.replaceAll(sampler.samples, sampler.sampleCount, sampler.ordered);
+        LOG.log(Level.INFO, "Rebuilt sequence index for {0} with {1} samples",
+                new Object[]{ledgerFile, sampler.sampleCount});
+        return true;
+    }
+
+    /**
+     * Feeds the id of every record from {@code offset} (a line or frame start) to the end of the
+     * ledger to {@code sampler}.
+     *
+     * @return false if a record has no sequence id
+     */
+    private boolean scanSequences(long offset, SequenceSampler sampler) throws IOException {
+        if (compression == LedgerCompression.ZSTD) {
+            boolean[] covered = {true};
+            long end = zstdReadEnd();
+            long pos = offset;
+            while (pos < end) {
+                ZstdNativeSupport.LocatedFrame frame = ZstdNativeSupport.readFrameAt(ledgerFile, pos);
+                long[] frameStart = {pos};
+                forEachRecord(ZstdNativeSupport.decompressExactFrame(frame.compressedBytes), r -> {
+                    Long seq = r.getSequenceId();
+                    if (seq == null) {
+                        covered[0] = false;
+                        return false;
+                    }
+                    sampler.next(seq, frameStart[0]);
+                    frameStart[0] = -1;
+                    return true;
+                });
+                if (!covered[0]) {
+                    return false;
+                }
+                pos = frame.nextFileOffset;
+            }
+            return true;
+        }
+        FileInputStream in = new FileInputStream(ledgerFile.toFile());
+        try (LedgerLineReader reader = new LedgerLineReader(in)) {
+            in.getChannel().position(offset);
+            long lineOffset = offset;
+            while (reader.next()) {
+                long at = lineOffset;
+                lineOffset += reader.lineLength() + 1;
+                T record = parseLine(reader.buffer(), reader.lineStart(), reader.lineLength());
+                if (record == null) {
+                    continue;
+                }
+                if (record.getSequenceId() == null) {
+                    return false;
+                }
+                sampler.next(record.getSequenceId(), at);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Picks sequence-index samples as records are written or scanned. A record is sampled only when
+     * its id is greater than every id before it, so seeking to a sample never skips a lower id even
+     * when concurrent producers append ids slightly out of order.
+     */
+    private static final class SequenceSampler {
+        private final int interval;
+        private long max = Long.MIN_VALUE;
+        private boolean ordered = true;
+        private int sinceSample;
+        private long[] samples;
+        private int sampleCount;
+
+        SequenceSampler(int interval) {
+            this.interval = interval;
+            this.sinceSample = interval;
+        }
+
+        /** Keeps chosen samples in {@link #samples} (packed sequenceId, fileOffset pairs). */
+        void collectSamples() {
+            samples = new long[32];
+        }
+
+        /**
+         * @param sampleOffset offset of the record if a read may start there, or -1
+         * @return true if the record should be sampled at {@code sampleOffset}
+         */
+        boolean next(long sequenceId, long sampleOffset) {
+            sinceSample++;
+            if (sequenceId <= max) {
+                ordered = false;
                 return false;
             }
-            int magic = (m[0] & 0xff) | ((m[1] & 0xff) << 8) | ((m[2] & 0xff) << 16) | ((m[3] & 0xff) << 24);
-            return magic == ZSTD_MAGIC;
+            max = sequenceId;
+            if (sampleOffset < 0 || sinceSample < interval) {
+                return false;
+            }
+            sinceSample = 0;
+            if (samples != null) {
+                if (samples.length < (sampleCount + 1) * 2) {
+                    samples = Arrays.copyOf(samples, samples.length * 2);
+                }
+                samples[sampleCount * 2] = sequenceId;
+                samples[sampleCount * 2 + 1] = sampleOffset;
+                sampleCount++;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Ends the current zstd frame, flushes the file, and persists pending index entries.
+     * Starts the next frame at the new file position.
+     *
+     * @param sync whether to fsync the ledger (and then the index) before returning
+     */
+    private void endFrameAndPersistIndex(boolean sync) throws IOException {
+        if (compressedOutput == null) {
+            return;
+        }
+        compressedOutput.flush();
+        fileOutputStream.flush();
+        if (sync) {
+            syncZstdUnderLock();
+        }
+        if (!pendingIndexEntries.isEmpty()) {
+            zstdIndex.appendEntries(pendingIndexEntries, sync);
+            pendingIndexEntries.clear();
+        }
+        persistSequenceSamples();
+        long frameEnd = fileOutputStream.getChannel().position();
+        persistZone(frameEnd, sync);
+        currentFrameFileOffset = frameEnd;
+        uncompressedBytesInFrame = 0;
+        dirty = false;
+        writeCountSinceFlush = 0;
+        lastFlushTime = System.nanoTime();
+        checkpointMetadata(false);
+    }
+
+    /** Caller holds {@link #fileLock}. */
+    private void syncZstdUnderLock() throws IOException {
+        FsyncCoordinator.shared().sync(fileOutputStream.getChannel());
+        recordsSinceSync = 0;
+        lastSyncNanos = System.nanoTime();
+        unsynced = false;
+    }
+
+    /**
+     * Appends the zone of the frame that ends at {@code frameEnd} (already flushed) and starts the
+     * next one. Caller holds {@link #fileLock}.
+     */
+    private void persistZone(long frameEnd, boolean sync) {
+        ZstdFrameZoneMap map = zoneMap;
+        if (map != null && !currentZone.isEmpty()) {
+            currentZone.frameEnd = frameEnd;
+            try {
+                map.append(List.of(currentZone), sync);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Error writing zone map " + map.getZonePath(), e);
+                disableZoneMap("sidecar write failed");
+            }
+        }
+        currentZone.reset(frameEnd);
+    }
+
+    private void disableZoneMap(String reason) {
+        ZstdFrameZoneMap map = zoneMap;
+        zoneMap = null;
+        if (map == null) {
+            return;
+        }
+        LOG.log(Level.INFO, "Disabling zone map for {0}: {1}", new Object[]{ledgerFile, reason});
+        try {
+            map.delete();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error deleting zone map " + map.getZonePath(), e);
+        }
+    }
+
+    /** @return the zone map for range reads, reconciling it on first use; null when disabled */
+    private ZstdFrameZoneMap zoneMapForRead() {
+        if (!frameZoneMaps) {
+            return null;
+        }
+        if (!zoneMapReady) {
+            synchronized (zoneMapLock) {
+                if (!zoneMapReady) {
+                    try {
+                        reconcileZoneMap(false);
+                    } catch (IOException e) {
+                        LOG.log(Level.WARNING, "Ignoring unreadable zone map for " + ledgerFile, e);
+                        zoneMap = null;
+                        zoneMapReady = true;
+                    }
+                }
+            }
         }
+        return zoneMap;
+    }
+
+    /**
+     * Loads the {@code .zone} sidecar and checks that its newest entry still describes the frame
+     * at that offset. When {@code writable} (the started writer) a missing or stale sidecar is
+     * rebuilt and frames written after its last entry are added; read-only instances use whatever
+     * prefix is valid and decompress the frames after it.
+     */
+    private void reconcileZoneMap(boolean writable) throws IOException {
+        synchronized (zoneMapLock) {
+            zoneMap = null;
+            zoneMapReady = true;
+            if (!frameZoneMaps) {
+                return;
+            }
+            ZstdFrameZoneMap map = new ZstdFrameZoneMap(ledgerFile);
+            long fileSize = Files.exists(ledgerFile) ? Files.size(ledgerFile) : 0;
+            boolean valid;
+            try {
+                map.load();
+                if (writable) {
+                    map.dropEntriesBeyond(fileSize);
+                }
+                valid = map.isMonotonic() && map.lastFrameEnd() <= fileSize && lastZoneMatchesLedger(map);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Discarding unreadable zone map " + map.getZonePath(), e);
+                valid = false;
+            }
+            if (!valid) {
+                if (!writable) {
+                    return;
+                }
+                map.delete();
+            }
+            if (writable && map.lastFrameEnd() < fileSize) {
+                extendZoneMap(map, fileSize);
+            }
+            zoneMap = map;
+        }
+    }
+
+    private boolean lastZoneMatchesLedger(ZstdFrameZoneMap map) throws IOException {
+        int n = map.size();
+        return n == 0 || map.matches(n - 1, zoneOfFrame(ZstdNativeSupport.readFrameAt(ledgerFile, map.frameOffset(n - 1))));
+    }
+
+    /** Adds zones for the frames between the last mapped frame and {@code fileSize}. */
+    private void extendZoneMap(ZstdFrameZoneMap map, long fileSize) throws IOException {
+        List<ZstdFrameZoneMap.Zone> batch = new ArrayList<>();
+        int added = 0;
+        long pos = map.lastFrameEnd();
+        while (pos < fileSize) {
+            ZstdFrameZoneMap.Zone zone = zoneOfFrame(ZstdNativeSupport.readFrameAt(ledgerFile, pos));
+            if (!zone.isEmpty()) {
+                batch.add(zone);
+            }
+            if (batch.size() == ZONE_REBUILD_BATCH) {
+                map.append(batch, false);
+                added += batch.size();
+                batch.clear();
+            }
+            pos = zone.frameEnd;
+        }
+        map.append(batch, false);
+        added += batch.size();
+        LOG.log(Level.INFO, "Added {0} frames to zone map for {1}", new Object[]{added, ledgerFile});
+    }
+
+    private ZstdFrameZoneMap.Zone zoneOfFrame(ZstdNativeSupport.LocatedFrame frame) throws IOException {
+        ZstdFrameZoneMap.Zone zone = new ZstdFrameZoneMap.Zone();
+        zone.reset(frame.fileOffset);
+        forEachRecord(ZstdNativeSupport.decompressExactFrame(frame.compressedBytes), r -> {
+            zone.add(r);
+            return true;
+        });
+        zone.frameEnd = frame.nextFileOffset;
+        return zone;
     }
 
     @Override
-    public void readReverse(long fromSequence, ReadCallback<T> callback) {
+    public void read(long fromSequence, ReadCallback<T> callback) {
+        read(fromSequence, null, callback);
+    }
+
+    /**
+     * Forward read over byte-split lines; JSONL lines rejected by {@code rawFilter} are skipped
+     * before decoding. Lines of other codecs are always decoded.
+     */
+    @Override
+    public void read(long fromSequence, RawLineFilter rawFilter, ReadCallback<T> callback) {
         if (!Files.exists(ledgerFile)) {
             return;
         }
 
         try {
             if (shouldReadAsZstd()) {
-                readZstdReverse(fromSequence, callback);
+                if (readParallelism > 1) {
+                    readZstdParallel(fromSequence, rawFilter, callback);
+                } else {
+                    readZstdForward(fromSequence, rawFilter, callback);
+                }
             } else {
-                ReverseFileIterator iterator = new ReverseFileIterator(ledgerFile);
-                while (iterator.hasNext()) {
-                    T record = iterator.next();
-                    if (fromSequence != -1 && record.getSequenceId() != null && record.getSequenceId() >= fromSequence) {
-                        continue;
-                    }
+                try (LedgerLineReader reader = new LedgerLineReader(openAtSequence(fromSequence))) {
+                    dispatchLines(reader, fromSequence, rawFilter, callback);
+                }
+            }
+        } catch (IOException e) {
+            if (compression == LedgerCompression.ZSTD || fileHasZstdMagicQuiet()) {
+                throw new UncheckedIOException("Error reading from ledger " + ledgerFile, e);
+            }
+            LOG.log(Level.SEVERE, "Error reading from ledger", e);
+        }
+    }
+
+    private boolean fileHasZstdMagicQuiet() {
+        try {
+            return fileStartsWithZstdMagic(ledgerFile);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens the ledger positioned at the newest sparse-index sample at or before
+     * {@code fromSequence} (a line or frame start), or at byte 0 when there is none.
+     */
+    private FileInputStream openAtSequence(long fromSequence) throws IOException {
+        FileInputStream in = new FileInputStream(ledgerFile.toFile());
+        if (fromSequence != -1) {
+            LedgerSequenceIndex idx = sequenceIndexForRead();
+            long offset = idx == null ? -1 : idx.floorOffset(fromSequence);
+            if (offset > 0) {
+                in.getChannel().position(offset);
+            }
+        }
+        return in;
+    }
+
+    /**
+     * Forward read that may run {@code callback} concurrently on up to {@link #readParallelism}
+     * frame workers, for aggregations that do not need order: records of one ZSTD frame arrive in
+     * order, frames in any order. The callback must be thread-safe; once it returns false no
+     * further records are delivered. Returns after every delivered record has been handled. Plain
+     * ledgers are read in order on the calling thread. The callback runs on the shared workers, so
+     * it must not wait on another parallel read.
+     */
+    public void readUnordered(long fromSequence, RawLineFilter rawFilter, ReadCallback<T> callback) {
+        if (!Files.exists(ledgerFile)) {
+            return;
+        }
+        try {
+            if (!shouldReadAsZstd()) {
+                read(fromSequence, rawFilter, callback);
+                return;
+            }
+            readZstdUnordered(fromSequence, rawFilter, callback);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading from ledger " + ledgerFile, e);
+        }
+    }
+
+    /**
+     * Locates frames on the calling thread and has up to {@link #readParallelism} of them
+     * decompressed and parsed on {@link #ZSTD_FRAME_EXECUTOR}; records are handed to the callback
+     * in file order, so at most that many parsed frames are held at once.
+     */
+    private void readZstdParallel(long fromSequence, RawLineFilter rawFilter, ReadCallback<T> callback) throws IOException {
+        int parallelism = readParallelism;
+        long pos = frameStartForSequence(fromSequence);
+        long end = zstdReadEnd();
+        ArrayDeque<Future<List<T>>> inFlight = new ArrayDeque<>(parallelism);
+        try {
+            while (true) {
+                while (pos < end && inFlight.size() < parallelism) {
+                    ZstdNativeSupport.LocatedFrame frame = ZstdNativeSupport.readFrameAt(ledgerFile, pos);
+                    inFlight.add(ZSTD_FRAME_EXECUTOR.submit(() -> parseFrame(frame, fromSequence, rawFilter)));
+                    pos = frame.nextFileOffset;
+                }
+                Future<List<T>> next = inFlight.poll();
+                if (next == null) {
+                    return;
+                }
+                for (T record : awaitFrame(next)) {
                     if (!callback.onRecord(record)) {
-                        break;
+                        return;
                     }
                 }
             }
+        } finally {
+            for (Future<List<T>> f : inFlight) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    private void readZstdUnordered(long fromSequence, RawLineFilter rawFilter, ReadCallback<T> callback) throws IOException {
+        int parallelism = readParallelism;
+        long pos = frameStartForSequence(fromSequence);
+        long end = zstdReadEnd();
+        Semaphore slots = new Semaphore(parallelism);
+        AtomicBoolean stopped = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ReadCallback<T> guarded = r -> {
+            if (stopped.get() || !callback.onRecord(r)) {
+                stopped.set(true);
+                return false;
+            }
+            return true;
+        };
+        try {
+            while (pos < end && !stopped.get()) {
+                slots.acquire();
+                ZstdNativeSupport.LocatedFrame frame;
+                try {
+                    frame = ZstdNativeSupport.readFrameAt(ledgerFile, pos);
+                } catch (IOException e) {
+                    slots.release();
+                    throw e;
+                }
+                ZSTD_FRAME_EXECUTOR.execute(() -> {
+                    try {
+                        forEachRecord(ZstdNativeSupport.decompressExactFrame(frame.compressedBytes), fromSequence, rawFilter, guarded);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                        stopped.set(true);
+                    } finally {
+                        slots.release();
+                    }
+                });
+                pos = frame.nextFileOffset;
+            }
+        } catch (InterruptedException e) {
+            stopped.set(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading " + ledgerFile);
+        } finally {
+            slots.acquireUninterruptibly(parallelism);
+        }
+        Throwable t = failure.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new IOException("zstd frame read failed", t);
+        }
+    }
+
+    /** Newest sequence-index frame start at or before {@code fromSequence}, or 0. */
+    private long frameStartForSequence(long fromSequence) {
+        if (fromSequence == -1) {
+            return 0;
+        }
+        LedgerSequenceIndex idx = sequenceIndexForRead();
+        return idx == null ? 0 : Math.max(0, idx.floorOffset(fromSequence));
+    }
+
+    /** End of the last complete frame: what this writer has ended, or the file length when not started. */
+    private long zstdReadEnd() throws IOException {
+        return started && compression == LedgerCompression.ZSTD ? appendedLength() : Files.size(ledgerFile);
+    }
+
+    private List<T> parseFrame(ZstdNativeSupport.LocatedFrame frame, long fromSequence, RawLineFilter rawFilter) throws IOException {
+        List<T> records = new ArrayList<>();
+        forEachRecord(ZstdNativeSupport.decompressExactFrame(frame.compressedBytes), fromSequence, rawFilter, records::add);
+        return records;
+    }
+
+    private static <V> V awaitFrame(Future<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for zstd frame");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("zstd frame read failed", e.getCause());
+        }
+    }
+
+    private void readZstdForward(long fromSequence, RawLineFilter rawFilter, ReadCallback<T> callback) throws IOException {
+        try (InputStream fin = openAtSequence(fromSequence);
+             LedgerLineReader reader = new LedgerLineReader(ZstdNativeSupport.wrappingDecompressor(fin))) {
+            dispatchLines(reader, fromSequence, rawFilter, callback);
+        }
+    }
+
+    private void dispatchLines(LedgerLineReader reader, long fromSequence, RawLineFilter rawFilter,
+                               ReadCallback<T> callback) throws IOException {
+        while (reader.next()) {
+            byte[] buf = reader.buffer();
+            int start = reader.lineStart();
+            int length = reader.lineLength();
+            if (rawFilter != null && jsonCodec.canDecode(buf, start, length) && !rawFilter.test(buf, start, length)) {
+                continue;
+            }
+            T record = parseLine(buf, start, length);
+            if (record == null) {
+                continue;
+            }
+            if (fromSequence != -1 && record.getSequenceId() != null && record.getSequenceId() <= fromSequence) {
+                continue;
+            }
+            if (!callback.onRecord(record)) {
+                return;
+            }
+        }
+    }
+
+    private boolean shouldReadAsZstd() throws IOException {
+        if (compression == LedgerCompression.ZSTD) {
+            return Files.size(ledgerFile) > 0;
+        }
+        return fileStartsWithZstdMagic(ledgerFile);
+    }
+
+    static boolean fileStartsWithZstdMagic(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < 4) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] m = in.readNBytes(4);
+            if (m.length < 4) {
+                return false;
+            }
+            int magic = (m[0] & 0xff) | ((m[1] & 0xff) << 8) | ((m[2] & 0xff) << 16) | ((m[3] & 0xff) << 24);
+            return magic == ZSTD_MAGIC;
+        }
+    }
+
+    /**
+     * Reads records with timestamps in {@code [fromInclusive, toExclusive)}, oldest first. Either
+     * bound may be null (open). Records without a timestamp are included. On ZSTD ledgers, frames
+     * whose zone map shows no timestamp in range are skipped without being read or decompressed.
+     * Timestamps are not required to increase along the file, so plain ledgers (and ZSTD frames
+     * written after the last zone map entry) are scanned to the end rather than stopping at
+     * {@code toExclusive}.
+     */
+    public void readTimeRange(Instant fromInclusive, Instant toExclusive, ReadCallback<T> callback) {
+        readTimeRange(fromInclusive, toExclusive, null, callback);
+    }
+
+    /**
+     * {@link #readTimeRange(Instant, Instant, ReadCallback)} limited to records of {@code type}
+     * (null for every type). ZSTD frames whose record-type bloom filter rules {@code type} out are
+     * skipped as well.
+     */
+    public void readTimeRange(Instant fromInclusive, Instant toExclusive, RecordType type, ReadCallback<T> callback) {
+        readRange(new ZstdFrameZoneMap.Query(Long.MIN_VALUE, Long.MAX_VALUE, fromInclusive, toExclusive, type), callback);
+    }
+
+    /**
+     * Reads records with sequence ids in {@code [fromInclusive, toInclusive]}, oldest first. Records
+     * without a sequence id are included. On ZSTD ledgers, frames whose zone map shows no sequence
+     * id in range are skipped without being read or decompressed. While the sequence index is
+     * enabled and has seen every id increase along the file, the read stops at the first id past
+     * {@code toInclusive}; otherwise the rest of the file is scanned.
+     */
+    public void readSequenceRange(long fromInclusive, long toInclusive, ReadCallback<T> callback) {
+        readRange(new ZstdFrameZoneMap.Query(fromInclusive, toInclusive, null, null, null), callback);
+    }
+
+    private void readRange(ZstdFrameZoneMap.Query query, ReadCallback<T> callback) {
+        if (!Files.exists(ledgerFile)) {
+            return;
+        }
+        // Only a ledger whose ids all increase along the file has nothing in range past the bound.
+        LedgerSequenceIndex idx = query.toSequence == Long.MAX_VALUE ? null : sequenceIndexForRead();
+        boolean stopPastBound = idx != null && idx.isOrdered();
+        ReadCallback<T> filtered = r -> {
+            if (stopPastBound) {
+                Long seq = r.getSequenceId();
+                if (seq != null && seq > query.toSequence) {
+                    return false;
+                }
+            }
+            return !query.matches(r) || callback.onRecord(r);
+        };
+        try {
+            if (shouldReadAsZstd()) {
+                readZstdRange(query, filtered);
+                return;
+            }
         } catch (IOException e) {
-            throw new UncheckedIOException("Error reading ledger in reverse " + ledgerFile, e);
+            throw new UncheckedIOException("Error reading from ledger " + ledgerFile, e);
         }
+        read(query.fromSequence == Long.MIN_VALUE ? -1 : query.fromSequence - 1, filtered);
     }
 
-    private void readZstdReverse(long fromSequence, ReadCallback<T> callback) throws IOException {
-        ensureZstdIndexReady();
-        int n = zstdIndex.size();
-        for (int i = n - 1; i >= 0; i--) {
-            ZstdLedgerIndex.Entry entry = zstdIndex.get(i);
-            String line = readLineAtIndexEntry(entry);
-            T record = parseRecord(line);
+    /**
+     * Decompresses only the frames the zone map cannot rule out, then any frames written after its
+     * last entry (or every frame when zone maps are disabled).
+     */
+    private void readZstdRange(ZstdFrameZoneMap.Query query, ReadCallback<T> callback) throws IOException {
+        ZstdFrameZoneMap map = zoneMapForRead();
+        long pos = 0;
+        if (map != null) {
+            int n = map.size();
+            for (int i = 0; i < n; i++) {
+                if (map.mayMatch(i, query) && !forEachRecord(readAndDecompressFrame(map.frameOffset(i)), callback)) {
+                    return;
+                }
+            }
+            pos = n == 0 ? 0 : map.frameEnd(n - 1);
+        }
+        long end = zstdReadEnd();
+        while (pos < end) {
+            ZstdNativeSupport.LocatedFrame frame = ZstdNativeSupport.readFrameAt(ledgerFile, pos);
+            if (!forEachRecord(ZstdNativeSupport.decompressExactFrame(frame.compressedBytes), callback)) {
+                return;
+            }
+            pos = frame.nextFileOffset;
+        }
+    }
+
+    /**
+     * Parses the lines of a decompressed frame in order.
+     *
+     * @return false if the callback stopped
+     */
+    private boolean forEachRecord(byte[] uncompressed, ReadCallback<T> callback) {
+        return forEachRecord(uncompressed, -1, null, callback);
+    }
+
+    /** {@link #forEachRecord(byte[], ReadCallback)} with the filters of {@link #dispatchLines}. */
+    private boolean forEachRecord(byte[] uncompressed, long fromSequence, RawLineFilter rawFilter, ReadCallback<T> callback) {
+        int start = 0;
+        while (start < uncompressed.length) {
+            int end = start;
+            while (end < uncompressed.length && uncompressed[end] != '\n') {
+                end++;
+            }
+            int length = end - start;
+            int lineStart = start;
+            start = end + 1;
+            if (rawFilter != null && jsonCodec.canDecode(uncompressed, lineStart, length)
+                    && !rawFilter.test(uncompressed, lineStart, length)) {
+                continue;
+            }
+            T record = parseLine(uncompressed, lineStart, length);
             if (record == null) {
                 continue;
             }
-            if (fromSequence != -1 && record.getSequenceId() != null && record.getSequenceId() >= fromSequence) {
+            if (fromSequence != -1 && record.getSequenceId() != null && record.getSequenceId() <= fromSequence) {
                 continue;
             }
             if (!callback.onRecord(record)) {
-                break;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void readReverse(long fromSequence, ReadCallback<T> callback) {
+        if (!Files.exists(ledgerFile)) {
+            return;
+        }
+
+        try {
+            if (shouldReadAsZstd()) {
+                readZstdReverse(fromSequence, callback);
+            } else {
+                readPlainReverse(fromSequence, callback);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading ledger in reverse " + ledgerFile, e);
+        }
+    }
+
+    private void readPlainReverse(long fromSequence, ReadCallback<T> callback) throws IOException {
+        try (MappedReverseLineReader reader = new MappedReverseLineReader(ledgerFile)) {
+            while (reader.previous()) {
+                T record = parseLine(reader.buffer(), 0, reader.lineLength());
+                if (record == null) {
+                    continue;
+                }
+                if (fromSequence != -1 && record.getSequenceId() != null && record.getSequenceId() >= fromSequence) {
+                    continue;
+                }
+                if (!callback.onRecord(record)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void readZstdReverse(long fromSequence, ReadCallback<T> callback) throws IOException {
+        ensureZstdIndexReady();
+        try (ZstdReverseFrameIterator iterator = new ZstdReverseFrameIterator()) {
+            while (iterator.hasNext()) {
+                T record = iterator.next();
+                if (fromSequence != -1 && record.getSequenceId() != null && record.getSequenceId() >= fromSequence) {
+                    continue;
+                }
+                if (!callback.onRecord(record)) {
+                    break;
+                }
             }
         }
     }
@@ -536,36 +1770,66 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
         }
     }
 
-    private String readLineAtIndexEntry(ZstdLedgerIndex.Entry entry) throws IOException {
-        ZstdNativeSupport.LocatedFrame frame =
-                ZstdNativeSupport.readFrameAt(ledgerFile, entry.frameFileOffset);
-        byte[] uncompressed = ZstdNativeSupport.decompressExactFrame(frame.compressedBytes);
-        int start = (int) entry.uncompressedOffset;
+    private byte[] readAndDecompressFrame(long frameFileOffset) throws IOException {
+        ZstdNativeSupport.LocatedFrame frame = ZstdNativeSupport.readFrameAt(ledgerFile, frameFileOffset);
+        return ZstdNativeSupport.decompressExactFrame(frame.compressedBytes);
+    }
+
+    private T parseLineAt(byte[] uncompressed, long uncompressedOffset) throws IOException {
+        int start = (int) uncompressedOffset;
         if (start < 0 || start >= uncompressed.length) {
-            throw new IOException("Index uncompressed offset out of range: " + entry.uncompressedOffset);
+            throw new IOException("Index uncompressed offset out of range: " + uncompressedOffset);
         }
         int end = start;
         while (end < uncompressed.length && uncompressed[end] != '\n') {
             end++;
         }
-        return new String(uncompressed, start, end - start, StandardCharsets.UTF_8);
+        return parseLine(uncompressed, start, end - start);
     }
 
+    /**
+     * Flushes buffered bytes (ends the current ZSTD frame) and, unless the durability policy is
+     * {@link DurabilityPolicy#NONE}, syncs everything written so far before returning.
+     */
     @Override
     public void flush() throws IOException {
+        FileChannel toSync = null;
         synchronized (fileLock) {
+            boolean sync = getDurabilityPolicy().getMode() != DurabilityPolicy.Mode.NONE;
             if (compression == LedgerCompression.ZSTD) {
                 if (compressedOutput != null
                         && (dirty || !pendingIndexEntries.isEmpty() || uncompressedBytesInFrame > 0)) {
-                    endFrameAndPersistIndex();
+                    endFrameAndPersistIndex(sync);
+                } else if (compressedOutput != null && sync && unsynced) {
+                    syncZstdUnderLock();
+                }
+            } else if (plainOutput != null) {
+                if (dirty) {
+                    plainOutput.flush();
+                    persistSequenceSamples();
+                    checkpointMetadata(false);
+                    dirty = false;
+                    writeCountSinceFlush = 0;
+                    lastFlushTime = System.nanoTime();
+                    unsyncedFlush = true;
+                }
+                if (sync && unsynced) {
+                    recordsSinceSync = 0;
+                    lastSyncNanos = System.nanoTime();
+                    unsyncedFlush = false;
+                    unsynced = false;
+                    toSync = plainOutput.channel();
                 }
-            } else if (fileWriter != null && dirty) {
-                fileWriter.flush();
-                dirty = false;
-                writeCountSinceFlush = 0;
-                lastFlushTime = System.nanoTime();
             }
         }
+        if (toSync != null) {
+            syncWaiting(toSync);
+        }
+    }
+
+    @Override
+    public boolean hasUnflushedWrites() {
+        return dirty;
     }
 
     @Override
@@ -574,11 +1838,7 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
             return 0;
         }
         try {
-            if (shouldReadAsZstd()) {
-                ensureZstdIndexReady();
-                return zstdIndex.size();
-            }
-            return countNewlinesPlain();
+            return metadata().recordCount;
         } catch (IOException e) {
             LOG.log(Level.SEVERE, "Error counting ledger lines", e);
             if (compression == LedgerCompression.ZSTD || fileHasZstdMagicQuiet()) {
@@ -588,8 +1848,116 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
         }
     }
 
-    private long countNewlinesPlain() throws IOException {
+    /** Newest record's sequence id as of the last flush, from the {@code .meta} checkpoint. */
+    @Override
+    public long lastSequenceId() {
+        if (!Files.exists(ledgerFile)) {
+            return -1;
+        }
+        try {
+            return metadata().lastSequence;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading ledger metadata " + ledgerFile, e);
+        }
+    }
+
+    /**
+     * Totals of the file: the writer's as of its last flush point, or else the {@code .meta}
+     * checkpoint, when either still matches the file length; otherwise recomputed from them (not
+     * persisted).
+     */
+    LedgerMetadata metadata() throws IOException {
+        LedgerMetadata m = started ? metadata : loadMetadataQuiet();
+        return reconcileMetadata(m);
+    }
+
+    /**
+     * Writer start (caller holds {@link #fileLock}): adopts the checkpoint or a rebuilt one, which
+     * is persisted at once so the next open is O(1) even if nothing is written.
+     */
+    private void startMetadata() throws IOException {
+        LedgerMetadata saved = loadMetadataQuiet();
+        LedgerMetadata m = reconcileMetadata(saved);
+        if (compression != LedgerCompression.ZSTD && !endsWithNewline(m.fileLength)) {
+            // Terminate a torn final line (crash mid-write) so the next record is not appended to it.
+            plainOutput.write(LINE_SEPARATOR);
+            plainOutput.flush();
+            plainAppendOffset += LINE_SEPARATOR.length;
+            m = new LedgerMetadata(plainAppendOffset, m.recordCount, m.lastSequence, m.lastTimestamp);
+        }
+        writtenCount = m.recordCount;
+        writtenLastSequence = m.lastSequence;
+        writtenLastTimestamp = m.lastTimestamp;
+        metadata = m;
+        if (m == saved) {
+            persistedMetadata = m;
+            lastMetadataPersistNanos = System.nanoTime();
+        } else {
+            persistedMetadata = null;
+            checkpointMetadata(true);
+        }
+    }
+
+    private LedgerMetadata loadMetadataQuiet() {
+        try {
+            return LedgerMetadata.load(ledgerFile);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Ignoring unreadable ledger metadata for " + ledgerFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return {@code saved} if it covers the whole file; otherwise totals recomputed by counting
+     *         only the lines after {@code saved} (plain, when it ends on a line boundary), the whole
+     *         file (plain) or the {@code .idx} entries (ZSTD), plus one reverse read for the newest
+     *         record
+     */
+    private LedgerMetadata reconcileMetadata(LedgerMetadata saved) throws IOException {
+        long fileSize = Files.exists(ledgerFile) ? Files.size(ledgerFile) : 0;
+        if (saved != null && saved.fileLength == fileSize) {
+            return saved;
+        }
+        if (fileSize == 0) {
+            return LedgerMetadata.EMPTY;
+        }
+        long count;
+        if (shouldReadAsZstd()) {
+            ensureZstdIndexReady();
+            count = zstdIndex.size();
+        } else if (saved != null && saved.fileLength < fileSize && endsWithNewline(saved.fileLength)) {
+            count = saved.recordCount + countNewlinesPlain(saved.fileLength);
+        } else {
+            count = countNewlinesPlain(0);
+        }
+        long[] lastSequence = {-1};
+        Instant[] lastTimestamp = {null};
+        readReverse(-1, r -> {
+            lastSequence[0] = r.getSequenceId() == null ? -1 : r.getSequenceId();
+            lastTimestamp[0] = r.getTimestamp();
+            return false;
+        });
+        return new LedgerMetadata(fileSize, count, lastSequence[0], lastTimestamp[0]);
+    }
+
+    /** Whether the first {@code length} bytes of the file end with {@code '\n'} (true when empty). */
+    private boolean endsWithNewline(long length) throws IOException {
+        if (length == 0) {
+            return true;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(ledgerFile.toFile(), "r")) {
+            if (raf.length() < length) {
+                return false;
+            }
+            raf.seek(length - 1);
+            return raf.read() == '\n';
+        }
+    }
+
+    /** Lines from byte {@code from} to the end; an unterminated last line counts. */
+    private long countNewlinesPlain(long from) throws IOException {
         try (InputStream in = Files.newInputStream(ledgerFile)) {
+            in.skipNBytes(from);
             byte[] buf = new byte[COUNT_SCAN_BUFFER_SIZE];
             long newlineCount = 0;
             int lastByte = -1;
@@ -612,111 +1980,116 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
         }
     }
 
+    /**
+     * Decodes one line (without {@code '\n'}; a trailing {@code '\r'} is ignored) with the
+     * configured codec or, for lines it does not recognise, the built-in JSONL / binary codec.
+     *
+     * @return the record, or null for blank, unregistered or malformed lines
+     */
     @SuppressWarnings("unchecked")
-    private T parseRecord(String line) {
+    private T parseLine(byte[] buf, int offset, int length) {
+        while (length > 0 && buf[offset + length - 1] == '\r') {
+            length--;
+        }
+        if (isBlank(buf, offset, length)) {
+            return null;
+        }
+        RecordCodec decoder = codec;
+        if (!decoder.canDecode(buf, offset, length)) {
+            BinaryRecordCodec binary = binaryCodec();
+            decoder = binary.canDecode(buf, offset, length) ? binary : jsonCodec;
+        }
         try {
-            JsonObject json = JsonParser.parseString(line).getAsJsonObject();
-            JsonElement typeElement = json.get("type");
-            if (typeElement == null) {
-                return null;
-            }
-            String typeStr = typeElement.getAsString();
-            RecordType type = RecordType.of(typeStr);
-
-            Class<? extends Record> clazz = ledgerRegistry.getRecordClass(type);
-            if (clazz == null) {
-                return null;
-            }
-
-            return (T) gson.fromJson(json, clazz);
+            return (T) decoder.decode(buf, offset, length);
         } catch (Exception e) {
-            LOG.log(Level.WARNING, "Error parsing record: " + line, e);
+            String text = decoder == jsonCodec
+                    ? new String(buf, offset, length, StandardCharsets.UTF_8)
+                    : length + " bytes";
+            LOG.log(Level.WARNING, "Error parsing record: " + text, e);
             return null;
         }
     }
 
-    private class ReverseFileIterator implements Iterator<T> {
-        private final RandomAccessFile raf;
-        private long filePos;
-        private final byte[] buffer;
-        private int bufferPos;
-        private T nextRecord;
-        private final ByteArrayOutputStream lineBuffer;
+    private BinaryRecordCodec binaryCodec() {
+        BinaryRecordCodec binary = binaryCodec;
+        if (binary == null) {
+            binary = codec instanceof BinaryRecordCodec ? (BinaryRecordCodec) codec : new BinaryRecordCodec(ledgerRegistry);
+            binaryCodec = binary;
+        }
+        return binary;
+    }
 
-        public ReverseFileIterator(Path file) {
-            try {
-                this.raf = new RandomAccessFile(file.toFile(), "r");
-                this.filePos = raf.length();
-                this.buffer = new byte[8192];
-                this.bufferPos = -1;
-                this.lineBuffer = new ByteArrayOutputStream();
-                advance();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    private static boolean isBlank(byte[] buf, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buf[i] != ' ' && buf[i] != '\t') {
+                return false;
             }
         }
+        return true;
+    }
+
+    /**
+     * Newest-first iterator over a ZSTD ledger. Each frame is read and decompressed once; its
+     * indexed lines are yielded last-to-first before moving on. Up to {@link #readParallelism}
+     * older frames, at most {@link #MAX_REVERSE_READ_AHEAD}, are read and decompressed on
+     * {@link #ZSTD_FRAME_EXECUTOR} while the current one is being consumed.
+     */
+    private class ZstdReverseFrameIterator implements Iterator<T>, AutoCloseable {
+        /** Index ordinal of the next line to yield. */
+        private int nextOrdinal;
+        /** First index ordinal belonging to the currently decompressed frame. */
+        private int frameFirstOrdinal;
+        /** Last index ordinal of the newest frame not yet handed to the read-ahead. */
+        private int unscheduledOrdinal;
+        private final int depth = Math.min(readParallelism, MAX_REVERSE_READ_AHEAD);
+        private final ArrayDeque<PendingFrame> readAhead = new ArrayDeque<>();
+        private byte[] frame;
+        private T nextRecord;
+
+        ZstdReverseFrameIterator() {
+            this.nextOrdinal = zstdIndex.size() - 1;
+            this.frameFirstOrdinal = nextOrdinal + 1;
+            this.unscheduledOrdinal = nextOrdinal;
+            scheduleReadAhead();
+            advance();
+        }
 
         private void advance() {
             nextRecord = null;
             try {
-                while (nextRecord == null) {
-                    String line = readLineReverse();
-                    if (line == null) {
-                        break;
-                    }
-                    if (line.trim().isEmpty()) {
-                        continue;
+                while (nextRecord == null && nextOrdinal >= 0) {
+                    if (nextOrdinal < frameFirstOrdinal) {
+                        loadNextFrame();
                     }
-                    nextRecord = parseRecord(line);
-                }
-                if (nextRecord == null) {
-                    raf.close();
+                    nextRecord = parseLineAt(frame, zstdIndex.uncompressedOffset(nextOrdinal--));
                 }
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                throw new UncheckedIOException("Error reading ledger in reverse " + ledgerFile, e);
             }
         }
 
-        private String readLineReverse() throws IOException {
-            if (filePos <= 0 && bufferPos < 0 && lineBuffer.size() == 0) {
-                return null;
-            }
-            while (true) {
-                if (bufferPos < 0) {
-                    if (filePos <= 0) {
-                        if (lineBuffer.size() > 0) {
-                            return flushLineBuffer();
-                        }
-                        return null;
-                    }
-                    long readSize = Math.min(buffer.length, filePos);
-                    filePos -= readSize;
-                    raf.seek(filePos);
-                    raf.readFully(buffer, 0, (int) readSize);
-                    bufferPos = (int) readSize - 1;
-                }
-                while (bufferPos >= 0) {
-                    byte b = buffer[bufferPos--];
-                    if (b == '\n') {
-                        if (lineBuffer.size() > 0) {
-                            return flushLineBuffer();
-                        }
-                    } else {
-                        lineBuffer.write(b);
-                    }
-                }
+        /** Takes the oldest-scheduled (next newest) frame and tops the read-ahead back up. */
+        private void loadNextFrame() throws IOException {
+            PendingFrame next = readAhead.poll();
+            if (next == null) {
+                throw new IOException("zstd index changed during reverse read of " + ledgerFile);
             }
+            frame = awaitFrame(next.bytes);
+            frameFirstOrdinal = next.firstOrdinal;
+            scheduleReadAhead();
         }
 
-        private String flushLineBuffer() {
-            byte[] bytes = lineBuffer.toByteArray();
-            lineBuffer.reset();
-            for (int i = 0; i < bytes.length / 2; i++) {
-                byte temp = bytes[i];
-                bytes[i] = bytes[bytes.length - 1 - i];
-                bytes[bytes.length - 1 - i] = temp;
+        /** Finds the first index ordinal of each older frame and starts reading it. */
+        private void scheduleReadAhead() {
+            while (unscheduledOrdinal >= 0 && readAhead.size() < depth) {
+                long frameOffset = zstdIndex.frameFileOffset(unscheduledOrdinal);
+                int first = unscheduledOrdinal;
+                while (first > 0 && zstdIndex.frameFileOffset(first - 1) == frameOffset) {
+                    first--;
+                }
+                readAhead.add(new PendingFrame(first, ZSTD_FRAME_EXECUTOR.submit(() -> readAndDecompressFrame(frameOffset))));
+                unscheduledOrdinal = first - 1;
             }
-            return new String(bytes, StandardCharsets.UTF_8);
         }
 
         @Override
@@ -733,5 +2106,23 @@ public class DiskPersistenceDriver<T extends Record> implements PersistenceDrive
             advance();
             return current;
         }
+
+        @Override
+        public void close() {
+            for (PendingFrame pending : readAhead) {
+                pending.bytes.cancel(true);
+            }
+            readAhead.clear();
+        }
+    }
+
+    private static final class PendingFrame {
+        final int firstOrdinal;
+        final Future<byte[]> bytes;
+
+        PendingFrame(int firstOrdinal, Future<byte[]> bytes) {
+            this.firstOrdinal = firstOrdinal;
+            this.bytes = bytes;
+        }
     }
 }
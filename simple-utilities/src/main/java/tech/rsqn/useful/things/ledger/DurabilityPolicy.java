@@ -0,0 +1,142 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.util.Objects;
+
+/**
+ * When {@link DiskPersistenceDriver} forces ledger bytes to stable storage (fsync), applied the same
+ * way to plain and ZSTD ledgers. Syncs go through the shared {@link FsyncCoordinator}, which merges
+ * concurrent requests for a file into one {@code force} and forces different files in parallel.
+ *
+ * <ul>
+ *   <li><b>NONE</b> — never fsync; the OS writes back in its own time. The ZSTD frame index is
+ *       not forced either, so after power loss a stale {@code .idx} may have to be deleted.</li>
+ *   <li><b>INTERVAL(ms)</b> — once {@code ms} have passed since the last sync and records were
+ *       written, flush and request a sync without waiting (plain) or sync at that frame end
+ *       (ZSTD). Checked on every write and by the {@link FsyncCoordinator} tick, so an idle ledger
+ *       is synced on time too.</li>
+ *   <li><b>EVERY_N_RECORDS(n)</b> — as INTERVAL, once {@code n} records were written since the last
+ *       sync; the tick syncs fewer records once the driver's flush interval has passed.</li>
+ *   <li><b>EVERY_FRAME</b> — sync whenever buffered bytes are flushed (plain) or a frame ends
+ *       (ZSTD), waiting for it. Default for ZSTD ledgers.</li>
+ *   <li><b>EVERY_WRITE</b> — flush and sync at the end of every {@code write} / {@code writeBatch},
+ *       which returns once the bytes are durable.</li>
+ * </ul>
+ *
+ * {@link DiskPersistenceDriver#flush()} always syncs unless the policy is NONE. Under INTERVAL and
+ * EVERY_N_RECORDS, ZSTD frames that end between syncs get unforced index entries, with the same
+ * caveat as NONE until the next sync.
+ */
+public final class DurabilityPolicy {
+
+    public enum Mode {
+        NONE,
+        INTERVAL,
+        EVERY_N_RECORDS,
+        EVERY_FRAME,
+        EVERY_WRITE
+    }
+
+    public static final DurabilityPolicy NONE = new DurabilityPolicy(Mode.NONE, 0, 0);
+    public static final DurabilityPolicy EVERY_FRAME = new DurabilityPolicy(Mode.EVERY_FRAME, 0, 0);
+    public static final DurabilityPolicy EVERY_WRITE = new DurabilityPolicy(Mode.EVERY_WRITE, 0, 0);
+
+    private final Mode mode;
+    private final long intervalMillis;
+    private final int records;
+
+    private DurabilityPolicy(Mode mode, long intervalMillis, int records) {
+        this.mode = mode;
+        this.intervalMillis = intervalMillis;
+        this.records = records;
+    }
+
+    public static DurabilityPolicy interval(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        return new DurabilityPolicy(Mode.INTERVAL, millis, 0);
+    }
+
+    public static DurabilityPolicy everyNRecords(int records) {
+        if (records <= 0) {
+            throw new IllegalArgumentException("records must be positive");
+        }
+        return new DurabilityPolicy(Mode.EVERY_N_RECORDS, 0, records);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    /** Whether a write must end with a sync, given what was written since the last one. */
+    boolean syncDue(long recordsSinceSync, long nanosSinceSync) {
+        switch (mode) {
+            case EVERY_WRITE:
+                return recordsSinceSync > 0;
+            case EVERY_N_RECORDS:
+                return recordsSinceSync >= records;
+            case INTERVAL:
+                return recordsSinceSync > 0 && nanosSinceSync >= intervalMillis * 1_000_000L;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Whether a {@link FsyncCoordinator} tick must sync, given what was written since the last one;
+     * EVERY_N_RECORDS syncs a partial group once {@code idleSyncNanos} have passed.
+     */
+    boolean tickDue(long recordsSinceSync, long nanosSinceSync, long idleSyncNanos) {
+        switch (mode) {
+            case INTERVAL:
+                return syncDue(recordsSinceSync, nanosSinceSync);
+            case EVERY_N_RECORDS:
+                return recordsSinceSync > 0 && (recordsSinceSync >= records || nanosSinceSync >= idleSyncNanos);
+            default:
+                return false;
+        }
+    }
+
+    /** Whether syncs are scheduled by time or count, so the driver registers a coordinator tick. */
+    boolean scheduled() {
+        return mode == Mode.INTERVAL || mode == Mode.EVERY_N_RECORDS;
+    }
+
+    /** Whether the writer waits for a due sync (otherwise it is requested in the background). */
+    boolean waits() {
+        return mode == Mode.EVERY_WRITE || mode == Mode.EVERY_FRAME;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DurabilityPolicy)) return false;
+        DurabilityPolicy that = (DurabilityPolicy) o;
+        return mode == that.mode && intervalMillis == that.intervalMillis && records == that.records;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mode, intervalMillis, records);
+    }
+
+    @Override
+    public String toString() {
+        switch (mode) {
+            case INTERVAL:
+                return "INTERVAL(" + intervalMillis + "ms)";
+            case EVERY_N_RECORDS:
+                return "EVERY_N_RECORDS(" + records + ")";
+            default:
+                return mode.name();
+        }
+    }
+}
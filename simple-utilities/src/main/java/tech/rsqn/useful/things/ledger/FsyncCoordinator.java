@@ -0,0 +1,190 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Group fsync for all {@link DiskPersistenceDriver}s in the JVM. Drivers request a sync of their
+ * ledger file; each file is forced by one task at a time, which completes every request for that
+ * file made before the force started. Requests that arrive while a file is being forced are merged
+ * into its next force, so N concurrent writers to one file cost one {@code force} instead of N.
+ * Different files are forced in parallel on a small daemon pool of up to {@link #FORCE_THREADS}
+ * threads, so one slow file only delays the ledgers that wait on it.
+ * <p>
+ * Drivers whose policy syncs on a schedule ({@link DurabilityPolicy.Mode#INTERVAL},
+ * {@link DurabilityPolicy.Mode#EVERY_N_RECORDS}) also {@link #register} a tick, which a daemon
+ * ticker thread runs every {@link #TICK_MILLIS} so that a ledger that stops writing is still
+ * synced once its interval elapses instead of on its next write.
+ */
+final class FsyncCoordinator {
+    private static final Logger LOG = Logger.getLogger(FsyncCoordinator.class.getName());
+
+    /** Maximum number of files forced at the same time. */
+    static final int FORCE_THREADS = 4;
+
+    /** Period of the ticker that runs {@link #register registered} driver ticks. */
+    static final long TICK_MILLIS = 10;
+
+    private static final FsyncCoordinator SHARED = new FsyncCoordinator("LedgerFsync");
+
+    /** Requests for one channel: the future the next force completes, and whether a task runs. */
+    private static final class ChannelSyncs {
+        final FileChannel channel;
+        CompletableFuture<Void> next;
+        boolean forcing;
+
+        ChannelSyncs(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final String threadName;
+    private final Map<FileChannel, ChannelSyncs> channels = new ConcurrentHashMap<>();
+    private final Set<Runnable> ticks = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor forcePool;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder forces = new LongAdder();
+    private final Object startLock = new Object();
+    private volatile Thread ticker;
+
+    FsyncCoordinator(String threadName) {
+        this.threadName = threadName;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.forcePool = new ThreadPoolExecutor(FORCE_THREADS, FORCE_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, threadName + "-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.forcePool.allowCoreThreadTimeOut(true);
+    }
+
+    static FsyncCoordinator shared() {
+        return SHARED;
+    }
+
+    /** @return completed once {@code channel} has been forced after this call */
+    CompletableFuture<Void> requestSync(FileChannel channel) {
+        requests.increment();
+        ChannelSyncs syncs = channels.computeIfAbsent(channel, ChannelSyncs::new);
+        CompletableFuture<Void> done;
+        boolean submit = false;
+        synchronized (syncs) {
+            if (syncs.next == null) {
+                syncs.next = new CompletableFuture<>();
+            }
+            done = syncs.next;
+            if (!syncs.forcing) {
+                syncs.forcing = true;
+                submit = true;
+            }
+        }
+        if (submit) {
+            forcePool.execute(() -> forceWhileRequested(syncs));
+        }
+        return done;
+    }
+
+    /** Requests a sync of {@code channel} and waits for it. */
+    void sync(FileChannel channel) throws IOException {
+        try {
+            requestSync(channel).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for fsync");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("fsync failed", e.getCause());
+        }
+    }
+
+    /** Runs {@code tick} on the ticker thread every {@link #TICK_MILLIS} until {@link #unregister}. */
+    void register(Runnable tick) {
+        ticks.add(tick);
+        LockSupport.unpark(ensureTickerStarted());
+    }
+
+    void unregister(Runnable tick) {
+        ticks.remove(tick);
+    }
+
+    long requestCount() {
+        return requests.sum();
+    }
+
+    long forceCount() {
+        return forces.sum();
+    }
+
+    /** Forces the channel until no request is left for it; one task per channel at a time. */
+    private void forceWhileRequested(ChannelSyncs syncs) {
+        while (true) {
+            CompletableFuture<Void> done;
+            synchronized (syncs) {
+                done = syncs.next;
+                syncs.next = null;
+                if (done == null) {
+                    syncs.forcing = false;
+                    channels.remove(syncs.channel, syncs);
+                    return;
+                }
+            }
+            try {
+                syncs.channel.force(true);
+                forces.increment();
+                done.complete(null);
+            } catch (IOException | RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private Thread ensureTickerStarted() {
+        Thread t = ticker;
+        if (t == null) {
+            synchronized (startLock) {
+                t = ticker;
+                if (t == null) {
+                    t = new Thread(this::runTicks, threadName + "Tick");
+                    t.setDaemon(true);
+                    t.start();
+                    ticker = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    private void runTicks() {
+        while (true) {
+            if (ticks.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS));
+            for (Runnable tick : ticks) {
+                try {
+                    tick.run();
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Scheduled sync failed", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package tech.rsqn.useful.things.ledger;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.Strictness;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Default {@link RecordCodec}: one UTF-8 JSON object per line, via {@link LedgerGson}. The
+ * {@code type} property selects the record class registered in {@link LedgerRegistry}.
+ * <p>
+ * {@link #newLineEncoder()} streams Gson's {@link JsonWriter} output through a reusable UTF-8
+ * encoder straight into the caller's stream, skipping the intermediate {@code String} and
+ * {@code byte[]} of {@link #encode}; the bytes are identical.
+ * <p>
+ * {@link #decode} finds the top-level {@code type} discriminator with a byte scan of the line and
+ * streams the line once through the cached {@link TypeAdapter} of the registered class, without
+ * building a {@link JsonElement} tree. Lines whose {@code type} is missing, escaped or not a string
+ * are parsed into a tree first.
+ */
+public class JsonlRecordCodec implements RecordCodec {
+    private final LedgerRegistry ledgerRegistry;
+    private final Gson gson;
+    private final Map<Class<?>, TypeAdapter<Record>> adapters = new ConcurrentHashMap<>();
+    /** Last discriminator seen by {@link #decode}; ledgers are usually one type per file. */
+    private volatile SeenType lastType;
+
+    public JsonlRecordCodec(LedgerRegistry ledgerRegistry) {
+        this.ledgerRegistry = ledgerRegistry;
+        this.gson = LedgerGson.create();
+    }
+
+    @Override
+    public byte[] encode(Record record) {
+        return gson.toJson(record).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public LineEncoder newLineEncoder() {
+        return new StreamingEncoder();
+    }
+
+    @SuppressWarnings("unchecked")
+    private TypeAdapter<Record> adapterFor(Class<?> clazz) {
+        TypeAdapter<Record> adapter = adapters.get(clazz);
+        if (adapter == null) {
+            adapter = adapters.computeIfAbsent(clazz, c -> (TypeAdapter<Record>) gson.getAdapter(c));
+        }
+        return adapter;
+    }
+
+    @Override
+    public Record decode(byte[] line, int offset, int length) throws IOException {
+        RecordType type = discriminator(line, offset, length);
+        if (type == null) {
+            return decodeTree(line, offset, length);
+        }
+        Class<? extends Record> clazz = ledgerRegistry.getRecordClass(type);
+        if (clazz == null) {
+            return null;
+        }
+        try {
+            JsonReader reader = new JsonReader(new Utf8Reader(line, offset, length));
+            reader.setStrictness(Strictness.LENIENT);
+            Record record = adapterFor(clazz).read(reader);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new IOException("Unexpected data after JSON record");
+            }
+            return record;
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed JSON record", e);
+        }
+    }
+
+    /**
+     * Finds the top-level {@code "type"} property with a byte-level scan that only tracks strings and
+     * nesting (Gson writes subclass fields first, so {@code type} is rarely the first property).
+     *
+     * @return the discriminator, or null if absent, not a plain string (escaped, non-string) or the
+     *         line is not a JSON object
+     */
+    RecordType discriminator(byte[] line, int offset, int length) {
+        int end = offset + length;
+        int i = skipWhitespace(line, offset, end);
+        if (i >= end || line[i] != '{') {
+            return null;
+        }
+        i++;
+        int depth = 1;
+        boolean expectKey = true;
+        while (i < end) {
+            byte c = line[i];
+            if (c == '"') {
+                int close = stringEnd(line, i + 1, end);
+                if (close < 0) {
+                    return null;
+                }
+                if (depth == 1 && expectKey) {
+                    boolean isType = startsWith(line, i, end, TYPE_KEY) && close == i + TYPE_KEY.length - 1;
+                    i = skipWhitespace(line, close + 1, end);
+                    if (i >= end || line[i] != ':') {
+                        return null;
+                    }
+                    expectKey = false;
+                    i = skipWhitespace(line, i + 1, end);
+                    if (isType) {
+                        return typeValue(line, i, end);
+                    }
+                    continue;
+                }
+                i = close + 1;
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (--depth == 0) {
+                    return null;
+                }
+            } else if (c == ',' && depth == 1) {
+                expectKey = true;
+            }
+            i++;
+        }
+        return null;
+    }
+
+    /** Index of the quote closing a string whose content starts at {@code i}, or -1. */
+    private static int stringEnd(byte[] b, int i, int end) {
+        while (i < end) {
+            if (b[i] == '\\') {
+                i += 2;
+            } else if (b[i] == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private RecordType typeValue(byte[] line, int i, int end) {
+        if (i >= end || line[i] != '"') {
+            return null;
+        }
+        int start = ++i;
+        while (i < end && line[i] != '"') {
+            if (line[i] == '\\') {
+                return null;
+            }
+            i++;
+        }
+        if (i >= end) {
+            return null;
+        }
+        SeenType last = lastType;
+        if (last != null && Arrays.equals(last.bytes, 0, last.bytes.length, line, start, i)) {
+            return last.type;
+        }
+        RecordType type = RecordType.of(new String(line, start, i - start, StandardCharsets.UTF_8));
+        lastType = new SeenType(Arrays.copyOfRange(line, start, i), type);
+        return type;
+    }
+
+    private static final byte[] TYPE_KEY = "\"type\"".getBytes(StandardCharsets.US_ASCII);
+
+    private static int skipWhitespace(byte[] b, int i, int end) {
+        while (i < end && (b[i] == ' ' || b[i] == '\t' || b[i] == '\n' || b[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean startsWith(byte[] b, int i, int end, byte[] prefix) {
+        return end - i >= prefix.length && Arrays.equals(b, i, i + prefix.length, prefix, 0, prefix.length);
+    }
+
+    /** Two-pass decode: parse into a tree, then bind it. Used when the byte scan finds no plain {@code type}. */
+    Record decodeTree(byte[] line, int offset, int length) throws IOException {
+        try {
+            JsonObject json = JsonParser.parseString(new String(line, offset, length, StandardCharsets.UTF_8))
+                    .getAsJsonObject();
+            JsonElement typeElement = json.get("type");
+            if (typeElement == null) {
+                return null;
+            }
+            Class<? extends Record> clazz = ledgerRegistry.getRecordClass(RecordType.of(typeElement.getAsString()));
+            if (clazz == null) {
+                return null;
+            }
+            return gson.fromJson(json, clazz);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed JSON record", e);
+        }
+    }
+
+    @Override
+    public boolean canDecode(byte[] line, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            byte b = line[i];
+            if (b != ' ' && b != '\t') {
+                return b == '{';
+            }
+        }
+        return false;
+    }
+
+    private static final class SeenType {
+        final byte[] bytes;
+        final RecordType type;
+
+        SeenType(byte[] bytes, RecordType type) {
+            this.bytes = bytes;
+            this.type = type;
+        }
+    }
+
+    /**
+     * UTF-8 decoding {@link Reader} over a byte range; malformed bytes read as U+FFFD, as
+     * {@code new String(bytes, UTF_8)} does.
+     */
+    private static final class Utf8Reader extends Reader {
+        private final byte[] b;
+        private int pos;
+        private final int end;
+        private char pendingLow;
+
+        Utf8Reader(byte[] b, int offset, int length) {
+            this.b = b;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int n = 0;
+            if (pendingLow != 0) {
+                cbuf[off + n++] = pendingLow;
+                pendingLow = 0;
+            }
+            while (n < len && pos < end) {
+                int b0 = b[pos] & 0xFF;
+                if (b0 < 0x80) {
+                    cbuf[off + n++] = (char) b0;
+                    pos++;
+                    continue;
+                }
+                int cp = decodeMultiByte(b0);
+                if (cp < 0x10000) {
+                    cbuf[off + n++] = (char) cp;
+                } else {
+                    cbuf[off + n++] = Character.highSurrogate(cp);
+                    if (n < len) {
+                        cbuf[off + n++] = Character.lowSurrogate(cp);
+                    } else {
+                        pendingLow = Character.lowSurrogate(cp);
+                    }
+                }
+            }
+            return n == 0 ? -1 : n;
+        }
+
+        /**
+         * Decodes the sequence at {@link #pos} (lead byte {@code b0}) and advances past it. A
+         * malformed sequence reads as one U+FFFD per maximal valid prefix, as the JDK decoder does.
+         */
+        private int decodeMultiByte(int b0) {
+            int need;
+            int lo = 0x80;
+            int hi = 0xBF;
+            if (b0 >= 0xC2 && b0 <= 0xDF) {
+                need = 1;
+            } else if (b0 >= 0xE0 && b0 <= 0xEF) {
+                need = 2;
+                lo = b0 == 0xE0 ? 0xA0 : 0x80;
+                hi = b0 == 0xED ? 0x9F : 0xBF;
+            } else if (b0 >= 0xF0 && b0 <= 0xF4) {
+                need = 3;
+                lo = b0 == 0xF0 ? 0x90 : 0x80;
+                hi = b0 == 0xF4 ? 0x8F : 0xBF;
+            } else {
+                pos++;
+                return 0xFFFD;
+            }
+            int cp = b0 & (0x3F >> need);
+            for (int k = 1; k <= need; k++) {
+                if (!cont(k, k == 1 ? lo : 0x80, k == 1 ? hi : 0xBF)) {
+                    pos += k;
+                    return 0xFFFD;
+                }
+                cp = (cp << 6) | (b[pos + k] & 0x3F);
+            }
+            pos += need + 1;
+            return cp;
+        }
+
+        private boolean cont(int k, int lo, int hi) {
+            if (pos + k >= end) {
+                return false;
+            }
+            int c = b[pos + k] & 0xFF;
+            return c >= lo && c <= hi;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * One {@link JsonWriter} kept across records (lenient, as {@link Gson#toJson(Object)} uses it, so
+     * it accepts one top-level value after another) over a {@link Utf8Writer}.
+     */
+    private final class StreamingEncoder implements LineEncoder {
+        private final Utf8Writer utf8 = new Utf8Writer();
+        private JsonWriter json;
+
+        @Override
+        public void encode(Record record, OutputStream out) throws IOException {
+            if (json == null) {
+                json = gson.newJsonWriter(utf8);
+                json.setStrictness(Strictness.LENIENT);
+            }
+            utf8.target = out;
+            try {
+                adapterFor(record.getClass()).write(json, record);
+                json.flush();
+            } catch (IOException | RuntimeException e) {
+                // The writer may be mid-object; start the next record on a fresh one.
+                json = null;
+                utf8.reset();
+                throw e instanceof IOException ? (IOException) e : new IOException("Cannot encode record", e);
+            } finally {
+                utf8.target = null;
+            }
+        }
+    }
+
+    /** UTF-8 encoding {@link Writer} with a reusable staging buffer, flushed to {@link #target}. */
+    private static final class Utf8Writer extends Writer {
+        private final byte[] buf = new byte[4096];
+        private int count;
+        private char highSurrogate;
+        OutputStream target;
+
+        @Override
+        public void write(int c) throws IOException {
+            put((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                put(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            int end = off + len;
+            int i = off;
+            while (i < end) {
+                if (highSurrogate == 0) {
+                    // ASCII run (most of a JSON line): copy straight into the buffer.
+                    int stop = Math.min(end, i + buf.length - count);
+                    char c;
+                    while (i < stop && (c = str.charAt(i)) < 0x80) {
+                        buf[count++] = (byte) c;
+                        i++;
+                    }
+                    if (i == end) {
+                        return;
+                    }
+                    if (count == buf.length) {
+                        drain();
+                        continue;
+                    }
+                }
+                put(str.charAt(i++));
+            }
+        }
+
+        @Override
+        public Writer append(CharSequence csq) throws IOException {
+            CharSequence s = csq == null ? "null" : csq;
+            return append(s, 0, s.length());
+        }
+
+        @Override
+        public Writer append(CharSequence csq, int start, int end) throws IOException {
+            CharSequence s = csq == null ? "null" : csq;
+            for (int i = start; i < end; i++) {
+                put(s.charAt(i));
+            }
+            return this;
+        }
+
+        private void put(char c) throws IOException {
+            if (count + 4 > buf.length) {
+                drain();
+            }
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int cp = Character.toCodePoint(high, c);
+                    buf[count++] = (byte) (0xF0 | (cp >> 18));
+                    buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[count++] = (byte) (0x80 | (cp & 0x3F));
+                    return;
+                }
+                buf[count++] = '?';
+                put(c);
+                return;
+            }
+            if (c < 0x80) {
+                buf[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[count++] = (byte) (0xC0 | (c >> 6));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                buf[count++] = '?';
+            } else {
+                buf[count++] = (byte) (0xE0 | (c >> 12));
+                buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        private void drain() throws IOException {
+            if (count > 0) {
+                target.write(buf, 0, count);
+                count = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                buf[count++] = '?';
+            }
+            drain();
+        }
+
+        void reset() {
+            count = 0;
+            highSurrogate = 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package tech.rsqn.useful.things.ledger;
+
+/**
+ * What a {@link SubscriberLane} does when a record arrives and the lane is full.
+ *
+ * <ul>
+ *   <li><b>BLOCK</b> — the writer waits (per the ledger's {@link RingBackpressure}) until the
+ *       subscriber catches up. Nothing is lost; a slow subscriber slows writes (default).</li>
+ *   <li><b>DROP_OLDEST</b> — the oldest pending record is discarded to make room. Suits
+ *       subscribers that only care about the latest state.</li>
+ *   <li><b>DISCONNECT</b> — the subscriber is removed from the ledger and its pending records are
+ *       discarded.</li>
+ * </ul>
+ */
+public enum LaneOverflow {
+    BLOCK,
+    DROP_OLDEST,
+    DISCONNECT
+}
@@ -0,0 +1,101 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Hands records to {@link SubscriberLane}s strictly in sequence-id order when several threads
+ * write to the same ledger.
+ * <p>
+ * Writers deposit each record in a small reorder window indexed by its sequence id; whichever
+ * writer wins the drain flag publishes the contiguous run starting at the next expected id, so
+ * lanes see a single publisher in id order. Ids that never reach the lanes (an abandoned enqueue,
+ * a failed write) are {@link #skip skipped} so the window does not stall behind them. A writer
+ * more than {@link #WINDOW} ids ahead waits for the window to advance, except on a notification
+ * thread, where waiting could wait on itself; those records are parked in a sorted side map.
+ * <p>
+ * With one writer thread every record is the next expected one and is published straight away
+ * by its own writer.
+ *
+ * @param <T> The type of record published.
+ */
+final class LaneSequencer<T extends Record> {
+    static final int WINDOW = 1024;
+    private static final int MASK = WINDOW - 1;
+    private static final Object SKIPPED = new Object();
+
+    private final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<>(WINDOW);
+    private final ConcurrentSkipListMap<Long, Object> beyondWindow = new ConcurrentSkipListMap<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final Consumer<T> publisher;
+    private volatile long next;
+
+    /**
+     * @param firstSequence first id to publish; lower ids were assigned before any lane existed
+     *                      and are ignored
+     */
+    LaneSequencer(long firstSequence, Consumer<T> publisher) {
+        this.next = firstSequence;
+        this.publisher = publisher;
+    }
+
+    /** Publishes {@code record} once every lower id has been published or skipped. */
+    void submit(long sequenceId, T record) {
+        if (deposit(sequenceId, record)) {
+            drain();
+        }
+    }
+
+    /** Marks {@code sequenceId} as never arriving. */
+    void skip(long sequenceId) {
+        if (deposit(sequenceId, SKIPPED)) {
+            drain();
+        }
+    }
+
+    private boolean deposit(long sequenceId, Object item) {
+        while (sequenceId - next >= WINDOW) {
+            if (AbstractLedger.isNotificationThread()) {
+                beyondWindow.put(sequenceId, item);
+                return true;
+            }
+            Thread.yield();
+        }
+        if (sequenceId < next) {
+            return false;
+        }
+        slots.set((int) sequenceId & MASK, item);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        while (draining.compareAndSet(false, true)) {
+            try {
+                while (true) {
+                    long n = next;
+                    int index = (int) n & MASK;
+                    Object item = slots.get(index);
+                    if (item != null) {
+                        slots.set(index, null);
+                    } else if (beyondWindow.isEmpty() || (item = beyondWindow.remove(n)) == null) {
+                        break;
+                    }
+                    next = n + 1;
+                    if (item != SKIPPED) {
+                        publisher.accept((T) item);
+                    }
+                }
+            } finally {
+                draining.set(false);
+            }
+            // A writer that deposited the next id while we held the flag left its drain to us.
+            long n = next;
+            if (slots.get((int) n & MASK) == null && !beyondWindow.containsKey(n)) {
+                return;
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package tech.rsqn.useful.things.ledger;
 
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -18,6 +20,36 @@ public interface Ledger<T extends Record> extends AutoCloseable {
      */
     long write(T record);
 
+    /**
+     * Writes a record and returns a future completed with its sequence ID once the record has been
+     * handed to the persistence driver (made durable per the driver's flush policy). Write-behind
+     * ledgers complete it from the writer thread; the default is for ledgers whose {@link #write}
+     * persists before returning.
+     *
+     * @param record The record to write.
+     * @return future of the sequence ID; failed if the ledger did not accept or could not persist the record.
+     */
+    default CompletableFuture<Long> writeAsync(T record) {
+        long sequenceId = write(record);
+        if (sequenceId < 0) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Ledger did not accept the write"));
+        }
+        return CompletableFuture.completedFuture(sequenceId);
+    }
+
+    /**
+     * Waits until every record up to {@code sequenceId} has been handed to the persistence driver,
+     * without flushing the rest of the ledger.
+     *
+     * @param sequenceId The sequence ID to wait for.
+     * @param timeout    Maximum time to wait.
+     * @return true once persisted; false on timeout or if persisting that record failed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    default boolean awaitPersisted(long sequenceId, Duration timeout) throws InterruptedException {
+        return true;
+    }
+
     /**
      * Reads records from the ledger forward.
      *
@@ -27,6 +59,20 @@ public interface Ledger<T extends Record> extends AutoCloseable {
      */
     void read(long fromSequence, Predicate<T> filter, ReadCallback<T> callback);
 
+    /**
+     * Reads records forward, testing lines read from disk with {@code rawFilter} before decoding
+     * them. Meant for selective scans (one symbol, one venue) where most lines are skipped; the
+     * default, for ledgers that do not read lines, ignores the raw filter.
+     *
+     * @param fromSequence The sequence ID to start reading from (-1 means from the beginning).
+     * @param rawFilter    Optional pre-filter on undecoded lines (null means none); see {@link RawLineFilter}.
+     * @param filter       Optional filter (null means no filtering).
+     * @param callback     Callback for each record (returns true to continue, false to stop).
+     */
+    default void read(long fromSequence, RawLineFilter rawFilter, Predicate<T> filter, ReadCallback<T> callback) {
+        read(fromSequence, filter, callback);
+    }
+
     /**
      * Reads records from the ledger in reverse.
      *
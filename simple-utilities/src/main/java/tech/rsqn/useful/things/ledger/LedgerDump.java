@@ -0,0 +1,78 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Dumps a ledger file (plain or ZSTD, any mix of JSONL and {@link BinaryRecordCodec} lines) as
+ * JSONL. Binary records can only be decoded for record types registered in the given registry.
+ * <p>
+ * Command line:
+ * <pre>
+ * java tech.rsqn.useful.things.ledger.LedgerDump &lt;ledger-file&gt; &lt;type&gt;=&lt;record-class&gt; ...
+ * </pre>
+ * writes JSONL to stdout and the record count to stderr.
+ */
+public final class LedgerDump {
+
+    private LedgerDump() {
+    }
+
+    /**
+     * Writes every decodable record of {@code ledgerFile} to {@code out} as one JSON object per line.
+     *
+     * @return number of records written
+     */
+    public static long dumpJsonl(Path ledgerFile, LedgerRegistry registry, OutputStream out) throws IOException {
+        DiskPersistenceDriver<Record> reader = new DiskPersistenceDriver<>(ledgerFile, registry);
+        if (DiskPersistenceDriver.fileStartsWithZstdMagic(ledgerFile)) {
+            reader.setCompression(LedgerCompression.ZSTD);
+        }
+        reader.init();
+        JsonlRecordCodec json = new JsonlRecordCodec(registry);
+        long[] written = {0};
+        try {
+            reader.read(-1, record -> {
+                try {
+                    out.write(json.encode(record));
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                written[0]++;
+                return true;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+        return written[0];
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: LedgerDump <ledger-file> <type>=<record-class> ...");
+            System.exit(2);
+        }
+        Path ledgerFile = Path.of(args[0]);
+        if (!Files.exists(ledgerFile)) {
+            System.err.println("No such ledger file: " + ledgerFile);
+            System.exit(1);
+        }
+        LedgerRegistry registry = new LedgerRegistry();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq <= 0) {
+                System.err.println("Expected <type>=<record-class>, got " + args[i]);
+                System.exit(2);
+            }
+            Class<?> clazz = Class.forName(args[i].substring(eq + 1));
+            registry.registerRecordType(RecordType.of(args[i].substring(0, eq)), clazz.asSubclass(Record.class));
+        }
+        long count = dumpJsonl(ledgerFile, registry, System.out);
+        System.err.println(count + " records");
+    }
+}
@@ -0,0 +1,93 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a stream into {@code '\n'}-terminated lines as byte ranges of an internal buffer, without
+ * charset decoding (lines may hold binary codec payloads). The range returned by {@link #next()}
+ * is valid until the following call.
+ */
+final class LedgerLineReader implements Closeable {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private int lineStart;
+    private int lineLength;
+
+    LedgerLineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Advances to the next line; {@link #buffer()}, {@link #lineStart()} and {@link #lineLength()}
+     * then describe it, excluding the {@code '\n'}.
+     *
+     * @return false at end of stream
+     */
+    boolean next() throws IOException {
+        int scanFrom = pos;
+        while (true) {
+            for (int i = scanFrom; i < limit; i++) {
+                if (buf[i] == '\n') {
+                    lineStart = pos;
+                    lineLength = i - pos;
+                    pos = i + 1;
+                    return true;
+                }
+            }
+            if (eof) {
+                if (pos < limit) {
+                    lineStart = pos;
+                    lineLength = limit - pos;
+                    pos = limit;
+                    return true;
+                }
+                return false;
+            }
+            scanFrom = fill();
+        }
+    }
+
+    byte[] buffer() {
+        return buf;
+    }
+
+    int lineStart() {
+        return lineStart;
+    }
+
+    int lineLength() {
+        return lineLength;
+    }
+
+    /** Compacts or grows the buffer and reads more; returns where scanning should resume. */
+    private int fill() throws IOException {
+        int pending = limit - pos;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, pending);
+        } else if (pending == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        pos = 0;
+        limit = pending;
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+        return pending;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,119 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.zip.CRC32C;
+
+/**
+ * Checkpoint of a ledger file's totals, kept in the sidecar {@code <ledger>.meta} so opening a
+ * ledger does not have to count every line or decode its tail.
+ * <p>
+ * File layout (little-endian, 48 bytes):
+ * <pre>
+ * magic u32 = 'LMTA' (0x41544D4C)
+ * version u32 = 1
+ * fileLength u64           ledger bytes covered by this checkpoint
+ * recordCount u64          lines in those bytes
+ * lastSequence i64         -1 if none
+ * lastTimestampSeconds i64 Long.MIN_VALUE if none
+ * lastTimestampNanos i32
+ * crc32c u32               of the preceding 44 bytes
+ * </pre>
+ * <p>
+ * The writer replaces the sidecar (temporary file + atomic move) at flush points, at most once per
+ * {@link DiskPersistenceDriver#METADATA_INTERVAL_NANOS}, and on close. Like the other sidecars it is
+ * advisory: a checkpoint that fails its checksum or does not end on a line boundary of the ledger
+ * is ignored.
+ */
+final class LedgerMetadata {
+    static final int MAGIC = 0x41544D4C; // 'LMTA' LE
+    static final int VERSION = 1;
+    static final int SIZE = 48;
+    private static final int CRC_OFFSET = SIZE - 4;
+
+    static final LedgerMetadata EMPTY = new LedgerMetadata(0, 0, -1, null);
+
+    final long fileLength;
+    final long recordCount;
+    final long lastSequence;
+    final Instant lastTimestamp;
+
+    LedgerMetadata(long fileLength, long recordCount, long lastSequence, Instant lastTimestamp) {
+        this.fileLength = fileLength;
+        this.recordCount = recordCount;
+        this.lastSequence = lastSequence;
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    static Path pathFor(Path ledgerFile) {
+        return Path.of(ledgerFile.toString() + ".meta");
+    }
+
+    /**
+     * @return the checkpoint, or null if the sidecar is missing
+     * @throws IOException if it cannot be read or is corrupt
+     */
+    static LedgerMetadata load(Path ledgerFile) throws IOException {
+        Path path = pathFor(ledgerFile);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length != SIZE) {
+            throw new IOException("Invalid ledger metadata size " + bytes.length + " in " + path);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 0, CRC_OFFSET);
+        if ((int) crc.getValue() != buf.getInt(CRC_OFFSET)) {
+            throw new IOException("Ledger metadata checksum mismatch in " + path);
+        }
+        int magic = buf.getInt();
+        int version = buf.getInt();
+        if (magic != MAGIC) {
+            throw new IOException("Invalid ledger metadata magic in " + path);
+        }
+        if (version != VERSION) {
+            throw new IOException("Unsupported ledger metadata version " + version);
+        }
+        long fileLength = buf.getLong();
+        long recordCount = buf.getLong();
+        long lastSequence = buf.getLong();
+        long seconds = buf.getLong();
+        int nanos = buf.getInt();
+        if (fileLength < 0 || recordCount < 0 || recordCount > fileLength) {
+            throw new IOException("Invalid ledger metadata totals in " + path);
+        }
+        Instant lastTimestamp = seconds == Long.MIN_VALUE ? null : Instant.ofEpochSecond(seconds, nanos);
+        return new LedgerMetadata(fileLength, recordCount, lastSequence, lastTimestamp);
+    }
+
+    /** Writes this checkpoint to a temporary file and atomically replaces the sidecar. */
+    void persist(Path ledgerFile) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putLong(fileLength);
+        buf.putLong(recordCount);
+        buf.putLong(lastSequence);
+        buf.putLong(lastTimestamp == null ? Long.MIN_VALUE : lastTimestamp.getEpochSecond());
+        buf.putInt(lastTimestamp == null ? 0 : lastTimestamp.getNano());
+        CRC32C crc = new CRC32C();
+        crc.update(buf.array(), 0, CRC_OFFSET);
+        buf.putInt((int) crc.getValue());
+
+        Path path = pathFor(ledgerFile);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmp, buf.array());
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void delete(Path ledgerFile) throws IOException {
+        Files.deleteIfExists(pathFor(ledgerFile));
+    }
+}
@@ -2,6 +2,7 @@ package tech.rsqn.useful.things.ledger;
 
 import jakarta.annotation.PostConstruct;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -13,6 +14,7 @@ import java.util.concurrent.ConcurrentHashMap;
 public class LedgerRegistry {
     private final Map<RecordType, Ledger<?>> ledgers = new ConcurrentHashMap<>();
     private final Map<RecordType, Class<? extends Record>> recordTypes = new ConcurrentHashMap<>();
+    private final Map<RecordType, RecordSchema> recordSchemas = new ConcurrentHashMap<>();
     
     private Path ledgerDir;
 
@@ -26,6 +28,22 @@ public class LedgerRegistry {
     private Integer defaultNotificationMaxPoolSize;
     private Integer defaultNotificationQueueCapacity;
     private Long defaultNotificationKeepAliveSeconds;
+    private RingBackpressure defaultNotificationBackpressure;
+    private RingBackpressure defaultWriteBackpressure;
+    private Integer defaultWriteQueueCapacity;
+    private NotificationDispatch defaultNotificationDispatch;
+    private ConsumerMode defaultConsumerMode;
+    private LedgerThreadMode defaultThreadMode;
+    private Integer defaultSubscriberLaneCapacity;
+    private LaneOverflow defaultSubscriberLaneOverflow;
+    private long defaultSegmentMaxBytes;
+    private Duration defaultSegmentDuration;
+    private RecordCodec defaultRecordCodec;
+    private DurabilityPolicy defaultDurabilityPolicy;
+    private Integer defaultWriteBufferBytes;
+    private Integer defaultReadParallelism;
+    private Long defaultOffHeapBudgetBytes;
+    private Integer defaultDecodedCacheSize;
 
     public LedgerRegistry() {
     }
@@ -66,10 +84,201 @@ public class LedgerRegistry {
         this.defaultNotificationQueueCapacity = defaultNotificationQueueCapacity;
     }
 
+    /**
+     * Write-behind queue capacity of created ledgers. Default null:
+     * {@link WriteBehindMemoryLedger#DEFAULT_WRITE_QUEUE_CAPACITY}.
+     */
+    public void setDefaultWriteQueueCapacity(Integer defaultWriteQueueCapacity) {
+        this.defaultWriteQueueCapacity = defaultWriteQueueCapacity;
+    }
+
+    public Integer getDefaultWriteQueueCapacity() {
+        return defaultWriteQueueCapacity;
+    }
+
     public void setDefaultNotificationKeepAliveSeconds(long defaultNotificationKeepAliveSeconds) {
         this.defaultNotificationKeepAliveSeconds = defaultNotificationKeepAliveSeconds;
     }
 
+    /**
+     * How writers wait when a ledger's notification ring is full. Default null: they never wait (full-ring
+     * notifications spill to an unbounded overflow list).
+     */
+    public void setDefaultNotificationBackpressure(RingBackpressure defaultNotificationBackpressure) {
+        this.defaultNotificationBackpressure = defaultNotificationBackpressure;
+    }
+
+    public RingBackpressure getDefaultNotificationBackpressure() {
+        return defaultNotificationBackpressure;
+    }
+
+    /**
+     * How writers wait when a ledger's write-behind queue is full. Default null: {@link RingBackpressure#BLOCK}.
+     */
+    public void setDefaultWriteBackpressure(RingBackpressure defaultWriteBackpressure) {
+        this.defaultWriteBackpressure = defaultWriteBackpressure;
+    }
+
+    public RingBackpressure getDefaultWriteBackpressure() {
+        return defaultWriteBackpressure;
+    }
+
+    /**
+     * Subscriber dispatch for ledgers created by this registry. Default null: {@link NotificationDispatch#SHARED}.
+     */
+    public void setDefaultNotificationDispatch(NotificationDispatch defaultNotificationDispatch) {
+        this.defaultNotificationDispatch = defaultNotificationDispatch;
+    }
+
+    public NotificationDispatch getDefaultNotificationDispatch() {
+        return defaultNotificationDispatch;
+    }
+
+    /**
+     * Notification consumer wait strategy for ledgers created by this registry. Default null: {@link ConsumerMode#SPIN}.
+     */
+    public void setDefaultConsumerMode(ConsumerMode defaultConsumerMode) {
+        this.defaultConsumerMode = defaultConsumerMode;
+    }
+
+    public ConsumerMode getDefaultConsumerMode() {
+        return defaultConsumerMode;
+    }
+
+    /**
+     * Thread mode for the writer, notification consumers and subscriber lanes of ledgers created by
+     * this registry. Default null: {@link LedgerThreadMode#PLATFORM}. With
+     * {@link LedgerThreadMode#VIRTUAL} and no default consumer mode, ledgers use
+     * {@link ConsumerMode#HYBRID} so idle consumers park instead of occupying carrier threads.
+     */
+    public void setDefaultThreadMode(LedgerThreadMode defaultThreadMode) {
+        this.defaultThreadMode = defaultThreadMode;
+    }
+
+    public LedgerThreadMode getDefaultThreadMode() {
+        return defaultThreadMode;
+    }
+
+    /**
+     * Subscriber lane capacity of created ledgers (used under {@link NotificationDispatch#PER_SUBSCRIBER}).
+     * Default null: {@link AbstractLedger#DEFAULT_SUBSCRIBER_LANE_CAPACITY}.
+     */
+    public void setDefaultSubscriberLaneCapacity(int defaultSubscriberLaneCapacity) {
+        this.defaultSubscriberLaneCapacity = defaultSubscriberLaneCapacity;
+    }
+
+    public Integer getDefaultSubscriberLaneCapacity() {
+        return defaultSubscriberLaneCapacity;
+    }
+
+    /**
+     * What a full subscriber lane does with the next record, for created ledgers. Default null:
+     * {@link LaneOverflow#BLOCK}.
+     */
+    public void setDefaultSubscriberLaneOverflow(LaneOverflow defaultSubscriberLaneOverflow) {
+        this.defaultSubscriberLaneOverflow = defaultSubscriberLaneOverflow;
+    }
+
+    public LaneOverflow getDefaultSubscriberLaneOverflow() {
+        return defaultSubscriberLaneOverflow;
+    }
+
+    /**
+     * When &gt; 0, ledgers are stored as rolling segments under {@code ledgerDir/<type>/}
+     * (see {@link SegmentedPersistenceDriver}) rolled at this size.
+     */
+    public void setDefaultSegmentMaxBytes(long defaultSegmentMaxBytes) {
+        this.defaultSegmentMaxBytes = defaultSegmentMaxBytes;
+    }
+
+    /**
+     * When set, ledgers are stored as rolling segments under {@code ledgerDir/<type>/}
+     * (see {@link SegmentedPersistenceDriver}) rolled per time window.
+     */
+    public void setDefaultSegmentDuration(Duration defaultSegmentDuration) {
+        this.defaultSegmentDuration = defaultSegmentDuration;
+    }
+
+    /**
+     * Codec for ledgers created by this registry (e.g. {@code new BinaryRecordCodec(registry)}).
+     * Default null: {@link JsonlRecordCodec}.
+     */
+    public void setDefaultRecordCodec(RecordCodec defaultRecordCodec) {
+        this.defaultRecordCodec = defaultRecordCodec;
+    }
+
+    public RecordCodec getDefaultRecordCodec() {
+        return defaultRecordCodec;
+    }
+
+    /**
+     * Fsync policy for ledgers created by this registry. Default null: the
+     * {@link DiskPersistenceDriver} default ({@link DurabilityPolicy#NONE} for plain files).
+     */
+    public void setDefaultDurabilityPolicy(DurabilityPolicy defaultDurabilityPolicy) {
+        this.defaultDurabilityPolicy = defaultDurabilityPolicy;
+    }
+
+    public DurabilityPolicy getDefaultDurabilityPolicy() {
+        return defaultDurabilityPolicy;
+    }
+
+    /**
+     * Append buffer size for plain ledgers created by this registry. Default null:
+     * {@link DiskPersistenceDriver#DEFAULT_WRITE_BUFFER_BYTES}.
+     */
+    public void setDefaultWriteBufferBytes(Integer defaultWriteBufferBytes) {
+        this.defaultWriteBufferBytes = defaultWriteBufferBytes;
+    }
+
+    public Integer getDefaultWriteBufferBytes() {
+        return defaultWriteBufferBytes;
+    }
+
+    /**
+     * ZSTD frames decompressed concurrently per read for ledgers created by this registry. Default
+     * null: {@link DiskPersistenceDriver#setReadParallelism the driver default} (1, sequential).
+     */
+    public void setDefaultReadParallelism(Integer defaultReadParallelism) {
+        this.defaultReadParallelism = defaultReadParallelism;
+    }
+
+    public Integer getDefaultReadParallelism() {
+        return defaultReadParallelism;
+    }
+
+    /**
+     * Off-heap cache budget for ledgers created by this registry (see
+     * {@link MemoryLedger#setOffHeapBudgetBytes}). Default null: records cached on heap.
+     */
+    public void setDefaultOffHeapBudgetBytes(Long defaultOffHeapBudgetBytes) {
+        this.defaultOffHeapBudgetBytes = defaultOffHeapBudgetBytes;
+    }
+
+    public Long getDefaultOffHeapBudgetBytes() {
+        return defaultOffHeapBudgetBytes;
+    }
+
+    /**
+     * Decoded-record cache size for off-heap ledgers created by this registry (see
+     * {@link MemoryLedger#setDecodedCacheSize}). Default null: no decoded cache.
+     */
+    public void setDefaultDecodedCacheSize(Integer defaultDecodedCacheSize) {
+        this.defaultDecodedCacheSize = defaultDecodedCacheSize;
+    }
+
+    public Integer getDefaultDecodedCacheSize() {
+        return defaultDecodedCacheSize;
+    }
+
+    public long getDefaultSegmentMaxBytes() {
+        return defaultSegmentMaxBytes;
+    }
+
+    public Duration getDefaultSegmentDuration() {
+        return defaultSegmentDuration;
+    }
+
     public int getDefaultPreferredMaxSize() {
         return defaultPreferredMaxSize;
     }
@@ -92,12 +301,41 @@ public class LedgerRegistry {
 
     public void registerRecordType(RecordType type, Class<? extends Record> clazz) {
         recordTypes.put(type, clazz);
+        recordSchemas.remove(type);
+    }
+
+    /**
+     * Registers a record type with an explicit {@link BinaryRecordCodec} field layout.
+     */
+    public void registerRecordType(RecordType type, Class<? extends Record> clazz, RecordSchema schema) {
+        if (schema.getRecordClass() != clazz) {
+            throw new IllegalArgumentException("Schema is for " + schema.getRecordClass().getName()
+                    + ", not " + clazz.getName());
+        }
+        recordTypes.put(type, clazz);
+        recordSchemas.put(type, schema);
     }
 
     public Class<? extends Record> getRecordClass(RecordType type) {
         return recordTypes.get(type);
     }
 
+    /**
+     * @return binary field layout for {@code type} (derived from the class on first use unless
+     *         registered explicitly), or null if the type is not registered
+     */
+    public RecordSchema getRecordSchema(RecordType type) {
+        RecordSchema schema = recordSchemas.get(type);
+        if (schema != null) {
+            return schema;
+        }
+        Class<? extends Record> clazz = recordTypes.get(type);
+        if (clazz == null) {
+            return null;
+        }
+        return recordSchemas.computeIfAbsent(type, t -> RecordSchema.of(clazz));
+    }
+
     @SuppressWarnings("unchecked")
     public <T extends Record> Ledger<T> getLedger(RecordType type) {
         return (Ledger<T>) ledgers.computeIfAbsent(type, this::createLedger);
@@ -108,18 +346,55 @@ public class LedgerRegistry {
             throw new IllegalStateException("LedgerRegistry not initialized: ledgerDir must be set");
         }
 
-        String filename = type.getValue() + ".jsonl";
-        Path ledgerFile = ledgerDir.resolve(filename);
-        
         // Create driver
-        DiskPersistenceDriver<Record> driver = new DiskPersistenceDriver<>(ledgerFile, this);
-        driver.setAutoFlush(defaultAutoFlush);
-        driver.setFlushIntervalWrites(defaultFlushIntervalWrites);
-        driver.setFlushIntervalSeconds(defaultFlushIntervalSeconds);
-        driver.init();
-
+        PersistenceDriver<Record> driver;
         try {
-            driver.start();
+            if (defaultSegmentMaxBytes > 0 || defaultSegmentDuration != null) {
+                SegmentedPersistenceDriver<Record> segmented =
+                        new SegmentedPersistenceDriver<>(ledgerDir.resolve(type.getValue()), type.getValue(), this);
+                segmented.setMaxSegmentBytes(defaultSegmentMaxBytes);
+                segmented.setSegmentDuration(defaultSegmentDuration);
+                segmented.setAutoFlush(defaultAutoFlush);
+                segmented.setFlushIntervalWrites(defaultFlushIntervalWrites);
+                segmented.setFlushIntervalSeconds(defaultFlushIntervalSeconds);
+                if (defaultRecordCodec != null) {
+                    segmented.setCodec(defaultRecordCodec);
+                }
+                if (defaultDurabilityPolicy != null) {
+                    segmented.setDurabilityPolicy(defaultDurabilityPolicy);
+                }
+                if (defaultWriteBufferBytes != null) {
+                    segmented.setWriteBufferBytes(defaultWriteBufferBytes);
+                }
+                if (defaultReadParallelism != null) {
+                    segmented.setReadParallelism(defaultReadParallelism);
+                }
+                segmented.init();
+                segmented.start();
+                driver = segmented;
+            } else {
+                String filename = type.getValue() + ".jsonl";
+                Path ledgerFile = ledgerDir.resolve(filename);
+                DiskPersistenceDriver<Record> disk = new DiskPersistenceDriver<>(ledgerFile, this);
+                disk.setAutoFlush(defaultAutoFlush);
+                disk.setFlushIntervalWrites(defaultFlushIntervalWrites);
+                disk.setFlushIntervalSeconds(defaultFlushIntervalSeconds);
+                if (defaultRecordCodec != null) {
+                    disk.setCodec(defaultRecordCodec);
+                }
+                if (defaultDurabilityPolicy != null) {
+                    disk.setDurabilityPolicy(defaultDurabilityPolicy);
+                }
+                if (defaultWriteBufferBytes != null) {
+                    disk.setWriteBufferBytes(defaultWriteBufferBytes);
+                }
+                if (defaultReadParallelism != null) {
+                    disk.setReadParallelism(defaultReadParallelism);
+                }
+                disk.init();
+                disk.start();
+                driver = disk;
+            }
         } catch (java.io.IOException e) {
             throw new RuntimeException("Failed to start ledger driver", e);
         }
@@ -128,6 +403,13 @@ public class LedgerRegistry {
         WriteBehindMemoryLedger<Record> ledger = new WriteBehindMemoryLedger<>(type, driver, null);
         ledger.setPreferredMaxSize(defaultPreferredMaxSize);
         ledger.setAlarmSize(defaultAlarmSize);
+        if (defaultOffHeapBudgetBytes != null) {
+            ledger.setOffHeapBudgetBytes(defaultOffHeapBudgetBytes);
+            ledger.setOffHeapCodec(defaultRecordCodec != null ? defaultRecordCodec : new JsonlRecordCodec(this));
+        }
+        if (defaultDecodedCacheSize != null) {
+            ledger.setDecodedCacheSize(defaultDecodedCacheSize);
+        }
         if (defaultNotificationCorePoolSize != null) {
             ledger.setNotificationCorePoolSize(defaultNotificationCorePoolSize);
         }
@@ -140,6 +422,32 @@ public class LedgerRegistry {
         if (defaultNotificationKeepAliveSeconds != null) {
             ledger.setNotificationKeepAliveSeconds(defaultNotificationKeepAliveSeconds);
         }
+        if (defaultNotificationBackpressure != null) {
+            ledger.setNotificationBackpressure(defaultNotificationBackpressure);
+        }
+        if (defaultWriteBackpressure != null) {
+            ledger.setWriteBackpressure(defaultWriteBackpressure);
+        }
+        if (defaultWriteQueueCapacity != null) {
+            ledger.setWriteQueueCapacity(defaultWriteQueueCapacity);
+        }
+        if (defaultNotificationDispatch != null) {
+            ledger.setNotificationDispatch(defaultNotificationDispatch);
+        }
+        if (defaultConsumerMode != null) {
+            ledger.setConsumerMode(defaultConsumerMode);
+        } else if (defaultThreadMode == LedgerThreadMode.VIRTUAL) {
+            ledger.setConsumerMode(ConsumerMode.HYBRID);
+        }
+        if (defaultThreadMode != null) {
+            ledger.setThreadMode(defaultThreadMode);
+        }
+        if (defaultSubscriberLaneCapacity != null) {
+            ledger.setSubscriberLaneCapacity(defaultSubscriberLaneCapacity);
+        }
+        if (defaultSubscriberLaneOverflow != null) {
+            ledger.setSubscriberLaneOverflow(defaultSubscriberLaneOverflow);
+        }
         ledger.init();
         
         return ledger;
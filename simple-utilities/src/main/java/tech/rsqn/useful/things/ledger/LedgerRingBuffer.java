@@ -0,0 +1,413 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring used as the transport between ledger producers and their writer / notification
+ * threads. It holds at most {@code capacity} elements in a slot ring sized to the next power of
+ * two. Slots are allocated in chunks of {@value #CHUNK_SLOTS} the first time the ring's positions
+ * reach them and reused on every later lap, so a ring that is created but barely used (most record
+ * types of a large registry) costs a small chunk table rather than its full capacity, and nothing
+ * is allocated per element.
+ * <p>
+ * Each slot carries a sequence number that acts as its barrier: a producer may fill slot
+ * {@code s & mask} once its sequence equals {@code s}, and publishes it by storing {@code s + 1};
+ * the consumer takes it at {@code s + 1} and frees it by storing {@code s + slots.length}. Producers
+ * claim positions with a CAS on the tail. The usual setup is many producers and a single consumer;
+ * the head is also claimed by CAS so a small pool of notification threads may share one ring.
+ * <p>
+ * When the ring is full {@link #put} applies the configured {@link RingBackpressure}, while
+ * {@link #putOrSpill} never waits: it moves the element to an unbounded overflow list that
+ * consumers drain after the ring (losing FIFO order across the two). Blocked producers and
+ * consumers wait on lock conditions that are only signalled while somebody is waiting, so the
+ * uncontended path is CAS and volatile stores only, and a waiting consumer uses no CPU. Waiting uses a
+ * {@link ReentrantLock} rather than a monitor so a waiting virtual thread
+ * ({@link LedgerThreadMode#VIRTUAL}) releases its carrier. Consumers that park via
+ * {@link #parkConsumer(long)} ({@link ConsumerMode#HYBRID}) are unparked by the next publish.
+ *
+ * @param <E> element type
+ */
+final class LedgerRingBuffer<E> {
+    private static final VarHandle SEQUENCE = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /** Slots allocated at a time (a power of two). */
+    static final int CHUNK_SLOTS = 1024;
+
+    /** Parked consumers tracked for unpark; more than this just sleep out their park time. */
+    private static final int MAX_PARKED_CONSUMERS = 16;
+
+    private final int capacity;
+    private final int size;
+    private final int mask;
+    private final int chunkShift;
+    private final int chunkMask;
+    private final AtomicReferenceArray<Chunk> chunks;
+    private final RingBackpressure backpressure;
+    private final ConcurrentLinkedQueue<E> overflow = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger overflowSize = new AtomicInteger();
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicInteger waitingProducers = new AtomicInteger();
+    private final AtomicInteger waitingConsumers = new AtomicInteger();
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Condition notFull = waitLock.newCondition();
+    private final Condition notEmpty = waitLock.newCondition();
+    private final AtomicReferenceArray<Thread> parkedConsumers = new AtomicReferenceArray<>(MAX_PARKED_CONSUMERS);
+    private final AtomicInteger parkedCount = new AtomicInteger();
+    private volatile long lastWakeSignalNanos = Long.MIN_VALUE;
+
+    LedgerRingBuffer(int capacity, RingBackpressure backpressure) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        this.capacity = capacity;
+        // Two slots minimum: with one slot a freed sequence would equal the next publish sequence.
+        this.size = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        this.mask = size - 1;
+        int chunkSlots = Math.min(size, CHUNK_SLOTS);
+        this.chunkShift = Integer.numberOfTrailingZeros(chunkSlots);
+        this.chunkMask = chunkSlots - 1;
+        this.chunks = new AtomicReferenceArray<>(size / chunkSlots);
+        this.backpressure = Objects.requireNonNull(backpressure, "backpressure");
+    }
+
+    /**
+     * Chunk holding ring index {@code index}, allocating it on first use. Only producers allocate:
+     * a position is claimed only after its slot was read here, so the first touch of a chunk is
+     * always on the first lap, where each slot's sequence starts at its index.
+     */
+    private Chunk chunkFor(int index) {
+        int c = index >>> chunkShift;
+        Chunk chunk = chunks.get(c);
+        if (chunk == null) {
+            chunk = new Chunk(c << chunkShift, chunkMask + 1);
+            if (!chunks.compareAndSet(c, null, chunk)) {
+                chunk = chunks.get(c);
+            }
+        }
+        return chunk;
+    }
+
+    /** Sequence of ring index {@code index}; a chunk not yet allocated still has its initial sequences. */
+    private long sequenceAt(int index) {
+        Chunk chunk = chunks.get(index >>> chunkShift);
+        return chunk == null ? index : (long) SEQUENCE.getVolatile(chunk.sequences, index & chunkMask);
+    }
+
+    /** Slots allocated so far. */
+    int allocatedSlots() {
+        int n = 0;
+        for (int i = 0; i < chunks.length(); i++) {
+            if (chunks.get(i) != null) {
+                n += chunkMask + 1;
+            }
+        }
+        return n;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /** Elements pending, including any in the overflow list. */
+    int size() {
+        long pending = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(capacity, pending)) + overflowSize.get();
+    }
+
+    int remainingCapacity() {
+        return Math.max(0, capacity - size());
+    }
+
+    /**
+     * Publishes {@code element} if a slot is free and nothing is waiting in the overflow list, so
+     * an element never overtakes one that was spilled before it.
+     *
+     * @return false if the ring is full
+     */
+    boolean offer(E element) {
+        Objects.requireNonNull(element, "element");
+        if (overflowSize.get() > 0) {
+            return false;
+        }
+        long pos = tail.get();
+        while (true) {
+            int index = (int) pos & mask;
+            Chunk chunk = chunkFor(index);
+            int offset = index & chunkMask;
+            long diff = (long) SEQUENCE.getVolatile(chunk.sequences, offset) - pos;
+            if (diff == 0) {
+                if (pos - head.get() >= capacity) {
+                    return false;
+                }
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    chunk.slots[offset] = element;
+                    SEQUENCE.setVolatile(chunk.sequences, offset, pos + 1);
+                    wakeConsumers();
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    private void wakeConsumers() {
+        if (waitingConsumers.get() > 0) {
+            signal(notEmpty);
+        }
+        if (parkedCount.get() > 0) {
+            unparkConsumers();
+        }
+    }
+
+    /**
+     * Publishes {@code element} without ever waiting: into the ring if a slot is free, otherwise
+     * into the unbounded overflow list. Elements from a single producer stay in FIFO order: the
+     * ring is claimed before the overflow, and {@link #offer} refuses while the overflow is non-empty.
+     */
+    void putOrSpill(E element) {
+        if (offer(element)) {
+            return;
+        }
+        overflow.add(element);
+        overflowSize.incrementAndGet();
+        wakeConsumers();
+    }
+
+    /**
+     * Publishes {@code element}, waiting for a free slot according to the ring's
+     * {@link RingBackpressure} while full.
+     */
+    void put(E element) throws InterruptedException {
+        while (!offer(element)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            switch (backpressure) {
+                case SPIN -> Thread.onSpinWait();
+                case YIELD -> Thread.yield();
+                default -> awaitNotFull();
+            }
+        }
+    }
+
+    /** @return the next element, or null if the ring is empty */
+    E poll() {
+        E element = claim();
+        if (element != null && waitingProducers.get() > 0) {
+            signal(notFull);
+        }
+        return element;
+    }
+
+    /** Waits until an element is available. */
+    E take() throws InterruptedException {
+        while (true) {
+            E element = poll();
+            if (element != null) {
+                return element;
+            }
+            awaitNotEmpty(0);
+        }
+    }
+
+    /** @return the next element, or null if none arrived within the timeout */
+    E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            E element = poll();
+            if (element != null) {
+                return element;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            awaitNotEmpty(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+        }
+    }
+
+    /**
+     * Moves up to {@code maxElements} available elements into {@code target} without waiting.
+     *
+     * @return number of elements moved
+     */
+    int drainTo(Collection<? super E> target, int maxElements) {
+        int n = 0;
+        E element;
+        while (n < maxElements && (element = claim()) != null) {
+            target.add(element);
+            n++;
+        }
+        if (n > 0 && waitingProducers.get() > 0) {
+            signal(notFull);
+        }
+        return n;
+    }
+
+    /** Takes the next element from the ring, then from the overflow list. */
+    private E claim() {
+        E element = claimFromRing();
+        if (element == null && overflowSize.get() > 0) {
+            element = overflow.poll();
+            if (element != null) {
+                overflowSize.decrementAndGet();
+            }
+        }
+        return element;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E claimFromRing() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequenceAt(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    Chunk chunk = chunks.get(index >>> chunkShift);
+                    int offset = index & chunkMask;
+                    E element = (E) chunk.slots[offset];
+                    chunk.slots[offset] = null;
+                    SEQUENCE.setVolatile(chunk.sequences, offset, pos + size);
+                    return element;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    private boolean isFull() {
+        long pos = tail.get();
+        return pos - head.get() >= capacity || sequenceAt((int) pos & mask) < pos || overflowSize.get() > 0;
+    }
+
+    private boolean isEmpty() {
+        long pos = head.get();
+        return sequenceAt((int) pos & mask) < pos + 1 && overflowSize.get() == 0;
+    }
+
+    private void awaitNotFull() throws InterruptedException {
+        waitingProducers.incrementAndGet();
+        try {
+            waitLock.lockInterruptibly();
+            try {
+                if (isFull()) {
+                    notFull.await();
+                }
+            } finally {
+                waitLock.unlock();
+            }
+        } finally {
+            waitingProducers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Parks the calling consumer for up to {@code nanos} unless an element is available; a
+     * publishing producer unparks it early.
+     */
+    void parkConsumer(long nanos) {
+        Thread current = Thread.currentThread();
+        int slot = -1;
+        for (int i = 0; i < MAX_PARKED_CONSUMERS; i++) {
+            if (parkedConsumers.compareAndSet(i, null, current)) {
+                slot = i;
+                break;
+            }
+        }
+        parkedCount.incrementAndGet();
+        try {
+            if (isEmpty()) {
+                LockSupport.parkNanos(this, nanos);
+            }
+        } finally {
+            parkedCount.decrementAndGet();
+            if (slot >= 0) {
+                parkedConsumers.set(slot, null);
+            }
+        }
+    }
+
+    /** {@link System#nanoTime()} of the last publish that unparked consumers, or {@link Long#MIN_VALUE}. */
+    long lastWakeSignalNanos() {
+        return lastWakeSignalNanos;
+    }
+
+    private void unparkConsumers() {
+        lastWakeSignalNanos = System.nanoTime();
+        for (int i = 0; i < MAX_PARKED_CONSUMERS; i++) {
+            Thread t = parkedConsumers.get(i);
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /**
+     * Waits until an element may be available, for at most {@code millis} ({@code 0}: until
+     * signalled or interrupted). May return early; callers poll again.
+     */
+    void awaitNotEmpty(long millis) throws InterruptedException {
+        waitingConsumers.incrementAndGet();
+        try {
+            waitLock.lockInterruptibly();
+            try {
+                if (isEmpty()) {
+                    if (millis > 0) {
+                        notEmpty.await(millis, TimeUnit.MILLISECONDS);
+                    } else {
+                        notEmpty.await();
+                    }
+                }
+            } finally {
+                waitLock.unlock();
+            }
+        } finally {
+            waitingConsumers.decrementAndGet();
+        }
+    }
+
+    private void signal(Condition condition) {
+        waitLock.lock();
+        try {
+            condition.signalAll();
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    /** {@value #CHUNK_SLOTS} slots (fewer for a small ring) and their sequence barriers. */
+    private static final class Chunk {
+        final long[] sequences;
+        final Object[] slots;
+
+        Chunk(int firstIndex, int length) {
+            sequences = new long[length];
+            slots = new Object[length];
+            for (int i = 0; i < length; i++) {
+                sequences[i] = firstIndex + i;
+            }
+        }
+    }
+}
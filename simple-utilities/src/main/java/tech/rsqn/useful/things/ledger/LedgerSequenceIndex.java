@@ -0,0 +1,303 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Sparse sidecar index mapping sampled sequence ids to a byte offset in the ledger file where a
+ * forward read may start: a JSONL line start for plain ledgers, a frame start for ZSTD ledgers.
+ * The record found at {@code fileOffset} has sequence id {@code sequenceId}, and only records whose
+ * id is greater than every earlier id are sampled, so every record before that offset has a
+ * smaller id even when concurrent writers append ids slightly out of order. The {@code unordered}
+ * flag records whether any id in the ledger is not greater than the one before it; only a fully
+ * ordered ledger may stop reading at the first id past a bound.
+ * <p>
+ * File layout (little-endian):
+ * <pre>
+ * magic u32 = 'SQIX' (0x58495153)
+ * version u32 = 2
+ * entryCount u64
+ * unordered u64 (0 or 1)
+ * repeated entryCount times:
+ *   sequenceId u64
+ *   fileOffset u64
+ * </pre>
+ * <p>
+ * Samples are queued with {@link #addPending} and written by {@link #persistPending} once the
+ * ledger bytes they point at have been flushed. The sidecar is advisory: it is validated against
+ * the ledger on open and a stale or missing file is rebuilt, never trusted blindly.
+ */
+final class LedgerSequenceIndex {
+    static final int MAGIC = 0x58495153; // 'SQIX' LE
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+    static final int ENTRY_SIZE = 8 + 8;
+    private static final int COUNT_OFFSET = 8;
+    private static final int UNORDERED_OFFSET = 16;
+
+    private final Path indexPath;
+    private long[] sequences = new long[16];
+    private long[] offsets = new long[16];
+    private int count;
+    private long[] pending = new long[8];
+    private int pendingCount;
+    private boolean ordered = true;
+    private boolean orderPending;
+
+    LedgerSequenceIndex(Path ledgerFile) {
+        this.indexPath = Path.of(ledgerFile.toString() + ".seq");
+    }
+
+    Path getIndexPath() {
+        return indexPath;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    synchronized long sequenceAt(int i) {
+        return sequences[i];
+    }
+
+    synchronized long offsetAt(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * @return offset of the last sample whose sequence id is {@code <= sequenceId}, or {@code -1}
+     *         if every sample is newer (read from the start of the file)
+     */
+    synchronized long floorOffset(long sequenceId) {
+        int idx = Arrays.binarySearch(sequences, 0, count, sequenceId);
+        if (idx < 0) {
+            idx = -idx - 2;
+        }
+        return idx < 0 ? -1 : offsets[idx];
+    }
+
+    /** Sequence id of the newest persisted or pending sample, or {@link Long#MIN_VALUE}. */
+    synchronized long lastSequence() {
+        if (pendingCount > 0) {
+            return pending[(pendingCount - 1) * 2];
+        }
+        return count > 0 ? sequences[count - 1] : Long.MIN_VALUE;
+    }
+
+    synchronized void addPending(long sequenceId, long fileOffset) {
+        if (pending.length < (pendingCount + 1) * 2) {
+            pending = Arrays.copyOf(pending, pending.length * 2);
+        }
+        pending[pendingCount * 2] = sequenceId;
+        pending[pendingCount * 2 + 1] = fileOffset;
+        pendingCount++;
+    }
+
+    /** @return false once any id in the ledger was found not greater than the one before it */
+    synchronized boolean isOrdered() {
+        return ordered;
+    }
+
+    /** Records that the ledger holds out-of-order ids; persisted with the next samples. */
+    synchronized void markUnordered() {
+        if (ordered) {
+            ordered = false;
+            orderPending = true;
+        }
+    }
+
+    synchronized boolean hasPending() {
+        return pendingCount > 0 || orderPending;
+    }
+
+    synchronized void clearPending() {
+        pendingCount = 0;
+    }
+
+    /**
+     * Appends pending samples to the sidecar and updates {@code entryCount} in place. Entry bytes
+     * are written before the count, so a crash leaves ignorable trailing bytes.
+     */
+    synchronized void persistPending() throws IOException {
+        if (pendingCount == 0 && !orderPending) {
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(indexPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            long expectedSize = HEADER_SIZE + count * (long) ENTRY_SIZE;
+            if (ch.size() < expectedSize) {
+                rewrite(ch, count);
+            }
+            ch.position(expectedSize);
+            ByteBuffer buf = ByteBuffer.allocate(pendingCount * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < pendingCount * 2; i++) {
+                buf.putLong(pending[i]);
+            }
+            buf.flip();
+            writeFully(ch, buf);
+            writeHeaderLong(ch, UNORDERED_OFFSET, ordered ? 0 : 1);
+            writeHeaderLong(ch, COUNT_OFFSET, count + pendingCount);
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            add(pending[i * 2], pending[i * 2 + 1]);
+        }
+        pendingCount = 0;
+        orderPending = false;
+    }
+
+    /**
+     * Loads the sidecar.
+     *
+     * @return false if the sidecar does not exist or is empty
+     * @throws IOException if the sidecar is corrupt
+     */
+    synchronized boolean load() throws IOException {
+        count = 0;
+        pendingCount = 0;
+        ordered = true;
+        orderPending = false;
+        if (!Files.exists(indexPath) || Files.size(indexPath) == 0) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(ch, header);
+            header.flip();
+            int magic = header.getInt();
+            int version = header.getInt();
+            long entryCount = header.getLong();
+            long unordered = header.getLong();
+            if (magic != MAGIC) {
+                throw new IOException("Invalid ledger sequence index magic in " + indexPath);
+            }
+            if (version != VERSION) {
+                throw new IOException("Unsupported ledger sequence index version " + version);
+            }
+            if (entryCount < 0 || entryCount > Integer.MAX_VALUE / 2
+                    || ch.size() < HEADER_SIZE + entryCount * ENTRY_SIZE) {
+                throw new IOException("Invalid ledger sequence index entry count " + entryCount);
+            }
+            ByteBuffer entries = ByteBuffer.allocate((int) entryCount * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(ch, entries);
+            entries.flip();
+            for (int i = 0; i < entryCount; i++) {
+                add(entries.getLong(), entries.getLong());
+            }
+            ordered = unordered == 0;
+        }
+        return true;
+    }
+
+    /** Drops samples at or beyond {@code fileSize} (sidecar ahead of a truncated ledger). */
+    synchronized void dropEntriesAtOrBeyond(long fileSize) throws IOException {
+        int keep = count;
+        while (keep > 0 && offsets[keep - 1] >= fileSize) {
+            keep--;
+        }
+        if (keep == count) {
+            return;
+        }
+        count = keep;
+        try (FileChannel ch = FileChannel.open(indexPath, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            writeHeaderLong(ch, COUNT_OFFSET, count);
+            ch.truncate(HEADER_SIZE + count * (long) ENTRY_SIZE);
+        }
+    }
+
+    /** @return true if sampled sequence ids and offsets are strictly increasing */
+    synchronized boolean isMonotonic() {
+        for (int i = 1; i < count; i++) {
+            if (sequences[i] <= sequences[i - 1] || offsets[i] <= offsets[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces all samples with {@code samples} (packed sequenceId, fileOffset pairs).
+     *
+     * @param ordered whether every id in the ledger is greater than the one before it
+     */
+    synchronized void replaceAll(long[] samples, int sampleCount, boolean ordered) throws IOException {
+        count = 0;
+        pendingCount = 0;
+        this.ordered = ordered;
+        this.orderPending = false;
+        for (int i = 0; i < sampleCount; i++) {
+            add(samples[i * 2], samples[i * 2 + 1]);
+        }
+        Path parent = indexPath.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (FileChannel ch = FileChannel.open(indexPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            rewrite(ch, count);
+        }
+    }
+
+    synchronized void delete() throws IOException {
+        count = 0;
+        pendingCount = 0;
+        ordered = true;
+        orderPending = false;
+        Files.deleteIfExists(indexPath);
+    }
+
+    private void add(long sequenceId, long fileOffset) {
+        if (sequences.length == count) {
+            sequences = Arrays.copyOf(sequences, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        sequences[count] = sequenceId;
+        offsets[count] = fileOffset;
+        count++;
+    }
+
+    private void rewrite(FileChannel ch, int entries) throws IOException {
+        ch.truncate(0);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + entries * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putLong(entries);
+        buf.putLong(ordered ? 0 : 1);
+        for (int i = 0; i < entries; i++) {
+            buf.putLong(sequences[i]);
+            buf.putLong(offsets[i]);
+        }
+        buf.flip();
+        ch.position(0);
+        writeFully(ch, buf);
+    }
+
+    private static void writeHeaderLong(FileChannel ch, int headerOffset, long value) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putLong(value);
+        buf.flip();
+        ch.position(headerOffset);
+        writeFully(ch, buf);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) {
+                throw new EOFException("Unexpected EOF reading " + ch);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package tech.rsqn.useful.things.ledger;
+
+/**
+ * What a ledger runs its background loops (write-behind writer, notification consumers,
+ * {@link SubscriberLane}s) on. Each loop is still one thread, so per-ledger and per-lane ordering is
+ * the same in both modes.
+ *
+ * <ul>
+ *   <li><b>PLATFORM</b> — one daemon platform thread per loop (default). Lowest hand-off latency;
+ *       a registry with many record types runs several OS threads per type, mostly idle.</li>
+ *   <li><b>VIRTUAL</b> — one virtual thread per loop, multiplexed onto the JVM's shared carrier
+ *       pool (one carrier per core). Idle loops hold no OS thread, so thread count, stack memory and
+ *       context switches stay flat as record types are added. Pair with {@link ConsumerMode#BLOCK}
+ *       or {@link ConsumerMode#HYBRID}: idle {@link ConsumerMode#SPIN} consumers keep re-mounting
+ *       and occupy the carriers.</li>
+ * </ul>
+ */
+public enum LedgerThreadMode {
+    PLATFORM,
+    VIRTUAL;
+
+    /** Creates an unstarted daemon thread for {@code task}. */
+    Thread newThread(Runnable task, String name) {
+        if (this == VIRTUAL) {
+            return Thread.ofVirtual().name(name).unstarted(task);
+        }
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        return t;
+    }
+}
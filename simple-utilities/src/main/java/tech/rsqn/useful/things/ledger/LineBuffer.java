@@ -0,0 +1,58 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable, reusable byte buffer that {@link RecordCodec.LineEncoder}s write into. Not
+ * thread-safe and unsynchronized, unlike {@link java.io.ByteArrayOutputStream}.
+ */
+final class LineBuffer extends OutputStream {
+    /** {@link #reset()} drops a backing array that grew past this, so one huge batch is not kept. */
+    private static final int RETAIN_MAX = 8 * 1024 * 1024;
+    private static final int INITIAL = 8 * 1024;
+    /** Largest array size the JVM reliably allocates. */
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private byte[] buf = new byte[INITIAL];
+    private int count;
+
+    @Override
+    public void write(int b) {
+        ensure(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensure(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /** Backing array; valid bytes are {@code [0, size())}. */
+    byte[] array() {
+        return buf;
+    }
+
+    int size() {
+        return count;
+    }
+
+    void reset() {
+        count = 0;
+        if (buf.length > RETAIN_MAX) {
+            buf = new byte[INITIAL];
+        }
+    }
+
+    /** @param capacity bytes needed; negative when {@code count + len} overflowed */
+    private void ensure(int capacity) {
+        if (capacity < 0 || capacity > MAX_CAPACITY) {
+            throw new OutOfMemoryError("LineBuffer cannot hold more than " + MAX_CAPACITY + " bytes");
+        }
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, (int) Math.max(capacity, Math.min(buf.length * 2L, MAX_CAPACITY)));
+        }
+    }
+}
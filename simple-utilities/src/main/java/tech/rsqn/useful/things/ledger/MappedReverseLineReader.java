@@ -0,0 +1,136 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a plain ledger file's {@code '\n'}-terminated lines newest-first from a memory mapping.
+ * <p>
+ * The file is mapped in read-only windows of up to {@link #DEFAULT_WINDOW} bytes walking back from
+ * the end (so files over 2 GiB work); a window is re-mapped to end at the current line when a line
+ * crosses its start. Newlines are found eight bytes at a time with a SWAR zero-byte test, and each
+ * line is copied once, in order, into a reusable array for decoding (no per-byte copy or reversal).
+ * The file length is fixed at construction; bytes appended later are not seen. The range returned
+ * by {@link #previous()} is valid until the following call.
+ */
+final class MappedReverseLineReader implements Closeable {
+    static final int DEFAULT_WINDOW = 64 * 1024 * 1024;
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final FileChannel channel;
+    private final int windowSize;
+    private MappedByteBuffer window;
+    /** File offset of {@link #window}'s first byte. */
+    private long windowStart;
+    /** File offset just past the next line to return (its {@code '\n'} excluded). */
+    private long cursor;
+    private byte[] line = new byte[8 * 1024];
+    private int lineLength;
+
+    MappedReverseLineReader(Path file) throws IOException {
+        this(file, DEFAULT_WINDOW);
+    }
+
+    MappedReverseLineReader(Path file, int windowSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.windowSize = windowSize;
+        this.cursor = channel.size();
+        this.windowStart = cursor;
+    }
+
+    /**
+     * Moves to the previous line; {@link #buffer()} then holds it from index 0 for
+     * {@link #lineLength()} bytes. Empty lines are returned too.
+     *
+     * @return false once the start of the file has been passed
+     */
+    boolean previous() throws IOException {
+        if (cursor < 0) {
+            return false;
+        }
+        long end = cursor;
+        long start;
+        while (true) {
+            if (window == null || end - windowStart < 0 || (end > windowStart + window.capacity())) {
+                map(end, windowSize);
+            }
+            int nl = lastNewline(window, (int) (end - windowStart));
+            if (nl >= 0) {
+                start = windowStart + nl + 1;
+                cursor = windowStart + nl;
+                break;
+            }
+            if (windowStart == 0) {
+                start = 0;
+                cursor = -1;
+                break;
+            }
+            // The line crosses the window start: map a window ending at this line, bigger if needed.
+            long lineSoFar = end - windowStart;
+            map(end, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(windowSize, lineSoFar * 2)));
+        }
+        copyLine(start, end);
+        return true;
+    }
+
+    byte[] buffer() {
+        return line;
+    }
+
+    int lineLength() {
+        return lineLength;
+    }
+
+    private void map(long end, int size) throws IOException {
+        long start = Math.max(0, end - size);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        windowStart = start;
+    }
+
+    private void copyLine(long start, long end) {
+        int len = (int) (end - start);
+        if (len > line.length) {
+            line = new byte[Math.max(len, line.length * 2)];
+        }
+        window.get((int) (start - windowStart), line, 0, len);
+        lineLength = len;
+    }
+
+    /** Index of the last {@code '\n'} in {@code buf[0, end)}, or -1. */
+    static int lastNewline(MappedByteBuffer buf, int end) {
+        int i = end;
+        while (i >= 8) {
+            long x = buf.getLong(i - 8) ^ NEWLINES;
+            if (((x - LOW_BITS) & ~x & HIGH_BITS) != 0) {
+                // At least one of these eight bytes is '\n' (the test can flag extra bytes above a
+                // match, so confirm byte by byte from the top).
+                for (int k = i - 1; k >= i - 8; k--) {
+                    if (buf.get(k) == '\n') {
+                        return k;
+                    }
+                }
+            }
+            i -= 8;
+        }
+        while (--i >= 0) {
+            if (buf.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
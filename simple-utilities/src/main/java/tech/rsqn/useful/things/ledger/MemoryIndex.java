@@ -0,0 +1,166 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Secondary index of a {@link MemoryLedger}: key → sequence ids of the cached records with that key.
+ * <p>
+ * The index holds sequence ids, not records, so it works the same for on-heap and off-heap caches.
+ * A unique index keeps the newest id per key; a multi-valued one keeps every id in ascending order.
+ * Entries are added on write and pruned below the cache's oldest sequence id on housekeeping;
+ * between the two, callers resolve ids against the cache and re-check the key (see
+ * {@link MemoryLedger#lookup}), so an evicted or replaced record is never returned.
+ *
+ * @param <T> record type
+ */
+final class MemoryIndex<T> {
+    private static final long[] NONE = new long[0];
+
+    private final String name;
+    private final Function<? super T, ?> keyExtractor;
+    private final boolean unique;
+    private final ConcurrentHashMap<Object, Long> newest = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Object, SequenceList> all = new ConcurrentHashMap<>();
+
+    MemoryIndex(String name, Function<? super T, ?> keyExtractor, boolean unique) {
+        this.name = Objects.requireNonNull(name, "name");
+        this.keyExtractor = Objects.requireNonNull(keyExtractor, "keyExtractor");
+        this.unique = unique;
+    }
+
+    String name() {
+        return name;
+    }
+
+    boolean isUnique() {
+        return unique;
+    }
+
+    /** @return the key of {@code record}, or null if it is not indexed */
+    Object keyOf(T record) {
+        return keyExtractor.apply(record);
+    }
+
+    void add(long sequence, T record) {
+        Object key = keyOf(record);
+        if (key == null) {
+            return;
+        }
+        if (unique) {
+            newest.merge(key, sequence, Math::max);
+        } else {
+            all.compute(key, (k, list) -> {
+                SequenceList target = list == null ? new SequenceList() : list;
+                target.add(sequence);
+                return target;
+            });
+        }
+    }
+
+    /** @return sequence ids recorded for {@code key}, ascending */
+    long[] sequences(Object key) {
+        if (key == null) {
+            return NONE;
+        }
+        if (unique) {
+            Long sequence = newest.get(key);
+            return sequence == null ? NONE : new long[]{sequence};
+        }
+        SequenceList list = all.get(key);
+        return list == null ? NONE : list.snapshot();
+    }
+
+    /**
+     * Newest id for {@code key} below {@code bound}, without copying the key's ids; call again with
+     * the returned id to walk backwards.
+     *
+     * @return the id, or -1 if there is none
+     */
+    long lastSequenceBelow(Object key, long bound) {
+        if (key == null) {
+            return -1;
+        }
+        if (unique) {
+            Long sequence = newest.get(key);
+            return sequence == null || sequence >= bound ? -1 : sequence;
+        }
+        SequenceList list = all.get(key);
+        if (list == null) {
+            return -1;
+        }
+        return bound == Long.MAX_VALUE ? list.last() : list.lastBelow(bound);
+    }
+
+    /** Drops ids below {@code floor} and keys left without any. */
+    void pruneBelow(long floor) {
+        if (unique) {
+            newest.values().removeIf(sequence -> sequence < floor);
+            return;
+        }
+        for (Object key : all.keySet()) {
+            all.computeIfPresent(key, (k, list) -> list.dropBelow(floor) ? null : list);
+        }
+    }
+
+    int keyCount() {
+        return unique ? newest.size() : all.size();
+    }
+
+    /** Ascending sequence ids for one key; appends are usually in order, trims drop a prefix. */
+    private static final class SequenceList {
+        private long[] values = new long[4];
+        private int start;
+        private int end;
+
+        synchronized void add(long sequence) {
+            if (end == values.length) {
+                int live = end - start;
+                if (live * 2 > values.length) {
+                    values = Arrays.copyOfRange(values, start, start + values.length * 2);
+                } else {
+                    System.arraycopy(values, start, values, 0, live);
+                }
+                start = 0;
+                end = live;
+            }
+            int at = end;
+            // Write-behind producers can arrive slightly out of order.
+            while (at > start && values[at - 1] > sequence) {
+                at--;
+            }
+            if (at > start && values[at - 1] == sequence) {
+                return;
+            }
+            System.arraycopy(values, at, values, at + 1, end - at);
+            values[at] = sequence;
+            end++;
+        }
+
+        synchronized long[] snapshot() {
+            return Arrays.copyOfRange(values, start, end);
+        }
+
+        /** @return the newest id, or -1 if empty */
+        synchronized long last() {
+            return end > start ? values[end - 1] : -1;
+        }
+
+        /** @return the newest id below {@code bound}, or -1 */
+        synchronized long lastBelow(long bound) {
+            int at = Arrays.binarySearch(values, start, end, bound);
+            int before = (at >= 0 ? at : -at - 1) - 1;
+            return before >= start ? values[before] : -1;
+        }
+
+        /** @return true if nothing is left */
+        synchronized boolean dropBelow(long floor) {
+            while (start < end && values[start] < floor) {
+                start++;
+            }
+            return start == end;
+        }
+    }
+}
@@ -2,10 +2,15 @@ package tech.rsqn.useful.things.ledger;
 
 import jakarta.annotation.PostConstruct;
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 import java.util.logging.Level;
@@ -13,28 +18,55 @@ import java.util.logging.Logger;
 
 /**
  * Memory-first ledger implementation extending DiskLedger.
- * Hydrates from disk on startup, then serves reads from memory only.
+ * Hydrates the newest records from disk on startup, then serves reads from memory only.
  * Writes go to both memory and disk (via super).
  * <p>
  * {@link #size()} returns the number of records currently held in memory (after optional
  * {@link #retentionFilter} during {@link #hydrate()}), not the raw JSONL line count on disk.
  * The cached disk line count is available as {@code healthCheck().get("diskLineCount")} (see
  * {@link DiskLedger#getDiskLogicalLineCount()}).
+ * <p>
+ * Records are held in a {@link SequenceChunkStore} indexed by sequence id, so {@code read} and
+ * {@code readReverse} seek straight to {@code fromSequence} and walk contiguous slots instead of
+ * scanning the cache from one end, and trimming releases whole chunks.
+ * <p>
+ * With {@link #setOffHeapBudgetBytes} the cache is an {@link OffHeapRecordStore} instead: records
+ * are kept encoded in direct memory bounded by that many bytes and decoded on read, so a large
+ * window adds nothing per record to the heap. The byte budget then replaces
+ * {@link #preferredMaxSize} for hydration and trimming, and {@link #alarmSize} is not checked.
+ * <p>
+ * Secondary indexes registered with {@link #addIndex} map a key taken from each record (an
+ * {@code eventId}, an instrument symbol) to the cached records carrying it, so {@link #lookup} and
+ * {@link #latest} answer point queries without scanning the cache. They cover what is in memory;
+ * older records are only found by {@link #read}.
  *
  * @param <T> The type of record stored.
  */
 public class MemoryLedger<T extends Record> extends DiskLedger<T> {
     private static final Logger LOG = Logger.getLogger(MemoryLedger.class.getName());
-    protected final ConcurrentLinkedDeque<T> memory = new ConcurrentLinkedDeque<>();
-    protected final AtomicLong memorySize = new AtomicLong(0);
+
+    /** Name of the unique index registered by {@link #addEventIdIndex()}. */
+    public static final String EVENT_ID_INDEX = "eventId";
+
+    MemoryRecordStore<T> memory = new SequenceChunkStore<>();
     protected int preferredMaxSize = 10000;
     protected int alarmSize = 100000;
     protected final Predicate<T> retentionFilter;
     
+    private long offHeapBudgetBytes;
+    private RecordCodec offHeapCodec;
+    private int decodedCacheSize;
+    private boolean retentionFilterOrdered;
+    private volatile boolean initialised;
+    private final Map<String, MemoryIndex<T>> indexes = new ConcurrentHashMap<>();
+
     private final Object housekeepingLock = new Object();
     private volatile long lastAlarmLogTime = 0;
     private static final long ALARM_LOG_INTERVAL_MS = 5000; // 5 seconds
 
+    /** Records per batch cached by the forward pass of an off-heap {@link #hydrate()}. */
+    static final int HYDRATE_BATCH = 4096;
+
     public MemoryLedger(RecordType recordType, PersistenceDriver<T> driver,
                         Predicate<T> retentionFilter) {
         super(recordType, driver);
@@ -49,33 +81,301 @@ public class MemoryLedger<T extends Record> extends DiskLedger<T> {
         this.alarmSize = alarmSize;
     }
 
+    /**
+     * Keeps the cache off heap, encoded, within {@code offHeapBudgetBytes} of direct memory
+     * (default 0: records on heap, bounded by {@link #preferredMaxSize}). Must be called before
+     * {@link #init()}.
+     *
+     * @throws IllegalArgumentException if negative
+     * @throws IllegalStateException if the ledger is already initialised
+     */
+    public void setOffHeapBudgetBytes(long offHeapBudgetBytes) {
+        if (offHeapBudgetBytes < 0) {
+            throw new IllegalArgumentException("offHeapBudgetBytes must not be negative");
+        }
+        checkNotInitialised("setOffHeapBudgetBytes");
+        this.offHeapBudgetBytes = offHeapBudgetBytes;
+    }
+
+    public long getOffHeapBudgetBytes() {
+        return offHeapBudgetBytes;
+    }
+
+    /**
+     * Codec for the off-heap cache. Default null: the codec of the {@link DiskPersistenceDriver}
+     * this ledger writes to; other drivers need one set explicitly. Must be called before
+     * {@link #init()}.
+     */
+    public void setOffHeapCodec(RecordCodec offHeapCodec) {
+        checkNotInitialised("setOffHeapCodec");
+        this.offHeapCodec = offHeapCodec;
+    }
+
+    /**
+     * Number of decoded records the off-heap cache keeps on heap, by sequence id (rounded up to a
+     * power of two; default 0, every read decodes). Must be called before {@link #init()}.
+     *
+     * @throws IllegalArgumentException if negative
+     */
+    public void setDecodedCacheSize(int decodedCacheSize) {
+        if (decodedCacheSize < 0) {
+            throw new IllegalArgumentException("decodedCacheSize must not be negative");
+        }
+        checkNotInitialised("setDecodedCacheSize");
+        this.decodedCacheSize = decodedCacheSize;
+    }
+
+    public int getDecodedCacheSize() {
+        return decodedCacheSize;
+    }
+
+    /**
+     * Declares that once {@link #retentionFilter} rejects a record it rejects every older one too,
+     * as a cut-off by timestamp does, so {@link #hydrate()} stops its reverse scan at the first
+     * rejected record. Default false: a general filter may accept older records after rejecting
+     * newer ones, so hydration reads back until the cache is full or the history ends, which for
+     * a filter that rejects most of the history means reading all of it. Must be called before
+     * {@link #init()}.
+     */
+    public void setRetentionFilterOrdered(boolean retentionFilterOrdered) {
+        checkNotInitialised("setRetentionFilterOrdered");
+        this.retentionFilterOrdered = retentionFilterOrdered;
+    }
+
+    public boolean isRetentionFilterOrdered() {
+        return retentionFilterOrdered;
+    }
+
+    /**
+     * Registers a secondary index over the cached records. Records whose key is null are not
+     * indexed. A unique index keeps the newest record per key; a multi-valued one keeps all of them.
+     * Must be called before {@link #init()} so hydrated records are indexed too.
+     *
+     * @param name         index name used by {@link #lookup} and {@link #latest}
+     * @param keyExtractor key of a record; must be cheap and side-effect free, keys need
+     *                     {@code equals} / {@code hashCode}
+     * @param unique       true to keep only the newest record per key
+     * @throws IllegalArgumentException if an index with this name exists
+     * @throws IllegalStateException if the ledger is already initialised
+     */
+    public void addIndex(String name, Function<? super T, ?> keyExtractor, boolean unique) {
+        checkNotInitialised("addIndex");
+        if (indexes.putIfAbsent(name, new MemoryIndex<>(name, keyExtractor, unique)) != null) {
+            throw new IllegalArgumentException("Index " + name + " already exists");
+        }
+    }
+
+    /** Registers the unique {@link #EVENT_ID_INDEX} on {@link Record#getEventId()}. */
+    public void addEventIdIndex() {
+        addIndex(EVENT_ID_INDEX, Record::getEventId, true);
+    }
+
+    /**
+     * @return cached records whose key in index {@code indexName} equals {@code key}, in sequence
+     *         order (at most one for a unique index)
+     * @throws IllegalArgumentException if no such index is registered
+     */
+    public List<T> lookup(String indexName, Object key) {
+        MemoryIndex<T> index = index(indexName);
+        long[] sequences = index.sequences(key);
+        List<T> found = new ArrayList<>(sequences.length);
+        for (long sequence : sequences) {
+            T record = indexed(index, sequence, key);
+            if (record != null) {
+                found.add(record);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the newest cached record whose key in index {@code indexName} equals {@code key}, or null
+     * @throws IllegalArgumentException if no such index is registered
+     */
+    public T latest(String indexName, Object key) {
+        MemoryIndex<T> index = index(indexName);
+        // Newest first, one id at a time: usually the first one is still cached.
+        long sequence = index.lastSequenceBelow(key, Long.MAX_VALUE);
+        while (sequence != -1) {
+            T record = indexed(index, sequence, key);
+            if (record != null) {
+                return record;
+            }
+            sequence = index.lastSequenceBelow(key, sequence);
+        }
+        return null;
+    }
+
+    private MemoryIndex<T> index(String indexName) {
+        MemoryIndex<T> index = indexes.get(indexName);
+        if (index == null) {
+            throw new IllegalArgumentException("No index named " + indexName);
+        }
+        return index;
+    }
+
+    /** The cached record at {@code sequence} if it is still there and still has {@code key}. */
+    private T indexed(MemoryIndex<T> index, long sequence, Object key) {
+        T record = memory.get(sequence);
+        return record != null && Objects.equals(index.keyOf(record), key) ? record : null;
+    }
+
+    /** Adds a record to the cache and to every index. */
+    void cache(long sequence, T record) {
+        if (memory.put(sequence, record)) {
+            for (MemoryIndex<T> index : indexes.values()) {
+                index.add(sequence, record);
+            }
+        }
+    }
+
+    private void checkNotInitialised(String setter) {
+        if (initialised) {
+            throw new IllegalStateException(setter + " must be called before init()");
+        }
+    }
+
     @PostConstruct
     public void init() {
         if (preferredMaxSize <= 0) {
             throw new IllegalStateException("preferredMaxSize must be positive");
         }
+        if (offHeapBudgetBytes > 0) {
+            RecordCodec codec = offHeapCodec;
+            if (codec == null && driver instanceof DiskPersistenceDriver) {
+                codec = ((DiskPersistenceDriver<T>) driver).getCodec();
+            }
+            if (codec == null) {
+                throw new IllegalStateException("An off-heap MemoryLedger needs setOffHeapCodec() unless it writes to a DiskPersistenceDriver");
+            }
+            offHeapCodec = codec;
+            memory = new OffHeapRecordStore<>(codec, offHeapBudgetBytes, decodedCacheSize);
+        }
+        initialised = true;
         hydrate();
     }
 
+    /**
+     * Loads the newest {@link #preferredMaxSize} records accepted by {@link #retentionFilter},
+     * reading the driver in reverse from the tail and stopping once the cache is full, so warm-start
+     * cost follows the cache size rather than the history size. Records are inserted in sequence
+     * order; older ones are served by the disk fallback in {@link #readReverse}. Off heap, it stops
+     * once the encoded records would fill {@link #setOffHeapBudgetBytes the budget} instead (see
+     * {@link #hydrateOffHeap()}). A rejected record ends the scan only with
+     * {@link #setRetentionFilterOrdered}.
+     */
     protected void hydrate() {
-        // Hydrate from driver
-        driver.read(-1, record -> {
-            if (retentionFilter == null || retentionFilter.test(record)) {
-                memory.addLast(record);
-                memorySize.incrementAndGet();
-            }
-            return true; // Continue
-        });
-        
+        if (offHeapBudgetBytes > 0) {
+            hydrateOffHeap();
+        } else {
+            List<T> newestFirst = new ArrayList<>(Math.min(preferredMaxSize, 1 << 16));
+            driver.readReverse(-1, record -> {
+                if (retentionFilter != null && !retentionFilter.test(record)) {
+                    return !retentionFilterOrdered;
+                }
+                newestFirst.add(record);
+                return newestFirst.size() < preferredMaxSize;
+            });
+            Collections.reverse(newestFirst);
+            cacheInOrder(newestFirst);
+        }
+
         // Ensure sequence counter is up to date (already done in super, but just in case)
-        if (!memory.isEmpty()) {
-            Long lastId = memory.peekLast().getSequenceId();
+        T newest = memory.last();
+        if (newest != null) {
+            Long lastId = newest.getSequenceId();
             if (lastId != null && lastId > sequenceCounter.get()) {
                 sequenceCounter.set(lastId);
             }
         }
     }
 
+    /**
+     * Off-heap {@link #hydrate()} in two passes, so the heap never holds a budget's worth of
+     * records: the reverse pass encodes each record into one reused buffer only to measure it and
+     * keeps the ids that fit, then a forward pass from the oldest of them caches those records in
+     * batches of {@link #HYDRATE_BATCH}. Records without an id are matched by count.
+     */
+    private void hydrateOffHeap() {
+        RecordCodec.LineEncoder encoder = offHeapCodec.newLineEncoder();
+        LineBuffer encoded = new LineBuffer();
+        long[][] ids = {new long[1024]};
+        int[] counts = new int[2]; // numbered, unnumbered
+        long[] encodedBytes = {0};
+        driver.readReverse(-1, record -> {
+            if (retentionFilter != null && !retentionFilter.test(record)) {
+                return !retentionFilterOrdered;
+            }
+            encoded.reset();
+            try {
+                encoder.encode(record, encoded);
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "Cannot encode record " + record.getSequenceId() + " for off-heap memory", e);
+                return true;
+            }
+            encodedBytes[0] += Integer.BYTES + encoded.size();
+            if (encodedBytes[0] > offHeapBudgetBytes) {
+                return false;
+            }
+            Long id = record.getSequenceId();
+            if (id == null) {
+                counts[1]++;
+            } else {
+                if (counts[0] == ids[0].length) {
+                    ids[0] = Arrays.copyOf(ids[0], counts[0] * 2);
+                }
+                ids[0][counts[0]++] = id;
+            }
+            return true;
+        });
+        if (counts[0] == 0 && counts[1] == 0) {
+            return;
+        }
+        long[] wanted = Arrays.copyOf(ids[0], counts[0]);
+        ids[0] = null;
+        Arrays.sort(wanted);
+        List<T> batch = new ArrayList<>(Math.min(HYDRATE_BATCH, counts[0] + counts[1]));
+        driver.read(wanted.length == 0 ? -1 : wanted[0] - 1, record -> {
+            if (retentionFilter != null && !retentionFilter.test(record)) {
+                return true;
+            }
+            Long id = record.getSequenceId();
+            int kind = id == null ? 1 : 0;
+            if (counts[kind] == 0 || (id != null && Arrays.binarySearch(wanted, id) < 0)) {
+                return true;
+            }
+            counts[kind]--;
+            batch.add(record);
+            if (batch.size() == HYDRATE_BATCH) {
+                cacheInOrder(batch);
+                batch.clear();
+            }
+            return counts[0] > 0 || counts[1] > 0;
+        });
+        cacheInOrder(batch);
+    }
+
+    /** Caches {@code records}, sorted by id when every one has an id. */
+    private void cacheInOrder(List<T> records) {
+        sortBySequenceId(records);
+        for (T record : records) {
+            // Records persisted without an id take the slot after the previous one.
+            Long id = record.getSequenceId();
+            long high = memory.highSequence();
+            cache(id != null ? id : (high == Long.MIN_VALUE ? 1 : high + 1), record);
+        }
+    }
+
+    /** Write-behind ledgers may persist ids slightly out of order; sorts when every record has one. */
+    private static <T extends Record> void sortBySequenceId(List<T> records) {
+        for (T record : records) {
+            if (record.getSequenceId() == null) {
+                return;
+            }
+        }
+        records.sort(Comparator.comparing(Record::getSequenceId));
+    }
+
     @Override
     public long write(T record) {
         if (!keepRunning.shouldKeepRunning()) return -1;
@@ -83,16 +383,18 @@ public class MemoryLedger<T extends Record> extends DiskLedger<T> {
         long sequenceId = sequenceCounter.incrementAndGet();
         record.setSequenceId(sequenceId);
 
-        // Add to memory
-        memory.addLast(record);
-        memorySize.incrementAndGet();
-
-        // Write to persistence
         try {
+            // Add to memory
+            cache(sequenceId, record);
+
+            // Write to persistence
             driver.write(record);
         } catch (IOException e) {
             LOG.log(Level.SEVERE, "Error writing to persistence driver", e); // Log error but continue
             // We do NOT rollback memory here (FAST requirement)
+        } catch (RuntimeException e) {
+            skipNotification(sequenceId);
+            throw e;
         }
 
         incrementCachedSizeAfterLogicalWrite();
@@ -104,20 +406,14 @@ public class MemoryLedger<T extends Record> extends DiskLedger<T> {
 
     @Override
     public void read(long fromSequence, Predicate<T> filter, ReadCallback<T> callback) {
-        Iterator<T> iterator = memory.iterator();
-        while (iterator.hasNext()) {
-            T record = iterator.next();
-            
-            if (fromSequence != -1 && record.getSequenceId() != null && record.getSequenceId() <= fromSequence) {
-                continue;
-            }
+        memory.forEach(fromSequence == -1 ? Long.MIN_VALUE : fromSequence + 1,
+                record -> filter != null && !filter.test(record) || callback.onRecord(record));
+    }
 
-            if (filter == null || filter.test(record)) {
-                if (!callback.onRecord(record)) {
-                    break;
-                }
-            }
-        }
+    /** Reads memory only, so the raw filter does not apply. */
+    @Override
+    public void read(long fromSequence, RawLineFilter rawFilter, Predicate<T> filter, ReadCallback<T> callback) {
+        read(fromSequence, filter, callback);
     }
 
     @Override
@@ -125,38 +421,36 @@ public class MemoryLedger<T extends Record> extends DiskLedger<T> {
         // Memory-first: read from memory without touching disk.
         // If the memory cache does not hold the full history (e.g. housekeeping/retention),
         // continue from disk in reverse, flushing first so disk reads see buffered writes.
-        long minEmittedSeq = Long.MAX_VALUE;
-
-        Iterator<T> iterator = memory.descendingIterator();
-        while (iterator.hasNext()) {
-            T record = iterator.next();
+        long[] minEmittedSeq = {Long.MAX_VALUE};
 
-            if (fromSequence != -1 && record.getSequenceId() != null && record.getSequenceId() >= fromSequence) {
-                continue;
+        boolean completed = memory.forEachDescending(fromSequence == -1 ? Long.MAX_VALUE : fromSequence - 1, record -> {
+            if (filter != null && !filter.test(record)) {
+                return true;
             }
-
-            if (filter == null || filter.test(record)) {
-                if (!callback.onRecord(record)) {
-                    return;
-                }
-                if (record.getSequenceId() != null) {
-                    minEmittedSeq = Math.min(minEmittedSeq, record.getSequenceId());
-                }
+            if (!callback.onRecord(record)) {
+                return false;
+            }
+            if (record.getSequenceId() != null) {
+                minEmittedSeq[0] = Math.min(minEmittedSeq[0], record.getSequenceId());
             }
+            return true;
+        });
+        if (!completed) {
+            return;
         }
 
         // Determine whether disk may contain older records not present in memory.
         // If the disk count is known and <= memory size, memory likely has everything (no need to hit disk).
         long diskLineCount = getDiskLogicalLineCount();
-        if (diskLineCount >= 0 && diskLineCount <= memorySize.get()) {
+        if (diskLineCount >= 0 && diskLineCount <= memory.size()) {
             return;
         }
 
         // Continue from disk only when we might need older records.
         // Use the last emitted sequence as the continuation point to avoid duplicates.
         long diskFrom;
-        if (minEmittedSeq != Long.MAX_VALUE) {
-            diskFrom = minEmittedSeq;
+        if (minEmittedSeq[0] != Long.MAX_VALUE) {
+            diskFrom = minEmittedSeq[0];
         } else {
             diskFrom = fromSequence;
         }
@@ -185,26 +479,32 @@ public class MemoryLedger<T extends Record> extends DiskLedger<T> {
             // Remove records that don't match retention filter
             if (retentionFilter != null) {
                 while (!memory.isEmpty()) {
-                    T record = memory.peekFirst();
+                    T record = memory.first();
                     if (record != null && !retentionFilter.test(record)) {
                         memory.pollFirst();
-                        memorySize.decrementAndGet();
                     } else {
                         break;
                     }
                 }
             }
 
-            // Trim to preferred size
-            while (memorySize.get() > preferredMaxSize) {
-                memory.pollFirst();
-                memorySize.decrementAndGet();
+            // Trim to preferred size; off heap the byte budget bounds the cache as records are written.
+            if (offHeapBudgetBytes == 0) {
+                memory.trimToSize(preferredMaxSize);
+            }
+
+            if (!indexes.isEmpty()) {
+                long floor = memory.firstSequence();
+                long pruneBelow = floor == Long.MIN_VALUE ? memory.highSequence() + 1 : floor;
+                for (MemoryIndex<T> index : indexes.values()) {
+                    index.pruneBelow(pruneBelow);
+                }
             }
         }
 
         // Check alarm size
-        long currentSize = memorySize.get();
-        if (currentSize > alarmSize) {
+        long currentSize = memory.size();
+        if (offHeapBudgetBytes == 0 && currentSize > alarmSize) {
             long now = System.currentTimeMillis();
             if (now - lastAlarmLogTime > ALARM_LOG_INTERVAL_MS) {
                 LOG.log(Level.WARNING, "ALARM: Memory ledger size " + currentSize + " exceeds alarm size " + alarmSize);
@@ -218,16 +518,24 @@ public class MemoryLedger<T extends Record> extends DiskLedger<T> {
      */
     @Override
     public long size() {
-        return memorySize.get();
+        return memory.size();
     }
 
     @Override
     public Map<String, Object> healthCheck() {
         Map<String, Object> status = super.healthCheck();
-        status.put("memorySize", memorySize.get());
+        status.put("memorySize", memory.size());
         status.put("diskLineCount", getDiskLogicalLineCount());
         status.put("preferredMaxSize", preferredMaxSize);
         status.put("alarmSize", alarmSize);
+        for (MemoryIndex<T> index : indexes.values()) {
+            status.put("index." + index.name() + ".keys", index.keyCount());
+        }
+        if (memory instanceof OffHeapRecordStore) {
+            OffHeapRecordStore<T> offHeap = (OffHeapRecordStore<T>) memory;
+            status.put("offHeapBytes", offHeap.allocatedBytes());
+            status.put("offHeapBudgetBytes", offHeap.budgetBytes());
+        }
         return status;
     }
 }
@@ -0,0 +1,62 @@
+package tech.rsqn.useful.things.ledger;
+
+/**
+ * Sequence-indexed record cache behind {@link MemoryLedger}: {@link SequenceChunkStore} keeps
+ * record objects on heap, {@link OffHeapRecordStore} keeps encoded records in direct memory bounded
+ * in bytes. Walks are lock-free and see records stored before they started.
+ *
+ * @param <T> record type
+ */
+interface MemoryRecordStore<T> {
+    /**
+     * Stores {@code record} at {@code sequence}, replacing any record already there.
+     *
+     * @return false if the record was not kept (below the trim floor, or could not be stored)
+     */
+    boolean put(long sequence, T record);
+
+    /** @return the record at {@code sequence}, or null if none is held */
+    T get(long sequence);
+
+    /**
+     * Visits records in ascending sequence order, starting at {@code fromSequence} (inclusive).
+     *
+     * @return false if the callback stopped the walk
+     */
+    boolean forEach(long fromSequence, ReadCallback<T> callback);
+
+    /**
+     * Visits records in descending sequence order, starting at {@code fromSequence} (inclusive).
+     *
+     * @return false if the callback stopped the walk
+     */
+    boolean forEachDescending(long fromSequence, ReadCallback<T> callback);
+
+    /** @return the sequence id of the oldest record held, or {@link Long#MIN_VALUE} if empty */
+    long firstSequence();
+
+    /** @return the oldest record held, or null if empty */
+    T first();
+
+    /** @return the newest record held, or null if empty */
+    T last();
+
+    /** Removes and returns the oldest record, or null if empty. */
+    T pollFirst();
+
+    /**
+     * Drops the oldest records until at most {@code maxSize} remain.
+     *
+     * @return the number of records removed
+     */
+    long trimToSize(long maxSize);
+
+    long size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** @return the highest sequence id stored, or {@link Long#MIN_VALUE} if nothing ever was */
+    long highSequence();
+}
@@ -0,0 +1,21 @@
+package tech.rsqn.useful.things.ledger;
+
+/**
+ * How a ledger hands records to its subscribers.
+ *
+ * <ul>
+ *   <li><b>SHARED</b> — one notification ring drained by {@code notificationCorePoolSize} consumer
+ *       threads. Records for one subscriber may be delivered out of order and concurrently, and a
+ *       slow subscriber delays all others (default, preserving existing behaviour).</li>
+ *   <li><b>PER_SUBSCRIBER</b> — every subscriber gets its own bounded {@link SubscriberLane} served
+ *       by one dedicated thread: records arrive in sequence-id order, one at a time, and
+ *       a subscriber that falls behind only fills its own lane.</li>
+ * </ul>
+ *
+ * <p>Must be set via {@link AbstractLedger#setNotificationDispatch(NotificationDispatch)} before the
+ * first {@code subscribe()} call.
+ */
+public enum NotificationDispatch {
+    SHARED,
+    PER_SUBSCRIBER
+}
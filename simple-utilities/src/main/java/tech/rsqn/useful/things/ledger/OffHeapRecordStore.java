@@ -0,0 +1,509 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link MemoryRecordStore} that keeps records encoded by a {@link RecordCodec} in direct-memory
+ * pages and decodes them on read, so the cache adds no per-record objects to the heap and is bounded
+ * by a byte budget rather than a record count.
+ * <p>
+ * Records are appended to the newest page as {@code [length int][payload]}. When a new page would
+ * take the store past its budget the oldest pages are evicted, together with every sequence id up
+ * to the highest one they held; one evicted page is kept for reuse so steady-state churn does not
+ * leave direct buffers waiting for a GC. The index is a chunked {@code long} array by sequence id
+ * (as in {@link SequenceChunkStore}) holding page id and offset, so the heap cost is eight bytes per
+ * slot. A record larger than a page gets a page of its own; a single record larger than the budget
+ * is still stored, after evicting everything else.
+ * <p>
+ * Writes are serialised on a lock (the record is encoded under it). Walks are lock-free: a reader
+ * copies the payload, then re-checks the page id, and skips the record if the page was recycled
+ * meanwhile — it was evicted. An optional direct-mapped cache of decoded records, filled by writes
+ * and reads, saves decoding for hot recent records.
+ *
+ * @param <T> record type
+ */
+final class OffHeapRecordStore<T extends Record> implements MemoryRecordStore<T> {
+    private static final Logger LOG = Logger.getLogger(OffHeapRecordStore.class.getName());
+
+    static final int DEFAULT_PAGE_BYTES = 1024 * 1024;
+    private static final int MIN_PAGE_BYTES = 4 * 1024;
+    private static final int CHUNK_SHIFT = SequenceChunkStore.CHUNK_SHIFT;
+    private static final int CHUNK_SIZE = SequenceChunkStore.CHUNK_SIZE;
+    private static final int CHUNK_MASK = SequenceChunkStore.CHUNK_MASK;
+
+    private static final class Page {
+        final ByteBuffer buffer;
+        /** Changes when the page is recycled; readers re-check it after copying. */
+        volatile int id;
+        // Writer only, under the store lock.
+        int used;
+        long maxSequence;
+
+        Page(int capacity) {
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+        }
+    }
+
+    /** Page table snapshot; page ids are consecutive from {@code firstId}. */
+    private static final class Pages {
+        final int firstId;
+        final Page[] pages;
+
+        Pages(int firstId, Page[] pages) {
+            this.firstId = firstId;
+            this.pages = pages;
+        }
+
+        Page get(int id) {
+            long index = (long) id - firstId;
+            return index < 0 || index >= pages.length ? null : pages[(int) index];
+        }
+    }
+
+    /** Index snapshot: {@code chunks[i]} covers chunk number {@code firstChunk + i}; 0 marks an empty slot. */
+    private static final class Index {
+        final long firstChunk;
+        final AtomicLongArray[] chunks;
+
+        Index(long firstChunk, AtomicLongArray[] chunks) {
+            this.firstChunk = firstChunk;
+            this.chunks = chunks;
+        }
+
+        AtomicLongArray chunkFor(long sequence) {
+            long index = (sequence >> CHUNK_SHIFT) - firstChunk;
+            return index < 0 || index >= chunks.length ? null : chunks[(int) index];
+        }
+
+        long firstSequence() {
+            return firstChunk << CHUNK_SHIFT;
+        }
+
+        boolean pastEnd(long sequence) {
+            return (sequence >> CHUNK_SHIFT) - firstChunk >= chunks.length;
+        }
+    }
+
+    private static final Index EMPTY_INDEX = new Index(0, new AtomicLongArray[0]);
+
+    private final RecordCodec codec;
+    private final long budgetBytes;
+    private final int pageBytes;
+    private final AtomicReferenceArray<T> decoded;
+
+    private final Object lock = new Object();
+    private final RecordCodec.LineEncoder encoder;
+    private final LineBuffer encodeBuffer = new LineBuffer();
+    private volatile Pages pages = new Pages(1, new Page[0]);
+    private volatile Index index = EMPTY_INDEX;
+    private volatile long floor = Long.MIN_VALUE;
+    private volatile long high = Long.MIN_VALUE;
+    private volatile long allocatedBytes;
+    private final AtomicLong size = new AtomicLong();
+    private int nextPageId = 1;
+    private Page spare;
+
+    /**
+     * @param codec             encodes records into the pages and decodes them on read
+     * @param budgetBytes       direct memory the pages may use
+     * @param decodedCacheSize  decoded records kept on heap (rounded up to a power of two), 0 for none
+     */
+    OffHeapRecordStore(RecordCodec codec, long budgetBytes, int decodedCacheSize) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("budgetBytes must be positive");
+        }
+        if (decodedCacheSize < 0) {
+            throw new IllegalArgumentException("decodedCacheSize must not be negative");
+        }
+        this.codec = codec;
+        this.encoder = codec.newLineEncoder();
+        this.budgetBytes = budgetBytes;
+        // Several pages per budget so eviction frees a small share of it at a time.
+        this.pageBytes = (int) Math.max(MIN_PAGE_BYTES, Math.min(DEFAULT_PAGE_BYTES, budgetBytes / 8));
+        this.decoded = decodedCacheSize == 0 ? null
+                : new AtomicReferenceArray<>(Math.max(1, Integer.highestOneBit(decodedCacheSize - 1) << 1));
+    }
+
+    @Override
+    public boolean put(long sequence, T record) {
+        synchronized (lock) {
+            if (sequence < floor) {
+                return false;
+            }
+            encodeBuffer.reset();
+            try {
+                encoder.encode(record, encodeBuffer);
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "Cannot encode record " + sequence + " for off-heap memory", e);
+                return false;
+            }
+            int length = encodeBuffer.size();
+            Page page = pageWithRoom(Integer.BYTES + length);
+            // Eviction for the new page may have moved the floor past an out-of-order sequence.
+            if (sequence < floor) {
+                return false;
+            }
+            int offset = page.used;
+            page.buffer.putInt(offset, length);
+            page.buffer.put(offset + Integer.BYTES, encodeBuffer.array(), 0, length);
+            page.used = offset + Integer.BYTES + length;
+            page.maxSequence = Math.max(page.maxSequence, sequence);
+
+            AtomicLongArray chunk = index.chunkFor(sequence);
+            if (chunk == null) {
+                chunk = addChunk(sequence);
+            }
+            if (chunk.getAndSet((int) (sequence & CHUNK_MASK), ((long) page.id << 32) | offset) == 0) {
+                size.incrementAndGet();
+            }
+            if (sequence > high) {
+                high = sequence;
+            }
+            if (decoded != null) {
+                decoded.set((int) (sequence & (decoded.length() - 1)), record);
+            }
+            return true;
+        }
+    }
+
+    private Page pageWithRoom(int needed) {
+        Page[] current = pages.pages;
+        if (current.length > 0) {
+            Page newest = current[current.length - 1];
+            if (newest.buffer.capacity() - newest.used >= needed) {
+                return newest;
+            }
+        }
+        int capacity = Math.max(pageBytes, needed);
+        while (pages.pages.length > 0 && allocatedBytes + newPageCost(capacity) > budgetBytes) {
+            evictOldest();
+        }
+        Page page;
+        if (capacity == pageBytes && spare != null) {
+            page = spare;
+            spare = null;
+        } else {
+            page = new Page(capacity);
+            allocatedBytes += capacity;
+        }
+        page.id = nextPageId++;
+        // Seqlock-style: the new id must be visible before any byte of the new contents.
+        VarHandle.storeStoreFence();
+        page.used = 0;
+        page.maxSequence = Long.MIN_VALUE;
+
+        Pages table = pages;
+        Page[] grown = new Page[table.pages.length + 1];
+        System.arraycopy(table.pages, 0, grown, 0, table.pages.length);
+        grown[table.pages.length] = page;
+        pages = new Pages(table.pages.length == 0 ? page.id : table.firstId, grown);
+        return page;
+    }
+
+    private long newPageCost(int capacity) {
+        return capacity == pageBytes && spare != null ? 0 : capacity;
+    }
+
+    private void evictOldest() {
+        Pages table = pages;
+        Page oldest = table.pages[0];
+        Page[] rest = new Page[table.pages.length - 1];
+        System.arraycopy(table.pages, 1, rest, 0, rest.length);
+        pages = new Pages(table.firstId + 1, rest);
+        if (oldest.maxSequence != Long.MIN_VALUE) {
+            trimBefore(oldest.maxSequence + 1);
+        }
+        if (oldest.buffer.capacity() == pageBytes && spare == null) {
+            spare = oldest;
+        } else {
+            allocatedBytes -= oldest.buffer.capacity();
+        }
+    }
+
+    private AtomicLongArray addChunk(long sequence) {
+        Index current = index;
+        long chunkNo = sequence >> CHUNK_SHIFT;
+        long first = current.chunks.length == 0 ? chunkNo : Math.min(current.firstChunk, chunkNo);
+        long last = current.chunks.length == 0 ? chunkNo : Math.max(current.firstChunk + current.chunks.length - 1, chunkNo);
+        AtomicLongArray[] grown = new AtomicLongArray[Math.toIntExact(last - first + 1)];
+        if (current.chunks.length > 0) {
+            System.arraycopy(current.chunks, 0, grown, (int) (current.firstChunk - first), current.chunks.length);
+        }
+        AtomicLongArray chunk = new AtomicLongArray(CHUNK_SIZE);
+        grown[(int) (chunkNo - first)] = chunk;
+        index = new Index(first, grown);
+        return chunk;
+    }
+
+    /** Drops every record below {@code sequence} and releases the index chunks wholly below it. */
+    long trimBefore(long sequence) {
+        synchronized (lock) {
+            long oldFloor = floor;
+            if (sequence <= oldFloor) {
+                return 0;
+            }
+            floor = sequence;
+            Index snapshot = index;
+            long removed = 0;
+            long seq = Math.max(oldFloor, snapshot.firstSequence());
+            long end = high == Long.MIN_VALUE ? seq : Math.min(sequence, high + 1);
+            while (seq < end) {
+                AtomicLongArray chunk = snapshot.chunkFor(seq);
+                long next = ((seq >> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+                if (chunk != null) {
+                    int last = (int) (Math.min(next, end) - 1 & CHUNK_MASK);
+                    for (int slot = (int) (seq & CHUNK_MASK); slot <= last; slot++) {
+                        if (chunk.getAndSet(slot, 0) != 0) {
+                            removed++;
+                        }
+                    }
+                } else if (snapshot.pastEnd(seq)) {
+                    break;
+                }
+                seq = next;
+            }
+            size.addAndGet(-removed);
+
+            long drop = (sequence >> CHUNK_SHIFT) - snapshot.firstChunk;
+            if (drop > 0 && snapshot.chunks.length > 0) {
+                if (drop >= snapshot.chunks.length) {
+                    index = EMPTY_INDEX;
+                } else {
+                    AtomicLongArray[] kept = new AtomicLongArray[snapshot.chunks.length - (int) drop];
+                    System.arraycopy(snapshot.chunks, (int) drop, kept, 0, kept.length);
+                    index = new Index(sequence >> CHUNK_SHIFT, kept);
+                }
+            }
+            return removed;
+        }
+    }
+
+    /** Per-walk decode buffer, grown on demand. */
+    private static final class Scratch {
+        byte[] bytes = new byte[1024];
+    }
+
+    /** @return the record at {@code sequence} via its index {@code entry}, or null if it was evicted meanwhile */
+    @SuppressWarnings("unchecked")
+    private T load(long sequence, long entry, Scratch scratch) {
+        AtomicReferenceArray<T> cache = decoded;
+        int cacheSlot = 0;
+        if (cache != null) {
+            cacheSlot = (int) (sequence & (cache.length() - 1));
+            T cached = cache.get(cacheSlot);
+            if (cached != null && cached.getSequenceId() != null && cached.getSequenceId() == sequence) {
+                return cached;
+            }
+        }
+        int pageId = (int) (entry >>> 32);
+        int offset = (int) entry;
+        Page page = pages.get(pageId);
+        if (page == null || page.id != pageId) {
+            return null;
+        }
+        int length = page.buffer.getInt(offset);
+        if (length < 0 || (long) offset + Integer.BYTES + length > page.buffer.capacity()) {
+            return null;
+        }
+        if (scratch.bytes.length < length) {
+            scratch.bytes = new byte[Math.max(length, scratch.bytes.length * 2)];
+        }
+        page.buffer.get(offset + Integer.BYTES, scratch.bytes, 0, length);
+        VarHandle.loadLoadFence();
+        if (page.id != pageId) {
+            return null;
+        }
+        T record;
+        try {
+            record = (T) codec.decode(scratch.bytes, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt off-heap record " + sequence, e);
+        }
+        if (record == null) {
+            return null;
+        }
+        if (record.getSequenceId() == null) {
+            record.setSequenceId(sequence);
+        }
+        if (cache != null) {
+            cache.set(cacheSlot, record);
+        }
+        return record;
+    }
+
+    @Override
+    public boolean forEach(long fromSequence, ReadCallback<T> callback) {
+        long hi = high;
+        Index snapshot = index;
+        Scratch scratch = new Scratch();
+        long seq = Math.max(Math.max(fromSequence, floor), snapshot.firstSequence());
+        while (seq <= hi) {
+            AtomicLongArray chunk = snapshot.chunkFor(seq);
+            if (chunk == null) {
+                if (snapshot.pastEnd(seq)) {
+                    break;
+                }
+                seq = ((seq >> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+                continue;
+            }
+            int end = (int) Math.min(CHUNK_MASK, hi - (seq & ~CHUNK_MASK));
+            for (int slot = (int) (seq & CHUNK_MASK); slot <= end; slot++) {
+                long entry = chunk.get(slot);
+                if (entry != 0) {
+                    T record = load((seq & ~CHUNK_MASK) + slot, entry, scratch);
+                    if (record != null && !callback.onRecord(record)) {
+                        return false;
+                    }
+                }
+            }
+            seq = ((seq >> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean forEachDescending(long fromSequence, ReadCallback<T> callback) {
+        long hi = high;
+        Index snapshot = index;
+        Scratch scratch = new Scratch();
+        long lo = Math.max(floor, snapshot.firstSequence());
+        long seq = Math.min(fromSequence, hi);
+        while (seq >= lo) {
+            AtomicLongArray chunk = snapshot.chunkFor(seq);
+            long chunkStart = seq & ~CHUNK_MASK;
+            if (chunk != null) {
+                int start = (int) Math.max(0, lo - chunkStart);
+                for (int slot = (int) (seq & CHUNK_MASK); slot >= start; slot--) {
+                    long entry = chunk.get(slot);
+                    if (entry != 0) {
+                        T record = load(chunkStart + slot, entry, scratch);
+                        if (record != null && !callback.onRecord(record)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            seq = chunkStart - 1;
+        }
+        return true;
+    }
+
+    @Override
+    public T get(long sequence) {
+        if (sequence < floor) {
+            return null;
+        }
+        AtomicLongArray chunk = index.chunkFor(sequence);
+        long entry = chunk == null ? 0 : chunk.get((int) (sequence & CHUNK_MASK));
+        return entry == 0 ? null : load(sequence, entry, new Scratch());
+    }
+
+    @Override
+    public long firstSequence() {
+        long hi = high;
+        Index snapshot = index;
+        long seq = Math.max(floor, snapshot.firstSequence());
+        while (seq <= hi) {
+            AtomicLongArray chunk = snapshot.chunkFor(seq);
+            if (chunk == null) {
+                if (snapshot.pastEnd(seq)) {
+                    break;
+                }
+                seq = ((seq >> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+            } else if (chunk.get((int) (seq & CHUNK_MASK)) != 0) {
+                return seq;
+            } else {
+                seq++;
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    @Override
+    public T first() {
+        Object[] found = new Object[1];
+        forEach(Long.MIN_VALUE, record -> {
+            found[0] = record;
+            return false;
+        });
+        @SuppressWarnings("unchecked")
+        T record = (T) found[0];
+        return record;
+    }
+
+    @Override
+    public T last() {
+        Object[] found = new Object[1];
+        forEachDescending(Long.MAX_VALUE, record -> {
+            found[0] = record;
+            return false;
+        });
+        @SuppressWarnings("unchecked")
+        T record = (T) found[0];
+        return record;
+    }
+
+    @Override
+    public T pollFirst() {
+        synchronized (lock) {
+            T oldest = first();
+            if (oldest == null) {
+                return null;
+            }
+            trimBefore(oldest.getSequenceId() + 1);
+            return oldest;
+        }
+    }
+
+    @Override
+    public long trimToSize(long maxSize) {
+        synchronized (lock) {
+            long excess = size.get() - maxSize;
+            if (excess <= 0) {
+                return 0;
+            }
+            Index snapshot = index;
+            long hi = high;
+            long seq = Math.max(floor, snapshot.firstSequence());
+            while (seq <= hi) {
+                AtomicLongArray chunk = snapshot.chunkFor(seq);
+                if (chunk == null) {
+                    seq = ((seq >> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+                    continue;
+                }
+                if (chunk.get((int) (seq & CHUNK_MASK)) != 0 && --excess == 0) {
+                    break;
+                }
+                seq++;
+            }
+            return trimBefore(seq + 1);
+        }
+    }
+
+    @Override
+    public long size() {
+        return size.get();
+    }
+
+    @Override
+    public long highSequence() {
+        return high;
+    }
+
+    /** Direct memory held by pages, including the spare page; at most the budget plus one oversized record. */
+    long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    long budgetBytes() {
+        return budgetBytes;
+    }
+}
@@ -0,0 +1,123 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Highest sequence id up to which every record of a write-behind ledger has been handed to its
+ * {@link PersistenceDriver}, plus the futures waiting for it.
+ * <p>
+ * The writer thread settles each record it persisted ({@link #settle}) and then {@link #publish}es
+ * once per batch: the watermark is a volatile long, and waiters are kept in a skip list ordered by
+ * sequence id, so one publish completes every waiter at or below the new watermark without any
+ * monitor. Concurrent producers can enqueue sequence ids slightly out of order; settled ids beyond
+ * a gap are held back until the gap closes, so the watermark is always contiguous.
+ * <p>
+ * Dependent stages attached to the returned futures without an executor run on the writer thread;
+ * use the {@code *Async} variants for anything slow.
+ */
+final class PersistedWatermark {
+    private volatile long watermark;
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Long>> waiters = new ConcurrentSkipListMap<>();
+    /** Sequence ids given up by producers (enqueue interrupted); settled by the writer. */
+    private final ConcurrentLinkedQueue<Long> abandoned = new ConcurrentLinkedQueue<>();
+
+    // Writer thread only.
+    private long contiguous;
+    private final TreeSet<Long> aheadOfGap = new TreeSet<>();
+
+    PersistedWatermark(long initial) {
+        this.watermark = initial;
+        this.contiguous = initial;
+    }
+
+    long get() {
+        return watermark;
+    }
+
+    /** Writer thread: {@code sequenceId} has been persisted (or failed, after {@link #fail}). */
+    void settle(long sequenceId) {
+        if (sequenceId == contiguous + 1) {
+            contiguous++;
+            while (!aheadOfGap.isEmpty() && aheadOfGap.first() == contiguous + 1) {
+                aheadOfGap.pollFirst();
+                contiguous++;
+            }
+        } else if (sequenceId > contiguous) {
+            aheadOfGap.add(sequenceId);
+        }
+    }
+
+    /** Writer thread: completes the waiter for {@code sequenceId}, if any, with {@code cause} and settles it. */
+    void fail(long sequenceId, Throwable cause) {
+        CompletableFuture<Long> waiter = waiters.remove(sequenceId);
+        if (waiter != null) {
+            waiter.completeExceptionally(cause);
+        }
+        settle(sequenceId);
+    }
+
+    /** Any thread: {@code sequenceId} was assigned but will never be enqueued. */
+    void abandon(long sequenceId) {
+        abandoned.add(sequenceId);
+    }
+
+    /** Writer thread: advances the watermark to the settled prefix and completes its waiters. */
+    void publish() {
+        Long gone;
+        while ((gone = abandoned.poll()) != null) {
+            fail(gone, new IllegalStateException("Write of sequence " + gone + " was abandoned"));
+        }
+        long target = contiguous;
+        if (target <= watermark) {
+            return;
+        }
+        watermark = target;
+        Map.Entry<Long, CompletableFuture<Long>> head;
+        while ((head = waiters.firstEntry()) != null && head.getKey() <= target) {
+            if (waiters.remove(head.getKey(), head.getValue())) {
+                head.getValue().complete(head.getKey());
+            }
+        }
+    }
+
+    /** @return a future completed with {@code sequenceId} once the watermark reaches it */
+    CompletableFuture<Long> futureFor(long sequenceId) {
+        if (sequenceId <= watermark) {
+            return CompletableFuture.completedFuture(sequenceId);
+        }
+        CompletableFuture<Long> waiter = waiters.computeIfAbsent(sequenceId, k -> new CompletableFuture<>());
+        // The writer may have published between the check and the insert.
+        if (sequenceId <= watermark && waiters.remove(sequenceId, waiter)) {
+            waiter.complete(sequenceId);
+        }
+        return waiter;
+    }
+
+    /**
+     * @return true once the watermark reaches {@code sequenceId}; false on timeout or if the write
+     *         of {@code sequenceId} failed while waiting
+     */
+    boolean await(long sequenceId, Duration timeout) throws InterruptedException {
+        if (sequenceId <= watermark) {
+            return true;
+        }
+        try {
+            futureFor(sequenceId).get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (TimeoutException | ExecutionException e) {
+            return false;
+        }
+    }
+
+    int waiterCount() {
+        return waiters.size();
+    }
+}
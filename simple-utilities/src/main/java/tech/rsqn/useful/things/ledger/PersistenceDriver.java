@@ -1,6 +1,7 @@
 package tech.rsqn.useful.things.ledger;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Interface for persistence drivers.
@@ -16,6 +17,20 @@ public interface PersistenceDriver<T extends Record> extends AutoCloseable {
      */
     void write(T record) throws IOException;
 
+    /**
+     * Writes records in order as one group. Write-behind ledgers call this with everything drained
+     * from their queue so a driver can serialise the group into one buffer and flush once.
+     * Default loops over {@link #write}.
+     *
+     * @param records records to write, in order
+     * @throws IOException If the write fails (some records may have been written).
+     */
+    default void writeBatch(List<T> records) throws IOException {
+        for (T record : records) {
+            write(record);
+        }
+    }
+
     /**
      * Reads records from the persistence layer forward.
      *
@@ -24,6 +39,18 @@ public interface PersistenceDriver<T extends Record> extends AutoCloseable {
      */
     void read(long fromSequence, ReadCallback<T> callback);
 
+    /**
+     * Reads forward, skipping lines rejected by {@code rawFilter} before they are decoded. Default
+     * ignores the raw filter (it is only a pre-filter, see {@link RawLineFilter}).
+     *
+     * @param fromSequence The sequence ID to start reading from (-1 means from the beginning).
+     * @param rawFilter    Optional pre-filter on undecoded JSONL lines (null means none).
+     * @param callback     Callback for each record (returns true to continue, false to stop).
+     */
+    default void read(long fromSequence, RawLineFilter rawFilter, ReadCallback<T> callback) {
+        read(fromSequence, callback);
+    }
+
     /**
      * Reads records from the persistence layer in reverse.
      *
@@ -39,6 +66,15 @@ public interface PersistenceDriver<T extends Record> extends AutoCloseable {
      */
     void flush() throws IOException;
 
+    /**
+     * Whether records accepted by {@link #write} / {@link #writeBatch} may not yet be returned by
+     * {@link #read} / {@link #readReverse} (held in an output buffer or an unfinished frame until
+     * the next flush). Default false: written records are readable immediately.
+     */
+    default boolean hasUnflushedWrites() {
+        return false;
+    }
+
     /**
      * Returns the number of logical lines (e.g. JSONL rows) in the persistence layer.
      * Implementations may use a fast newline scan rather than parsing records.
@@ -49,4 +85,21 @@ public interface PersistenceDriver<T extends Record> extends AutoCloseable {
     default long count() {
         return -1L;
     }
+
+    /**
+     * Returns the sequence id of the newest persisted record, used to resume numbering when a
+     * ledger is opened. Default reads one record in reverse.
+     *
+     * @return sequence id, or -1 if there are no records (or the newest has none)
+     */
+    default long lastSequenceId() {
+        long[] last = {-1};
+        readReverse(-1, record -> {
+            if (record != null && record.getSequenceId() != null) {
+                last[0] = record.getSequenceId();
+            }
+            return false;
+        });
+        return last[0];
+    }
 }
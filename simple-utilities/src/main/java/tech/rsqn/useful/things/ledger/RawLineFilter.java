@@ -0,0 +1,91 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cheap test on the undecoded bytes of a JSONL ledger line, applied by forward scans before any
+ * UTF-8 decoding or JSON parsing (see {@link Ledger#read(long, RawLineFilter, java.util.function.Predicate, ReadCallback)}).
+ * <p>
+ * A raw filter is only a pre-filter: it may pass lines the record {@code Predicate} then rejects,
+ * but must never reject a line whose record the {@code Predicate} would accept. Records that are
+ * not read from a JSONL line (held in memory, pending in a write-behind queue, or written by
+ * {@link BinaryRecordCodec}) skip the raw filter and are only tested by the {@code Predicate}.
+ * <p>
+ * The probes match the compact JSON {@link JsonlRecordCodec} writes ({@code "name":value}, no
+ * whitespace, Gson string escaping).
+ */
+@FunctionalInterface
+public interface RawLineFilter {
+
+    /**
+     * @param line   buffer holding the line
+     * @param offset start of the line
+     * @param length line length, excluding the line separator
+     * @return false to skip the line without decoding it
+     */
+    boolean test(byte[] line, int offset, int length);
+
+    default RawLineFilter and(RawLineFilter other) {
+        return (line, offset, length) -> test(line, offset, length) && other.test(line, offset, length);
+    }
+
+    default RawLineFilter or(RawLineFilter other) {
+        return (line, offset, length) -> test(line, offset, length) || other.test(line, offset, length);
+    }
+
+    /** Lines containing the UTF-8 bytes of {@code text} anywhere. */
+    static RawLineFilter contains(String text) {
+        byte[] probe = text.getBytes(StandardCharsets.UTF_8);
+        return (line, offset, length) -> indexOf(line, offset, offset + length, probe) >= 0;
+    }
+
+    /** Lines with a string property {@code name} equal to {@code value}, e.g. {@code "symbol":"BTC-USD"}. */
+    static RawLineFilter fieldEquals(String name, String value) {
+        byte[] probe = ("\"" + name + "\":" + LedgerGson.create().toJson(value)).getBytes(StandardCharsets.UTF_8);
+        return (line, offset, length) -> indexOf(line, offset, offset + length, probe) >= 0;
+    }
+
+    /** Lines with an integral property {@code name} equal to {@code value}, e.g. {@code "venue":7}. */
+    static RawLineFilter fieldEquals(String name, long value) {
+        byte[] probe = ("\"" + name + "\":" + value).getBytes(StandardCharsets.UTF_8);
+        return (line, offset, length) -> {
+            int end = offset + length;
+            int from = offset;
+            int at;
+            while ((at = indexOf(line, from, end, probe)) >= 0) {
+                int after = at + probe.length;
+                if (after == end || !isNumberByte(line[after])) {
+                    return true;
+                }
+                from = at + 1;
+            }
+            return false;
+        };
+    }
+
+    /** Index of the first occurrence of {@code probe} in {@code [from, end)} of {@code b}, or -1. */
+    private static int indexOf(byte[] b, int from, int end, byte[] probe) {
+        if (probe.length == 0) {
+            return from;
+        }
+        byte first = probe[0];
+        int last = end - probe.length;
+        outer:
+        for (int i = from; i <= last; i++) {
+            if (b[i] != first) {
+                continue;
+            }
+            for (int k = 1; k < probe.length; k++) {
+                if (b[i + k] != probe[k]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static boolean isNumberByte(byte c) {
+        return (c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '-' || c == '+';
+    }
+}
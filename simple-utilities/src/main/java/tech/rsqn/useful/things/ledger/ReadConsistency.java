@@ -0,0 +1,18 @@
+package tech.rsqn.useful.things.ledger;
+
+/**
+ * What {@link WriteBehindDiskLedger} reads see of records that were accepted by {@code write} but
+ * are not yet readable from the persistence driver (still queued for the writer thread, or written
+ * into a driver buffer / unfinished ZSTD frame). Neither option flushes the write pipeline.
+ *
+ * <ul>
+ *   <li><b>INCLUDE_PENDING</b> — reads merge the driver's records with a sequence-ordered view of
+ *       the pending ones, so a reader sees its own writes (default).</li>
+ *   <li><b>PERSISTED_ONLY</b> — reads return only what the driver can already read; the ledger
+ *       keeps no pending view, so writes cost nothing extra.</li>
+ * </ul>
+ */
+public enum ReadConsistency {
+    INCLUDE_PENDING,
+    PERSISTED_ONLY
+}
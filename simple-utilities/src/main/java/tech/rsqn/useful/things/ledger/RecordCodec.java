@@ -0,0 +1,59 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serialises records to and from the per-line payload stored by {@link DiskPersistenceDriver}.
+ * <p>
+ * Ledger files stay newline-framed whatever the codec, so sequence / ZSTD indexes, reverse reads
+ * and {@link PersistenceDriver#count()} work unchanged: an encoded record must never contain
+ * {@code '\n'} or {@code '\r'}. Implementations must be thread-safe.
+ * <p>
+ * The default is {@link JsonlRecordCodec}; {@link BinaryRecordCodec} is a compact alternative.
+ * Reads pick a decoder per line via {@link #canDecode}, so a ledger may mix lines written by
+ * different built-in codecs (e.g. after switching an existing ledger to binary).
+ */
+public interface RecordCodec {
+    /**
+     * Encodes one record as a single line payload, without the line separator.
+     *
+     * @param record record to encode
+     * @return encoded bytes containing no {@code '\n'} / {@code '\r'}
+     * @throws IOException if the record cannot be encoded
+     */
+    byte[] encode(Record record) throws IOException;
+
+    /**
+     * @return a new single-threaded {@link LineEncoder}. The default copies {@link #encode}
+     *         output; codecs that can write straight to the stream override it.
+     */
+    default LineEncoder newLineEncoder() {
+        return (record, out) -> out.write(encode(record));
+    }
+
+    /**
+     * Decodes one line payload (separator already stripped).
+     *
+     * @return the record, or null if its type is missing or not registered
+     * @throws IOException if the payload is malformed
+     */
+    Record decode(byte[] line, int offset, int length) throws IOException;
+
+    /**
+     * @return true if {@code line} looks like a payload written by this codec
+     */
+    boolean canDecode(byte[] line, int offset, int length);
+
+    /**
+     * Reusable encoder for one writer at a time: {@link DiskPersistenceDriver} keeps one per file
+     * and uses it under its file lock, so steady-state writes need no per-record buffers.
+     */
+    interface LineEncoder {
+        /**
+         * Appends the payload of {@code record}, without the line separator, to {@code out}.
+         * Nothing is guaranteed about {@code out} if this throws.
+         */
+        void encode(Record record, OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,233 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Field layout used by {@link BinaryRecordCodec} for one record class.
+ * <p>
+ * Binary records store field values by position, not by name. The base {@link Record} fields
+ * ({@code timestamp}, {@code sequenceId}, {@code eventId}) always come first; the record type is
+ * stored separately. {@link #of(Class)} then takes the remaining non-static, non-transient fields
+ * superclass-first in declaration order. Each value carries a wire tag, so a reader tolerates
+ * fields appended to (or dropped from) the end of the layout; inserting or reordering fields
+ * requires an explicit layout via {@link #of(Class, String...)} that keeps existing positions.
+ * <p>
+ * Every binary record also carries the {@link #fingerprint(int) fingerprint} of the field names
+ * it was written with, so a layout that no longer matches (a field inserted mid-class, or a JVM
+ * that reports declared fields in another order) is rejected on read instead of mis-decoded.
+ * <p>
+ * Schemas are built by {@link LedgerRegistry#registerRecordType}.
+ */
+public final class RecordSchema {
+    private static final List<String> BASE_FIELDS = List.of("timestamp", "sequenceId", "eventId");
+
+    /** How a field's value is read from the object and written on the wire. */
+    enum Kind {
+        BOOLEAN, BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE,
+        BOXED_BOOLEAN, BOXED_BYTE, BOXED_SHORT, BOXED_CHAR, BOXED_INT, BOXED_LONG, BOXED_FLOAT, BOXED_DOUBLE,
+        STRING, INSTANT, DECIMAL, RECORD_TYPE, ENUM, JSON
+    }
+
+    private final Class<? extends Record> recordClass;
+    private final Field[] fields;
+    private final Kind[] kinds;
+    private final List<String> fieldNames;
+    private final int[] fingerprints;
+    private final Constructor<? extends Record> constructor;
+
+    private RecordSchema(Class<? extends Record> recordClass, List<Field> fields) {
+        this.recordClass = recordClass;
+        this.fields = fields.toArray(new Field[0]);
+        this.kinds = new Kind[this.fields.length];
+        List<String> names = new ArrayList<>(this.fields.length);
+        for (int i = 0; i < this.fields.length; i++) {
+            this.fields[i].setAccessible(true);
+            this.kinds[i] = kindOf(this.fields[i].getType());
+            names.add(this.fields[i].getName());
+        }
+        this.fieldNames = Collections.unmodifiableList(names);
+        this.fingerprints = new int[this.fields.length + 1];
+        int h = 17;
+        fingerprints[0] = h;
+        for (int i = 0; i < names.size(); i++) {
+            h = h * 31 + names.get(i).hashCode();
+            fingerprints[i + 1] = h;
+        }
+        this.constructor = noArgConstructor(recordClass);
+    }
+
+    /**
+     * Derives the layout from the class: base fields, then declared fields superclass-first.
+     */
+    public static RecordSchema of(Class<? extends Record> recordClass) {
+        List<Field> fields = baseFields();
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> c = recordClass; c != null && c != Record.class; c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+        for (Class<?> c : hierarchy) {
+            for (Field f : c.getDeclaredFields()) {
+                if (isPersistent(f)) {
+                    fields.add(f);
+                }
+            }
+        }
+        return new RecordSchema(recordClass, fields);
+    }
+
+    /**
+     * Explicit layout: base fields, then {@code fieldNames} in the given order.
+     *
+     * @throws IllegalArgumentException if a name does not match a persistent field of the class
+     */
+    public static RecordSchema of(Class<? extends Record> recordClass, String... fieldNames) {
+        List<Field> fields = baseFields();
+        for (String name : fieldNames) {
+            Field found = null;
+            for (Class<?> c = recordClass; c != null && c != Record.class && found == null; c = c.getSuperclass()) {
+                try {
+                    found = c.getDeclaredField(name);
+                } catch (NoSuchFieldException ignored) {
+                    // keep walking up
+                }
+            }
+            if (found == null || !isPersistent(found)) {
+                throw new IllegalArgumentException("No persistent field '" + name + "' on " + recordClass.getName());
+            }
+            fields.add(found);
+        }
+        return new RecordSchema(recordClass, fields);
+    }
+
+    public Class<? extends Record> getRecordClass() {
+        return recordClass;
+    }
+
+    /** Field names in wire order, base fields included. */
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    int size() {
+        return fields.length;
+    }
+
+    /**
+     * Hash of the first {@code fieldCount} field names in wire order. A layout that only appends
+     * fields keeps the fingerprint of every existing prefix.
+     */
+    int fingerprint(int fieldCount) {
+        return fingerprints[fieldCount];
+    }
+
+    Field field(int i) {
+        return fields[i];
+    }
+
+    Kind kind(int i) {
+        return kinds[i];
+    }
+
+    /** New empty instance; the codec then sets every field. */
+    Record newInstance() throws ReflectiveOperationException {
+        if (constructor != null) {
+            return constructor.newInstance();
+        }
+        return recordClass.cast(UnsafeAllocator.allocate(recordClass));
+    }
+
+    private static List<Field> baseFields() {
+        List<Field> fields = new ArrayList<>();
+        for (String name : BASE_FIELDS) {
+            try {
+                fields.add(Record.class.getDeclaredField(name));
+            } catch (NoSuchFieldException e) {
+                throw new IllegalStateException("Record is missing base field " + name, e);
+            }
+        }
+        return fields;
+    }
+
+    private static boolean isPersistent(Field f) {
+        int m = f.getModifiers();
+        return !Modifier.isStatic(m) && !Modifier.isTransient(m) && !f.isSynthetic();
+    }
+
+    private static Constructor<? extends Record> noArgConstructor(Class<? extends Record> recordClass) {
+        if (Modifier.isAbstract(recordClass.getModifiers())) {
+            throw new IllegalArgumentException("Record class must be concrete: " + recordClass.getName());
+        }
+        try {
+            Constructor<? extends Record> c = recordClass.getDeclaredConstructor();
+            c.setAccessible(true);
+            return c;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Kind kindOf(Class<?> type) {
+        if (type == boolean.class) return Kind.BOOLEAN;
+        if (type == byte.class) return Kind.BYTE;
+        if (type == short.class) return Kind.SHORT;
+        if (type == char.class) return Kind.CHAR;
+        if (type == int.class) return Kind.INT;
+        if (type == long.class) return Kind.LONG;
+        if (type == float.class) return Kind.FLOAT;
+        if (type == double.class) return Kind.DOUBLE;
+        if (type == Boolean.class) return Kind.BOXED_BOOLEAN;
+        if (type == Byte.class) return Kind.BOXED_BYTE;
+        if (type == Short.class) return Kind.BOXED_SHORT;
+        if (type == Character.class) return Kind.BOXED_CHAR;
+        if (type == Integer.class) return Kind.BOXED_INT;
+        if (type == Long.class) return Kind.BOXED_LONG;
+        if (type == Float.class) return Kind.BOXED_FLOAT;
+        if (type == Double.class) return Kind.BOXED_DOUBLE;
+        if (type == String.class) return Kind.STRING;
+        if (type == Instant.class) return Kind.INSTANT;
+        if (type == BigDecimal.class) return Kind.DECIMAL;
+        if (type == RecordType.class) return Kind.RECORD_TYPE;
+        if (type.isEnum()) return Kind.ENUM;
+        return Kind.JSON;
+    }
+
+    /**
+     * Allocates classes without a no-arg constructor the same way Gson does
+     * ({@code sun.misc.Unsafe#allocateInstance}).
+     */
+    private static final class UnsafeAllocator {
+        private static final Object UNSAFE;
+        private static final Method ALLOCATE;
+
+        static {
+            Object unsafe = null;
+            Method allocate = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field f = unsafeClass.getDeclaredField("theUnsafe");
+                f.setAccessible(true);
+                unsafe = f.get(null);
+                allocate = unsafeClass.getMethod("allocateInstance", Class.class);
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                // No Unsafe: records then need a no-arg constructor.
+            }
+            UNSAFE = unsafe;
+            ALLOCATE = allocate;
+        }
+
+        static Object allocate(Class<?> type) throws ReflectiveOperationException {
+            if (ALLOCATE == null) {
+                throw new InstantiationException("No no-arg constructor and no Unsafe available for " + type.getName());
+            }
+            return ALLOCATE.invoke(UNSAFE, type);
+        }
+    }
+}
@@ -1,12 +1,18 @@
 package tech.rsqn.useful.things.ledger;
 
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Record types supported by the ledger system.
  * This class wraps a string value to provide type safety while allowing arbitrary types.
  */
 public final class RecordType {
+    /** Past this many distinct values, {@link #of} stops interning (guards against unbounded junk). */
+    private static final int INTERN_LIMIT = 10_000;
+    private static final Map<String, RecordType> INTERNED = new ConcurrentHashMap<>();
+
     private final String value;
 
     public RecordType(String value) {
@@ -17,8 +23,21 @@ public final class RecordType {
         return value;
     }
 
+    /**
+     * @return the shared instance for {@code value}, so decoding a ledger line does not allocate a
+     *         new type per record
+     */
     public static RecordType of(String value) {
-        return new RecordType(value);
+        RecordType type = INTERNED.get(value);
+        if (type != null) {
+            return type;
+        }
+        type = new RecordType(value);
+        if (INTERNED.size() >= INTERN_LIMIT) {
+            return type;
+        }
+        RecordType existing = INTERNED.putIfAbsent(value, type);
+        return existing != null ? existing : type;
     }
 
     @Override
@@ -0,0 +1,21 @@
+package tech.rsqn.useful.things.ledger;
+
+/**
+ * What a producer does when a ledger ring buffer (write-behind or notification queue) is full.
+ *
+ * <ul>
+ *   <li><b>BLOCK</b> — waits on a {@link java.util.concurrent.locks.ReentrantLock} condition that the
+ *       consumer signals when it frees a slot. No CPU while waiting (default).</li>
+ *   <li><b>SPIN</b> — {@link Thread#onSpinWait()} busy-wait. Lowest hand-off latency for
+ *       backtest/replay when the consumer is only momentarily behind.</li>
+ *   <li><b>YIELD</b> — {@link Thread#yield()} between retries. Middle ground when producers
+ *       outnumber cores.</li>
+ * </ul>
+ *
+ * No strategy drops records.
+ */
+public enum RingBackpressure {
+    BLOCK,
+    SPIN,
+    YIELD
+}
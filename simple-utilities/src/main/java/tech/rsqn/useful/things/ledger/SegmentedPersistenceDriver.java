@@ -0,0 +1,727 @@
+package tech.rsqn.useful.things.ledger;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import jakarta.annotation.PostConstruct;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Persistence driver that spreads one ledger over rolling segment files, each written by its own
+ * {@link DiskPersistenceDriver}.
+ * <p>
+ * A new segment is started when the active one reaches {@link #setMaxSegmentBytes(long)} or when a
+ * record's timestamp leaves the active segment's {@link #setSegmentDuration(Duration)} window.
+ * A small JSON manifest ({@code <baseName>.manifest.json}) records the lowest/highest sequence id,
+ * oldest/newest timestamp and record count per segment (bounds rather than first/last, since
+ * concurrent producers can persist ids slightly out of order), so {@link #count()} is a sum, reads open only the
+ * segments overlapping the requested range, and retention ({@link #purgeSegmentsBefore(Instant)})
+ * deletes whole files. On {@link #start()} only the newest segment is rescanned.
+ * <p>
+ * Segment files are {@code <baseName>.<000001>.jsonl} (plus {@code .zst} with
+ * {@link LedgerCompression#ZSTD}) in the segment directory, alongside their usual sidecars.
+ *
+ * @param <T> The type of record stored.
+ */
+public class SegmentedPersistenceDriver<T extends Record> implements PersistenceDriver<T> {
+    private static final Logger LOG = Logger.getLogger(SegmentedPersistenceDriver.class.getName());
+    private static final Type MANIFEST_TYPE = new TypeToken<List<Segment<?>>>() {
+    }.getType();
+
+    /** Default size at which the active segment is rolled. */
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 256L * 1024 * 1024;
+
+    private final Path segmentDir;
+    private final String baseName;
+    private final LedgerRegistry ledgerRegistry;
+    private final Gson gson = LedgerGson.create();
+    private final Pattern segmentFilePattern;
+    private final Object segmentLock = new Object();
+    private final List<Segment<T>> segments = new CopyOnWriteArrayList<>();
+    private volatile boolean started = false;
+
+    private long maxSegmentBytes = DEFAULT_MAX_SEGMENT_BYTES;
+    private Duration segmentDuration;
+    private LedgerCompression compression = LedgerCompression.NONE;
+    private RecordCodec codec;
+    private DurabilityPolicy durabilityPolicy;
+    private int writeBufferBytes = DiskPersistenceDriver.DEFAULT_WRITE_BUFFER_BYTES;
+    private Integer readParallelism;
+    private boolean autoFlush = true;
+    private int flushIntervalWrites = 5000;
+    private double flushIntervalSeconds = 5.0;
+
+    private Segment<T> active;
+    private long activeWindowEndMillis = Long.MAX_VALUE;
+
+    public SegmentedPersistenceDriver(Path segmentDir, String baseName, LedgerRegistry ledgerRegistry) {
+        this.segmentDir = segmentDir;
+        this.baseName = baseName;
+        this.ledgerRegistry = ledgerRegistry;
+        this.segmentFilePattern = Pattern.compile(Pattern.quote(baseName) + "\\.(\\d{6})\\.jsonl(\\.zst)?");
+    }
+
+    /**
+     * Size at which the active segment is rolled. Default {@value #DEFAULT_MAX_SEGMENT_BYTES};
+     * {@code 0} disables size-based rolling.
+     */
+    public void setMaxSegmentBytes(long maxSegmentBytes) {
+        if (maxSegmentBytes < 0) {
+            throw new IllegalArgumentException("maxSegmentBytes must be >= 0");
+        }
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    /**
+     * Time window per segment, aligned to the epoch (e.g. one day starts at UTC midnight). A
+     * record whose timestamp falls past the active segment's window starts a new segment.
+     * {@code null} (default) disables time-based rolling.
+     */
+    public void setSegmentDuration(Duration segmentDuration) {
+        if (segmentDuration != null && (segmentDuration.isZero() || segmentDuration.isNegative())) {
+            throw new IllegalArgumentException("segmentDuration must be positive");
+        }
+        this.segmentDuration = segmentDuration;
+    }
+
+    /**
+     * Compression for new segments. Must be called before {@link #start()}.
+     */
+    public void setCompression(LedgerCompression compression) {
+        if (compression == null) {
+            throw new IllegalArgumentException("compression must not be null");
+        }
+        synchronized (segmentLock) {
+            if (started) {
+                throw new IllegalStateException("Cannot change compression after start()");
+            }
+            this.compression = compression;
+        }
+    }
+
+    /**
+     * Codec for segments written by this driver (default {@link JsonlRecordCodec}). Must be called
+     * before {@link #start()}.
+     */
+    public void setCodec(RecordCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("codec must not be null");
+        }
+        synchronized (segmentLock) {
+            if (started) {
+                throw new IllegalStateException("Cannot change codec after start()");
+            }
+            this.codec = codec;
+        }
+    }
+
+    /**
+     * Durability policy for segments written by this driver (default: the
+     * {@link DiskPersistenceDriver} default for the compression). Must be called before
+     * {@link #start()}.
+     */
+    public void setDurabilityPolicy(DurabilityPolicy durabilityPolicy) {
+        if (durabilityPolicy == null) {
+            throw new IllegalArgumentException("durabilityPolicy must not be null");
+        }
+        synchronized (segmentLock) {
+            if (started) {
+                throw new IllegalStateException("Cannot change durabilityPolicy after start()");
+            }
+            this.durabilityPolicy = durabilityPolicy;
+        }
+    }
+
+    /**
+     * Append buffer size for plain segments; see {@link DiskPersistenceDriver#setWriteBufferBytes}.
+     * Must be called before {@link #start()}.
+     */
+    public void setWriteBufferBytes(int writeBufferBytes) {
+        if (writeBufferBytes <= 0) {
+            throw new IllegalArgumentException("writeBufferBytes must be > 0");
+        }
+        synchronized (segmentLock) {
+            if (started) {
+                throw new IllegalStateException("Cannot change writeBufferBytes after start()");
+            }
+            this.writeBufferBytes = writeBufferBytes;
+        }
+    }
+
+    /**
+     * ZSTD frames in flight per segment read; see {@link DiskPersistenceDriver#setReadParallelism}.
+     * Must be called before {@link #start()}.
+     */
+    public void setReadParallelism(int readParallelism) {
+        if (readParallelism < 1) {
+            throw new IllegalArgumentException("readParallelism must be >= 1");
+        }
+        synchronized (segmentLock) {
+            if (started) {
+                throw new IllegalStateException("Cannot change readParallelism after start()");
+            }
+            this.readParallelism = readParallelism;
+        }
+    }
+
+    public void setAutoFlush(boolean autoFlush) {
+        this.autoFlush = autoFlush;
+    }
+
+    public void setFlushIntervalWrites(int flushIntervalWrites) {
+        this.flushIntervalWrites = flushIntervalWrites;
+    }
+
+    public void setFlushIntervalSeconds(double seconds) {
+        this.flushIntervalSeconds = seconds;
+    }
+
+    public Path getManifestFile() {
+        return segmentDir.resolve(baseName + ".manifest.json");
+    }
+
+    /**
+     * @return number of segment files currently in the manifest (including the active one)
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    @PostConstruct
+    public void init() {
+        if (segmentDir == null || baseName == null) {
+            throw new IllegalStateException("Segment directory and base name must be set");
+        }
+        if (ledgerRegistry == null) {
+            throw new IllegalStateException("LedgerRegistry must be set");
+        }
+    }
+
+    /**
+     * Loads the manifest, adopts segment files the manifest does not know about yet (crash
+     * between roll and manifest write), rescans the newest segment and opens it for append.
+     */
+    public void start() throws IOException {
+        synchronized (segmentLock) {
+            if (started) {
+                return;
+            }
+            Files.createDirectories(segmentDir);
+            Map<Integer, Segment<T>> byNumber = new TreeMap<>();
+            for (Segment<T> s : loadManifest()) {
+                if (Files.exists(segmentDir.resolve(s.file))) {
+                    byNumber.put(s.number, s);
+                }
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(segmentDir)) {
+                for (Path f : files) {
+                    Matcher m = segmentFilePattern.matcher(f.getFileName().toString());
+                    if (m.matches() && !byNumber.containsKey(Integer.parseInt(m.group(1)))) {
+                        Segment<T> s = new Segment<>(Integer.parseInt(m.group(1)), f.getFileName().toString());
+                        s.compression = m.group(2) != null ? LedgerCompression.ZSTD : LedgerCompression.NONE;
+                        rescan(s);
+                        byNumber.put(s.number, s);
+                    }
+                }
+            }
+            segments.clear();
+            segments.addAll(byNumber.values());
+            if (segments.isEmpty()) {
+                openNewActiveSegment(1);
+            } else {
+                Segment<T> last = segments.get(segments.size() - 1);
+                if (last.compression != compression) {
+                    // Never append in a different format; start a fresh segment instead.
+                    openNewActiveSegment(last.number + 1);
+                } else {
+                    rescan(last);
+                    openActive(last);
+                }
+            }
+            persistManifest();
+            started = true;
+        }
+    }
+
+    @Override
+    public void write(T record) throws IOException {
+        synchronized (segmentLock) {
+            if (!started) {
+                throw new IllegalStateException("SegmentedPersistenceDriver.start() must be called before write");
+            }
+            if (active.recordCount > 0 && shouldRoll(record)) {
+                roll();
+            }
+            active.driver.write(record);
+            active.onWrite(record);
+            if (active.recordCount == 1) {
+                activeWindowEndMillis = windowEndFor(record.getTimestamp());
+            }
+        }
+    }
+
+    /**
+     * Writes consecutive records that land in the same segment with one
+     * {@link DiskPersistenceDriver#writeBatch} call. The size limit is checked between records
+     * using the bytes already on disk, so a segment may overshoot it by up to one batch.
+     */
+    @Override
+    public void writeBatch(List<T> records) throws IOException {
+        synchronized (segmentLock) {
+            if (!started) {
+                throw new IllegalStateException("SegmentedPersistenceDriver.start() must be called before write");
+            }
+            List<T> run = new ArrayList<>(records.size());
+            for (T record : records) {
+                if ((active.recordCount > 0 || !run.isEmpty()) && shouldRoll(record)) {
+                    writeRun(run);
+                    roll();
+                }
+                run.add(record);
+                if (active.recordCount == 0 && run.size() == 1) {
+                    activeWindowEndMillis = windowEndFor(record.getTimestamp());
+                }
+            }
+            writeRun(run);
+        }
+    }
+
+    private void writeRun(List<T> run) throws IOException {
+        if (run.isEmpty()) {
+            return;
+        }
+        active.driver.writeBatch(run);
+        for (T record : run) {
+            active.onWrite(record);
+        }
+        run.clear();
+    }
+
+    private boolean shouldRoll(T record) {
+        if (maxSegmentBytes > 0 && active.driver.appendedLength() >= maxSegmentBytes) {
+            return true;
+        }
+        Instant ts = record.getTimestamp();
+        return ts != null && ts.toEpochMilli() >= activeWindowEndMillis;
+    }
+
+    private long windowEndFor(Instant ts) {
+        if (segmentDuration == null || ts == null) {
+            return Long.MAX_VALUE;
+        }
+        long windowMillis = segmentDuration.toMillis();
+        return Math.floorDiv(ts.toEpochMilli(), windowMillis) * windowMillis + windowMillis;
+    }
+
+    private void roll() throws IOException {
+        Segment<T> previous = active;
+        try {
+            previous.driver.close();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Error closing ledger segment " + previous.file, e);
+        }
+        previous.driver = null;
+        openNewActiveSegment(previous.number + 1);
+        persistManifest();
+        LOG.log(Level.FINE, "Rolled ledger {0} to segment {1}", new Object[]{baseName, active.file});
+    }
+
+    private void openNewActiveSegment(int number) throws IOException {
+        String suffix = compression == LedgerCompression.ZSTD ? ".jsonl.zst" : ".jsonl";
+        Segment<T> s = new Segment<>(number, String.format("%s.%06d%s", baseName, number, suffix));
+        s.compression = compression;
+        segments.add(s);
+        openActive(s);
+    }
+
+    private void openActive(Segment<T> s) throws IOException {
+        DiskPersistenceDriver<T> driver = newSegmentDriver(s);
+        driver.setAutoFlush(autoFlush);
+        driver.setFlushIntervalWrites(flushIntervalWrites);
+        driver.setFlushIntervalSeconds(flushIntervalSeconds);
+        if (durabilityPolicy != null) {
+            driver.setDurabilityPolicy(durabilityPolicy);
+        }
+        driver.setWriteBufferBytes(writeBufferBytes);
+        driver.start();
+        s.driver = driver;
+        active = s;
+        activeWindowEndMillis = s.recordCount > 0 ? windowEndFor(s.minTimestamp) : Long.MAX_VALUE;
+    }
+
+    private DiskPersistenceDriver<T> newSegmentDriver(Segment<T> s) {
+        DiskPersistenceDriver<T> driver = new DiskPersistenceDriver<>(segmentDir.resolve(s.file), ledgerRegistry);
+        driver.setCompression(s.compression);
+        if (codec != null) {
+            driver.setCodec(codec);
+        }
+        if (readParallelism != null) {
+            driver.setReadParallelism(readParallelism);
+        }
+        driver.init();
+        return driver;
+    }
+
+    /** Driver to read {@code s}: the active writer, or a lazily created read-only driver. */
+    private DiskPersistenceDriver<T> readerFor(Segment<T> s) {
+        DiskPersistenceDriver<T> d = s.driver;
+        if (d == null) {
+            synchronized (segmentLock) {
+                if (s.driver == null) {
+                    s.driver = newSegmentDriver(s);
+                }
+                d = s.driver;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Recomputes a segment's stats from its file (newest segment only, on start): count from the
+     * segment's {@code .meta} checkpoint, sequence and timestamp bounds from a read of its records.
+     */
+    private void rescan(Segment<T> s) throws IOException {
+        DiskPersistenceDriver<T> reader = newSegmentDriver(s);
+        try {
+            LedgerMetadata meta = Files.exists(reader.getLedgerFile()) ? reader.metadata() : LedgerMetadata.EMPTY;
+            s.recordCount = meta.recordCount;
+            s.minSequence = -1;
+            s.maxSequence = -1;
+            s.minTimestamp = null;
+            s.maxTimestamp = null;
+            reader.read(-1, r -> {
+                s.widen(r);
+                return true;
+            });
+        } finally {
+            closeQuietly(s, reader);
+        }
+    }
+
+    /** Closes a segment driver that is being dropped, logging instead of failing. */
+    private static void closeQuietly(Segment<?> s, DiskPersistenceDriver<?> driver) {
+        if (driver == null) {
+            return;
+        }
+        try {
+            driver.close();
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Error closing ledger segment " + s.file, e);
+        }
+    }
+
+    @Override
+    public void read(long fromSequence, ReadCallback<T> callback) {
+        read(fromSequence, null, callback);
+    }
+
+    @Override
+    public void read(long fromSequence, RawLineFilter rawFilter, ReadCallback<T> callback) {
+        boolean[] stopped = {false};
+        for (Segment<T> s : segments) {
+            if (s.recordCount == 0) {
+                continue;
+            }
+            if (fromSequence != -1 && s.maxSequence != -1 && s.maxSequence <= fromSequence) {
+                continue;
+            }
+            readerFor(s).read(fromSequence, rawFilter, r -> {
+                if (!callback.onRecord(r)) {
+                    stopped[0] = true;
+                    return false;
+                }
+                return true;
+            });
+            if (stopped[0]) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void readReverse(long fromSequence, ReadCallback<T> callback) {
+        boolean[] stopped = {false};
+        List<Segment<T>> snapshot = new ArrayList<>(segments);
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            Segment<T> s = snapshot.get(i);
+            if (s.recordCount == 0) {
+                continue;
+            }
+            if (fromSequence != -1 && s.minSequence != -1 && s.minSequence >= fromSequence) {
+                continue;
+            }
+            readerFor(s).readReverse(fromSequence, r -> {
+                if (!callback.onRecord(r)) {
+                    stopped[0] = true;
+                    return false;
+                }
+                return true;
+            });
+            if (stopped[0]) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads records with {@code fromInclusive <= timestamp < toExclusive} in file order, opening
+     * only segments whose manifest time range overlaps the window (and, within a ZSTD segment, only
+     * frames whose zone map does; see {@link DiskPersistenceDriver#readTimeRange}).
+     *
+     * @param fromInclusive lower bound, or null for unbounded
+     * @param toExclusive   upper bound, or null for unbounded
+     * @param callback      callback for each record (returns true to continue, false to stop)
+     */
+    public void readTimeRange(Instant fromInclusive, Instant toExclusive, ReadCallback<T> callback) {
+        boolean[] stopped = {false};
+        for (Segment<T> s : segments) {
+            if (s.recordCount == 0) {
+                continue;
+            }
+            if (fromInclusive != null && s.maxTimestamp != null && s.maxTimestamp.isBefore(fromInclusive)) {
+                continue;
+            }
+            if (toExclusive != null && s.minTimestamp != null && !s.minTimestamp.isBefore(toExclusive)) {
+                continue;
+            }
+            readerFor(s).readTimeRange(fromInclusive, toExclusive, r -> {
+                if (!callback.onRecord(r)) {
+                    stopped[0] = true;
+                    return false;
+                }
+                return true;
+            });
+            if (stopped[0]) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads records with {@code fromInclusive <= sequenceId <= toInclusive} in file order, opening
+     * only segments whose manifest sequence range overlaps it (and, within a ZSTD segment, only
+     * frames whose zone map does; see {@link DiskPersistenceDriver#readSequenceRange}).
+     *
+     * @param fromInclusive lowest sequence id to return
+     * @param toInclusive   highest sequence id to return ({@link Long#MAX_VALUE} for unbounded)
+     * @param callback      callback for each record (returns true to continue, false to stop)
+     */
+    public void readSequenceRange(long fromInclusive, long toInclusive, ReadCallback<T> callback) {
+        boolean[] stopped = {false};
+        for (Segment<T> s : segments) {
+            if (s.recordCount == 0) {
+                continue;
+            }
+            if (s.maxSequence != -1 && s.maxSequence < fromInclusive) {
+                continue;
+            }
+            if (s.minSequence != -1 && s.minSequence > toInclusive) {
+                continue;
+            }
+            readerFor(s).readSequenceRange(fromInclusive, toInclusive, r -> {
+                if (!callback.onRecord(r)) {
+                    stopped[0] = true;
+                    return false;
+                }
+                return true;
+            });
+            if (stopped[0]) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Deletes every closed segment whose newest record is older than {@code cutoff}, oldest first,
+     * stopping at the first segment that must stay. The active segment is never removed, nor is a
+     * segment with no timestamped records, whose age is unknown.
+     *
+     * @return number of segments deleted
+     */
+    public int purgeSegmentsBefore(Instant cutoff) throws IOException {
+        synchronized (segmentLock) {
+            List<Segment<T>> doomed = new ArrayList<>();
+            for (Segment<T> s : segments) {
+                if (s == active) {
+                    break;
+                }
+                if (s.maxTimestamp != null && s.maxTimestamp.isBefore(cutoff)) {
+                    doomed.add(s);
+                } else {
+                    break;
+                }
+            }
+            if (doomed.isEmpty()) {
+                return 0;
+            }
+            segments.removeAll(doomed);
+            persistManifest();
+            for (Segment<T> s : doomed) {
+                closeQuietly(s, s.driver);
+                s.driver = null;
+                Path file = segmentDir.resolve(s.file);
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(Path.of(file + ".idx"));
+                Files.deleteIfExists(Path.of(file + ".seq"));
+                Files.deleteIfExists(Path.of(file + ".meta"));
+                Files.deleteIfExists(Path.of(file + ".zone"));
+            }
+            LOG.log(Level.INFO, "Purged {0} segment(s) of ledger {1} older than {2}",
+                    new Object[]{doomed.size(), baseName, cutoff});
+            return doomed.size();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (segmentLock) {
+            if (active != null && active.driver != null) {
+                active.driver.flush();
+            }
+            if (started) {
+                persistManifest();
+            }
+        }
+    }
+
+    @Override
+    public boolean hasUnflushedWrites() {
+        synchronized (segmentLock) {
+            return active != null && active.driver != null && active.driver.hasUnflushedWrites();
+        }
+    }
+
+    @Override
+    public long count() {
+        long total = 0;
+        for (Segment<T> s : segments) {
+            total += s.recordCount;
+        }
+        return total;
+    }
+
+    /** Highest sequence id in the manifest (no segment file is read). */
+    @Override
+    public long lastSequenceId() {
+        long last = -1;
+        for (Segment<T> s : segments) {
+            last = Math.max(last, s.maxSequence);
+        }
+        return last;
+    }
+
+    @Override
+    public void close() throws Exception {
+        synchronized (segmentLock) {
+            if (!started) {
+                return;
+            }
+            flush();
+            if (active != null && active.driver != null) {
+                active.driver.close();
+            }
+            for (Segment<T> s : segments) {
+                if (s != active) {
+                    closeQuietly(s, s.driver);
+                }
+                s.driver = null;
+            }
+            active = null;
+            started = false;
+        }
+    }
+
+    private List<Segment<T>> loadManifest() throws IOException {
+        Path manifest = getManifestFile();
+        if (!Files.exists(manifest)) {
+            return List.of();
+        }
+        try (Reader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            List<Segment<T>> loaded = gson.fromJson(reader, MANIFEST_TYPE);
+            if (loaded == null) {
+                return List.of();
+            }
+            loaded.sort(Comparator.comparingInt(s -> s.number));
+            return loaded;
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Ignoring unreadable segment manifest " + manifest + "; rescanning segments", e);
+            return List.of();
+        }
+    }
+
+    /** Writes the manifest to a temporary file and atomically replaces the old one. */
+    private void persistManifest() throws IOException {
+        Path manifest = getManifestFile();
+        Path tmp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            gson.toJson(new ArrayList<>(segments), MANIFEST_TYPE, writer);
+        }
+        Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Manifest entry for one segment file; {@link #driver} is runtime-only. */
+    static final class Segment<T extends Record> {
+        int number;
+        String file;
+        LedgerCompression compression = LedgerCompression.NONE;
+        volatile long minSequence = -1;
+        volatile long maxSequence = -1;
+        volatile Instant minTimestamp;
+        volatile Instant maxTimestamp;
+        volatile long recordCount;
+        transient volatile DiskPersistenceDriver<T> driver;
+
+        Segment() {
+        }
+
+        Segment(int number, String file) {
+            this.number = number;
+            this.file = file;
+        }
+
+        void onWrite(Record record) {
+            widen(record);
+            recordCount++;
+        }
+
+        /** Widens the sequence and timestamp bounds to cover {@code record}. */
+        void widen(Record record) {
+            Long seq = record.getSequenceId();
+            if (seq != null) {
+                minSequence = minSequence == -1 ? seq : Math.min(minSequence, seq);
+                maxSequence = Math.max(maxSequence, seq);
+            }
+            Instant ts = record.getTimestamp();
+            if (ts != null) {
+                if (minTimestamp == null || ts.isBefore(minTimestamp)) {
+                    minTimestamp = ts;
+                }
+                if (maxTimestamp == null || ts.isAfter(maxTimestamp)) {
+                    maxTimestamp = ts;
+                }
+            }
+        }
+    }
+}
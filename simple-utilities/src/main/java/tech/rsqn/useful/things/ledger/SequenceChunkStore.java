@@ -0,0 +1,338 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-memory record store behind {@link MemoryLedger}: an append-only array of fixed-size chunks
+ * indexed by sequence id, so record {@code s} lives in chunk {@code s >> CHUNK_SHIFT} at slot
+ * {@code s & CHUNK_MASK}. Seeking to a sequence id is an index computation and range reads walk
+ * contiguous slots; ids that were never stored (gaps, abandoned writes) are empty slots.
+ * <p>
+ * The chunk table is an immutable snapshot behind a volatile reference. Writers fill slots with
+ * volatile stores and only take the lock when a new chunk has to be added, once per
+ * {@link #CHUNK_SIZE} records. Readers take the snapshot and the current high sequence without
+ * locking and skip empty slots, so a record becomes visible once {@link #put} returns. Trimming
+ * moves a floor forward, clears the slots below it, and drops chunks that fall wholly below it from
+ * the table so they can be collected.
+ * <p>
+ * A record stored below the floor (a writer that lost the race with a trim) is removed again by
+ * whichever side clears the slot last: the trim clears slots after publishing the floor, and
+ * {@link #put} re-checks the floor after storing.
+ *
+ * @param <T> record type
+ */
+final class SequenceChunkStore<T> implements MemoryRecordStore<T> {
+    static final int CHUNK_SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final Chunks EMPTY = new Chunks(0, new Chunk[0]);
+
+    /** One chunk of {@link #CHUNK_SIZE} record slots; a named type so chunk tables are plain typed arrays. */
+    private static final class Chunk extends AtomicReferenceArray<Object> {
+        private static final long serialVersionUID = 1L;
+
+        Chunk() {
+            super(CHUNK_SIZE);
+        }
+    }
+
+    /** Chunk table snapshot: {@code chunks[i]} holds chunk number {@code firstChunk + i}, or null if none was needed. */
+    private static final class Chunks {
+        final long firstChunk;
+        final Chunk[] chunks;
+
+        Chunks(long firstChunk, Chunk[] chunks) {
+            this.firstChunk = firstChunk;
+            this.chunks = chunks;
+        }
+
+        Chunk chunkFor(long sequence) {
+            long index = (sequence >> CHUNK_SHIFT) - firstChunk;
+            if (index < 0 || index >= chunks.length) {
+                return null;
+            }
+            return chunks[(int) index];
+        }
+
+        long firstSequence() {
+            return firstChunk << CHUNK_SHIFT;
+        }
+    }
+
+    private final Object lock = new Object();
+    private volatile Chunks table = EMPTY;
+    /** Lowest sequence id still held; everything below was trimmed. */
+    private volatile long floor = Long.MIN_VALUE;
+    private final AtomicLong high = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * Stores {@code record} at {@code sequence}, replacing any record already there.
+     *
+     * @return false if {@code sequence} is below the trim floor and the record was not kept
+     */
+    @Override
+    public boolean put(long sequence, T record) {
+        if (sequence < floor) {
+            return false;
+        }
+        Chunk chunk = table.chunkFor(sequence);
+        if (chunk == null) {
+            chunk = addChunk(sequence);
+            if (chunk == null) {
+                return false;
+            }
+        }
+        int slot = (int) (sequence & CHUNK_MASK);
+        if (chunk.getAndSet(slot, record) == null) {
+            size.incrementAndGet();
+        }
+        if (sequence < floor) {
+            if (chunk.compareAndSet(slot, record, null)) {
+                size.decrementAndGet();
+            }
+            return false;
+        }
+        high.accumulateAndGet(sequence, Math::max);
+        return true;
+    }
+
+    private Chunk addChunk(long sequence) {
+        synchronized (lock) {
+            if (sequence < floor) {
+                return null;
+            }
+            Chunks current = table;
+            Chunk existing = current.chunkFor(sequence);
+            if (existing != null) {
+                return existing;
+            }
+            long chunkNo = sequence >> CHUNK_SHIFT;
+            long first = current.chunks.length == 0 ? chunkNo : Math.min(current.firstChunk, chunkNo);
+            long last = current.chunks.length == 0 ? chunkNo : Math.max(current.firstChunk + current.chunks.length - 1, chunkNo);
+            Chunk[] grown = new Chunk[Math.toIntExact(last - first + 1)];
+            if (current.chunks.length > 0) {
+                System.arraycopy(current.chunks, 0, grown, (int) (current.firstChunk - first), current.chunks.length);
+            }
+            Chunk chunk = new Chunk();
+            grown[(int) (chunkNo - first)] = chunk;
+            table = new Chunks(first, grown);
+            return chunk;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T get(long sequence) {
+        if (sequence < floor) {
+            return null;
+        }
+        Chunk chunk = table.chunkFor(sequence);
+        return chunk == null ? null : (T) chunk.get((int) (sequence & CHUNK_MASK));
+    }
+
+    @Override
+    public long size() {
+        return size.get();
+    }
+
+    @Override
+    public long highSequence() {
+        return high.get();
+    }
+
+    @Override
+    public T last() {
+        T[] found = newHolder();
+        forEachDescending(Long.MAX_VALUE, record -> {
+            found[0] = record;
+            return false;
+        });
+        return found[0];
+    }
+
+    @Override
+    public T first() {
+        T[] found = newHolder();
+        forEach(Long.MIN_VALUE, record -> {
+            found[0] = record;
+            return false;
+        });
+        return found[0];
+    }
+
+    @SuppressWarnings("unchecked")
+    private T[] newHolder() {
+        return (T[]) new Object[1];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean forEach(long fromSequence, ReadCallback<T> callback) {
+        long hi = high.get();
+        Chunks snapshot = table;
+        long seq = Math.max(Math.max(fromSequence, floor), snapshot.firstSequence());
+        while (seq <= hi) {
+            Chunk chunk = snapshot.chunkFor(seq);
+            if (chunk == null) {
+                if ((seq >> CHUNK_SHIFT) - snapshot.firstChunk >= snapshot.chunks.length) {
+                    break;
+                }
+                seq = ((seq >> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+                continue;
+            }
+            int end = (int) Math.min(CHUNK_MASK, hi - (seq & ~CHUNK_MASK));
+            for (int slot = (int) (seq & CHUNK_MASK); slot <= end; slot++) {
+                Object record = chunk.get(slot);
+                if (record != null && !callback.onRecord((T) record)) {
+                    return false;
+                }
+            }
+            seq = ((seq >> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean forEachDescending(long fromSequence, ReadCallback<T> callback) {
+        long hi = high.get();
+        Chunks snapshot = table;
+        long lo = Math.max(floor, snapshot.firstSequence());
+        long seq = Math.min(fromSequence, hi);
+        while (seq >= lo) {
+            Chunk chunk = snapshot.chunkFor(seq);
+            long chunkStart = seq & ~CHUNK_MASK;
+            if (chunk != null) {
+                int start = (int) Math.max(0, lo - chunkStart);
+                for (int slot = (int) (seq & CHUNK_MASK); slot >= start; slot--) {
+                    Object record = chunk.get(slot);
+                    if (record != null && !callback.onRecord((T) record)) {
+                        return false;
+                    }
+                }
+            }
+            seq = chunkStart - 1;
+        }
+        return true;
+    }
+
+    @Override
+    public T pollFirst() {
+        synchronized (lock) {
+            long seq = firstSequence();
+            if (seq == Long.MIN_VALUE) {
+                return null;
+            }
+            T oldest = get(seq);
+            trimBefore(seq + 1);
+            return oldest;
+        }
+    }
+
+    @Override
+    public long firstSequence() {
+        long hi = high.get();
+        Chunks snapshot = table;
+        long seq = Math.max(floor, snapshot.firstSequence());
+        while (seq <= hi) {
+            Chunk chunk = snapshot.chunkFor(seq);
+            if (chunk == null) {
+                if ((seq >> CHUNK_SHIFT) - snapshot.firstChunk >= snapshot.chunks.length) {
+                    break;
+                }
+                seq = ((seq >> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+            } else if (chunk.get((int) (seq & CHUNK_MASK)) != null) {
+                return seq;
+            } else {
+                seq++;
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    @Override
+    public long trimToSize(long maxSize) {
+        synchronized (lock) {
+            long excess = size.get() - maxSize;
+            if (excess <= 0) {
+                return 0;
+            }
+            Chunks snapshot = table;
+            long hi = high.get();
+            long seq = Math.max(floor, snapshot.firstSequence());
+            while (seq <= hi) {
+                Chunk chunk = snapshot.chunkFor(seq);
+                if (chunk == null) {
+                    seq = ((seq >> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+                    continue;
+                }
+                if (chunk.get((int) (seq & CHUNK_MASK)) != null && --excess == 0) {
+                    break;
+                }
+                seq++;
+            }
+            return trimBefore(seq + 1);
+        }
+    }
+
+    /**
+     * Drops every record below {@code sequence} and releases the chunks wholly below it.
+     *
+     * @return the number of records removed
+     */
+    long trimBefore(long sequence) {
+        synchronized (lock) {
+            long oldFloor = floor;
+            if (sequence <= oldFloor) {
+                return 0;
+            }
+            // Publish the floor before clearing: a put that lands after the sweep sees it and backs out.
+            floor = sequence;
+            Chunks snapshot = table;
+            long removed = 0;
+            long seq = Math.max(oldFloor, snapshot.firstSequence());
+            long end = Math.min(sequence, high.get() + 1);
+            while (seq < end) {
+                Chunk chunk = snapshot.chunkFor(seq);
+                long next = ((seq >> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+                if (chunk != null) {
+                    int last = (int) (Math.min(next, end) - 1 & CHUNK_MASK);
+                    for (int slot = (int) (seq & CHUNK_MASK); slot <= last; slot++) {
+                        if (chunk.getAndSet(slot, null) != null) {
+                            removed++;
+                        }
+                    }
+                }
+                seq = next;
+            }
+            size.addAndGet(-removed);
+
+            long keepFrom = sequence >> CHUNK_SHIFT;
+            long drop = keepFrom - snapshot.firstChunk;
+            if (drop > 0 && snapshot.chunks.length > 0) {
+                if (drop >= snapshot.chunks.length) {
+                    table = EMPTY;
+                } else {
+                    Chunk[] kept = new Chunk[snapshot.chunks.length - (int) drop];
+                    System.arraycopy(snapshot.chunks, (int) drop, kept, 0, kept.length);
+                    table = new Chunks(keepFrom, kept);
+                }
+            }
+            return removed;
+        }
+    }
+
+    /** Number of chunks currently allocated; for tests and health checks. */
+    int chunkCount() {
+        int count = 0;
+        for (Chunk chunk : table.chunks) {
+            if (chunk != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
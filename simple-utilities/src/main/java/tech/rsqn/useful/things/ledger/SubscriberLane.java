@@ -0,0 +1,216 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One subscriber's bounded, ordered delivery queue, served by its own (platform or virtual) thread.
+ * <p>
+ * The ledger's {@link LaneSequencer} applies the subscriber's filter and publishes matching records
+ * into the lane's {@link LedgerRingBuffer} in sequence-id order, even with several writer threads;
+ * the lane thread delivers them one at a time in that order. A lane that falls behind only affects its own subscriber,
+ * according to its {@link LaneOverflow}. Returned by
+ * {@link AbstractLedger#subscribe(Predicate, Consumer, int, LaneOverflow)} so callers can watch lag.
+ *
+ * @param <T> The type of record delivered.
+ */
+public final class SubscriberLane<T extends Record> {
+    private static final Logger LOG = Logger.getLogger(SubscriberLane.class.getName());
+
+    private final String name;
+    final Predicate<T> filter;
+    final Consumer<T> subscriber;
+    private final LedgerRingBuffer<T> ring;
+    private final LaneOverflow overflow;
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long lastDeliveredSequence = -1;
+    private volatile boolean running;
+    private volatile boolean disconnected;
+    private volatile ConsumerIdler idler;
+    private volatile Thread thread;
+
+    SubscriberLane(String name, Predicate<T> filter, Consumer<T> subscriber, int capacity,
+                   LaneOverflow overflow, RingBackpressure backpressure) {
+        if (overflow == null) {
+            throw new IllegalArgumentException("overflow must not be null");
+        }
+        this.name = name;
+        this.filter = filter;
+        this.subscriber = subscriber;
+        this.ring = new LedgerRingBuffer<>(capacity, backpressure);
+        this.overflow = overflow;
+    }
+
+    /** Starts {@code t}, an unstarted thread running {@link #run()}. */
+    void start(Thread t, ConsumerIdler idler) {
+        this.idler = idler;
+        this.running = true;
+        this.thread = t;
+        t.start();
+    }
+
+    /**
+     * Called by the ledger's {@link LaneSequencer}, in sequence order, for a record that passed
+     * {@link #filter}.
+     *
+     * @return false if the lane is (now) disconnected and should be removed from the ledger
+     */
+    boolean publish(T record) {
+        if (disconnected) {
+            return false;
+        }
+        if (ring.offer(record)) {
+            return true;
+        }
+        switch (overflow) {
+            case DROP_OLDEST -> {
+                while (!ring.offer(record)) {
+                    if (ring.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+            }
+            case DISCONNECT -> {
+                disconnect();
+                return false;
+            }
+            default -> {
+                if (AbstractLedger.isNotificationThread()) {
+                    // A subscriber writing back into this ledger (or one whose lane waits on us)
+                    // would wait on itself: hold the record past capacity, behind what is queued.
+                    ring.putOrSpill(record);
+                    return true;
+                }
+                try {
+                    ring.put(record);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+        return true;
+    }
+
+    void run() {
+        AbstractLedger.markNotificationThread();
+        while (running) {
+            T record = ring.poll();
+            if (record != null) {
+                idler.onWork();
+                deliver(record);
+                continue;
+            }
+            try {
+                idler.idle(ring);
+            } catch (InterruptedException e) {
+                // stop() or disconnect(); the loop condition decides
+            }
+        }
+        if (!disconnected) {
+            T record;
+            while ((record = ring.poll()) != null) {
+                deliver(record);
+            }
+        }
+    }
+
+    private void deliver(T record) {
+        try {
+            subscriber.accept(record);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Error notifying subscriber (" + name + ")", e);
+        }
+        delivered.incrementAndGet();
+        Long seq = record.getSequenceId();
+        if (seq != null) {
+            lastDeliveredSequence = seq;
+        }
+    }
+
+    private void disconnect() {
+        disconnected = true;
+        running = false;
+        while (ring.poll() != null) {
+            dropped.incrementAndGet();
+        }
+        wake();
+        LOG.log(Level.WARNING, "Subscriber lane " + name + " overflowed and was disconnected");
+    }
+
+    /** Delivers what is pending (unless disconnected) and stops the lane thread. */
+    void stop() throws InterruptedException {
+        running = false;
+        Thread t = thread;
+        if (t != null && t != Thread.currentThread()) {
+            wake();
+            t.join(5000);
+        }
+    }
+
+    private void wake() {
+        Thread t = thread;
+        if (t != null) {
+            if (idler.mode() == ConsumerMode.BLOCK) {
+                t.interrupt();
+            } else {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return ring.capacity();
+    }
+
+    public LaneOverflow getOverflow() {
+        return overflow;
+    }
+
+    /** Records published to the lane and not yet delivered. */
+    public int getLag() {
+        return ring.size();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /** Records discarded by {@link LaneOverflow#DROP_OLDEST} or on disconnect. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** Sequence id of the last record handed to the subscriber, or -1. */
+    public long getLastDeliveredSequence() {
+        return lastDeliveredSequence;
+    }
+
+    public boolean isDisconnected() {
+        return disconnected;
+    }
+
+    Map<String, Object> healthCheck() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("name", name);
+        status.put("capacity", getCapacity());
+        status.put("overflow", overflow.name());
+        status.put("lag", getLag());
+        status.put("delivered", getDelivered());
+        status.put("dropped", getDropped());
+        status.put("lastDeliveredSequence", lastDeliveredSequence);
+        status.put("disconnected", disconnected);
+        return status;
+    }
+}
@@ -1,11 +1,14 @@
 package tech.rsqn.useful.things.ledger;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Predicate;
 
 import java.util.logging.Level;
@@ -14,10 +17,24 @@ import java.util.logging.Logger;
 /**
  * Disk-backed ledger that assigns a sequence id, enqueues the record for persistence,
  * notifies subscribers on the caller thread (before the record is durably written),
- * then returns. Gson serialization and file I/O run on a dedicated writer thread.
+ * then returns. Serialization and file I/O run on a dedicated writer thread, which drains queued
+ * records in groups of up to {@link #setWriteBatchSize(int) writeBatchSize} and persists each group
+ * with one {@link PersistenceDriver#writeBatch} call.
  * <p>
- * The write queue is bounded; {@link #write} uses {@link BlockingQueue#put} so producers
- * block when the queue is full until the writer makes space.
+ * The write queue is a bounded {@link LedgerRingBuffer} holding the records themselves (flush and
+ * shutdown requests are marker objects in the same ring), so enqueueing allocates nothing; its
+ * slots are allocated in chunks as traffic first reaches them. When it is full, {@link #write} waits for the writer to make space according
+ * to {@link #setWriteBackpressure(RingBackpressure)}.
+ * <p>
+ * Reads and {@link #size()} never flush the queue. With {@link ReadConsistency#INCLUDE_PENDING}
+ * (default) each accepted record is also stored in a {@link SequenceChunkStore} slot indexed by its
+ * sequence id (no per-record node or map entry), and reads build a sequence-ordered view of the
+ * records the driver cannot return yet (queued, or written but unflushed) from it on demand. The
+ * writer trims the store up to the persisted watermark whenever the driver reports no unflushed
+ * writes.
+ * <p>
+ * {@link #writeAsync} and {@link #awaitPersisted} wait on a {@link PersistedWatermark} that the
+ * writer advances once per batch, so a caller can wait for one record without a flush barrier.
  * <p>
  * Call {@link #init()} after constructing the ledger and starting the persistence driver
  * (same pattern as {@link WriteBehindMemoryLedger}).
@@ -30,18 +47,11 @@ public class WriteBehindDiskLedger<T extends Record> extends DiskLedger<T> {
     /** Default capacity of the bounded queue between caller and the writer thread. */
     public static final int DEFAULT_WRITE_QUEUE_CAPACITY = 100_000;
 
-    private interface QueueItem {
-    }
-
-    /**
-     * User record waiting for the writer thread (static holder so the queue type is not tied to the outer type parameter).
-     */
-    private static final class DataItem implements QueueItem {
-        private final Record record;
+    /** Default maximum number of queued records handed to {@link PersistenceDriver#writeBatch} at once. */
+    public static final int DEFAULT_WRITE_BATCH_SIZE = 1024;
 
-        private DataItem(Record record) {
-            this.record = record;
-        }
+    /** Non-record queue entries; anything else in the queue is a record. */
+    private interface QueueItem {
     }
 
     /** Barrier: writer flushes the driver then releases {@code done}. */
@@ -59,10 +69,19 @@ public class WriteBehindDiskLedger<T extends Record> extends DiskLedger<T> {
     }
 
     private int writeQueueCapacity = DEFAULT_WRITE_QUEUE_CAPACITY;
-    private volatile BlockingQueue<QueueItem> queue;
+    private int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+    private RingBackpressure writeBackpressure = RingBackpressure.BLOCK;
+    private volatile LedgerRingBuffer<Object> queue;
     private volatile Thread writerThread;
     private final Object initLock = new Object();
 
+    private volatile PersistedWatermark watermark;
+    private volatile ReadConsistency readConsistency = ReadConsistency.INCLUDE_PENDING;
+    /** Accepted records the driver may not return yet, by sequence id (INCLUDE_PENDING only). */
+    private final SequenceChunkStore<T> pending = new SequenceChunkStore<>();
+    /** Records in the write queue, not counting flush or shutdown markers (PERSISTED_ONLY only). */
+    private final LongAdder queuedRecords = new LongAdder();
+
     public WriteBehindDiskLedger(RecordType recordType, PersistenceDriver<T> driver) {
         super(recordType, driver);
     }
@@ -86,6 +105,66 @@ public class WriteBehindDiskLedger<T extends Record> extends DiskLedger<T> {
         return writeQueueCapacity;
     }
 
+    /**
+     * Sets the maximum number of records persisted with one {@link PersistenceDriver#writeBatch}
+     * call. Must be called before {@link #init()}.
+     */
+    public void setWriteBatchSize(int writeBatchSize) {
+        if (writeBatchSize <= 0) {
+            throw new IllegalArgumentException("writeBatchSize must be positive");
+        }
+        synchronized (initLock) {
+            if (queue != null) {
+                throw new IllegalStateException("setWriteBatchSize must be called before init()");
+            }
+            this.writeBatchSize = writeBatchSize;
+        }
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    /**
+     * Sets how {@link #write} and {@link #flush()} wait while the write queue is full (default
+     * {@link RingBackpressure#BLOCK}). Must be called before {@link #init()}.
+     */
+    public void setWriteBackpressure(RingBackpressure writeBackpressure) {
+        if (writeBackpressure == null) {
+            throw new IllegalArgumentException("writeBackpressure must not be null");
+        }
+        synchronized (initLock) {
+            if (queue != null) {
+                throw new IllegalStateException("setWriteBackpressure must be called before init()");
+            }
+            this.writeBackpressure = writeBackpressure;
+        }
+    }
+
+    public RingBackpressure getWriteBackpressure() {
+        return writeBackpressure;
+    }
+
+    /**
+     * Sets what {@link #read} and {@link #readReverse} see of records not yet readable from the
+     * driver (default {@link ReadConsistency#INCLUDE_PENDING}). Must be called before {@link #init()}.
+     */
+    public void setReadConsistency(ReadConsistency readConsistency) {
+        if (readConsistency == null) {
+            throw new IllegalArgumentException("readConsistency must not be null");
+        }
+        synchronized (initLock) {
+            if (queue != null) {
+                throw new IllegalStateException("setReadConsistency must be called before init()");
+            }
+            this.readConsistency = readConsistency;
+        }
+    }
+
+    public ReadConsistency getReadConsistency() {
+        return readConsistency;
+    }
+
     /**
      * Starts the background writer thread. Idempotent.
      */
@@ -94,13 +173,18 @@ public class WriteBehindDiskLedger<T extends Record> extends DiskLedger<T> {
             if (writerThread != null) {
                 return;
             }
-            queue = new LinkedBlockingQueue<>(writeQueueCapacity);
-            writerThread = new Thread(this::writerLoop, "LedgerWriteBehindDisk-" + recordType.getValue());
-            writerThread.setDaemon(true);
+            watermark = new PersistedWatermark(sequenceCounter.get());
+            queue = new LedgerRingBuffer<>(writeQueueCapacity, writeBackpressure);
+            writerThread = newLedgerThread(this::writerLoop, "LedgerWriteBehindDisk-" + recordType.getValue());
             writerThread.start();
         }
     }
 
+    @Override
+    PersistedWatermark persistedWatermark() {
+        return watermark;
+    }
+
     private void ensureInitialised() {
         if (queue == null) {
             throw new IllegalStateException("WriteBehindDiskLedger.init() must be called before use");
@@ -113,17 +197,30 @@ public class WriteBehindDiskLedger<T extends Record> extends DiskLedger<T> {
             return -1;
         }
 
+        // Checked before the id is taken: every taken id must reach the lane sequencer or lanes stall.
+        ensureInitialised();
         long sequenceId = sequenceCounter.incrementAndGet();
         record.setSequenceId(sequenceId);
 
-        ensureInitialised();
+        boolean trackPending = readConsistency == ReadConsistency.INCLUDE_PENDING;
+        if (!trackPending) {
+            queuedRecords.increment();
+        }
         try {
-            queue.put(new DataItem((Record) record));
+            queue.put(record);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            sequenceCounter.decrementAndGet();
+            if (!trackPending) {
+                queuedRecords.decrement();
+            }
+            abandonSequence(sequenceId);
             return -1;
         }
+        if (trackPending) {
+            // After the enqueue, so an abandoned write never shows up; if the writer already
+            // persisted and trimmed past it, put() keeps nothing.
+            pending.put(sequenceId, record);
+        }
 
         incrementCachedSizeAfterLogicalWrite();
         notifySubscribers(record);
@@ -131,72 +228,126 @@ public class WriteBehindDiskLedger<T extends Record> extends DiskLedger<T> {
     }
 
     private void writerLoop() {
+        List<Object> drained = new ArrayList<>(writeBatchSize);
+        List<T> batch = new ArrayList<>(writeBatchSize);
         try {
             while (true) {
-                QueueItem item = queue.take();
-                if (handleQueueItem(item)) {
+                Object first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    watermark.publish(); // settles abandoned sequence ids
+                    if (readConsistency == ReadConsistency.INCLUDE_PENDING) {
+                        releaseReadableFromPending();
+                    }
+                    continue;
+                }
+                drained.add(first);
+                queue.drainTo(drained, writeBatchSize - 1);
+                boolean exit = handleQueueItems(drained, batch);
+                drained.clear();
+                if (exit) {
                     return;
                 }
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            // If take() was interrupted, a FlushItem may still be queued — drain so flush() cannot hang.
+            // If the poll was interrupted, a FlushItem may still be queued — drain so flush() cannot hang.
             drainQueueFullyOnWriter();
         }
     }
 
     /**
-     * @return true if the writer thread should exit
+     * Handles drained items in order: consecutive records are written as one batch, which is
+     * persisted before any flush barrier that follows it. Items after a shutdown marker are still
+     * handled, then the rest of the queue is drained.
+     *
+     * @return true if a shutdown marker was seen and the writer thread should exit
      */
-    private boolean handleQueueItem(QueueItem item) {
-        if (item instanceof ShutdownItem) {
+    @SuppressWarnings("unchecked")
+    private boolean handleQueueItems(List<Object> items, List<T> batch) {
+        boolean shutdown = false;
+        for (Object item : items) {
+            if (item instanceof FlushItem) {
+                writeBatch(batch);
+                dispatchFlush((FlushItem) item);
+            } else if (item instanceof ShutdownItem) {
+                shutdown = true;
+            } else {
+                batch.add((T) item);
+            }
+        }
+        writeBatch(batch);
+        if (shutdown) {
             drainTailAfterShutdown();
-            return true;
         }
-        dispatchDataOrFlush(item);
-        return false;
+        return shutdown;
     }
 
-    private void dispatchDataOrFlush(QueueItem item) {
-        if (item instanceof FlushItem) {
-            FlushItem flushItem = (FlushItem) item;
-            flushDriverQuietly();
-            flushItem.done.countDown();
+    private void writeBatch(List<T> batch) {
+        if (batch.isEmpty()) {
             return;
         }
-        if (item instanceof DataItem) {
-            DataItem dataItem = (DataItem) item;
-            try {
-                @SuppressWarnings("unchecked")
-                T toWrite = (T) dataItem.record;
-                driver.write(toWrite);
-            } catch (IOException e) {
-                LOG.log(Level.SEVERE, "Error writing to disk ledger (write-behind)", e);
+        PersistedWatermark w = watermark;
+        try {
+            driver.writeBatch(batch);
+            for (T record : batch) {
+                w.settle(record.getSequenceId());
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Error writing to disk ledger (write-behind)", e);
+            for (T record : batch) {
+                w.fail(record.getSequenceId(), e);
+            }
+        } finally {
+            w.publish();
+            if (readConsistency == ReadConsistency.INCLUDE_PENDING) {
+                releaseReadableFromPending();
+            } else {
+                queuedRecords.add(-batch.size());
             }
+            batch.clear();
+        }
+    }
+
+    private void dispatchFlush(FlushItem flushItem) {
+        flushDriverQuietly();
+        releaseReadableFromPending();
+        flushItem.done.countDown();
+    }
+
+    /**
+     * Drops records up to the persisted watermark from the pending view once the driver has
+     * nothing unflushed, i.e. everything handed to it so far is readable.
+     */
+    private void releaseReadableFromPending() {
+        PersistedWatermark w = watermark;
+        if (pending.size() == 0 || w == null || driver.hasUnflushedWrites()) {
+            return;
         }
+        pending.trimBefore(w.get() + 1);
     }
 
     /**
      * After a shutdown marker was taken, persist any trailing items (and honour flush barriers).
      */
     private void drainTailAfterShutdown() {
-        QueueItem p;
-        while ((p = queue.poll()) != null) {
-            if (p instanceof ShutdownItem) {
-                continue;
-            }
-            dispatchDataOrFlush(p);
+        List<Object> rest = new ArrayList<>();
+        List<T> batch = new ArrayList<>();
+        while (queue.drainTo(rest, writeBatchSize) > 0) {
+            rest.removeIf(p -> p instanceof ShutdownItem);
+            handleQueueItems(rest, batch);
+            rest.clear();
         }
     }
 
     private void drainQueueFullyOnWriter() {
-        QueueItem p;
-        while ((p = queue.poll()) != null) {
-            if (p instanceof ShutdownItem) {
-                drainTailAfterShutdown();
+        List<Object> rest = new ArrayList<>();
+        List<T> batch = new ArrayList<>();
+        while (queue.drainTo(rest, writeBatchSize) > 0) {
+            boolean shutdown = handleQueueItems(rest, batch);
+            rest.clear();
+            if (shutdown) {
                 return;
             }
-            dispatchDataOrFlush(p);
         }
     }
 
@@ -262,39 +413,127 @@ public class WriteBehindDiskLedger<T extends Record> extends DiskLedger<T> {
         super.beforeDriverClose();
     }
 
+    /**
+     * Reads the driver forward, then the pending records it did not return (see
+     * {@link ReadConsistency}). Does not flush.
+     */
     @Override
     public void read(long fromSequence, Predicate<T> filter, ReadCallback<T> callback) {
-        if (queue != null) {
-            flush();
+        read(fromSequence, null, filter, callback);
+    }
+
+    /** As {@link #read(long, Predicate, ReadCallback)}; pending records are tested by {@code filter} only. */
+    @Override
+    public void read(long fromSequence, RawLineFilter rawFilter, Predicate<T> filter, ReadCallback<T> callback) {
+        NavigableMap<Long, T> unread = pendingAfter(fromSequence);
+        if (unread.isEmpty()) {
+            super.read(fromSequence, rawFilter, filter, callback);
+            return;
+        }
+        boolean[] stopped = {false};
+        super.read(fromSequence, rawFilter, filter, record -> {
+            if (record.getSequenceId() != null) {
+                unread.remove(record.getSequenceId());
+            }
+            if (!callback.onRecord(record)) {
+                stopped[0] = true;
+                return false;
+            }
+            return true;
+        });
+        if (!stopped[0]) {
+            deliverPending(unread, filter, callback);
         }
-        super.read(fromSequence, filter, callback);
     }
 
+    /**
+     * Reads the pending records (newest first), then the driver in reverse from below the oldest
+     * of them. Records the writer persists after the pending view was taken are left out of the
+     * driver pass, so nothing newer arrives after older records. Does not flush.
+     */
     @Override
     public void readReverse(long fromSequence, Predicate<T> filter, ReadCallback<T> callback) {
-        if (queue != null) {
-            flush();
+        NavigableMap<Long, T> newest = pendingBefore(fromSequence);
+        if (newest.isEmpty()) {
+            super.readReverse(fromSequence, filter, callback);
+            return;
+        }
+        // Everything below the oldest pending id was readable when the view was taken (the writer
+        // only trims up to the persisted watermark), so the driver pass is bounded by it.
+        long oldestPending = newest.firstKey();
+        if (!deliverPending(newest.descendingMap(), filter, callback)) {
+            return;
+        }
+        super.readReverse(fromSequence, filter, record ->
+                (record.getSequenceId() != null && record.getSequenceId() >= oldestPending)
+                        || callback.onRecord(record));
+    }
+
+    /** Pending records with a sequence id above {@code fromSequence} (all when -1), built on demand. */
+    private NavigableMap<Long, T> pendingAfter(long fromSequence) {
+        NavigableMap<Long, T> view = new TreeMap<>();
+        if (readConsistency == ReadConsistency.INCLUDE_PENDING && pending.size() > 0) {
+            pending.forEach(fromSequence == -1 ? Long.MIN_VALUE : fromSequence + 1, record -> {
+                view.put(record.getSequenceId(), record);
+                return true;
+            });
+        }
+        return view;
+    }
+
+    /** Pending records with a sequence id below {@code fromSequence} (all when -1), built on demand. */
+    private NavigableMap<Long, T> pendingBefore(long fromSequence) {
+        NavigableMap<Long, T> view = new TreeMap<>();
+        if (readConsistency == ReadConsistency.INCLUDE_PENDING && pending.size() > 0) {
+            pending.forEachDescending(fromSequence == -1 ? Long.MAX_VALUE : fromSequence - 1, record -> {
+                view.put(record.getSequenceId(), record);
+                return true;
+            });
+        }
+        return view;
+    }
+
+    /** @return false if the callback asked to stop */
+    private static <R extends Record> boolean deliverPending(NavigableMap<Long, R> records, Predicate<R> filter,
+                                                             ReadCallback<R> callback) {
+        for (R record : records.values()) {
+            if ((filter == null || filter.test(record)) && !callback.onRecord(record)) {
+                return false;
+            }
         }
-        super.readReverse(fromSequence, filter, callback);
+        return true;
     }
 
+    /**
+     * Number of accepted records without flushing: with {@link ReadConsistency#PERSISTED_ONLY}
+     * records still queued for the writer are not counted (flush and shutdown markers in the queue
+     * are not records and never reduce the count).
+     */
     @Override
     public long size() {
-        if (queue != null) {
-            flush();
+        long size = super.size();
+        if (size < 0 || queue == null || readConsistency == ReadConsistency.INCLUDE_PENDING) {
+            return size;
         }
-        return super.size();
+        return Math.max(0, size - queuedRecords.sum());
     }
 
     @Override
     public Map<String, Object> healthCheck() {
         Map<String, Object> status = super.healthCheck();
-        BlockingQueue<QueueItem> q = queue;
+        LedgerRingBuffer<Object> q = queue;
         if (q != null) {
             status.put("writeQueueSize", q.size());
             status.put("writeQueueRemainingCapacity", q.remainingCapacity());
             status.put("writeQueueCapacity", writeQueueCapacity);
         }
+        PersistedWatermark w = watermark;
+        if (w != null) {
+            status.put("lastPersistedSeq", w.get());
+            status.put("persistedWaiters", w.waiterCount());
+        }
+        status.put("readConsistency", readConsistency.name());
+        status.put("pendingReadViewSize", (int) pending.size());
         return status;
     }
 }
@@ -2,10 +2,12 @@ package tech.rsqn.useful.things.ledger;
 
 import jakarta.annotation.PostConstruct;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
@@ -13,25 +15,38 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Memory-first ledger with asynchronous persistence (write-behind).
+ * Memory-first ledger with asynchronous persistence (write-behind). Records are handed to the
+ * writer thread through a {@link LedgerRingBuffer} (slots allocated in chunks as traffic first
+ * reaches them); when it holds {@link #setWriteQueueCapacity writeQueueCapacity} records, writers
+ * wait according to {@link #setWriteBackpressure(RingBackpressure)}.
+ * <p>
+ * The writer advances a {@link PersistedWatermark} once per persisted batch; {@link #flush()},
+ * {@link #writeAsync} and {@link #awaitPersisted} wait on it rather than on a monitor.
  *
  * @param <T> The type of record stored.
  */
 public class WriteBehindMemoryLedger<T extends Record> extends MemoryLedger<T> {
     private static final Logger LOG = Logger.getLogger(WriteBehindMemoryLedger.class.getName());
 
-    /** Default capacity for the write-behind queue to avoid unbounded memory growth. */
+    /**
+     * Default capacity for the write-behind queue to avoid unbounded memory growth. Ring slots are
+     * allocated as traffic first reaches them, so an unused capacity costs nothing.
+     */
     public static final int DEFAULT_WRITE_QUEUE_CAPACITY = 1_000_000;
 
+    /** Default maximum number of queued records handed to {@link PersistenceDriver#writeBatch} at once. */
+    public static final int DEFAULT_WRITE_BATCH_SIZE = 1024;
+
     private int writeQueueCapacity = DEFAULT_WRITE_QUEUE_CAPACITY;
-    private volatile BlockingQueue<T> writeQueue;
+    private int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+    private RingBackpressure writeBackpressure = RingBackpressure.BLOCK;
+    private volatile LedgerRingBuffer<T> writeQueue;
     private Thread writerThread;
     private volatile boolean running = true;
     private final Object initLock = new Object();
 
     private final AtomicLong lastEnqueuedSeq = new AtomicLong(0);
-    private final AtomicLong lastPersistedSeq = new AtomicLong(0);
-    private final Object persistedLock = new Object();
+    private volatile PersistedWatermark watermark;
 
     public WriteBehindMemoryLedger(RecordType recordType, PersistenceDriver<T> driver,
                                    Predicate<T> retentionFilter) {
@@ -58,6 +73,46 @@ public class WriteBehindMemoryLedger<T extends Record> extends MemoryLedger<T> {
         return writeQueueCapacity;
     }
 
+    /**
+     * Sets the maximum number of records the writer thread drains from the queue and persists with
+     * one {@link PersistenceDriver#writeBatch} call. Must be called before {@link #init()}.
+     */
+    public void setWriteBatchSize(int writeBatchSize) {
+        if (writeBatchSize <= 0) {
+            throw new IllegalArgumentException("writeBatchSize must be positive");
+        }
+        synchronized (initLock) {
+            if (writeQueue != null) {
+                throw new IllegalStateException("setWriteBatchSize must be called before init()");
+            }
+            this.writeBatchSize = writeBatchSize;
+        }
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    /**
+     * Sets how {@link #write} waits while the write queue is full (default {@link RingBackpressure#BLOCK}).
+     * Must be called before {@link #init()}.
+     */
+    public void setWriteBackpressure(RingBackpressure writeBackpressure) {
+        if (writeBackpressure == null) {
+            throw new IllegalArgumentException("writeBackpressure must not be null");
+        }
+        synchronized (initLock) {
+            if (writeQueue != null) {
+                throw new IllegalStateException("setWriteBackpressure must be called before init()");
+            }
+            this.writeBackpressure = writeBackpressure;
+        }
+    }
+
+    public RingBackpressure getWriteBackpressure() {
+        return writeBackpressure;
+    }
+
     @PostConstruct
     @Override
     public void init() {
@@ -66,13 +121,18 @@ public class WriteBehindMemoryLedger<T extends Record> extends MemoryLedger<T> {
             if (writerThread != null) {
                 return;
             }
-            this.writeQueue = new LinkedBlockingQueue<>(writeQueueCapacity);
-            this.writerThread = new Thread(this::processWriteQueue, "LedgerWriter-" + recordType.getValue());
-            this.writerThread.setDaemon(true);
+            this.watermark = new PersistedWatermark(sequenceCounter.get());
+            this.writeQueue = new LedgerRingBuffer<>(writeQueueCapacity, writeBackpressure);
+            this.writerThread = newLedgerThread(this::processWriteQueue, "LedgerWriter-" + recordType.getValue());
             this.writerThread.start();
         }
     }
 
+    @Override
+    PersistedWatermark persistedWatermark() {
+        return watermark;
+    }
+
     private void ensureInitialised() {
         if (writeQueue == null) {
             throw new IllegalStateException("WriteBehindMemoryLedger.init() must be called before use");
@@ -86,19 +146,21 @@ public class WriteBehindMemoryLedger<T extends Record> extends MemoryLedger<T> {
         long sequenceId = sequenceCounter.incrementAndGet();
         record.setSequenceId(sequenceId);
 
-        // Add to memory immediately (FAST)
-        memory.addLast(record);
-        memorySize.incrementAndGet();
+        try {
+            // Add to memory immediately (FAST)
+            cache(sequenceId, record);
 
-        ensureInitialised();
+            ensureInitialised();
 
-        // Queue for persistence (backpressure, never drop)
-        try {
+            // Queue for persistence (backpressure, never drop)
             writeQueue.put(record);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            sequenceCounter.decrementAndGet();
+            abandonSequence(sequenceId);
             return -1;
+        } catch (RuntimeException e) {
+            skipNotification(sequenceId);
+            throw e;
         }
         lastEnqueuedSeq.set(sequenceId);
         incrementCachedSizeAfterLogicalWrite();
@@ -110,7 +172,7 @@ public class WriteBehindMemoryLedger<T extends Record> extends MemoryLedger<T> {
 
     @Override
     public void flush() {
-        BlockingQueue<T> q = writeQueue;
+        LedgerRingBuffer<T> q = writeQueue;
         if (q == null) {
             super.flush();
             return;
@@ -118,21 +180,14 @@ public class WriteBehindMemoryLedger<T extends Record> extends MemoryLedger<T> {
 
         long target = lastEnqueuedSeq.get();
         if (target > 0) {
-            long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
-            synchronized (persistedLock) {
-                while (lastPersistedSeq.get() < target) {
-                    long remaining = deadline - System.currentTimeMillis();
-                    if (remaining <= 0) {
-                        LOG.log(Level.SEVERE, "Timed out waiting for write-behind persistence to reach seq " + target);
-                        break;
-                    }
-                    try {
-                        persistedLock.wait(Math.min(remaining, 1000));
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                }
+            try {
+                watermark.futureFor(target).get(5, TimeUnit.MINUTES);
+            } catch (TimeoutException e) {
+                LOG.log(Level.SEVERE, "Timed out waiting for write-behind persistence to reach seq " + target);
+            } catch (ExecutionException e) {
+                LOG.log(Level.SEVERE, "Write-behind persistence failed for seq " + target, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
         super.flush();
@@ -142,53 +197,62 @@ public class WriteBehindMemoryLedger<T extends Record> extends MemoryLedger<T> {
     public void close() throws Exception {
         running = false;
         if (writerThread != null) {
-            writerThread.interrupt();
+            // Let the writer finish its current batch (it polls with a short timeout); interrupting
+            // it mid-write would make the driver fail that batch.
             try {
                 writerThread.join(5000);
+                if (writerThread.isAlive()) {
+                    writerThread.interrupt();
+                    writerThread.join(5000);
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
         }
         
         // Drain remaining records
-        BlockingQueue<T> q = writeQueue;
-        while (q != null && !q.isEmpty()) {
-            T record = q.poll();
-            if (record != null) {
+        LedgerRingBuffer<T> q = writeQueue;
+        if (q != null) {
+            List<T> batch = new ArrayList<>(writeBatchSize);
+            while (q.drainTo(batch, writeBatchSize) > 0) {
                 try {
-                    driver.write(record);
-                    if (record.getSequenceId() != null) {
-                        lastPersistedSeq.updateAndGet(cur -> Math.max(cur, record.getSequenceId()));
-                    }
+                    persistBatch(batch);
                 } catch (IOException e) {
                     LOG.log(Level.SEVERE, "Error draining write queue", e);
                 }
+                batch.clear();
             }
         }
         
         super.close();
     }
 
+    /**
+     * Writer thread: blocks for the first record, drains whatever else is queued (up to
+     * {@link #writeBatchSize} in total), persists it as one group and publishes the watermark once
+     * per batch.
+     */
     private void processWriteQueue() {
+        List<T> batch = new ArrayList<>(writeBatchSize);
         while (running) {
             try {
-                BlockingQueue<T> q = writeQueue;
+                LedgerRingBuffer<T> q = writeQueue;
                 if (q == null) {
                     Thread.sleep(10);
                     continue;
                 }
-                T record = q.poll(1, TimeUnit.SECONDS);
-                if (record != null) {
+                T first = q.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    watermark.publish(); // settles abandoned sequence ids
+                } else {
+                    batch.add(first);
+                    q.drainTo(batch, writeBatchSize - 1);
                     try {
-                        driver.write(record);
-                        if (record.getSequenceId() != null) {
-                            lastPersistedSeq.updateAndGet(cur -> Math.max(cur, record.getSequenceId()));
-                        }
-                        synchronized (persistedLock) {
-                            persistedLock.notifyAll();
-                        }
+                        persistBatch(batch);
                     } catch (IOException e) {
                         LOG.log(Level.SEVERE, "Error processing write queue", e); // Log error
+                    } finally {
+                        batch.clear();
                     }
                 }
             } catch (InterruptedException e) {
@@ -198,17 +262,36 @@ public class WriteBehindMemoryLedger<T extends Record> extends MemoryLedger<T> {
         }
     }
 
+    private void persistBatch(List<T> batch) throws IOException {
+        PersistedWatermark w = watermark;
+        try {
+            driver.writeBatch(batch);
+        } catch (IOException e) {
+            for (T record : batch) {
+                w.fail(record.getSequenceId(), e);
+            }
+            w.publish();
+            throw e;
+        }
+        for (T record : batch) {
+            w.settle(record.getSequenceId());
+        }
+        w.publish();
+    }
+
     @Override
     public Map<String, Object> healthCheck() {
         Map<String, Object> status = super.healthCheck();
-        BlockingQueue<T> q = writeQueue;
+        LedgerRingBuffer<T> q = writeQueue;
         if (q != null) {
             status.put("writeQueueSize", q.size());
             status.put("writeQueueRemainingCapacity", q.remainingCapacity());
             status.put("writeQueueCapacity", writeQueueCapacity);
         }
         status.put("lastEnqueuedSeq", lastEnqueuedSeq.get());
-        status.put("lastPersistedSeq", lastPersistedSeq.get());
+        PersistedWatermark w = watermark;
+        status.put("lastPersistedSeq", w == null ? 0L : w.get());
+        status.put("persistedWaiters", w == null ? 0 : w.waiterCount());
         return status;
     }
 }
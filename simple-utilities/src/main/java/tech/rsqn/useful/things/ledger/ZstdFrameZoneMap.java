@@ -0,0 +1,407 @@
+package tech.rsqn.useful.things.ledger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-frame zone map sidecar for ZSTD ledgers: for every frame, its byte range, record count,
+ * min/max sequence id, min/max timestamp and a small bloom filter of {@link RecordType} values.
+ * Range reads consult it to skip frames that cannot hold a matching record without reading or
+ * decompressing them.
+ * <p>
+ * File layout (little-endian):
+ * <pre>
+ * magic u32 = 'ZONE' (0x454E4F5A)
+ * version u32 = 1
+ * entryCount u64
+ * repeated entryCount times:
+ *   frameFileOffset u64
+ *   frameEndOffset u64
+ *   recordCount u64
+ *   minSequence u64, maxSequence u64
+ *   minTimestampMillis u64 (floor), maxTimestampMillis u64 (ceiling)
+ *   typeBloom u64[4]
+ * </pre>
+ * A frame holding a record without a sequence id (or timestamp) stores {@link Long#MIN_VALUE} /
+ * {@link Long#MAX_VALUE} bounds, so it is never skipped on that dimension.
+ * <p>
+ * Entries are appended when the writer ends a frame, after the frame bytes are flushed. Like the
+ * {@code .seq} sidecar it is advisory: validated against the ledger on open, rebuilt by the
+ * started writer when missing or stale, and ignored (full scans) otherwise.
+ */
+final class ZstdFrameZoneMap {
+    static final int MAGIC = 0x454E4F5A; // 'ZONE' LE
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 + 4 + 8;
+    static final int BLOOM_WORDS = 4;
+    private static final int FIELDS = 7 + BLOOM_WORDS;
+    static final int ENTRY_SIZE = FIELDS * 8;
+    private static final int COUNT_OFFSET = 8;
+    private static final int BLOOM_MASK = BLOOM_WORDS * 64 - 1;
+
+    private static final int F_OFFSET = 0;
+    private static final int F_END = 1;
+    private static final int F_RECORDS = 2;
+    private static final int F_MIN_SEQ = 3;
+    private static final int F_MAX_SEQ = 4;
+    private static final int F_MIN_TIME = 5;
+    private static final int F_MAX_TIME = 6;
+    private static final int F_BLOOM = 7;
+
+    private final Path zonePath;
+    /** Packed entries, {@link #FIELDS} longs each. */
+    private long[] entries = new long[FIELDS * 16];
+    private int count;
+
+    ZstdFrameZoneMap(Path ledgerFile) {
+        this.zonePath = Path.of(ledgerFile.toString() + ".zone");
+    }
+
+    Path getZonePath() {
+        return zonePath;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    synchronized long frameOffset(int i) {
+        return entries[i * FIELDS + F_OFFSET];
+    }
+
+    /** @return the file offset just past frame {@code i} */
+    synchronized long frameEnd(int i) {
+        return entries[i * FIELDS + F_END];
+    }
+
+    /** @return the file offset just past the last mapped frame, or 0 if none is mapped */
+    synchronized long lastFrameEnd() {
+        return count == 0 ? 0 : entries[(count - 1) * FIELDS + F_END];
+    }
+
+    /** @return false only if no record of frame {@code i} can match {@code query} */
+    synchronized boolean mayMatch(int i, Query query) {
+        int base = i * FIELDS;
+        if (entries[base + F_MAX_SEQ] < query.fromSequence || entries[base + F_MIN_SEQ] > query.toSequence) {
+            return false;
+        }
+        if (entries[base + F_MAX_TIME] < query.fromMillis || entries[base + F_MIN_TIME] >= query.toMillis) {
+            return false;
+        }
+        if (query.type == null) {
+            return true;
+        }
+        long h = bloomHash(query.type);
+        return bloomBit(entries, base + F_BLOOM, (int) h) && bloomBit(entries, base + F_BLOOM, (int) (h >>> 32));
+    }
+
+    /** @return true if entry {@code i} describes exactly {@code zone} */
+    synchronized boolean matches(int i, Zone zone) {
+        int base = i * FIELDS;
+        long[] packed = new long[FIELDS];
+        zone.pack(packed, 0);
+        return Arrays.equals(entries, base, base + FIELDS, packed, 0, FIELDS);
+    }
+
+    /**
+     * Appends {@code zones} to the sidecar and updates {@code entryCount} in place. Entry bytes
+     * are written before the count, so a crash leaves ignorable trailing bytes.
+     *
+     * @param force whether to force the sidecar to stable storage
+     */
+    synchronized void append(List<Zone> zones, boolean force) throws IOException {
+        if (zones.isEmpty()) {
+            return;
+        }
+        Path parent = zonePath.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (FileChannel ch = FileChannel.open(zonePath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            long expectedSize = HEADER_SIZE + count * (long) ENTRY_SIZE;
+            if (ch.size() < expectedSize) {
+                rewrite(ch, count);
+            }
+            ch.position(expectedSize);
+            ByteBuffer buf = ByteBuffer.allocate(zones.size() * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long[] packed = new long[FIELDS];
+            for (Zone zone : zones) {
+                zone.pack(packed, 0);
+                for (long v : packed) {
+                    buf.putLong(v);
+                }
+            }
+            buf.flip();
+            writeFully(ch, buf);
+            writeCount(ch, count + zones.size());
+            if (force) {
+                ch.force(false);
+            }
+        }
+        for (Zone zone : zones) {
+            ensureCapacity(count + 1);
+            zone.pack(entries, count * FIELDS);
+            count++;
+        }
+    }
+
+    /**
+     * Loads the sidecar.
+     *
+     * @return false if the sidecar does not exist or is empty
+     * @throws IOException if the sidecar is corrupt
+     */
+    synchronized boolean load() throws IOException {
+        count = 0;
+        if (!Files.exists(zonePath) || Files.size(zonePath) == 0) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(zonePath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(ch, header);
+            header.flip();
+            int magic = header.getInt();
+            int version = header.getInt();
+            long entryCount = header.getLong();
+            if (magic != MAGIC) {
+                throw new IOException("Invalid zone map magic in " + zonePath);
+            }
+            if (version != VERSION) {
+                throw new IOException("Unsupported zone map version " + version);
+            }
+            if (entryCount < 0 || entryCount > Integer.MAX_VALUE / ENTRY_SIZE
+                    || ch.size() < HEADER_SIZE + entryCount * ENTRY_SIZE) {
+                throw new IOException("Invalid zone map entry count " + entryCount);
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) entryCount * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(ch, buf);
+            buf.flip();
+            ensureCapacity((int) entryCount);
+            buf.asLongBuffer().get(entries, 0, (int) entryCount * FIELDS);
+            count = (int) entryCount;
+        }
+        return true;
+    }
+
+    /** @return true if frame ranges are non-empty, ascending and non-overlapping */
+    synchronized boolean isMonotonic() {
+        long previousEnd = 0;
+        for (int i = 0; i < count; i++) {
+            long offset = entries[i * FIELDS + F_OFFSET];
+            long end = entries[i * FIELDS + F_END];
+            if (offset < previousEnd || end <= offset) {
+                return false;
+            }
+            previousEnd = end;
+        }
+        return true;
+    }
+
+    /** Drops entries for frames that do not end within {@code fileSize} (sidecar ahead of the ledger). */
+    synchronized void dropEntriesBeyond(long fileSize) throws IOException {
+        int keep = count;
+        while (keep > 0 && entries[(keep - 1) * FIELDS + F_END] > fileSize) {
+            keep--;
+        }
+        if (keep == count) {
+            return;
+        }
+        count = keep;
+        try (FileChannel ch = FileChannel.open(zonePath, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            writeCount(ch, count);
+            ch.truncate(HEADER_SIZE + count * (long) ENTRY_SIZE);
+        }
+    }
+
+    synchronized void delete() throws IOException {
+        count = 0;
+        Files.deleteIfExists(zonePath);
+    }
+
+    private void ensureCapacity(int entryCount) {
+        if (entries.length < entryCount * FIELDS) {
+            entries = Arrays.copyOf(entries, Math.max(entryCount, count * 2) * FIELDS);
+        }
+    }
+
+    private void rewrite(FileChannel ch, int entryCount) throws IOException {
+        ch.truncate(0);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + entryCount * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putLong(entryCount);
+        for (int i = 0; i < entryCount * FIELDS; i++) {
+            buf.putLong(entries[i]);
+        }
+        buf.flip();
+        ch.position(0);
+        writeFully(ch, buf);
+    }
+
+    private static void writeCount(FileChannel ch, long entryCount) throws IOException {
+        ByteBuffer countBuf = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        countBuf.putLong(entryCount);
+        countBuf.flip();
+        ch.position(COUNT_OFFSET);
+        writeFully(ch, countBuf);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) {
+                throw new EOFException("Unexpected EOF reading " + ch);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    /** Two bloom bit positions packed in the low and high halves. */
+    private static long bloomHash(RecordType type) {
+        long h = type.getValue().hashCode() * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static boolean bloomBit(long[] words, int base, int bit) {
+        int b = bit & BLOOM_MASK;
+        return (words[base + (b >>> 6)] & (1L << (b & 63))) != 0;
+    }
+
+    private static long floorMillis(Instant t) {
+        long seconds = t.getEpochSecond();
+        if (seconds >= Long.MAX_VALUE / 1000 || seconds <= Long.MIN_VALUE / 1000) {
+            return seconds < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return seconds * 1000 + t.getNano() / 1_000_000;
+    }
+
+    private static long ceilMillis(Instant t) {
+        long floor = floorMillis(t);
+        return floor != Long.MAX_VALUE && floor != Long.MIN_VALUE && t.getNano() % 1_000_000 != 0 ? floor + 1 : floor;
+    }
+
+    /** Statistics of one frame, accumulated record by record. */
+    static final class Zone {
+        long frameOffset;
+        long frameEnd;
+        long records;
+        long minSequence;
+        long maxSequence;
+        long minMillis;
+        long maxMillis;
+        final long[] typeBloom = new long[BLOOM_WORDS];
+
+        Zone() {
+            reset(0);
+        }
+
+        void reset(long frameOffset) {
+            this.frameOffset = frameOffset;
+            this.frameEnd = frameOffset;
+            this.records = 0;
+            this.minSequence = Long.MAX_VALUE;
+            this.maxSequence = Long.MIN_VALUE;
+            this.minMillis = Long.MAX_VALUE;
+            this.maxMillis = Long.MIN_VALUE;
+            Arrays.fill(typeBloom, 0);
+        }
+
+        void add(Record record) {
+            records++;
+            Long seq = record.getSequenceId();
+            if (seq == null) {
+                minSequence = Long.MIN_VALUE;
+                maxSequence = Long.MAX_VALUE;
+            } else {
+                minSequence = Math.min(minSequence, seq);
+                maxSequence = Math.max(maxSequence, seq);
+            }
+            Instant ts = record.getTimestamp();
+            if (ts == null) {
+                minMillis = Long.MIN_VALUE;
+                maxMillis = Long.MAX_VALUE;
+            } else {
+                minMillis = Math.min(minMillis, floorMillis(ts));
+                maxMillis = Math.max(maxMillis, ceilMillis(ts));
+            }
+            RecordType type = record.getType();
+            if (type != null) {
+                long h = bloomHash(type);
+                setBloomBit((int) h);
+                setBloomBit((int) (h >>> 32));
+            }
+        }
+
+        boolean isEmpty() {
+            return records == 0;
+        }
+
+        private void setBloomBit(int bit) {
+            int b = bit & BLOOM_MASK;
+            typeBloom[b >>> 6] |= 1L << (b & 63);
+        }
+
+        private void pack(long[] out, int base) {
+            out[base + F_OFFSET] = frameOffset;
+            out[base + F_END] = frameEnd;
+            out[base + F_RECORDS] = records;
+            out[base + F_MIN_SEQ] = minSequence;
+            out[base + F_MAX_SEQ] = maxSequence;
+            out[base + F_MIN_TIME] = minMillis;
+            out[base + F_MAX_TIME] = maxMillis;
+            System.arraycopy(typeBloom, 0, out, base + F_BLOOM, BLOOM_WORDS);
+        }
+    }
+
+    /**
+     * Range read predicate: sequence ids in {@code [fromSequence, toSequence]}, timestamps in
+     * {@code [fromTime, toTime)}, optionally one record type. Records without a sequence id or
+     * timestamp match that dimension.
+     */
+    static final class Query {
+        final long fromSequence;
+        final long toSequence;
+        final Instant fromTime;
+        final Instant toTime;
+        final RecordType type;
+        final long fromMillis;
+        final long toMillis;
+
+        Query(long fromSequence, long toSequence, Instant fromTime, Instant toTime, RecordType type) {
+            this.fromSequence = fromSequence;
+            this.toSequence = toSequence;
+            this.fromTime = fromTime;
+            this.toTime = toTime;
+            this.type = type;
+            this.fromMillis = fromTime == null ? Long.MIN_VALUE : ceilMillis(fromTime);
+            this.toMillis = toTime == null ? Long.MAX_VALUE : ceilMillis(toTime);
+        }
+
+        boolean matches(Record record) {
+            Long seq = record.getSequenceId();
+            if (seq != null && (seq < fromSequence || seq > toSequence)) {
+                return false;
+            }
+            Instant ts = record.getTimestamp();
+            if (ts != null && ((fromTime != null && ts.isBefore(fromTime))
+                    || (toTime != null && !ts.isBefore(toTime)))) {
+                return false;
+            }
+            return type == null || type.equals(record.getType());
+        }
+    }
+}
@@ -4,11 +4,13 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.LongBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -25,6 +27,11 @@ import java.util.List;
  *   uncompressedOffset u64
  * </pre>
  * <p>
+ * Entries are not held as heap objects. Every complete page of {@link #PAGE_ENTRIES} entries is
+ * memory-mapped read-only from the index file; only the trailing partial page is kept as packed
+ * {@code long} pairs. Opening an index therefore costs O(1) heap regardless of history length and
+ * {@link #frameFileOffset}/{@link #uncompressedOffset} are an offset calculation.
+ * <p>
  * {@link #appendEntries} appends new entry records and updates {@code entryCount} in place
  * (O(batch) I/O). {@link #replaceAll} still rewrites the whole file (rebuild / replace).
  */
@@ -35,8 +42,17 @@ final class ZstdLedgerIndex {
     static final int ENTRY_SIZE = 8 + 8;
     private static final int COUNT_OFFSET = 8; // after magic + version
 
+    /** Entries per mapped page (1 MiB of index file). */
+    static final int PAGE_ENTRIES = 1 << 16;
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_BYTES = PAGE_ENTRIES * ENTRY_SIZE;
+
     private final Path indexPath;
-    private final List<Entry> entries = new ArrayList<>();
+    /** Complete pages, each mapping exactly {@link #PAGE_BYTES} of the entry region. */
+    private final List<ByteBuffer> pages = new ArrayList<>();
+    /** Packed (frameFileOffset, uncompressedOffset) pairs of the trailing partial page. */
+    private long[] tail = new long[32];
+    private int tailCount;
     private boolean loaded;
 
     ZstdLedgerIndex(Path ledgerFile) {
@@ -49,35 +65,84 @@ final class ZstdLedgerIndex {
 
     synchronized int size() {
         ensureLoaded();
-        return entries.size();
+        return sizeUnlocked();
+    }
+
+    synchronized long frameFileOffset(int ordinal) {
+        ensureLoaded();
+        return valueAt(ordinal, 0);
+    }
+
+    synchronized long uncompressedOffset(int ordinal) {
+        ensureLoaded();
+        return valueAt(ordinal, 1);
     }
 
     synchronized Entry get(int ordinal) {
         ensureLoaded();
-        return entries.get(ordinal);
+        return new Entry(valueAt(ordinal, 0), valueAt(ordinal, 1));
     }
 
     synchronized void appendEntries(List<Entry> newEntries) throws IOException {
+        appendEntries(EntryBuffer.of(newEntries));
+    }
+
+    synchronized void appendEntries(EntryBuffer newEntries) throws IOException {
+        appendEntries(newEntries, true);
+    }
+
+    /**
+     * @param force whether to force the index file to stable storage (skipped when the ledger's
+     *              {@link DurabilityPolicy} did not sync the frames these entries point at)
+     */
+    synchronized void appendEntries(EntryBuffer newEntries, boolean force) throws IOException {
         ensureLoaded();
-        if (newEntries.isEmpty()) {
+        if (newEntries.count == 0) {
             return;
         }
-        entries.addAll(newEntries);
-        appendToDisk(newEntries);
+        appendToDisk(newEntries, force);
     }
 
     synchronized void replaceAll(List<Entry> rebuilt) throws IOException {
-        entries.clear();
-        entries.addAll(rebuilt);
-        loaded = true;
-        rewriteFully();
+        replaceAll(EntryBuffer.of(rebuilt));
+    }
+
+    synchronized void replaceAll(EntryBuffer rebuilt) throws IOException {
+        clearInMemory();
+        rewriteFully(rebuilt);
+        loadFromDisk();
     }
 
     synchronized void clearMissingFile() {
-        entries.clear();
+        clearInMemory();
         loaded = true;
     }
 
+    private int sizeUnlocked() {
+        return pages.size() * PAGE_ENTRIES + tailCount;
+    }
+
+    /**
+     * @param field 0 for {@code frameFileOffset}, 1 for {@code uncompressedOffset}
+     */
+    private long valueAt(int ordinal, int field) {
+        int size = sizeUnlocked();
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("Index " + ordinal + " out of bounds for length " + size);
+        }
+        int page = ordinal >>> PAGE_SHIFT;
+        int slot = ordinal & (PAGE_ENTRIES - 1);
+        if (page < pages.size()) {
+            return pages.get(page).getLong(slot * ENTRY_SIZE + field * 8);
+        }
+        return tail[slot * 2 + field];
+    }
+
+    private void clearInMemory() {
+        pages.clear();
+        tailCount = 0;
+    }
+
     private void ensureLoaded() {
         if (loaded) {
             return;
@@ -90,7 +155,7 @@ final class ZstdLedgerIndex {
     }
 
     private void loadFromDisk() throws IOException {
-        entries.clear();
+        clearInMemory();
         if (!Files.exists(indexPath) || Files.size(indexPath) == 0) {
             loaded = true;
             return;
@@ -111,61 +176,117 @@ final class ZstdLedgerIndex {
             if (count < 0 || count > Integer.MAX_VALUE) {
                 throw new IOException("Invalid zstd ledger index entry count " + count);
             }
-            ByteBuffer entryBuf = ByteBuffer.allocate(ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-            for (long i = 0; i < count; i++) {
-                entryBuf.clear();
-                readFully(ch, entryBuf);
-                entryBuf.flip();
-                entries.add(new Entry(entryBuf.getLong(), entryBuf.getLong()));
+            if (ch.size() < HEADER_SIZE + count * ENTRY_SIZE) {
+                throw new EOFException("Truncated zstd ledger index " + indexPath + " (expected "
+                        + count + " entries, size " + ch.size() + ")");
+            }
+            int fullPages = (int) (count >>> PAGE_SHIFT);
+            for (int p = 0; p < fullPages; p++) {
+                pages.add(mapPage(ch, p));
+            }
+            int remainder = (int) (count & (PAGE_ENTRIES - 1));
+            if (remainder > 0) {
+                ByteBuffer tailBuf = ByteBuffer.allocate(remainder * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                ch.position(HEADER_SIZE + (long) fullPages * PAGE_BYTES);
+                readFully(ch, tailBuf);
+                tailBuf.flip();
+                ensureTailCapacity(remainder);
+                tailBuf.asLongBuffer().get(tail, 0, remainder * 2);
+                tailCount = remainder;
             }
         }
         loaded = true;
     }
 
+    private static ByteBuffer mapPage(FileChannel ch, int page) throws IOException {
+        return ch.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + (long) page * PAGE_BYTES, PAGE_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
     /**
-     * Append {@code newEntries} to the file and update header {@code entryCount}.
+     * Append {@code newEntries} to the file and update header {@code entryCount}, then add them to
+     * the in-memory tail (mapping any page the batch completes).
      * Writes entry bytes first, then the count (crash-safe: stale count ignores trailing bytes).
      */
-    private void appendToDisk(List<Entry> newEntries) throws IOException {
+    private void appendToDisk(EntryBuffer newEntries, boolean force) throws IOException {
         Path parent = indexPath.getParent();
         if (parent != null) {
             Files.createDirectories(parent);
         }
+        long priorCount = sizeUnlocked();
+        long newCount = priorCount + newEntries.count;
+        if (!appendInPlace(newEntries, priorCount, newCount, force)) {
+            // Diverged from expected layout — fall back to full rewrite for safety.
+            EntryBuffer all = snapshotUnlocked();
+            all.addAll(newEntries);
+            clearInMemory();
+            rewriteFully(all);
+            loadFromDisk();
+        }
+    }
+
+    /** @return false, without writing anything, if the file size does not match {@code priorCount} */
+    private boolean appendInPlace(EntryBuffer newEntries, long priorCount, long newCount, boolean force) throws IOException {
         try (FileChannel ch = FileChannel.open(indexPath,
                 StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
-            if (ch.size() == 0) {
-                // First write: header + all entries currently in memory (equals newEntries on first append).
-                writeHeader(ch, entries.size());
-                writeEntryRecords(ch, entries);
-            } else {
-                long priorCount = entries.size() - newEntries.size();
-                long expectedSize = HEADER_SIZE + priorCount * (long) ENTRY_SIZE;
-                if (ch.size() != expectedSize) {
-                    // Diverged from expected layout — fall back to full rewrite for safety.
-                    rewriteFully();
-                    return;
+            long expectedSize = HEADER_SIZE + priorCount * (long) ENTRY_SIZE;
+            if (ch.size() == 0 && priorCount == 0) {
+                writeHeader(ch, 0);
+            } else if (ch.size() > expectedSize && ch.size() >= HEADER_SIZE) {
+                // Trailing bytes from an append whose count update never landed — drop them.
+                ch.truncate(expectedSize);
+            } else if (ch.size() != expectedSize) {
+                return false;
+            }
+            ch.position(expectedSize);
+            writeEntryRecords(ch, newEntries);
+            ByteBuffer countBuf = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            countBuf.putLong(newCount);
+            countBuf.flip();
+            ch.position(COUNT_OFFSET);
+            writeFully(ch, countBuf);
+            if (force) {
+                ch.force(true);
+            }
+
+            for (int i = 0; i < newEntries.count; i++) {
+                ensureTailCapacity(tailCount + 1);
+                tail[tailCount * 2] = newEntries.pairs[i * 2];
+                tail[tailCount * 2 + 1] = newEntries.pairs[i * 2 + 1];
+                tailCount++;
+                if (tailCount == PAGE_ENTRIES) {
+                    pages.add(mapPage(ch, pages.size()));
+                    tailCount = 0;
                 }
-                ch.position(ch.size());
-                writeEntryRecords(ch, newEntries);
-                ByteBuffer countBuf = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
-                countBuf.putLong(entries.size());
-                countBuf.flip();
-                ch.position(COUNT_OFFSET);
-                writeFully(ch, countBuf);
             }
-            ch.force(true);
         }
+        return true;
     }
 
-    private void rewriteFully() throws IOException {
+    private EntryBuffer snapshotUnlocked() {
+        int size = sizeUnlocked();
+        EntryBuffer all = new EntryBuffer(size);
+        for (int i = 0; i < size; i++) {
+            all.add(valueAt(i, 0), valueAt(i, 1));
+        }
+        return all;
+    }
+
+    private void ensureTailCapacity(int entries) {
+        if (tail.length < entries * 2) {
+            tail = Arrays.copyOf(tail, Math.min(Math.max(tail.length * 2, entries * 2), PAGE_ENTRIES * 2));
+        }
+    }
+
+    private void rewriteFully(EntryBuffer all) throws IOException {
         Path parent = indexPath.getParent();
         if (parent != null) {
             Files.createDirectories(parent);
         }
         try (FileChannel ch = FileChannel.open(indexPath,
                 StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            writeHeader(ch, entries.size());
-            writeEntryRecords(ch, entries);
+            writeHeader(ch, all.count);
+            writeEntryRecords(ch, all);
             ch.force(true);
         }
     }
@@ -179,14 +300,18 @@ final class ZstdLedgerIndex {
         writeFully(ch, header);
     }
 
-    private static void writeEntryRecords(FileChannel ch, List<Entry> toWrite) throws IOException {
-        ByteBuffer entryBuf = ByteBuffer.allocate(ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-        for (Entry e : toWrite) {
-            entryBuf.clear();
-            entryBuf.putLong(e.frameFileOffset);
-            entryBuf.putLong(e.uncompressedOffset);
-            entryBuf.flip();
-            writeFully(ch, entryBuf);
+    /** Writes entries in page-sized chunks, one channel write per chunk. */
+    private static void writeEntryRecords(FileChannel ch, EntryBuffer toWrite) throws IOException {
+        int chunkEntries = Math.min(toWrite.count, PAGE_ENTRIES);
+        ByteBuffer chunk = ByteBuffer.allocate(chunkEntries * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        LongBuffer longs = chunk.asLongBuffer();
+        for (int start = 0; start < toWrite.count; start += chunkEntries) {
+            int n = Math.min(chunkEntries, toWrite.count - start);
+            longs.clear();
+            longs.put(toWrite.pairs, start * 2, n * 2);
+            chunk.clear();
+            chunk.limit(n * ENTRY_SIZE);
+            writeFully(ch, chunk);
         }
     }
 
@@ -214,4 +339,56 @@ final class ZstdLedgerIndex {
             this.uncompressedOffset = uncompressedOffset;
         }
     }
+
+    /**
+     * Growable packed list of (frameFileOffset, uncompressedOffset) pairs used to batch entries
+     * without allocating an {@link Entry} per record.
+     */
+    static final class EntryBuffer {
+        private long[] pairs;
+        private int count;
+
+        EntryBuffer() {
+            this(64);
+        }
+
+        EntryBuffer(int initialEntries) {
+            this.pairs = new long[Math.max(initialEntries, 1) * 2];
+        }
+
+        static EntryBuffer of(List<Entry> entries) {
+            EntryBuffer buf = new EntryBuffer(entries.size());
+            for (Entry e : entries) {
+                buf.add(e.frameFileOffset, e.uncompressedOffset);
+            }
+            return buf;
+        }
+
+        void add(long frameFileOffset, long uncompressedOffset) {
+            if (pairs.length < (count + 1) * 2) {
+                pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            }
+            pairs[count * 2] = frameFileOffset;
+            pairs[count * 2 + 1] = uncompressedOffset;
+            count++;
+        }
+
+        void addAll(EntryBuffer other) {
+            for (int i = 0; i < other.count; i++) {
+                add(other.pairs[i * 2], other.pairs[i * 2 + 1]);
+            }
+        }
+
+        int size() {
+            return count;
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        void clear() {
+            count = 0;
+        }
+    }
 }
@@ -0,0 +1,271 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Binary codec: lossless round trip, newline-free payloads, drop-in use by the disk driver
+ * (plain and ZSTD, mixed with existing JSONL lines) and JSONL dump.
+ */
+public class BinaryRecordCodecTest {
+    private Path tempDir;
+    private LedgerRegistry registry;
+
+    public enum Side { BUY, SELL }
+
+    /** Exercises every wire kind, including values whose bytes need escaping. */
+    public static class WideRecord extends Record {
+        public static final RecordType TYPE = RecordType.of("wide_record");
+        private boolean flag;
+        private int count;
+        private long big;
+        private double ratio;
+        private float small;
+        private char code;
+        private Integer boxed;
+        private String text;
+        private BigDecimal price;
+        private Instant at;
+        private Side side;
+        private List<String> tags;
+        private transient String ignored = "not persisted";
+
+        public WideRecord() {
+            setType(TYPE);
+        }
+    }
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("ledger-binary");
+        registry = new LedgerRegistry();
+        registry.setLedgerDir(tempDir);
+        registry.registerRecordType(TestRecord.TYPE, TestRecord.class);
+        registry.registerRecordType(WideRecord.TYPE, WideRecord.class);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if (tempDir != null && Files.exists(tempDir)) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(p -> {
+                        try {
+                            Files.deleteIfExists(p);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    private TestRecord rec(int value) {
+        TestRecord r = new TestRecord(Instant.parse("2020-01-01T00:00:00.123456789Z").plusSeconds(value),
+                "payload-ü-\n-\r-\u001b-" + value, value);
+        r.setSequenceId((long) value);
+        r.setEventId("evt-" + value);
+        return r;
+    }
+
+    private DiskPersistenceDriver<TestRecord> newDriver(Path file, LedgerCompression compression, RecordCodec codec) throws IOException {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(file, registry);
+        driver.setCompression(compression);
+        driver.setCodec(codec);
+        driver.setAutoFlush(false);
+        driver.setSequenceIndexInterval(8);
+        driver.init();
+        driver.start();
+        return driver;
+    }
+
+    private List<Integer> values(DiskPersistenceDriver<TestRecord> driver, long fromSequence, boolean reverse) {
+        List<Integer> out = new ArrayList<>();
+        ReadCallback<TestRecord> cb = r -> {
+            out.add(r.getValue());
+            return true;
+        };
+        if (reverse) {
+            driver.readReverse(fromSequence, cb);
+        } else {
+            driver.read(fromSequence, cb);
+        }
+        return out;
+    }
+
+    @Test
+    public void roundTrip_allFieldKinds_noLineSeparatorsInPayload() throws Exception {
+        BinaryRecordCodec codec = new BinaryRecordCodec(registry);
+        WideRecord w = new WideRecord();
+        w.setSequenceId(10L);
+        w.setTimestamp(Instant.ofEpochSecond(-5, 10));
+        w.flag = true;
+        w.count = '\n';
+        w.big = Long.MIN_VALUE;
+        w.ratio = -0.1;
+        w.small = 13.5f;
+        w.code = '\r';
+        w.boxed = null;
+        w.text = "line1\nline2\r\u001b";
+        w.price = new BigDecimal("-1234567890.000000010");
+        w.at = Instant.parse("2024-02-29T12:00:00Z");
+        w.side = Side.SELL;
+        w.tags = List.of("a", "b\nc");
+
+        byte[] line = codec.encode(w);
+        for (byte b : line) {
+            Assert.assertTrue(b != '\n' && b != '\r', "payload must stay newline-framed");
+        }
+        Assert.assertTrue(codec.canDecode(line, 0, line.length));
+
+        WideRecord back = (WideRecord) codec.decode(line, 0, line.length);
+        Assert.assertEquals(back.getType(), WideRecord.TYPE);
+        Assert.assertEquals(back.getSequenceId(), Long.valueOf(10));
+        Assert.assertEquals(back.getTimestamp(), w.getTimestamp());
+        Assert.assertNull(back.getEventId());
+        Assert.assertTrue(back.flag);
+        Assert.assertEquals(back.count, 10);
+        Assert.assertEquals(back.big, Long.MIN_VALUE);
+        Assert.assertEquals(back.ratio, -0.1);
+        Assert.assertEquals(back.small, 13.5f);
+        Assert.assertEquals(back.code, '\r');
+        Assert.assertNull(back.boxed);
+        Assert.assertEquals(back.text, w.text);
+        Assert.assertEquals(back.price, w.price);
+        Assert.assertEquals(back.at, w.at);
+        Assert.assertEquals(back.side, Side.SELL);
+        Assert.assertEquals(back.tags, w.tags);
+        Assert.assertEquals(back.ignored, "not persisted");
+    }
+
+    @Test
+    public void changedFieldLayout_isRejectedButAppendedFieldsStayReadable() throws Exception {
+        WideRecord w = new WideRecord();
+        w.setSequenceId(3L);
+        w.count = 7;
+        w.big = 9;
+        w.text = "x";
+        w.price = BigDecimal.ONE;
+        byte[] full = new BinaryRecordCodec(registry).encode(w);
+
+        LedgerRegistry swapped = new LedgerRegistry();
+        swapped.registerRecordType(WideRecord.TYPE, WideRecord.class, RecordSchema.of(WideRecord.class,
+                "flag", "big", "count", "ratio", "small", "code", "boxed", "text", "price", "at", "side", "tags"));
+        try {
+            new BinaryRecordCodec(swapped).decode(full, 0, full.length);
+            Assert.fail("expected IOException");
+        } catch (IOException expected) {
+            // count and big swapped positions
+        }
+
+        LedgerRegistry older = new LedgerRegistry();
+        older.registerRecordType(WideRecord.TYPE, WideRecord.class, RecordSchema.of(WideRecord.class, "flag", "count", "big"));
+        WideRecord prefix = (WideRecord) new BinaryRecordCodec(older).decode(full, 0, full.length);
+        Assert.assertEquals(prefix.count, 7);
+        Assert.assertEquals(prefix.big, 9);
+        Assert.assertNull(prefix.text);
+
+        byte[] short3 = new BinaryRecordCodec(older).encode(w);
+        WideRecord widened = (WideRecord) new BinaryRecordCodec(registry).decode(short3, 0, short3.length);
+        Assert.assertEquals(widened.big, 9);
+        Assert.assertNull(widened.text);
+    }
+
+    @Test
+    public void binaryLine_isSmallerThanJson() throws Exception {
+        TestRecord r = rec(42);
+        byte[] binary = new BinaryRecordCodec(registry).encode(r);
+        byte[] json = new JsonlRecordCodec(registry).encode(r);
+        Assert.assertTrue(binary.length * 2 < json.length,
+                "binary " + binary.length + " bytes vs json " + json.length);
+        Assert.assertEquals(new BinaryRecordCodec(registry).decode(binary, 0, binary.length), r);
+    }
+
+    @Test
+    public void unregisteredType_fallsBackToJsonLine() throws Exception {
+        LedgerRegistry empty = new LedgerRegistry();
+        byte[] line = new BinaryRecordCodec(empty).encode(rec(1));
+        Assert.assertEquals(line[0], (byte) '{');
+    }
+
+    @Test
+    public void plainLedger_binaryAppendedToExistingJsonl_readsAllOrders() throws Exception {
+        Path file = tempDir.resolve("mixed.jsonl");
+        DiskPersistenceDriver<TestRecord> json = newDriver(file, LedgerCompression.NONE, new JsonlRecordCodec(registry));
+        for (int i = 1; i <= 20; i++) {
+            json.write(rec(i));
+        }
+        json.close();
+
+        DiskPersistenceDriver<TestRecord> binary = newDriver(file, LedgerCompression.NONE, new BinaryRecordCodec(registry));
+        for (int i = 21; i <= 40; i++) {
+            binary.write(rec(i));
+        }
+        binary.flush();
+
+        Assert.assertEquals(binary.count(), 40);
+        List<Integer> all = values(binary, -1, false);
+        Assert.assertEquals(all.size(), 40);
+        Assert.assertEquals((int) all.get(0), 1);
+        Assert.assertEquals((int) all.get(39), 40);
+        Assert.assertEquals(values(binary, 33, false), List.of(34, 35, 36, 37, 38, 39, 40));
+        List<Integer> reversed = values(binary, 24, true);
+        Assert.assertEquals(reversed.subList(0, 5), List.of(23, 22, 21, 20, 19));
+        binary.close();
+
+        List<TestRecord> decoded = new ArrayList<>();
+        newDriver(file, LedgerCompression.NONE, new JsonlRecordCodec(registry)).read(29, r -> {
+            decoded.add(r);
+            return false;
+        });
+        Assert.assertEquals(decoded.get(0), rec(30));
+    }
+
+    @Test
+    public void zstdLedger_binaryRecords_forwardReverseAndSeek() throws Exception {
+        Path file = tempDir.resolve("binary.jsonl.zst");
+        DiskPersistenceDriver<TestRecord> d = newDriver(file, LedgerCompression.ZSTD, new BinaryRecordCodec(registry));
+        d.setFlushIntervalWrites(4);
+        for (int i = 1; i <= 30; i++) {
+            d.write(rec(i));
+        }
+        d.close();
+
+        DiskPersistenceDriver<TestRecord> r = newDriver(file, LedgerCompression.ZSTD, new BinaryRecordCodec(registry));
+        Assert.assertEquals(r.count(), 30);
+        Assert.assertEquals(values(r, 25, false), List.of(26, 27, 28, 29, 30));
+        Assert.assertEquals(values(r, 4, true), List.of(3, 2, 1));
+        r.close();
+    }
+
+    @Test
+    public void dumpJsonl_writesJsonForBinaryLedger() throws Exception {
+        Path file = tempDir.resolve("dump.jsonl");
+        DiskPersistenceDriver<TestRecord> d = newDriver(file, LedgerCompression.NONE, new BinaryRecordCodec(registry));
+        for (int i = 1; i <= 5; i++) {
+            d.write(rec(i));
+        }
+        d.close();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(LedgerDump.dumpJsonl(file, registry, out), 5);
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        Assert.assertEquals(lines.length, 5);
+        JsonlRecordCodec json = new JsonlRecordCodec(registry);
+        for (int i = 0; i < 5; i++) {
+            byte[] bytes = lines[i].getBytes(StandardCharsets.UTF_8);
+            Assert.assertEquals(json.decode(bytes, 0, bytes.length), rec(i + 1));
+        }
+    }
+}
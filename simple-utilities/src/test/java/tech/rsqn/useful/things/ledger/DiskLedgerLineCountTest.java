@@ -108,6 +108,8 @@ public class DiskLedgerLineCountTest extends LedgerTestBase {
         wb.write(createRecord("a", 1));
         wb.write(createRecord("b", 2));
         Assert.assertEquals(wb.size(), 2L);
+        wb.flush();
+        Assert.assertEquals(wb.size(), 2L);
         Assert.assertEquals(readLineCount(ledgerFile), 2L);
     }
 
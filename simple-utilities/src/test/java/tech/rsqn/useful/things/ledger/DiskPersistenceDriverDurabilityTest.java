@@ -0,0 +1,295 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link DurabilityPolicy} on {@link DiskPersistenceDriver} and group fsync in
+ * {@link FsyncCoordinator}.
+ */
+public class DiskPersistenceDriverDurabilityTest extends LedgerTestBase {
+
+    private DiskPersistenceDriver<TestRecord> newDriver(LedgerCompression compression, DurabilityPolicy policy)
+            throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.setCompression(compression);
+        driver.setAutoFlush(false);
+        driver.setFlushIntervalWrites(10_000);
+        driver.setFlushIntervalSeconds(100.0);
+        if (policy != null) {
+            driver.setDurabilityPolicy(policy);
+        }
+        driver.init();
+        driver.start();
+        return driver;
+    }
+
+    @Test
+    public void policy_syncDue() {
+        Assert.assertFalse(DurabilityPolicy.NONE.syncDue(1_000, Long.MAX_VALUE));
+        Assert.assertTrue(DurabilityPolicy.EVERY_WRITE.syncDue(1, 0));
+        Assert.assertFalse(DurabilityPolicy.EVERY_WRITE.syncDue(0, 0));
+        Assert.assertFalse(DurabilityPolicy.everyNRecords(3).syncDue(2, Long.MAX_VALUE));
+        Assert.assertTrue(DurabilityPolicy.everyNRecords(3).syncDue(3, 0));
+        Assert.assertFalse(DurabilityPolicy.interval(5).syncDue(1, 4_000_000L));
+        Assert.assertTrue(DurabilityPolicy.interval(5).syncDue(1, 5_000_000L));
+        Assert.assertFalse(DurabilityPolicy.interval(5).syncDue(0, 5_000_000L));
+        Assert.assertEquals(DurabilityPolicy.interval(5), DurabilityPolicy.interval(5));
+        Assert.assertEquals(DurabilityPolicy.everyNRecords(7).toString(), "EVERY_N_RECORDS(7)");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void policy_nonPositiveInterval_throwsIAE() {
+        DurabilityPolicy.interval(0);
+    }
+
+    @Test
+    public void defaults_dependOnCompression() {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        Assert.assertEquals(driver.getDurabilityPolicy(), DurabilityPolicy.NONE);
+        driver.setCompression(LedgerCompression.ZSTD);
+        Assert.assertEquals(driver.getDurabilityPolicy(), DurabilityPolicy.EVERY_FRAME);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void setDurabilityPolicy_afterStart_throwsISE() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = newDriver(LedgerCompression.NONE, null);
+        try {
+            driver.setDurabilityPolicy(DurabilityPolicy.EVERY_WRITE);
+        } finally {
+            driver.close();
+        }
+    }
+
+    @Test
+    public void plainEveryWrite_flushesAndSyncsBeforeReturning() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = newDriver(LedgerCompression.NONE, DurabilityPolicy.EVERY_WRITE);
+        long forcesBefore = FsyncCoordinator.shared().forceCount();
+        driver.write(createRecord("a", 1));
+        Assert.assertEquals(Files.size(ledgerFile), driver.appendedLength());
+        Assert.assertTrue(FsyncCoordinator.shared().forceCount() > forcesBefore);
+        Assert.assertFalse(driver.hasUnflushedWrites());
+        driver.close();
+    }
+
+    @Test
+    public void plainEveryNRecords_flushesOnTheNthRecord() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = newDriver(LedgerCompression.NONE, DurabilityPolicy.everyNRecords(3));
+        driver.write(createRecord("a", 1));
+        driver.write(createRecord("b", 2));
+        Assert.assertEquals(Files.size(ledgerFile), 0L);
+        driver.write(createRecord("c", 3));
+        Assert.assertEquals(Files.size(ledgerFile), driver.appendedLength());
+        Assert.assertEquals(driver.count(), 3L);
+        driver.close();
+    }
+
+    @Test
+    public void zstdEveryWrite_endsAFramePerWrite() throws Exception {
+        ledgerFile = tempDir.resolve("test.jsonl.zst");
+        DiskPersistenceDriver<TestRecord> driver = newDriver(LedgerCompression.ZSTD, DurabilityPolicy.EVERY_WRITE);
+        driver.write(createRecord("a", 1));
+        driver.writeBatch(List.of(createRecord("b", 2), createRecord("c", 3)));
+        Assert.assertFalse(driver.hasUnflushedWrites());
+        Assert.assertEquals(Files.size(ledgerFile), driver.appendedLength());
+        Assert.assertEquals(driver.count(), 3L);
+        driver.close();
+    }
+
+    @Test
+    public void coordinator_mergesConcurrentRequestsForOneFile() throws Exception {
+        FsyncCoordinator fsync = new FsyncCoordinator("TestFsync");
+        Path file = tempDir.resolve("sync.bin");
+        int threads = 8;
+        int perThread = 200;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            CountDownLatch go = new CountDownLatch(1);
+            AtomicInteger synced = new AtomicInteger();
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                done.add(pool.submit(() -> {
+                    go.await();
+                    for (int i = 0; i < perThread; i++) {
+                        fsync.sync(ch);
+                        synced.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            go.countDown();
+            for (Future<?> f : done) {
+                f.get();
+            }
+            pool.shutdown();
+            Assert.assertEquals(synced.get(), threads * perThread);
+            Assert.assertEquals(fsync.requestCount(), (long) threads * perThread);
+            Assert.assertTrue(fsync.forceCount() < fsync.requestCount(),
+                    "forces " + fsync.forceCount() + " of " + fsync.requestCount() + " requests");
+        }
+    }
+
+    @Test
+    public void coordinator_forcesDistinctFilesInParallel() throws Exception {
+        FsyncCoordinator fsync = new FsyncCoordinator("TestFsyncParallel");
+        CountDownLatch forcing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (FileChannel slow = new GatedChannel(FileChannel.open(tempDir.resolve("slow.bin"),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE), forcing, release);
+             FileChannel fast = FileChannel.open(tempDir.resolve("fast.bin"),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            CompletableFuture<Void> slowDone = fsync.requestSync(slow);
+            Assert.assertTrue(forcing.await(5, TimeUnit.SECONDS));
+            fsync.requestSync(fast).get(5, TimeUnit.SECONDS);
+            Assert.assertFalse(slowDone.isDone(), "the slow force is still running");
+
+            CompletableFuture<Void> merged = fsync.requestSync(slow);
+            release.countDown();
+            slowDone.get(5, TimeUnit.SECONDS);
+            merged.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void plainInterval_idleLedgerIsSyncedByTheCoordinatorTick() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = newDriver(LedgerCompression.NONE, DurabilityPolicy.interval(20));
+        driver.write(createRecord("a", 1));
+        driver.write(createRecord("b", 2));
+        Assert.assertEquals(Files.size(ledgerFile), 0L, "buffered until the interval elapses");
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (driver.hasUnflushedWrites() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertFalse(driver.hasUnflushedWrites(), "no further write, yet the tick synced");
+        Assert.assertEquals(Files.size(ledgerFile), driver.appendedLength());
+        driver.close();
+    }
+
+    /** Delegates to a real channel; {@code force} waits for {@code release}. */
+    private static final class GatedChannel extends FileChannel {
+        private final FileChannel delegate;
+        private final CountDownLatch forcing;
+        private final CountDownLatch release;
+
+        GatedChannel(FileChannel delegate, CountDownLatch forcing, CountDownLatch release) {
+            this.delegate = delegate;
+            this.forcing = forcing;
+            this.release = release;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            forcing.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            delegate.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return delegate.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+}
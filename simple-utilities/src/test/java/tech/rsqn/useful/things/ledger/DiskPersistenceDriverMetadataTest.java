@@ -0,0 +1,120 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * {@link LedgerMetadata} checkpoints: trusted when the file length matches, extended by a tail
+ * scan when the file grew past them, ignored when corrupt, and used to resume sequence ids.
+ */
+public class DiskPersistenceDriverMetadataTest extends LedgerTestBase {
+
+    private DiskPersistenceDriver<TestRecord> newDriver(LedgerCompression compression) throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.setCompression(compression);
+        driver.init();
+        driver.start();
+        return driver;
+    }
+
+    private void writeRecords(DiskPersistenceDriver<TestRecord> driver, int from, int to) throws Exception {
+        for (int i = from; i <= to; i++) {
+            TestRecord r = createRecord("r" + i, i);
+            r.setSequenceId((long) i);
+            driver.write(r);
+        }
+    }
+
+    @Test
+    public void close_persistsTotalsThatReopenTrusts() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = newDriver(LedgerCompression.NONE);
+        writeRecords(driver, 1, 20);
+        driver.close();
+
+        LedgerMetadata saved = LedgerMetadata.load(ledgerFile);
+        Assert.assertEquals(saved.fileLength, Files.size(ledgerFile));
+        Assert.assertEquals(saved.recordCount, 20L);
+        Assert.assertEquals(saved.lastSequence, 20L);
+        Assert.assertNotNull(saved.lastTimestamp);
+
+        // A checkpoint matching the file length is used as is: no line is counted.
+        new LedgerMetadata(saved.fileLength, 17, 99, saved.lastTimestamp).persist(ledgerFile);
+        DiskPersistenceDriver<TestRecord> reader = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        Assert.assertEquals(reader.count(), 17L);
+        Assert.assertEquals(reader.lastSequenceId(), 99L);
+    }
+
+    @Test
+    public void grownFile_countsOnlyTheTailAfterTheCheckpoint() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = newDriver(LedgerCompression.NONE);
+        writeRecords(driver, 1, 10);
+        driver.close();
+        LedgerMetadata saved = LedgerMetadata.load(ledgerFile);
+        new LedgerMetadata(saved.fileLength, 100, saved.lastSequence, saved.lastTimestamp).persist(ledgerFile);
+
+        // Appended without updating the checkpoint (as after a crash between checkpoints).
+        DiskPersistenceDriver<TestRecord> appender = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        writeRecords(appender, 11, 15);
+
+        DiskPersistenceDriver<TestRecord> reader = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        Assert.assertEquals(reader.count(), 105L);
+        Assert.assertEquals(reader.lastSequenceId(), 15L);
+
+        DiskPersistenceDriver<TestRecord> writer = newDriver(LedgerCompression.NONE);
+        Assert.assertEquals(LedgerMetadata.load(ledgerFile).recordCount, 105L, "start persists the rebuilt checkpoint");
+        writer.close();
+    }
+
+    @Test
+    public void corruptCheckpoint_isIgnoredAndRebuilt() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = newDriver(LedgerCompression.NONE);
+        writeRecords(driver, 1, 7);
+        driver.close();
+        byte[] meta = Files.readAllBytes(LedgerMetadata.pathFor(ledgerFile));
+        meta[20] ^= 0x40;
+        Files.write(LedgerMetadata.pathFor(ledgerFile), meta);
+
+        DiskPersistenceDriver<TestRecord> reader = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        Assert.assertEquals(reader.count(), 7L);
+        Assert.assertEquals(reader.lastSequenceId(), 7L);
+    }
+
+    @Test
+    public void start_terminatesTornFinalLine() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = newDriver(LedgerCompression.NONE);
+        writeRecords(driver, 1, 3);
+        driver.close();
+        Files.write(ledgerFile, "{\"type\":\"test_rec".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        driver = newDriver(LedgerCompression.NONE);
+        writeRecords(driver, 4, 4);
+        driver.close();
+
+        List<String> lines = Files.readAllLines(ledgerFile);
+        Assert.assertEquals(lines.size(), 5);
+        Assert.assertTrue(lines.get(4).contains("\"r4\""));
+        DiskPersistenceDriver<TestRecord> reader = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        Assert.assertEquals(reader.count(), 5L);
+        Assert.assertEquals(reader.lastSequenceId(), 4L);
+    }
+
+    @Test
+    public void zstd_checkpointAndLedgerResume() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = newDriver(LedgerCompression.ZSTD);
+        writeRecords(driver, 1, 30);
+        driver.close();
+        Assert.assertEquals(LedgerMetadata.load(ledgerFile).recordCount, 30L);
+
+        driver = newDriver(LedgerCompression.ZSTD);
+        DiskLedger<TestRecord> ledger = new DiskLedger<>(TestRecord.TYPE, driver);
+        this.ledger = ledger;
+        Assert.assertEquals(ledger.size(), 30L);
+        Assert.assertEquals(ledger.write(new TestRecord(Instant.now(), "next", 31)), 31L);
+    }
+}
@@ -0,0 +1,196 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frame-parallel ZSTD reads: ordered forward reads and reverse read-ahead return exactly what a
+ * single-threaded read does, unordered reads deliver every record once, and failures surface.
+ */
+public class DiskPersistenceDriverParallelReadTest {
+    private static final int RECORDS = 2_000;
+
+    private Path tempDir;
+    private LedgerRegistry registry;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("ledger-parallel");
+        registry = new LedgerRegistry();
+        registry.setLedgerDir(tempDir);
+        registry.registerRecordType(TestRecord.TYPE, TestRecord.class);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if (tempDir != null && Files.exists(tempDir)) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(p -> {
+                        try {
+                            Files.deleteIfExists(p);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    /** Writes {@link #RECORDS} records in frames of 25 and returns a read-only driver over them. */
+    private DiskPersistenceDriver<TestRecord> writeLedger(Path file, int readParallelism) throws Exception {
+        DiskPersistenceDriver<TestRecord> writer = new DiskPersistenceDriver<>(file, registry);
+        writer.setCompression(LedgerCompression.ZSTD);
+        writer.setAutoFlush(false);
+        writer.setFlushIntervalWrites(25);
+        writer.setSequenceIndexInterval(100);
+        writer.init();
+        writer.start();
+        for (int i = 1; i <= RECORDS; i++) {
+            TestRecord r = new TestRecord(Instant.parse("2024-01-01T00:00:00Z").plusSeconds(i), "sym-" + (i % 7), i);
+            r.setSequenceId((long) i);
+            writer.write(r);
+        }
+        writer.close();
+        return reader(file, readParallelism);
+    }
+
+    private DiskPersistenceDriver<TestRecord> reader(Path file, int readParallelism) {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(file, registry);
+        driver.setCompression(LedgerCompression.ZSTD);
+        driver.setReadParallelism(readParallelism);
+        driver.init();
+        return driver;
+    }
+
+    private static List<Integer> forward(DiskPersistenceDriver<TestRecord> d, long fromSequence, RawLineFilter filter) {
+        List<Integer> out = new ArrayList<>();
+        d.read(fromSequence, filter, r -> out.add(r.getValue()));
+        return out;
+    }
+
+    private static List<Integer> reverse(DiskPersistenceDriver<TestRecord> d, long fromSequence) {
+        List<Integer> out = new ArrayList<>();
+        d.readReverse(fromSequence, r -> out.add(r.getValue()));
+        return out;
+    }
+
+    @Test
+    public void orderedReads_matchSingleThreadedReads() throws Exception {
+        Path file = tempDir.resolve("ordered.jsonl.zst");
+        DiskPersistenceDriver<TestRecord> serial = writeLedger(file, 1);
+        DiskPersistenceDriver<TestRecord> parallel = reader(file, 4);
+
+        List<Integer> all = forward(parallel, -1, null);
+        Assert.assertEquals(all.size(), RECORDS);
+        Assert.assertEquals(all, forward(serial, -1, null));
+        Assert.assertEquals(forward(parallel, 1_234, null), forward(serial, 1_234, null));
+        Assert.assertEquals(forward(parallel, 10, RawLineFilter.contains("sym-3")), forward(serial, 10, RawLineFilter.contains("sym-3")));
+        Assert.assertEquals(reverse(parallel, -1), reverse(serial, -1));
+        Assert.assertEquals(reverse(parallel, 777), reverse(serial, 777));
+
+        List<Integer> firstTen = new ArrayList<>();
+        parallel.read(500, r -> {
+            firstTen.add(r.getValue());
+            return firstTen.size() < 10;
+        });
+        Assert.assertEquals(firstTen, List.of(501, 502, 503, 504, 505, 506, 507, 508, 509, 510));
+    }
+
+    @Test
+    public void unorderedRead_deliversEveryRecordOnceOnFrameWorkers() throws Exception {
+        DiskPersistenceDriver<TestRecord> d = writeLedger(tempDir.resolve("unordered.jsonl.zst"), 4);
+        Set<Integer> seen = ConcurrentHashMap.newKeySet();
+        AtomicLong sum = new AtomicLong();
+        AtomicInteger onCaller = new AtomicInteger();
+        Thread caller = Thread.currentThread();
+        d.readUnordered(-1, null, r -> {
+            Assert.assertTrue(seen.add(r.getValue()), "duplicate " + r.getValue());
+            sum.addAndGet(r.getValue());
+            if (Thread.currentThread() == caller) {
+                onCaller.incrementAndGet();
+            }
+            return true;
+        });
+        Assert.assertEquals(seen.size(), RECORDS);
+        Assert.assertEquals(sum.get(), (long) RECORDS * (RECORDS + 1) / 2);
+        Assert.assertEquals(onCaller.get(), 0, "the callback runs on frame workers");
+
+        AtomicInteger after = new AtomicInteger();
+        d.readUnordered(1_900, RawLineFilter.contains("sym-0"), r -> {
+            Assert.assertTrue(r.getValue() > 1_900 && r.getValue() % 7 == 0);
+            after.incrementAndGet();
+            return true;
+        });
+        Assert.assertEquals(after.get(), 14);
+
+        AtomicInteger delivered = new AtomicInteger();
+        d.readUnordered(-1, null, r -> delivered.incrementAndGet() < 50);
+        Assert.assertTrue(delivered.get() >= 50 && delivered.get() < 50 + 4, "stopped after " + delivered.get());
+    }
+
+    @Test
+    public void concurrentParallelReads_shareABoundedPool() throws Exception {
+        Path file = tempDir.resolve("bounded.jsonl.zst");
+        writeLedger(file, 1);
+        Assert.assertEquals(reader(file, 1).getReadParallelism(), DiskPersistenceDriver.DEFAULT_READ_PARALLELISM);
+        Assert.assertEquals(new DiskPersistenceDriver<TestRecord>(file, registry).getReadParallelism(), 1);
+
+        List<Thread> readers = new ArrayList<>();
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 4 * DiskPersistenceDriver.ZSTD_FRAME_THREADS; i++) {
+            DiskPersistenceDriver<TestRecord> d = reader(file, 8);
+            Thread t = new Thread(() -> sizes.add(forward(d, -1, null).size()));
+            readers.add(t);
+            t.start();
+        }
+        for (Thread t : readers) {
+            t.join();
+        }
+        Assert.assertEquals(sizes.size(), readers.size());
+        Assert.assertTrue(sizes.stream().allMatch(n -> n == RECORDS), sizes.toString());
+        long workers = Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().equals("LedgerZstdFrame"))
+                .count();
+        Assert.assertTrue(workers <= DiskPersistenceDriver.ZSTD_FRAME_THREADS, workers + " frame workers");
+    }
+
+    @Test
+    public void corruptFrame_failsParallelReads() throws Exception {
+        Path file = tempDir.resolve("corrupt.jsonl.zst");
+        DiskPersistenceDriver<TestRecord> d = writeLedger(file, 4);
+        ZstdFrameZoneMap frames = new ZstdFrameZoneMap(file);
+        Assert.assertTrue(frames.load());
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(frames.frameOffset(frames.size() / 2));
+            raf.writeInt(0);
+        }
+        try {
+            forward(d, -1, null);
+            Assert.fail("expected UncheckedIOException");
+        } catch (UncheckedIOException expected) {
+            // ordered
+        }
+        try {
+            d.readUnordered(-1, null, r -> true);
+            Assert.fail("expected UncheckedIOException");
+        } catch (UncheckedIOException expected) {
+            // unordered
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sparse {@code .seq} sidecar: forward reads from a sequence id seek instead of scanning from byte 0,
+ * and a missing or stale sidecar never changes what a read returns.
+ */
+public class DiskPersistenceDriverSequenceIndexTest {
+    private Path tempDir;
+    private LedgerRegistry registry;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("ledger-seq");
+        registry = new LedgerRegistry();
+        registry.setLedgerDir(tempDir);
+        registry.registerRecordType(TestRecord.TYPE, TestRecord.class);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if (tempDir != null && Files.exists(tempDir)) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(p -> {
+                        try {
+                            Files.deleteIfExists(p);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    private DiskPersistenceDriver<TestRecord> newDriver(Path file, LedgerCompression compression) throws IOException {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(file, registry);
+        driver.setCompression(compression);
+        driver.setAutoFlush(false);
+        driver.setFlushIntervalWrites(3);
+        driver.setSequenceIndexInterval(4);
+        driver.init();
+        driver.start();
+        return driver;
+    }
+
+    private TestRecord rec(int value) {
+        TestRecord r = new TestRecord(Instant.parse("2020-01-01T00:00:00Z"), "payload-ü-" + value, value);
+        r.setSequenceId((long) value);
+        return r;
+    }
+
+    private List<Integer> readFrom(DiskPersistenceDriver<TestRecord> driver, long fromSequence) {
+        List<Integer> out = new ArrayList<>();
+        driver.read(fromSequence, r -> {
+            out.add(r.getValue());
+            return true;
+        });
+        return out;
+    }
+
+    private static List<Integer> range(int fromInclusive, int toInclusive) {
+        List<Integer> out = new ArrayList<>();
+        for (int i = fromInclusive; i <= toInclusive; i++) {
+            out.add(i);
+        }
+        return out;
+    }
+
+    private void writeRange(DiskPersistenceDriver<TestRecord> driver, int fromInclusive, int toInclusive) throws IOException {
+        for (int i = fromInclusive; i <= toInclusive; i++) {
+            driver.write(rec(i));
+        }
+    }
+
+    @Test
+    public void plain_readFromSequence_seeksAndReturnsOnlyNewerRecords() throws Exception {
+        Path file = tempDir.resolve("plain.jsonl");
+        DiskPersistenceDriver<TestRecord> d = newDriver(file, LedgerCompression.NONE);
+        writeRange(d, 1, 50);
+        d.close();
+
+        LedgerSequenceIndex sidecar = new LedgerSequenceIndex(file);
+        Assert.assertTrue(sidecar.load());
+        Assert.assertTrue(sidecar.size() >= 10, "expected a sample every 4 records, got " + sidecar.size());
+        Assert.assertTrue(sidecar.floorOffset(37) > 0);
+
+        DiskPersistenceDriver<TestRecord> r = newDriver(file, LedgerCompression.NONE);
+        Assert.assertEquals(readFrom(r, 37), range(38, 50));
+        Assert.assertEquals(readFrom(r, 0), range(1, 50));
+        Assert.assertEquals(readFrom(r, -1), range(1, 50));
+        Assert.assertEquals(readFrom(r, 50), List.of());
+        r.close();
+    }
+
+    @Test
+    public void plain_appendAfterReopen_extendsSidecar() throws Exception {
+        Path file = tempDir.resolve("reopen.jsonl");
+        DiskPersistenceDriver<TestRecord> d1 = newDriver(file, LedgerCompression.NONE);
+        writeRange(d1, 1, 20);
+        d1.close();
+        DiskPersistenceDriver<TestRecord> d2 = newDriver(file, LedgerCompression.NONE);
+        writeRange(d2, 21, 40);
+        d2.close();
+
+        DiskPersistenceDriver<TestRecord> r = newDriver(file, LedgerCompression.NONE);
+        Assert.assertEquals(readFrom(r, 29), range(30, 40));
+        Assert.assertEquals(readFrom(r, 5), range(6, 40));
+        r.close();
+    }
+
+    @Test
+    public void plain_missingOrStaleSidecar_isRebuiltOnStart() throws Exception {
+        Path file = tempDir.resolve("rebuild.jsonl");
+        DiskPersistenceDriver<TestRecord> d = newDriver(file, LedgerCompression.NONE);
+        writeRange(d, 1, 30);
+        d.close();
+
+        Path sidecar = new LedgerSequenceIndex(file).getIndexPath();
+        Files.delete(sidecar);
+        DiskPersistenceDriver<TestRecord> r1 = newDriver(file, LedgerCompression.NONE);
+        Assert.assertTrue(Files.exists(sidecar));
+        Assert.assertEquals(readFrom(r1, 22), range(23, 30));
+        r1.close();
+
+        // Ledger replaced behind the sidecar's back: samples now point into the wrong records.
+        Files.delete(file);
+        DiskPersistenceDriver<TestRecord> other = new DiskPersistenceDriver<>(file, registry);
+        other.setSequenceIndexInterval(0);
+        other.init();
+        other.start();
+        writeRange(other, 101, 140);
+        other.close();
+
+        DiskPersistenceDriver<TestRecord> r2 = newDriver(file, LedgerCompression.NONE);
+        Assert.assertEquals(readFrom(r2, 120), range(121, 140));
+        r2.close();
+    }
+
+    @Test
+    public void plain_nonIncreasingSequenceIds_keepsSidecarAndReadsStayComplete() throws Exception {
+        Path file = tempDir.resolve("unordered.jsonl");
+        DiskPersistenceDriver<TestRecord> d = newDriver(file, LedgerCompression.NONE);
+        writeRange(d, 10, 20);
+        writeRange(d, 1, 9);
+        d.close();
+
+        LedgerSequenceIndex sidecar = new LedgerSequenceIndex(file);
+        Assert.assertTrue(sidecar.load());
+        Assert.assertFalse(sidecar.isOrdered());
+        DiskPersistenceDriver<TestRecord> r = newDriver(file, LedgerCompression.NONE);
+        List<Integer> expected = new ArrayList<>(range(16, 20));
+        Assert.assertEquals(readFrom(r, 15), expected);
+        Assert.assertEquals(readFrom(r, 4), List.of(10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 5, 6, 7, 8, 9));
+        r.close();
+    }
+
+    @Test
+    public void locallyOutOfOrderIds_readFromSequenceNeverSkipsALowerId() throws Exception {
+        for (LedgerCompression compression : LedgerCompression.values()) {
+            Path file = tempDir.resolve("swapped-" + compression + (compression == LedgerCompression.ZSTD ? ".jsonl.zst" : ".jsonl"));
+            // Two concurrent producers can persist 5 before 4.
+            List<Integer> ids = new ArrayList<>(List.of(1, 2, 3, 5, 4));
+            ids.addAll(range(6, 12));
+            DiskPersistenceDriver<TestRecord> d = newDriver(file, compression);
+            for (int id : ids) {
+                d.write(rec(id));
+            }
+            Assert.assertEquals(readFrom(d, 4), List.of(5, 6, 7, 8, 9, 10, 11, 12), compression.name());
+            d.close();
+
+            DiskPersistenceDriver<TestRecord> reopened = newDriver(file, compression);
+            Assert.assertEquals(readFrom(reopened, 4), List.of(5, 6, 7, 8, 9, 10, 11, 12), compression.name());
+            Assert.assertEquals(readFrom(reopened, 3), List.of(5, 4, 6, 7, 8, 9, 10, 11, 12), compression.name());
+            reopened.close();
+
+            Files.delete(new LedgerSequenceIndex(file).getIndexPath());
+            DiskPersistenceDriver<TestRecord> rebuilt = newDriver(file, compression);
+            LedgerSequenceIndex sidecar = new LedgerSequenceIndex(file);
+            Assert.assertTrue(sidecar.load(), compression.name());
+            Assert.assertFalse(sidecar.isOrdered(), compression.name());
+            Assert.assertEquals(readFrom(rebuilt, 4), List.of(5, 6, 7, 8, 9, 10, 11, 12), compression.name());
+            rebuilt.close();
+        }
+    }
+
+    @Test
+    public void plain_readSequenceRange_stopsAtFirstIdPastUpperBound() throws Exception {
+        Path file = tempDir.resolve("bounded.jsonl");
+        DiskPersistenceDriver<TestRecord> d = newDriver(file, LedgerCompression.NONE);
+        writeRange(d, 1, 50);
+        d.close();
+        // Record 30 renumbered to 15 behind the sidecar's back is only returned by a scan past 20.
+        String ledger = Files.readString(file);
+        Assert.assertTrue(ledger.contains("\"sequenceId\":30}"));
+        Files.writeString(file, ledger.replace("\"sequenceId\":30}", "\"sequenceId\":15}"));
+
+        DiskPersistenceDriver<TestRecord> r = newDriver(file, LedgerCompression.NONE);
+        List<Integer> out = new ArrayList<>();
+        r.readSequenceRange(10, 20, rec -> {
+            out.add(rec.getValue());
+            return true;
+        });
+        Assert.assertEquals(out, range(10, 20));
+        r.close();
+    }
+
+    @Test
+    public void plain_readSequenceRange_outOfOrderIds_scansWholeFile() throws Exception {
+        Path file = tempDir.resolve("unbounded.jsonl");
+        DiskPersistenceDriver<TestRecord> d = newDriver(file, LedgerCompression.NONE);
+        writeRange(d, 10, 20);
+        writeRange(d, 1, 9);
+        d.close();
+
+        DiskPersistenceDriver<TestRecord> r = newDriver(file, LedgerCompression.NONE);
+        List<Integer> out = new ArrayList<>();
+        r.readSequenceRange(5, 12, rec -> {
+            out.add(rec.getValue());
+            return true;
+        });
+        Assert.assertEquals(out, List.of(10, 11, 12, 5, 6, 7, 8, 9));
+        r.close();
+    }
+
+    @Test
+    public void zstd_readFromSequence_seeksToFrameStart() throws Exception {
+        Path file = tempDir.resolve("comp.jsonl.zst");
+        DiskPersistenceDriver<TestRecord> d = newDriver(file, LedgerCompression.ZSTD);
+        writeRange(d, 1, 60);
+        d.close();
+
+        LedgerSequenceIndex sidecar = new LedgerSequenceIndex(file);
+        Assert.assertTrue(sidecar.load());
+        Assert.assertTrue(sidecar.size() > 1);
+
+        DiskPersistenceDriver<TestRecord> r = newDriver(file, LedgerCompression.ZSTD);
+        Assert.assertEquals(readFrom(r, 44), range(45, 60));
+        Assert.assertEquals(readFrom(r, 1), range(2, 60));
+        r.close();
+
+        Files.delete(sidecar.getIndexPath());
+        DiskPersistenceDriver<TestRecord> rebuilt = newDriver(file, LedgerCompression.ZSTD);
+        Assert.assertTrue(Files.exists(sidecar.getIndexPath()));
+        Assert.assertEquals(readFrom(rebuilt, 44), range(45, 60));
+        rebuilt.close();
+    }
+
+    @Test
+    public void writeBatch_plainAndZstd_samplesOffsetsInsideBatch() throws Exception {
+        for (LedgerCompression compression : LedgerCompression.values()) {
+            Path file = tempDir.resolve("batch-" + compression + (compression == LedgerCompression.ZSTD ? ".jsonl.zst" : ".jsonl"));
+            DiskPersistenceDriver<TestRecord> d = newDriver(file, compression);
+            for (int base = 1; base <= 60; base += 15) {
+                List<TestRecord> batch = new ArrayList<>();
+                for (int i = base; i < base + 15; i++) {
+                    batch.add(rec(i));
+                }
+                d.writeBatch(batch);
+            }
+            d.close();
+
+            DiskPersistenceDriver<TestRecord> r = newDriver(file, compression);
+            Assert.assertEquals(r.count(), 60);
+            Assert.assertEquals(readFrom(r, -1), range(1, 60));
+            Assert.assertEquals(readFrom(r, 41), range(42, 60), compression.toString());
+            r.close();
+        }
+    }
+}
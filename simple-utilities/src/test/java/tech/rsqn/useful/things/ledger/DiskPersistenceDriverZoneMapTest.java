@@ -0,0 +1,209 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Per-frame {@code .zone} sidecar: time, sequence and record-type range reads skip frames that
+ * cannot match without reading them, and a missing or stale sidecar never changes what a read
+ * returns.
+ */
+public class DiskPersistenceDriverZoneMapTest {
+    private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+    private static final RecordType TRADE = RecordType.of("zone_trade");
+
+    private Path tempDir;
+    private LedgerRegistry registry;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("ledger-zone");
+        registry = new LedgerRegistry();
+        registry.setLedgerDir(tempDir);
+        registry.registerRecordType(TestRecord.TYPE, TestRecord.class);
+        registry.registerRecordType(TRADE, TestRecord.class);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if (tempDir != null && Files.exists(tempDir)) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(p -> {
+                        try {
+                            Files.deleteIfExists(p);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    private DiskPersistenceDriver<TestRecord> newDriver(Path file, boolean zoneMaps) throws IOException {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(file, registry);
+        driver.setCompression(LedgerCompression.ZSTD);
+        driver.setAutoFlush(false);
+        driver.setFlushIntervalWrites(24);
+        driver.setFrameZoneMaps(zoneMaps);
+        driver.init();
+        driver.start();
+        return driver;
+    }
+
+    /** A driver that is never started: it only reads, and trusts the sidecar prefix it finds. */
+    private DiskPersistenceDriver<TestRecord> reader(Path file) {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(file, registry);
+        driver.setCompression(LedgerCompression.ZSTD);
+        driver.init();
+        return driver;
+    }
+
+    /** One record per hour; sequence id = value = hours since {@link #START}, plus one. */
+    private TestRecord rec(int value) {
+        TestRecord r = new TestRecord(START.plus(Duration.ofHours(value - 1)), "payload-" + value, value);
+        r.setSequenceId((long) value);
+        if (value % 10 == 0) {
+            r.setType(TRADE);
+        }
+        return r;
+    }
+
+    private void writeRange(DiskPersistenceDriver<TestRecord> driver, int fromInclusive, int toInclusive) throws IOException {
+        for (int i = fromInclusive; i <= toInclusive; i++) {
+            driver.write(rec(i));
+        }
+    }
+
+    private static List<Integer> range(int fromInclusive, int toInclusive) {
+        List<Integer> out = new ArrayList<>();
+        for (int i = fromInclusive; i <= toInclusive; i++) {
+            out.add(i);
+        }
+        return out;
+    }
+
+    private static List<Integer> timeRange(DiskPersistenceDriver<TestRecord> d, Instant from, Instant to, RecordType type) {
+        List<Integer> out = new ArrayList<>();
+        d.readTimeRange(from, to, type, r -> out.add(r.getValue()));
+        return out;
+    }
+
+    private static List<Integer> sequenceRange(DiskPersistenceDriver<TestRecord> d, long from, long to) {
+        List<Integer> out = new ArrayList<>();
+        d.readSequenceRange(from, to, r -> out.add(r.getValue()));
+        return out;
+    }
+
+    /** Overwrites the magic of frame {@code ordinal} so reading it fails. */
+    private static void corruptFrame(Path file, int ordinal) throws IOException {
+        ZstdFrameZoneMap zones = new ZstdFrameZoneMap(file);
+        Assert.assertTrue(zones.load());
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(zones.frameOffset(ordinal));
+            raf.writeInt(0);
+        }
+    }
+
+    @Test
+    public void timeAndSequenceRanges_neverTouchFramesOutsideTheRange() throws Exception {
+        Path file = tempDir.resolve("week.jsonl.zst");
+        DiskPersistenceDriver<TestRecord> d = newDriver(file, true);
+        writeRange(d, 1, 24 * 7);
+        d.close();
+
+        ZstdFrameZoneMap zones = new ZstdFrameZoneMap(file);
+        Assert.assertTrue(zones.load());
+        Assert.assertEquals(zones.size(), 7, "one frame per day");
+        corruptFrame(file, 0);
+        corruptFrame(file, 3);
+
+        DiskPersistenceDriver<TestRecord> r = reader(file);
+        Instant day2 = START.plus(Duration.ofDays(1));
+        Assert.assertEquals(timeRange(r, day2, day2.plus(Duration.ofDays(2)), null), range(25, 72));
+        Assert.assertEquals(timeRange(r, START.plus(Duration.ofDays(5)), null, null), range(121, 168));
+        Assert.assertEquals(timeRange(r, day2, day2.plus(Duration.ofDays(2)), TRADE), List.of(30, 40, 50, 60, 70));
+        Assert.assertEquals(timeRange(r, null, null, RecordType.of("zone_quote")), List.of(), "no frame holds that type");
+        Assert.assertEquals(sequenceRange(r, 50, 60), range(50, 60));
+        Assert.assertEquals(sequenceRange(r, 160, Long.MAX_VALUE), range(160, 168));
+        try {
+            sequenceRange(r, 70, 80);
+            Assert.fail("expected the corrupt frame to be read");
+        } catch (UncheckedIOException expected) {
+            // frame 3 holds 73..96
+        }
+    }
+
+    @Test
+    public void staleOrMissingSidecar_isRebuiltByTheWriter() throws Exception {
+        Path file = tempDir.resolve("rebuild.jsonl.zst");
+        DiskPersistenceDriver<TestRecord> d = newDriver(file, true);
+        writeRange(d, 1, 96);
+        d.close();
+        Path sidecar = new ZstdFrameZoneMap(file).getZonePath();
+        byte[] original = Files.readAllBytes(sidecar);
+
+        Files.delete(sidecar);
+        newDriver(file, true).close();
+        Assert.assertEquals(Files.readAllBytes(sidecar), original);
+
+        Files.write(sidecar, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        DiskPersistenceDriver<TestRecord> w = newDriver(file, true);
+        Assert.assertEquals(Files.readAllBytes(sidecar), original);
+        writeRange(w, 97, 120);
+        w.close();
+
+        DiskPersistenceDriver<TestRecord> r = newDriver(file, true);
+        Assert.assertEquals(sequenceRange(r, 90, 100), range(90, 100));
+        Assert.assertEquals(timeRange(r, START.plus(Duration.ofHours(118)), null, null), range(119, 120));
+        r.close();
+    }
+
+    @Test
+    public void readOnlyInstance_readsFramesWrittenAfterItLoadedTheSidecar() throws Exception {
+        Path file = tempDir.resolve("live.jsonl.zst");
+        DiskPersistenceDriver<TestRecord> writer = newDriver(file, true);
+        writeRange(writer, 1, 48);
+        writer.flush();
+
+        DiskPersistenceDriver<TestRecord> reader = reader(file);
+        Assert.assertEquals(sequenceRange(reader, 40, 1_000), range(40, 48));
+
+        writeRange(writer, 49, 72);
+        writer.flush();
+        Assert.assertEquals(sequenceRange(reader, 40, 1_000), range(40, 72));
+        Assert.assertEquals(sequenceRange(writer, 60, 1_000), range(60, 72));
+        writer.close();
+    }
+
+    @Test
+    public void rangeReads_withoutZoneMapsOrCompression_returnTheSameRecords() throws Exception {
+        Path zstd = tempDir.resolve("nozones.jsonl.zst");
+        DiskPersistenceDriver<TestRecord> d = newDriver(zstd, false);
+        writeRange(d, 1, 72);
+        Assert.assertFalse(Files.exists(new ZstdFrameZoneMap(zstd).getZonePath()));
+        Assert.assertEquals(sequenceRange(d, 30, 33), range(30, 33));
+        Assert.assertEquals(timeRange(d, START.plus(Duration.ofHours(69)), null, TRADE), List.of(70));
+        d.close();
+
+        Path plain = tempDir.resolve("plain.jsonl");
+        DiskPersistenceDriver<TestRecord> p = new DiskPersistenceDriver<>(plain, registry);
+        p.init();
+        p.start();
+        writeRange(p, 1, 72);
+        Assert.assertEquals(sequenceRange(p, 30, 33), range(30, 33));
+        Assert.assertEquals(timeRange(p, START, START.plus(Duration.ofHours(3)), null), range(1, 3));
+        p.close();
+    }
+}
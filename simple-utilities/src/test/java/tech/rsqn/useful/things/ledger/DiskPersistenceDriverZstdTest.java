@@ -256,6 +256,39 @@ public class DiskPersistenceDriverZstdTest {
         r.close();
     }
 
+    @Test
+    public void integration_zstdReadReverse_multiFrame_newestFirstAcrossFrames() throws Exception {
+        Path file = tempDir.resolve("rev-frames.jsonl.zst");
+        DiskPersistenceDriver<TestRecord> d = newZstdDriver(file, false);
+        for (int i = 1; i <= 25; i++) {
+            d.write(rec(i));
+            if (i % 4 == 0) {
+                d.flush(); // frame boundary every 4 records
+            }
+        }
+        d.close();
+
+        DiskPersistenceDriver<TestRecord> r = newZstdDriver(file, false);
+        List<Integer> reverse = new ArrayList<>();
+        r.readReverse(-1, rec -> {
+            reverse.add(rec.getValue());
+            return true;
+        });
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 25; i >= 1; i--) {
+            expected.add(i);
+        }
+        Assert.assertEquals(reverse, expected);
+
+        List<Integer> fromSeq = new ArrayList<>();
+        r.readReverse(10, rec -> {
+            fromSeq.add(rec.getValue());
+            return fromSeq.size() < 6;
+        });
+        Assert.assertEquals(fromSeq, List.of(9, 8, 7, 6, 5, 4));
+        r.close();
+    }
+
     @Test(expectedExceptions = IllegalStateException.class)
     public void unit_zstdWriteBeforeStart_throws() throws Exception {
         Path file = tempDir.resolve("nostart.jsonl.zst");
@@ -265,6 +298,21 @@ public class DiskPersistenceDriverZstdTest {
         d.write(rec(1));
     }
 
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void unit_zstdWriteBeforeStart_throwsBeforeEncoding() throws Exception {
+        Path file = tempDir.resolve("nostart-codec.jsonl.zst");
+        DiskPersistenceDriver<TestRecord> d = new DiskPersistenceDriver<>(file, registry);
+        d.setCompression(LedgerCompression.ZSTD);
+        d.setCodec(new JsonlRecordCodec(registry) {
+            @Override
+            public byte[] encode(Record record) {
+                throw new UncheckedIOException(new IOException("encode must not run before the state check"));
+            }
+        });
+        d.init();
+        d.write(rec(1));
+    }
+
     @Test
     public void unit_noneDefault_unchangedRoundTrip() throws Exception {
         Path file = tempDir.resolve("default.jsonl");
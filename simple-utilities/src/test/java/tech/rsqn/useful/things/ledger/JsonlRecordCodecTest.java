@@ -0,0 +1,144 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * JSONL codec: the streaming {@link RecordCodec.LineEncoder} writes exactly the bytes of
+ * {@link JsonlRecordCodec#encode}, record after record, through one reused writer; single-pass
+ * decoding agrees with the tree decoder.
+ */
+public class JsonlRecordCodecTest {
+    private JsonlRecordCodec codec;
+
+    @BeforeMethod
+    public void setUp() {
+        LedgerRegistry registry = new LedgerRegistry();
+        registry.registerRecordType(TestRecord.TYPE, TestRecord.class);
+        codec = new JsonlRecordCodec(registry);
+    }
+
+    @Test
+    public void lineEncoder_matchesEncode_acrossConsecutiveRecords() throws Exception {
+        String[] payloads = {
+                "plain",
+                "",
+                null,
+                "quotes \" and \\\\ backslash, <html> & 'apos' =",
+                "tab\tnew\nline\r\u0001\u001f",
+                "latin é ß, cjk 漢字, emoji 🚀👍",
+                "lone high \uD800 and lone low \uDC00 surrogates",
+                "x".repeat(10_000) + "é",
+                "y".repeat(4_070) + "🚀 é" + "z".repeat(5_000) + "\uD800"
+        };
+        RecordCodec.LineEncoder encoder = codec.newLineEncoder();
+        for (int i = 0; i < payloads.length; i++) {
+            TestRecord r = new TestRecord(Instant.parse("2024-01-02T03:04:05.123456789Z"), payloads[i], i);
+            r.setSequenceId((long) i);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encoder.encode(r, out);
+            Assert.assertEquals(out.toByteArray(), codec.encode(r), "payload " + i);
+        }
+    }
+
+    @Test
+    public void decode_singlePassMatchesTreeDecode() throws Exception {
+        String[] payloads = {"plain", "", null, "esc \" \\ \t \n", "é 漢字 🚀", "x".repeat(5_000)};
+        for (int i = 0; i < payloads.length; i++) {
+            TestRecord r = new TestRecord(Instant.parse("2024-01-02T03:04:05Z"), payloads[i], i);
+            r.setSequenceId((long) i);
+            r.setEventId("e" + i);
+            byte[] line = codec.encode(r);
+            Assert.assertEquals(codec.decode(line, 0, line.length), r, "payload " + i);
+            Assert.assertEquals(codec.decode(line, 0, line.length), codec.decodeTree(line, 0, line.length));
+        }
+    }
+
+    @Test
+    public void discriminator_findsTopLevelTypeOnly() {
+        Assert.assertSame(discriminator("{\"data\":\"has \\\"type\\\":\\\"x\\\"\",\"meta\":{\"type\":\"inner\"},"
+                + "\"list\":[{\"type\":\"y\"}],\"type\" : \"test_record\"}"), TestRecord.TYPE);
+        Assert.assertNull(discriminator("{\"meta\":{\"type\":\"inner\"}}"));
+        Assert.assertNull(discriminator("{\"type\":\"test\\u005frecord\"}"));
+        Assert.assertNull(discriminator("{\"type\":7}"));
+        Assert.assertNull(discriminator("[\"type\"]"));
+    }
+
+    @Test
+    public void decode_escapedType_fallsBackToTree() throws Exception {
+        byte[] later = bytes("{\"data\":\"d\",\"value\":3,\"type\":\"test_record\"}");
+        TestRecord r = (TestRecord) codec.decode(later, 0, later.length);
+        Assert.assertEquals(r.getData(), "d");
+        Assert.assertSame(r.getType(), TestRecord.TYPE);
+
+        byte[] escaped = bytes("  { \"type\" : \"test\\u005frecord\", \"value\": 4}");
+        Assert.assertEquals(((TestRecord) codec.decode(escaped, 0, escaped.length)).getValue(), 4);
+    }
+
+    private RecordType discriminator(String json) {
+        byte[] line = bytes(json);
+        return codec.discriminator(line, 0, line.length);
+    }
+
+    @Test
+    public void decode_unregisteredTypeIsNull_andTrailingDataIsRejected() throws Exception {
+        byte[] unknown = bytes("{\"type\":\"nope\",\"value\":1}");
+        Assert.assertNull(codec.decode(unknown, 0, unknown.length));
+        assertMalformed("{\"type\":\"test_record\",\"value\":1} {}");
+        assertMalformed("{\"type\":\"test_record\",\"value\":");
+    }
+
+    private void assertMalformed(String json) {
+        byte[] line = bytes(json);
+        try {
+            codec.decode(line, 0, line.length);
+            Assert.fail("expected IOException for " + json);
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void decode_malformedUtf8_readsAsReplacementCharacters() throws Exception {
+        byte[] head = bytes("{\"type\":\"test_record\",\"data\":\"a");
+        byte[] junk = {(byte) 0xE2, (byte) 0x82, 'b', (byte) 0xF0, (byte) 0x9F, (byte) 0x9A, (byte) 0xC0, (byte) 0xFF, 'c'};
+        byte[] tail = bytes("\"}");
+        byte[] line = new byte[head.length + junk.length + tail.length];
+        System.arraycopy(head, 0, line, 0, head.length);
+        System.arraycopy(junk, 0, line, head.length, junk.length);
+        System.arraycopy(tail, 0, line, head.length + junk.length, tail.length);
+
+        String expected = "a" + new String(junk, StandardCharsets.UTF_8);
+        Assert.assertEquals(((TestRecord) codec.decode(line, 0, line.length)).getData(), expected);
+    }
+
+    @Test
+    public void recordTypeOf_isInterned() {
+        Assert.assertSame(RecordType.of("interned_" + 1), RecordType.of("interned_1"));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void lineEncoder_appendsToExistingBytes() throws Exception {
+        RecordCodec.LineEncoder encoder = codec.newLineEncoder();
+        LineBuffer buf = new LineBuffer();
+        TestRecord a = new TestRecord(Instant.EPOCH, "a", 1);
+        TestRecord b = new TestRecord(Instant.EPOCH, "b", 2);
+        encoder.encode(a, buf);
+        int split = buf.size();
+        buf.write('\n');
+        encoder.encode(b, buf);
+
+        Assert.assertEquals(codec.decode(buf.array(), 0, split), a);
+        Assert.assertEquals(codec.decode(buf.array(), split + 1, buf.size() - split - 1), b);
+    }
+}
@@ -8,6 +8,7 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -141,6 +142,82 @@ public class LedgerConsumerModeTest extends LedgerTestBase {
         Assert.assertTrue(elapsed < 5000, "close() should complete quickly, took " + elapsed + "ms");
     }
 
+    private MemoryLedger<TestRecord> boundedNotificationLedger(String file) throws IOException {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(tempDir.resolve(file), ledgerRegistry);
+        driver.init();
+        driver.start();
+        MemoryLedger<TestRecord> memory = new MemoryLedger<>(TestRecord.TYPE, driver, null);
+        memory.setNotificationCorePoolSize(1);
+        memory.setNotificationQueueCapacity(1);
+        memory.setNotificationBackpressure(RingBackpressure.BLOCK);
+        memory.setConsumerMode(ConsumerMode.BLOCK);
+        memory.init();
+        return memory;
+    }
+
+    @Test
+    public void defaultNotification_neverBlocksWritersOnASlowSubscriber() throws Exception {
+        MemoryLedger<TestRecord> memory = (MemoryLedger<TestRecord>) createLedger();
+        ledger = memory;
+        memory.setNotificationCorePoolSize(1);
+        memory.setNotificationQueueCapacity(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger received = new AtomicInteger();
+        memory.subscribe(null, r -> {
+            try {
+                gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.incrementAndGet();
+        });
+        for (int i = 0; i < 20; i++) {
+            memory.write(createRecord("w", i));
+        }
+        gate.countDown();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (received.get() < 20 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(received.get(), 20);
+    }
+
+    @Test
+    public void boundedNotification_subscribersWritingIntoEachOthersLedgers_doNotDeadlock() throws Exception {
+        MemoryLedger<TestRecord> a = boundedNotificationLedger("a.jsonl");
+        MemoryLedger<TestRecord> b = boundedNotificationLedger("b.jsonl");
+        try {
+            AtomicInteger budget = new AtomicInteger(200);
+            AtomicInteger written = new AtomicInteger(1);
+            AtomicInteger delivered = new AtomicInteger();
+            a.subscribe(null, r -> {
+                delivered.incrementAndGet();
+                for (int i = 0; i < 2 && budget.decrementAndGet() > 0; i++) {
+                    written.incrementAndGet();
+                    b.write(createRecord("b", r.getValue() + 1));
+                }
+            });
+            b.subscribe(null, r -> {
+                delivered.incrementAndGet();
+                for (int i = 0; i < 2 && budget.decrementAndGet() > 0; i++) {
+                    written.incrementAndGet();
+                    a.write(createRecord("a", r.getValue() + 1));
+                }
+            });
+            a.write(createRecord("a", 0));
+
+            long deadline = System.currentTimeMillis() + 10_000;
+            while ((budget.get() > 0 || delivered.get() < written.get()) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(budget.get() <= 0, "stalled with budget " + budget.get());
+            Assert.assertEquals(delivered.get(), written.get());
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
     @Test(expectedExceptions = IllegalStateException.class)
     public void setConsumerMode_afterConsumersStarted_throwsISE() throws Exception {
         WriteBehindDiskLedger<TestRecord> wbl = createBlockModeLedger();
@@ -219,4 +296,31 @@ public class LedgerConsumerModeTest extends LedgerTestBase {
                 "All 10k events should be delivered, got " + received.get());
         Assert.assertEquals(received.get(), count);
     }
+
+    @Test
+    public void hybridMode_parksWhenIdle_wakesOnWrite_reportsStats() throws Exception {
+        WriteBehindDiskLedger<TestRecord> wbl = createSpinModeLedger();
+        wbl.setConsumerMode(ConsumerMode.HYBRID);
+        wbl.setHybridBackoff(10, 10, 200_000L);
+        ledger = wbl;
+        AtomicInteger received = new AtomicInteger();
+        ledger.subscribe(null, event -> received.incrementAndGet());
+
+        for (int i = 1; i <= 5; i++) {
+            ledger.write(createRecord("hybrid", i));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.get() < i && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(received.get(), i);
+            Thread.sleep(30); // long enough for the consumers to reach the park phase
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> idle = (Map<String, Object>) wbl.healthCheck().get("consumerIdle");
+        Assert.assertEquals(idle.get("mode"), "HYBRID");
+        Assert.assertTrue((Long) idle.get("parks") > 0, idle.toString());
+        Assert.assertTrue((Long) idle.get("parkWakeups") > 0, idle.toString());
+        Assert.assertTrue((Long) idle.get("idleNanos") > 0, idle.toString());
+    }
 }
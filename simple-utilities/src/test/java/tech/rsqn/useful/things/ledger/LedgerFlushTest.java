@@ -38,4 +38,34 @@ public class LedgerFlushTest extends LedgerTestBase {
         List<String> lines = Files.readAllLines(ledgerFile);
         Assert.assertEquals(lines.size(), 1);
     }
+
+    @Test
+    public void testFullWriteBufferReachesFileBeforeFlush() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.setAutoFlush(false);
+        driver.setFlushIntervalWrites(10_000);
+        driver.setFlushIntervalSeconds(100.0);
+        driver.setWriteBufferBytes(1024);
+        driver.start();
+
+        driver.write(createRecord("val", 0));
+        Assert.assertEquals(Files.size(ledgerFile), 0);
+        for (int i = 1; i < 50; i++) {
+            driver.write(createRecord("val", i));
+        }
+        long beforeFlush = Files.size(ledgerFile);
+        Assert.assertTrue(beforeFlush > 0, "a full buffer is written out");
+
+        driver.write(createRecord("x".repeat(4096), 50));
+        Assert.assertTrue(Files.size(ledgerFile) > beforeFlush + 4096, "lines over the buffer size bypass it");
+
+        driver.flush();
+        Assert.assertEquals(Files.readAllLines(ledgerFile).size(), 51);
+        driver.close();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWriteBufferBytes_nonPositive_throwsIAE() {
+        new DiskPersistenceDriver<TestRecord>(ledgerFile, ledgerRegistry).setWriteBufferBytes(0);
+    }
 }
@@ -8,6 +8,7 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LedgerMemoryCacheTest extends LedgerTestBase {
 
@@ -120,4 +121,67 @@ public class LedgerMemoryCacheTest extends LedgerTestBase {
         Assert.assertEquals(values.get(1).intValue(), 2);
         Assert.assertEquals(values.get(2).intValue(), 1);
     }
+
+    @Test
+    public void testHydrateLoadsOnlyTheNewestRetainedRecords() throws Exception {
+        Ledger<TestRecord> ledger1 = createLedger();
+        for (int i = 1; i <= 20; i++) {
+            ledger1.write(createRecord("val", i));
+        }
+        ledger1.close();
+
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.init();
+        driver.start();
+        MemoryLedger<TestRecord> memLedger = new MemoryLedger<>(TestRecord.TYPE, driver, r -> r.getValue() % 2 == 0);
+        memLedger.setPreferredMaxSize(4);
+        memLedger.init();
+        ledger = memLedger;
+
+        List<Integer> values = new ArrayList<>();
+        memLedger.read(-1, null, r -> {
+            values.add(r.getValue());
+            return true;
+        });
+        Assert.assertEquals(values, List.of(14, 16, 18, 20), "newest retained records, in sequence order");
+
+        List<Integer> reverse = new ArrayList<>();
+        memLedger.readReverse(-1, null, r -> {
+            reverse.add(r.getValue());
+            return reverse.size() < 6;
+        });
+        Assert.assertEquals(reverse, List.of(20, 18, 16, 14, 13, 12), "older records continue from disk");
+        Assert.assertEquals(memLedger.write(createRecord("val", 21)), 21L);
+    }
+
+    @Test
+    public void testHydrateStopsAtFirstRejectedRecordWithOrderedRetention() throws Exception {
+        Ledger<TestRecord> ledger1 = createLedger();
+        for (int i = 1; i <= 20; i++) {
+            ledger1.write(createRecord("val", i));
+        }
+        ledger1.close();
+
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.init();
+        driver.start();
+        AtomicInteger tested = new AtomicInteger();
+        MemoryLedger<TestRecord> memLedger = new MemoryLedger<>(TestRecord.TYPE, driver, r -> {
+            tested.incrementAndGet();
+            return r.getValue() > 15;
+        });
+        memLedger.setPreferredMaxSize(100);
+        memLedger.setRetentionFilterOrdered(true);
+        memLedger.init();
+        ledger = memLedger;
+
+        Assert.assertEquals(memLedger.size(), 5L);
+        Assert.assertEquals(tested.get(), 6, "scan ends at the first rejected record (15)");
+        try {
+            memLedger.setRetentionFilterOrdered(false);
+            Assert.fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // after init()
+        }
+    }
 }
@@ -0,0 +1,121 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Secondary indexes on {@link MemoryLedger}: unique and multi-valued lookups, pruning on
+ * housekeeping, hydration, and registration rules.
+ */
+public class LedgerMemoryIndexTest extends LedgerTestBase {
+
+    private MemoryLedger<TestRecord> newLedger(boolean withIndexes) throws IOException {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.init();
+        driver.start();
+        MemoryLedger<TestRecord> memory = new MemoryLedger<>(TestRecord.TYPE, driver, null);
+        memory.setPreferredMaxSize(ledgerRegistry.getDefaultPreferredMaxSize());
+        if (withIndexes) {
+            memory.addEventIdIndex();
+            memory.addIndex("symbol", TestRecord::getData, false);
+        }
+        memory.init();
+        ledger = memory;
+        return memory;
+    }
+
+    private TestRecord order(String eventId, String symbol, int value) {
+        TestRecord r = createRecord(symbol, value);
+        r.setEventId(eventId);
+        return r;
+    }
+
+    private static List<Integer> values(List<TestRecord> records) {
+        return records.stream().map(TestRecord::getValue).collect(Collectors.toList());
+    }
+
+    @Test
+    public void lookup_findsRecordsByUniqueAndMultiValuedKeys() throws Exception {
+        MemoryLedger<TestRecord> memory = newLedger(true);
+        for (int i = 0; i < 60; i++) {
+            memory.write(order("ord-" + i, i % 3 == 0 ? "BTC" : "ETH", i));
+        }
+        memory.write(order("ord-7", "SOL", 100));
+
+        Assert.assertEquals(values(memory.lookup(MemoryLedger.EVENT_ID_INDEX, "ord-42")), List.of(42));
+        Assert.assertEquals(memory.latest(MemoryLedger.EVENT_ID_INDEX, "ord-7").getValue(), 100, "unique index keeps the newest");
+        Assert.assertTrue(memory.lookup(MemoryLedger.EVENT_ID_INDEX, "missing").isEmpty());
+        Assert.assertNull(memory.latest("symbol", "DOGE"));
+
+        List<TestRecord> btc = memory.lookup("symbol", "BTC");
+        Assert.assertEquals(btc.size(), 20);
+        Assert.assertEquals(btc.get(0).getValue(), 0);
+        Assert.assertEquals(btc.get(19).getValue(), 57);
+        Assert.assertEquals(memory.latest("symbol", "ETH").getValue(), 59);
+        Assert.assertEquals(memory.latest("symbol", "SOL").getValue(), 100);
+
+        try {
+            memory.lookup("venue", "X");
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // not registered
+        }
+    }
+
+    @Test
+    public void housekeeping_prunesIndexEntriesWithTheCache() throws Exception {
+        MemoryLedger<TestRecord> memory = newLedger(true);
+        int total = 3 * ledgerRegistry.getDefaultPreferredMaxSize();
+        for (int i = 0; i < total; i++) {
+            memory.write(order("ord-" + i, "S" + (i % 10), i));
+        }
+        Assert.assertEquals(memory.healthCheck().get("index.eventId.keys"), total);
+
+        memory.housekeeping();
+        Assert.assertEquals(memory.size(), (long) ledgerRegistry.getDefaultPreferredMaxSize());
+        Assert.assertEquals(memory.healthCheck().get("index.eventId.keys"), ledgerRegistry.getDefaultPreferredMaxSize());
+        Assert.assertTrue(memory.lookup(MemoryLedger.EVENT_ID_INDEX, "ord-0").isEmpty());
+        Assert.assertEquals(memory.lookup("symbol", "S3").size(), ledgerRegistry.getDefaultPreferredMaxSize() / 10);
+        Assert.assertEquals(memory.latest(MemoryLedger.EVENT_ID_INDEX, "ord-" + (total - 1)).getValue(), total - 1);
+    }
+
+    @Test
+    public void hydrate_indexesRecordsLoadedFromDisk() throws Exception {
+        MemoryLedger<TestRecord> first = newLedger(false);
+        for (int i = 0; i < 50; i++) {
+            first.write(order("ord-" + i, i % 2 == 0 ? "BTC" : "ETH", i));
+        }
+        first.close();
+
+        MemoryLedger<TestRecord> reopened = newLedger(true);
+        Assert.assertEquals(values(reopened.lookup(MemoryLedger.EVENT_ID_INDEX, "ord-31")), List.of(31));
+        Assert.assertEquals(reopened.lookup("symbol", "BTC").size(), 25);
+    }
+
+    @Test
+    public void addIndex_rejectsDuplicatesAndLateRegistration() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.init();
+        driver.start();
+        MemoryLedger<TestRecord> memory = new MemoryLedger<>(TestRecord.TYPE, driver, null);
+        ledger = memory;
+        memory.addEventIdIndex();
+        try {
+            memory.addEventIdIndex();
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // same name
+        }
+        memory.init();
+        try {
+            memory.addIndex("symbol", TestRecord::getData, false);
+            Assert.fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // after init()
+        }
+    }
+}
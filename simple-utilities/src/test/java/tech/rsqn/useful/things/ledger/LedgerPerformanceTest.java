@@ -4,12 +4,19 @@ import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 public class LedgerPerformanceTest extends LedgerTestBase {
 
@@ -209,4 +216,618 @@ public class LedgerPerformanceTest extends LedgerTestBase {
         // Reverse read on disk is slower due to seeking
         Assert.assertTrue(throughput > 1_000, "Disk readReverse throughput too low: " + throughput);
     }
+
+    @Test
+    public void testThreadModeManyLedgers() throws Exception {
+        int ledgerCount = 64;
+        int perLedger = 5_000;
+        for (LedgerThreadMode mode : LedgerThreadMode.values()) {
+            LedgerRegistry registry = new LedgerRegistry();
+            registry.setLedgerDir(Files.createDirectories(tempDir.resolve(mode.name())));
+            registry.setDefaultAutoFlush(false);
+            registry.setDefaultConsumerMode(ConsumerMode.HYBRID);
+            registry.setDefaultThreadMode(mode);
+            int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+            long rssBefore = procStatus("/proc/self/status", "VmRSS:");
+            long switchesBefore = contextSwitches();
+
+            List<Ledger<Record>> ledgers = new ArrayList<>();
+            AtomicInteger delivered = new AtomicInteger();
+            for (int l = 0; l < ledgerCount; l++) {
+                RecordType type = RecordType.of("perf_" + l);
+                registry.registerRecordType(type, TestRecord.class);
+                Ledger<Record> typed = registry.getLedger(type);
+                typed.subscribe(null, r -> delivered.incrementAndGet());
+                ledgers.add(typed);
+            }
+
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < perLedger; i++) {
+                for (Ledger<Record> typed : ledgers) {
+                    typed.write(new TestRecord(Instant.now(), "data", i));
+                }
+            }
+            for (Ledger<Record> typed : ledgers) {
+                typed.flush();
+            }
+            long deadline = System.currentTimeMillis() + 60_000;
+            while (delivered.get() < ledgerCount * perLedger && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            long duration = System.currentTimeMillis() - start;
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+            long rss = procStatus("/proc/self/status", "VmRSS:") - rssBefore;
+            long switches = contextSwitches() - switchesBefore;
+
+            System.out.printf("Thread mode %s: %d ledgers x %d events in %d ms, +%d platform threads, +%d KiB RSS, %d context switches%n",
+                    mode, ledgerCount, perLedger, duration, threads, rss, switches);
+            Assert.assertEquals(delivered.get(), ledgerCount * perLedger);
+            for (Ledger<Record> typed : ledgers) {
+                typed.close();
+            }
+        }
+    }
+
+    @Test
+    public void testDurabilityPolicyMatrix() throws Exception {
+        int writers = 4;
+        int perWriter = 2_000;
+        DurabilityPolicy[] policies = {
+                DurabilityPolicy.NONE,
+                DurabilityPolicy.interval(10),
+                DurabilityPolicy.everyNRecords(100),
+                DurabilityPolicy.EVERY_FRAME,
+                DurabilityPolicy.EVERY_WRITE
+        };
+        for (LedgerCompression compression : LedgerCompression.values()) {
+            for (DurabilityPolicy policy : policies) {
+                Path file = tempDir.resolve("durability-" + compression + "-" + policy.getMode() + ".jsonl");
+                DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(file, ledgerRegistry);
+                driver.setCompression(compression);
+                driver.setAutoFlush(false);
+                driver.setFlushIntervalWrites(1_000);
+                driver.setDurabilityPolicy(policy);
+                driver.init();
+                driver.start();
+                FsyncCoordinator fsync = FsyncCoordinator.shared();
+                long requestsBefore = fsync.requestCount();
+                long forcesBefore = fsync.forceCount();
+
+                ExecutorService pool = Executors.newFixedThreadPool(writers);
+                long start = System.currentTimeMillis();
+                List<java.util.concurrent.Future<?>> done = new ArrayList<>();
+                for (int w = 0; w < writers; w++) {
+                    done.add(pool.submit(() -> {
+                        for (int i = 0; i < perWriter; i++) {
+                            driver.write(new TestRecord(Instant.now(), "data", i));
+                        }
+                        return null;
+                    }));
+                }
+                for (java.util.concurrent.Future<?> f : done) {
+                    f.get();
+                }
+                driver.flush();
+                long duration = Math.max(1, System.currentTimeMillis() - start);
+                pool.shutdown();
+                driver.close();
+
+                System.out.printf("Durability %s/%s: %d writers x %d records in %d ms (%.0f ops/sec), %d sync requests, %d forces%n",
+                        compression, policy, writers, perWriter, duration, writers * perWriter * 1000.0 / duration,
+                        fsync.requestCount() - requestsBefore, fsync.forceCount() - forcesBefore);
+            }
+        }
+    }
+
+    @Test
+    public void testEncodeAllocationPerRecord() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int count = 200_000;
+        TestRecord[] records = new TestRecord[1_000];
+        String payload = "x".repeat(900);
+        for (int i = 0; i < records.length; i++) {
+            records[i] = new TestRecord(Instant.now(), payload, i);
+            records[i].setSequenceId((long) i);
+        }
+        JsonlRecordCodec codec = new JsonlRecordCodec(ledgerRegistry);
+        RecordCodec.LineEncoder encoder = codec.newLineEncoder();
+        LineBuffer buf = new LineBuffer();
+        ledgerRegistry.setDefaultAutoFlush(false);
+        ledgerRegistry.setDefaultFlushIntervalWrites(1_000);
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.setAutoFlush(false);
+        driver.setFlushIntervalWrites(1_000);
+        driver.init();
+        driver.start();
+
+        for (int round = 0; round < 2; round++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < count; i++) {
+                codec.encode(records[i % records.length]);
+            }
+            long encodeBytes = threads.getCurrentThreadAllocatedBytes() - before;
+
+            before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < count; i++) {
+                buf.reset();
+                encoder.encode(records[i % records.length], buf);
+            }
+            long streamBytes = threads.getCurrentThreadAllocatedBytes() - before;
+
+            before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < count; i++) {
+                driver.write(records[i % records.length]);
+            }
+            long writeBytes = threads.getCurrentThreadAllocatedBytes() - before;
+
+            System.out.printf("Allocation per ~1 KB record (round %d): encode() %d B, LineEncoder %d B, plain driver write %d B%n",
+                    round, encodeBytes / count, streamBytes / count, writeBytes / count);
+            if (round == 1) {
+                Assert.assertTrue(streamBytes * 4 < encodeBytes,
+                        "streaming encode should allocate far less than encode(): " + streamBytes + " vs " + encodeBytes);
+            }
+        }
+        driver.close();
+    }
+
+    @Test
+    public void testDecodeSinglePassVsTree() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        JsonlRecordCodec codec = new JsonlRecordCodec(ledgerRegistry);
+        byte[][] lines = new byte[1_000][];
+        String payload = "x".repeat(900);
+        for (int i = 0; i < lines.length; i++) {
+            TestRecord r = new TestRecord(Instant.now(), payload, i);
+            r.setSequenceId((long) i);
+            lines[i] = codec.encode(r);
+        }
+        int count = 200_000;
+        for (int round = 0; round < 2; round++) {
+            long alloc = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                byte[] line = lines[i % lines.length];
+                codec.decodeTree(line, 0, line.length);
+            }
+            long treeNanos = System.nanoTime() - start;
+            long treeBytes = threads.getCurrentThreadAllocatedBytes() - alloc;
+
+            alloc = threads.getCurrentThreadAllocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                byte[] line = lines[i % lines.length];
+                codec.decode(line, 0, line.length);
+            }
+            long singleNanos = System.nanoTime() - start;
+            long singleBytes = threads.getCurrentThreadAllocatedBytes() - alloc;
+
+            System.out.printf("Decode ~1 KB JSONL (round %d): tree %.0f ops/sec %d B/record, single-pass %.0f ops/sec %d B/record%n",
+                    round, count * 1e9 / treeNanos, treeBytes / count, count * 1e9 / singleNanos, singleBytes / count);
+            if (round == 1) {
+                Assert.assertTrue(singleBytes < treeBytes, "single-pass decode should allocate less than tree decode");
+            }
+        }
+    }
+
+    @Test
+    public void testSelectiveScanRawPrefilter() throws Exception {
+        ledgerRegistry.setDefaultAutoFlush(false);
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.setAutoFlush(false);
+        driver.setFlushIntervalWrites(10_000);
+        driver.init();
+        driver.start();
+        ledger = new DiskLedger<>(TestRecord.TYPE, driver);
+        int count = 200_000;
+        String padding = "p".repeat(400);
+        for (int i = 0; i < count; i++) {
+            ledger.write(new TestRecord(Instant.now(), "SYM" + (i % 50) + "|" + padding, i));
+        }
+        ledger.flush();
+        java.util.function.Predicate<TestRecord> sym7 = r -> r.getData().startsWith("SYM7|");
+        RawLineFilter raw = RawLineFilter.contains("\"SYM7|");
+
+        for (int round = 0; round < 2; round++) {
+            AtomicInteger plain = new AtomicInteger();
+            long start = System.nanoTime();
+            ledger.read(-1, sym7, r -> plain.incrementAndGet() >= 0);
+            long plainNanos = System.nanoTime() - start;
+
+            AtomicInteger filtered = new AtomicInteger();
+            start = System.nanoTime();
+            ledger.read(-1, raw, sym7, r -> filtered.incrementAndGet() >= 0);
+            long rawNanos = System.nanoTime() - start;
+
+            System.out.printf("Selective scan 1/50 of %d (round %d): predicate only %d ms, raw pre-filter %d ms (%.1fx)%n",
+                    count, round, plainNanos / 1_000_000, rawNanos / 1_000_000, (double) plainNanos / rawNanos);
+            Assert.assertEquals(filtered.get(), plain.get());
+            Assert.assertEquals(plain.get(), count / 50);
+        }
+    }
+
+    @Test
+    public void testPlainReverseReadBookSizedLines() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.setAutoFlush(false);
+        driver.setFlushIntervalWrites(10_000);
+        driver.init();
+        driver.start();
+        int count = 200_000;
+        String payload = "x".repeat(1024);
+        for (int i = 0; i < count; i++) {
+            TestRecord r = new TestRecord(Instant.now(), payload, i);
+            r.setSequenceId((long) i + 1);
+            driver.write(r);
+        }
+        driver.flush();
+
+        for (int round = 0; round < 3; round++) {
+            AtomicInteger reverse = new AtomicInteger();
+            long start = System.nanoTime();
+            driver.readReverse(-1, r -> reverse.incrementAndGet() >= 0);
+            long reverseNanos = System.nanoTime() - start;
+
+            AtomicInteger forward = new AtomicInteger();
+            start = System.nanoTime();
+            driver.read(-1, r -> forward.incrementAndGet() >= 0);
+            long forwardNanos = System.nanoTime() - start;
+
+            System.out.printf("Plain 1 KiB lines x %d (round %d): reverse %.0f ops/sec, forward %.0f ops/sec%n",
+                    count, round, count * 1e9 / reverseNanos, count * 1e9 / forwardNanos);
+            Assert.assertEquals(reverse.get(), count);
+            Assert.assertEquals(forward.get(), count);
+        }
+        driver.close();
+    }
+
+    @Test
+    public void testPlainAppendBookSizedLines() throws Exception {
+        String payload = "x".repeat(1024);
+        for (boolean autoFlush : new boolean[]{false, true}) {
+            for (int round = 0; round < 3; round++) {
+                Path file = tempDir.resolve("append-" + autoFlush + "-" + round + ".jsonl");
+                DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(file, ledgerRegistry);
+                driver.setAutoFlush(autoFlush);
+                driver.init();
+                driver.start();
+                int count = autoFlush ? 100_000 : 300_000;
+                TestRecord r = new TestRecord(Instant.now(), payload, 0);
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    r.setSequenceId((long) i + 1);
+                    driver.write(r);
+                }
+                driver.flush();
+                long nanos = System.nanoTime() - start;
+                driver.close();
+
+                System.out.printf("Plain append 1 KiB lines x %d (autoFlush=%s, round %d): %.0f ops/sec%n",
+                        count, autoFlush, round, count * 1e9 / nanos);
+                Assert.assertTrue(Files.size(file) > (long) count * payload.length());
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testColdOpenWithMetadataCheckpoint() throws Exception {
+        DiskPersistenceDriver<TestRecord> writer = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        writer.setAutoFlush(false);
+        writer.init();
+        writer.start();
+        int count = 200_000;
+        TestRecord r = new TestRecord(Instant.now(), "x".repeat(1024), 0);
+        for (int i = 0; i < count; i++) {
+            r.setSequenceId((long) i + 1);
+            writer.write(r);
+        }
+        writer.close();
+
+        for (int round = 0; round < 3; round++) {
+            Files.deleteIfExists(LedgerMetadata.pathFor(ledgerFile));
+            long scanNanos = timeOpen(count);
+            long checkpointNanos = timeOpen(count);
+            System.out.printf("Open %d x 1 KiB ledger (round %d): without .meta %.1f ms, with .meta %.3f ms%n",
+                    count, round, scanNanos / 1e6, checkpointNanos / 1e6);
+        }
+    }
+
+    private long timeOpen(int expected) throws Exception {
+        long start = System.nanoTime();
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.init();
+        driver.start();
+        DiskLedger<TestRecord> disk = new DiskLedger<>(TestRecord.TYPE, driver);
+        long nanos = System.nanoTime() - start;
+        Assert.assertEquals(disk.size(), (long) expected);
+        Assert.assertEquals(disk.sequenceCounter.get(), (long) expected);
+        disk.close();
+        return nanos;
+    }
+
+    @Test
+    public void testMemoryLedgerWarmStartFromTail() throws Exception {
+        DiskPersistenceDriver<TestRecord> writer = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        writer.setAutoFlush(false);
+        writer.init();
+        writer.start();
+        int count = 500_000;
+        TestRecord r = new TestRecord(Instant.now(), "payload-" + "x".repeat(200), 0);
+        for (int i = 0; i < count; i++) {
+            r.setSequenceId((long) i + 1);
+            writer.write(r);
+        }
+        writer.close();
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+            driver.init();
+            driver.start();
+            MemoryLedger<TestRecord> memory = new MemoryLedger<>(TestRecord.TYPE, driver, null);
+            memory.setPreferredMaxSize(10_000);
+            memory.init();
+            long nanos = System.nanoTime() - start;
+            System.out.printf("MemoryLedger warm start, %d records on disk, cache 10000 (round %d): %.1f ms, %d in memory%n",
+                    count, round, nanos / 1e6, memory.size());
+            Assert.assertTrue(memory.size() >= 10_000);
+            memory.close();
+        }
+    }
+
+    @Test
+    public void testMemoryLedgerRangeReadBySequence() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.setAutoFlush(false);
+        driver.init();
+        driver.start();
+        MemoryLedger<TestRecord> memory = new MemoryLedger<>(TestRecord.TYPE, driver, null);
+        memory.setPreferredMaxSize(100_000);
+        memory.init();
+        for (int i = 0; i < 100_000; i++) {
+            memory.write(createRecord("r", i));
+        }
+
+        int reads = 20_000;
+        for (int round = 0; round < 3; round++) {
+            AtomicInteger seen = new AtomicInteger();
+            long start = System.nanoTime();
+            for (int i = 0; i < reads; i++) {
+                memory.read(8_999, null, record -> {
+                    seen.incrementAndGet();
+                    return record.getSequenceId() < 9_100;
+                });
+                memory.readReverse(9_101, null, record -> {
+                    seen.incrementAndGet();
+                    return record.getSequenceId() > 9_000;
+                });
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("MemoryLedger range read 9000-9100, 100000 cached (round %d): %.0f reads/s%n",
+                    round, 2.0 * reads / (nanos / 1e9));
+            Assert.assertEquals(seen.get(), 2 * reads * 101);
+        }
+        memory.close();
+    }
+
+    @Test
+    public void testOffHeapStoreHeapFootprint() throws Exception {
+        int count = 200_000;
+        String payload = "book-" + "x".repeat(1000);
+        for (boolean offHeap : new boolean[]{false, true}) {
+            long before = usedHeapAfterGc();
+            MemoryRecordStore<TestRecord> store = offHeap
+                    ? new OffHeapRecordStore<>(new JsonlRecordCodec(ledgerRegistry), 512L * 1024 * 1024, 1024)
+                    : new SequenceChunkStore<>();
+            long start = System.nanoTime();
+            for (int i = 1; i <= count; i++) {
+                TestRecord r = new TestRecord(Instant.now(), payload + i, i);
+                r.setSequenceId((long) i);
+                store.put(i, r);
+            }
+            long writeNanos = System.nanoTime() - start;
+            long heap = usedHeapAfterGc() - before;
+
+            AtomicInteger seen = new AtomicInteger();
+            long readNanos = 0;
+            for (int round = 0; round < 3; round++) {
+                seen.set(0);
+                start = System.nanoTime();
+                for (long from = 1; from <= count; from += 1000) {
+                    long end = from + 99;
+                    store.forEach(from, record -> seen.incrementAndGet() >= 0 && record.getSequenceId() < end);
+                }
+                readNanos = System.nanoTime() - start;
+            }
+            System.out.printf("%s store, %d x 1 KiB records: heap +%d MiB, %.0f puts/s, %.0f range-read records/s%n",
+                    offHeap ? "Off-heap" : "On-heap", count, heap >> 20,
+                    count / (writeNanos / 1e9), seen.get() / (readNanos / 1e9));
+            Assert.assertEquals(store.size(), (long) count);
+            Assert.assertEquals(seen.get(), count / 10);
+        }
+    }
+
+    @Test
+    public void testMemoryLedgerIndexedLookup() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.setAutoFlush(false);
+        driver.init();
+        driver.start();
+        MemoryLedger<TestRecord> memory = new MemoryLedger<>(TestRecord.TYPE, driver, null);
+        memory.setPreferredMaxSize(10_000);
+        memory.addEventIdIndex();
+        memory.init();
+        for (int i = 0; i < 10_000; i++) {
+            TestRecord r = createRecord("r", i);
+            r.setEventId("ord-" + i);
+            memory.write(r);
+        }
+
+        int lookups = 2_000;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int hits = 0;
+            for (int i = 0; i < lookups; i++) {
+                String id = "ord-" + (i * 7 % 10_000);
+                TestRecord[] found = new TestRecord[1];
+                memory.read(-1, r -> id.equals(r.getEventId()), r -> {
+                    found[0] = r;
+                    return false;
+                });
+                hits += found[0] != null ? 1 : 0;
+            }
+            long scanNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                hits += memory.latest(MemoryLedger.EVENT_ID_INDEX, "ord-" + (i * 7 % 10_000)) != null ? 1 : 0;
+            }
+            long indexNanos = System.nanoTime() - start;
+            System.out.printf("eventId lookup over 10000 cached (round %d): scan %.0f/s, index %.0f/s%n",
+                    round, lookups / (scanNanos / 1e9), lookups / (indexNanos / 1e9));
+            Assert.assertEquals(hits, 2 * lookups);
+        }
+        memory.close();
+    }
+
+    @Test
+    public void testZstdTimeRangeReadWithZoneMaps() throws Exception {
+        Path file = tempDir.resolve("week.jsonl.zst");
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(file, ledgerRegistry);
+        driver.setCompression(LedgerCompression.ZSTD);
+        driver.setAutoFlush(false);
+        driver.setZstdFrameFlushBytes(64 * 1024);
+        driver.init();
+        driver.start();
+        Instant weekStart = Instant.parse("2024-01-01T00:00:00Z");
+        int count = 7 * 24 * 60 * 2;
+        List<TestRecord> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            TestRecord r = createRecord("tick-" + i, i);
+            r.setTimestamp(weekStart.plusSeconds(30L * i));
+            r.setSequenceId((long) i + 1);
+            batch.add(r);
+            if (batch.size() == 1_000) {
+                driver.writeBatch(batch);
+                batch.clear();
+            }
+        }
+        driver.writeBatch(batch);
+        driver.close();
+
+        DiskPersistenceDriver<TestRecord> reader = new DiskPersistenceDriver<>(file, ledgerRegistry);
+        reader.setCompression(LedgerCompression.ZSTD);
+        reader.init();
+        Instant from = weekStart.plusSeconds(3 * 86_400);
+        Instant to = from.plusSeconds(86_400);
+        for (int round = 0; round < 3; round++) {
+            int[] seen = {0};
+            long start = System.nanoTime();
+            reader.read(-1, r -> {
+                if (!r.getTimestamp().isBefore(from) && r.getTimestamp().isBefore(to)) {
+                    seen[0]++;
+                }
+                return true;
+            });
+            long scanNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            reader.readTimeRange(from, to, r -> ++seen[0] > 0);
+            long zoneNanos = System.nanoTime() - start;
+            System.out.printf("one day of a week-long zstd ledger (%d records, round %d): full scan %.1f ms, zone maps %.1f ms%n",
+                    count, round, scanNanos / 1e6, zoneNanos / 1e6);
+            Assert.assertEquals(seen[0], 2 * 24 * 60 * 2);
+        }
+    }
+
+    @Test
+    public void testZstdParallelForwardScan() throws Exception {
+        Path file = tempDir.resolve("replay.jsonl.zst");
+        DiskPersistenceDriver<TestRecord> writer = new DiskPersistenceDriver<>(file, ledgerRegistry);
+        writer.setCompression(LedgerCompression.ZSTD);
+        writer.setAutoFlush(false);
+        writer.setZstdFrameFlushBytes(256 * 1024);
+        writer.init();
+        writer.start();
+        int count = 200_000;
+        List<TestRecord> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            TestRecord r = createRecord("replay-" + i, i);
+            r.setSequenceId((long) i + 1);
+            batch.add(r);
+            if (batch.size() == 1_000) {
+                writer.writeBatch(batch);
+                batch.clear();
+            }
+        }
+        writer.close();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        DiskPersistenceDriver<TestRecord> reader = new DiskPersistenceDriver<>(file, ledgerRegistry);
+        reader.setCompression(LedgerCompression.ZSTD);
+        reader.init();
+        for (int round = 0; round < 3; round++) {
+            for (int parallelism : new int[]{1, Math.max(2, cores)}) {
+                reader.setReadParallelism(parallelism);
+                long[] sum = {0};
+                long start = System.nanoTime();
+                reader.read(-1, r -> {
+                    sum[0] += r.getValue();
+                    return true;
+                });
+                long orderedNanos = System.nanoTime() - start;
+
+                LongAdder unorderedSum = new LongAdder();
+                start = System.nanoTime();
+                reader.readUnordered(-1, null, r -> {
+                    unorderedSum.add(r.getValue());
+                    return true;
+                });
+                long unorderedNanos = System.nanoTime() - start;
+                System.out.printf("zstd replay of %d records, parallelism %d on %d cores (round %d): ordered %.0f/s, unordered %.0f/s%n",
+                        count, parallelism, cores, round, count / (orderedNanos / 1e9), count / (unorderedNanos / 1e9));
+                Assert.assertEquals(sum[0], (long) count * (count - 1) / 2);
+                Assert.assertEquals(unorderedSum.sum(), sum[0]);
+            }
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /** Sum of voluntary and involuntary context switches of live threads (Linux only, else 0). */
+    private static long contextSwitches() throws IOException {
+        Path tasks = Path.of("/proc/self/task");
+        if (!Files.isDirectory(tasks)) {
+            return 0;
+        }
+        long total = 0;
+        try (Stream<Path> dirs = Files.list(tasks)) {
+            for (Path dir : (Iterable<Path>) dirs::iterator) {
+                String status = dir.resolve("status").toString();
+                total += procStatus(status, "voluntary_ctxt_switches:") + procStatus(status, "nonvoluntary_ctxt_switches:");
+            }
+        }
+        return total;
+    }
+
+    /** Numeric value of a {@code /proc} status field (Linux only, else 0). */
+    private static long procStatus(String file, String field) {
+        try {
+            for (String line : Files.readAllLines(Path.of(file))) {
+                if (line.startsWith(field)) {
+                    return Long.parseLong(line.substring(field.length()).trim().split("\\s+")[0]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // thread exited or not Linux
+        }
+        return 0;
+    }
 }
@@ -0,0 +1,195 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persisted-sequence watermark: contiguous advance, batched waiter completion, and
+ * {@code writeAsync} / {@code awaitPersisted} on the write-behind ledgers.
+ */
+public class LedgerPersistedWatermarkTest extends LedgerTestBase {
+
+    @Test
+    public void watermark_advancesOnlyOverContiguousSettledIds() throws Exception {
+        PersistedWatermark w = new PersistedWatermark(10);
+        CompletableFuture<Long> f11 = w.futureFor(11);
+        CompletableFuture<Long> f13 = w.futureFor(13);
+        Assert.assertTrue(w.futureFor(10).isDone());
+
+        w.settle(12);
+        w.settle(13);
+        w.publish();
+        Assert.assertEquals(w.get(), 10L, "gap at 11 must hold the watermark");
+        Assert.assertFalse(f13.isDone());
+
+        w.settle(11);
+        w.publish();
+        Assert.assertEquals(w.get(), 13L);
+        Assert.assertEquals(f11.get().longValue(), 11L);
+        Assert.assertEquals(f13.get().longValue(), 13L);
+        Assert.assertEquals(w.waiterCount(), 0);
+    }
+
+    @Test
+    public void watermark_abandonedAndFailedIdsDoNotStallLaterWaiters() throws Exception {
+        PersistedWatermark w = new PersistedWatermark(0);
+        CompletableFuture<Long> f1 = w.futureFor(1);
+        CompletableFuture<Long> f3 = w.futureFor(3);
+        w.abandon(2);
+        w.fail(1, new IOException("disk full"));
+        w.settle(3);
+        w.publish();
+
+        Assert.assertEquals(w.get(), 3L);
+        Assert.assertTrue(f1.isCompletedExceptionally());
+        Assert.assertEquals(f3.get().longValue(), 3L);
+    }
+
+    @Test
+    public void writeBehindMemory_writeAsyncCompletesWhenWriterPersists() throws Exception {
+        ledgerRegistry.setDefaultAutoFlush(false);
+        CountDownLatch release = new CountDownLatch(1);
+        WriteBehindMemoryLedger<TestRecord> wb = new WriteBehindMemoryLedger<>(TestRecord.TYPE, gatedDriver(release), null);
+        wb.init();
+        ledger = wb;
+
+        CompletableFuture<Long> first = wb.writeAsync(createRecord("a", 1));
+        CompletableFuture<Long> second = wb.writeAsync(createRecord("b", 2));
+        Assert.assertFalse(wb.awaitPersisted(2, Duration.ofMillis(50)));
+        Assert.assertFalse(first.isDone());
+
+        release.countDown();
+        Assert.assertEquals(second.get(5, TimeUnit.SECONDS).longValue(), 2L);
+        Assert.assertEquals(first.get().longValue(), 1L);
+        Assert.assertTrue(wb.awaitPersisted(2, Duration.ZERO));
+        Assert.assertEquals(wb.healthCheck().get("lastPersistedSeq"), 2L);
+    }
+
+    @Test
+    public void writeBehindDisk_writeAsyncCompletesWithoutFlush() throws Exception {
+        ledgerRegistry.setDefaultAutoFlush(false);
+        ledgerRegistry.setDefaultFlushIntervalWrites(10_000);
+        ledgerRegistry.setDefaultFlushIntervalSeconds(100.0);
+        CountDownLatch release = new CountDownLatch(1);
+        WriteBehindDiskLedger<TestRecord> wb = new WriteBehindDiskLedger<>(TestRecord.TYPE, gatedDriver(release));
+        wb.init();
+        ledger = wb;
+
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            futures.add(wb.writeAsync(createRecord("r" + i, i)));
+        }
+        Assert.assertFalse(futures.get(99).isDone());
+        release.countDown();
+        Assert.assertTrue(wb.awaitPersisted(100, Duration.ofSeconds(5)));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(futures.get(i).get().longValue(), i + 1L);
+        }
+    }
+
+    @Test
+    public void writeBehindDisk_failedBatchFailsItsFutures() throws Exception {
+        DiskPersistenceDriver<TestRecord> disk = newDiskDriver();
+        PersistenceDriver<TestRecord> failing = new DelegatingDriver(disk) {
+            @Override
+            public void writeBatch(List<TestRecord> records) throws IOException {
+                throw new IOException("simulated");
+            }
+        };
+        WriteBehindDiskLedger<TestRecord> wb = new WriteBehindDiskLedger<>(TestRecord.TYPE, failing);
+        wb.init();
+        ledger = wb;
+
+        CompletableFuture<Long> f = wb.writeAsync(createRecord("x", 1));
+        try {
+            f.get(5, TimeUnit.SECONDS);
+            Assert.fail("expected failure");
+        } catch (ExecutionException expected) {
+            Assert.assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void syncLedger_writeAsyncIsCompleteOnReturn() throws Exception {
+        ledger = createLedger();
+        CompletableFuture<Long> f = ledger.writeAsync(createRecord("s", 1));
+        Assert.assertTrue(f.isDone());
+        Assert.assertTrue(ledger.awaitPersisted(f.get(), Duration.ZERO));
+    }
+
+    private DiskPersistenceDriver<TestRecord> newDiskDriver() throws IOException {
+        DiskPersistenceDriver<TestRecord> disk = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        disk.setAutoFlush(ledgerRegistry.isDefaultAutoFlush());
+        disk.setFlushIntervalWrites(ledgerRegistry.getDefaultFlushIntervalWrites());
+        disk.setFlushIntervalSeconds(ledgerRegistry.getDefaultFlushIntervalSeconds());
+        disk.init();
+        disk.start();
+        return disk;
+    }
+
+    private PersistenceDriver<TestRecord> gatedDriver(CountDownLatch release) throws IOException {
+        return new DelegatingDriver(newDiskDriver()) {
+            @Override
+            public void writeBatch(List<TestRecord> records) throws IOException {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.writeBatch(records);
+            }
+        };
+    }
+
+    private static class DelegatingDriver implements PersistenceDriver<TestRecord> {
+        private final DiskPersistenceDriver<TestRecord> disk;
+
+        DelegatingDriver(DiskPersistenceDriver<TestRecord> disk) {
+            this.disk = disk;
+        }
+
+        @Override
+        public void write(TestRecord record) throws IOException {
+            writeBatch(List.of(record));
+        }
+
+        @Override
+        public void writeBatch(List<TestRecord> records) throws IOException {
+            disk.writeBatch(records);
+        }
+
+        @Override
+        public void read(long fromSequence, ReadCallback<TestRecord> callback) {
+            disk.read(fromSequence, callback);
+        }
+
+        @Override
+        public void readReverse(long fromSequence, ReadCallback<TestRecord> callback) {
+            disk.readReverse(fromSequence, callback);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            disk.flush();
+        }
+
+        @Override
+        public boolean hasUnflushedWrites() {
+            return disk.hasUnflushedWrites();
+        }
+
+        @Override
+        public void close() throws Exception {
+            disk.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Ring buffer transport: exact capacity bound, per-producer FIFO under concurrent producers, every
+ * backpressure strategy waiting (never dropping) while full, slots allocated in chunks on first
+ * use, and spilling instead of waiting.
+ */
+public class LedgerRingBufferTest {
+
+    @Test
+    public void capacityIsExactEvenWhenNotPowerOfTwo() {
+        LedgerRingBuffer<Integer> ring = new LedgerRingBuffer<>(3, RingBackpressure.BLOCK);
+        Assert.assertTrue(ring.offer(1));
+        Assert.assertTrue(ring.offer(2));
+        Assert.assertTrue(ring.offer(3));
+        Assert.assertFalse(ring.offer(4));
+        Assert.assertEquals(ring.size(), 3);
+        Assert.assertEquals(ring.remainingCapacity(), 0);
+
+        Assert.assertEquals(ring.poll(), Integer.valueOf(1));
+        Assert.assertTrue(ring.offer(4));
+        List<Integer> drained = new ArrayList<>();
+        Assert.assertEquals(ring.drainTo(drained, 10), 3);
+        Assert.assertEquals(drained, List.of(2, 3, 4));
+        Assert.assertNull(ring.poll());
+    }
+
+    @Test
+    public void concurrentProducers_singleConsumer_keepsPerProducerOrder() throws Exception {
+        int producers = 4;
+        int perProducer = 50_000;
+        LedgerRingBuffer<long[]> ring = new LedgerRingBuffer<>(64, RingBackpressure.YIELD);
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<long[]> items = new ArrayList<>(producers * perProducer);
+        for (int p = 0; p < producers; p++) {
+            for (int i = 0; i < perProducer; i++) {
+                items.add(new long[]{p, i});
+            }
+        }
+        try {
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        ring.put(items.get(producer * perProducer + i));
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+
+            long[] next = new long[producers];
+            int received = 0;
+            while (received < producers * perProducer) {
+                long[] item = ring.poll(5, TimeUnit.SECONDS);
+                Assert.assertNotNull(item, "consumer starved after " + received);
+                Assert.assertEquals(item[1], next[(int) item[0]]++);
+                received++;
+            }
+            Assert.assertNull(ring.poll());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void put_waitsWhileFull_forEveryBackpressure() throws Exception {
+        for (RingBackpressure backpressure : RingBackpressure.values()) {
+            LedgerRingBuffer<Integer> ring = new LedgerRingBuffer<>(2, backpressure);
+            ring.put(1);
+            ring.put(2);
+            ExecutorService exec = Executors.newSingleThreadExecutor();
+            try {
+                Future<?> third = exec.submit(() -> {
+                    ring.put(3);
+                    return null;
+                });
+                try {
+                    third.get(100, TimeUnit.MILLISECONDS);
+                    Assert.fail(backpressure + ": put should wait while the ring is full");
+                } catch (TimeoutException expected) {
+                    // good: waiting
+                }
+                Assert.assertEquals(ring.take(), Integer.valueOf(1));
+                third.get(5, TimeUnit.SECONDS);
+                Assert.assertEquals(ring.take(), Integer.valueOf(2));
+                Assert.assertEquals(ring.take(), Integer.valueOf(3));
+            } finally {
+                exec.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void slots_areAllocatedInChunksAsTheRingFirstReachesThem() {
+        LedgerRingBuffer<Integer> ring = new LedgerRingBuffer<>(1_000_000, RingBackpressure.BLOCK);
+        Assert.assertEquals(ring.allocatedSlots(), 0);
+        Assert.assertEquals(ring.remainingCapacity(), 1_000_000);
+
+        int backlog = 3 * LedgerRingBuffer.CHUNK_SLOTS - 10;
+        for (int i = 0; i < backlog; i++) {
+            Assert.assertTrue(ring.offer(i));
+        }
+        Assert.assertEquals(ring.allocatedSlots(), 3 * LedgerRingBuffer.CHUNK_SLOTS);
+        for (int i = 0; i < backlog; i++) {
+            Assert.assertEquals(ring.poll(), Integer.valueOf(i));
+        }
+
+        LedgerRingBuffer<Integer> small = new LedgerRingBuffer<>(100, RingBackpressure.BLOCK);
+        for (int lap = 0; lap < 50; lap++) {
+            Assert.assertTrue(small.offer(lap));
+            Assert.assertEquals(small.poll(), Integer.valueOf(lap));
+        }
+        Assert.assertEquals(small.allocatedSlots(), 128, "one chunk, reused on every lap");
+    }
+
+    @Test
+    public void putOrSpill_neverWaits_andWakesWaitingConsumers() throws Exception {
+        LedgerRingBuffer<Integer> ring = new LedgerRingBuffer<>(2, RingBackpressure.BLOCK);
+        for (int i = 0; i < 5; i++) {
+            ring.putOrSpill(i);
+        }
+        Assert.assertEquals(ring.size(), 5);
+        Assert.assertFalse(ring.offer(99), "the ring itself stays bounded");
+        Set<Integer> taken = new HashSet<>();
+        Integer next;
+        while ((next = ring.poll()) != null) {
+            taken.add(next);
+        }
+        Assert.assertEquals(taken, Set.of(0, 1, 2, 3, 4));
+
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> consumer = exec.submit(ring::take);
+            Thread.sleep(50);
+            ring.putOrSpill(7);
+            Assert.assertEquals(consumer.get(5, TimeUnit.SECONDS), Integer.valueOf(7));
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+}
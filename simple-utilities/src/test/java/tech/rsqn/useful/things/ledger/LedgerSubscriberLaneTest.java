@@ -0,0 +1,207 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-subscriber lanes: ordered single-threaded delivery, slow-subscriber isolation and overflow
+ * policies.
+ */
+public class LedgerSubscriberLaneTest extends LedgerTestBase {
+
+    private AbstractLedger<TestRecord> ledger(NotificationDispatch dispatch) {
+        AbstractLedger<TestRecord> al = (AbstractLedger<TestRecord>) createWriteBehindLedger();
+        al.setNotificationDispatch(dispatch);
+        ledger = al;
+        return al;
+    }
+
+    private static void awaitCount(AtomicInteger counter, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (counter.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(counter.get(), expected);
+    }
+
+    @Test
+    public void perSubscriber_deliversInSequenceOrderOnOneThread() throws Exception {
+        AbstractLedger<TestRecord> al = ledger(NotificationDispatch.PER_SUBSCRIBER);
+        int n = 5_000;
+        List<Long> a = Collections.synchronizedList(new ArrayList<>());
+        List<Long> b = Collections.synchronizedList(new ArrayList<>());
+        Set<Thread> aThreads = Collections.synchronizedSet(new HashSet<>());
+        AtomicInteger aCount = new AtomicInteger();
+        AtomicInteger bCount = new AtomicInteger();
+        al.subscribe(null, r -> {
+            aThreads.add(Thread.currentThread());
+            a.add(r.getSequenceId());
+            aCount.incrementAndGet();
+        });
+        al.subscribe(r -> r.getValue() % 2 == 0, r -> {
+            b.add(r.getSequenceId());
+            bCount.incrementAndGet();
+        });
+
+        for (int i = 0; i < n; i++) {
+            al.write(createRecord("o", i));
+        }
+        awaitCount(aCount, n);
+        awaitCount(bCount, n / 2);
+
+        Assert.assertEquals(aThreads.size(), 1);
+        for (int i = 1; i < a.size(); i++) {
+            Assert.assertTrue(a.get(i) > a.get(i - 1), "out of order at " + i);
+        }
+        for (int i = 1; i < b.size(); i++) {
+            Assert.assertTrue(b.get(i) > b.get(i - 1), "out of order at " + i);
+        }
+    }
+
+    @Test
+    public void severalWriterThreads_lanesReceiveStrictSequenceOrder() throws Exception {
+        AbstractLedger<TestRecord> al = ledger(NotificationDispatch.SHARED);
+        List<Long> seen = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger count = new AtomicInteger();
+        al.subscribe(null, r -> {
+            seen.add(r.getSequenceId());
+            count.incrementAndGet();
+        }, 64, LaneOverflow.BLOCK);
+
+        int writers = 4;
+        int perWriter = 5_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int id = w;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    al.write(createRecord("w" + id, i));
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        awaitCount(count, writers * perWriter);
+        for (int i = 1; i < seen.size(); i++) {
+            Assert.assertEquals((long) seen.get(i), seen.get(i - 1) + 1, "out of order at " + i);
+        }
+    }
+
+    @Test
+    public void laneThreadWritingIntoItsOwnFullLane_keepsSequenceOrder() throws Exception {
+        AbstractLedger<TestRecord> al = ledger(NotificationDispatch.SHARED);
+        List<Long> seen = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger count = new AtomicInteger();
+        al.subscribe(null, r -> {
+            seen.add(r.getSequenceId());
+            if (r.getValue() >= 0) {
+                al.write(createRecord("echo", -1));
+                al.write(createRecord("echo", -1));
+            }
+            count.incrementAndGet();
+        }, 2, LaneOverflow.BLOCK);
+
+        int n = 50;
+        for (int i = 0; i < n; i++) {
+            al.write(createRecord("o", i));
+        }
+        awaitCount(count, n * 3);
+        for (int i = 1; i < seen.size(); i++) {
+            Assert.assertTrue(seen.get(i) > seen.get(i - 1), "out of order at " + i);
+        }
+    }
+
+    @Test
+    public void slowSubscriber_dropOldest_doesNotDelayFastSubscriber() throws Exception {
+        AbstractLedger<TestRecord> al = ledger(NotificationDispatch.SHARED);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        AtomicInteger slowSeen = new AtomicInteger();
+        SubscriberLane<TestRecord> slow = al.subscribe(null, r -> {
+            slowStarted.countDown();
+            try {
+                gate.await(15, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            slowSeen.incrementAndGet();
+        }, 4, LaneOverflow.DROP_OLDEST);
+        AtomicInteger fast = new AtomicInteger();
+        SubscriberLane<TestRecord> fastLane = al.subscribe(null, r -> fast.incrementAndGet(), 1024, LaneOverflow.BLOCK);
+
+        int n = 500;
+        al.write(createRecord("s", 0));
+        Assert.assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < n; i++) {
+            al.write(createRecord("s", i));
+        }
+        awaitCount(fast, n);
+        Assert.assertEquals(fastLane.getDropped(), 0);
+        Assert.assertEquals(slow.getLag(), 4);
+        Assert.assertEquals(slow.getDropped(), n - 1 - 4);
+
+        gate.countDown();
+        awaitCount(slowSeen, 5);
+        Assert.assertEquals(slow.getLastDeliveredSequence(), fastLane.getLastDeliveredSequence());
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> lanes = (List<Map<String, Object>>) al.healthCheck().get("subscriberLanes");
+        Assert.assertEquals(lanes.size(), 2);
+    }
+
+    @Test
+    public void overflow_disconnect_removesSubscriberWithoutBlockingWriter() throws Exception {
+        AbstractLedger<TestRecord> al = ledger(NotificationDispatch.SHARED);
+        CountDownLatch gate = new CountDownLatch(1);
+        SubscriberLane<TestRecord> lane = al.subscribe(null, r -> {
+            try {
+                gate.await(15, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 2, LaneOverflow.DISCONNECT);
+
+        for (int i = 0; i < 20; i++) {
+            al.write(createRecord("d", i));
+        }
+        Assert.assertTrue(lane.isDisconnected());
+        Assert.assertEquals(lane.getLag(), 0);
+        Assert.assertEquals(al.healthCheck().get("subscriberCount"), 0);
+        gate.countDown();
+    }
+
+    @Test
+    public void throwingLaneFilter_doesNotFailWriterOrOtherLanes() throws Exception {
+        AbstractLedger<TestRecord> al = ledger(NotificationDispatch.PER_SUBSCRIBER);
+        AtomicInteger healthy = new AtomicInteger();
+        al.subscribe(r -> {
+            throw new IllegalStateException("bad filter");
+        }, r -> { });
+        al.subscribe(null, r -> healthy.incrementAndGet());
+
+        for (int i = 0; i < 10; i++) {
+            al.write(createRecord("f", i));
+        }
+        awaitCount(healthy, 10);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void setNotificationDispatch_afterSubscribe_throwsISE() {
+        AbstractLedger<TestRecord> al = ledger(NotificationDispatch.SHARED);
+        al.subscribe(null, r -> { });
+        al.setNotificationDispatch(NotificationDispatch.PER_SUBSCRIBER);
+    }
+}
@@ -0,0 +1,79 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link LedgerThreadMode#VIRTUAL}: writer, consumers and lanes run on virtual threads and keep
+ * per-ledger order.
+ */
+public class LedgerThreadModeTest extends LedgerTestBase {
+
+    private static void awaitCount(AtomicInteger counter, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (counter.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(counter.get(), expected);
+    }
+
+    @Test
+    public void virtualThreads_fromRegistry_deliverInOrderAndPersist() throws Exception {
+        ledgerRegistry.setDefaultThreadMode(LedgerThreadMode.VIRTUAL);
+        ledger = ledgerRegistry.getLedger(TestRecord.TYPE);
+        AbstractLedger<TestRecord> al = (AbstractLedger<TestRecord>) ledger;
+        Assert.assertEquals(al.getThreadMode(), LedgerThreadMode.VIRTUAL);
+        Assert.assertEquals(al.getConsumerMode(), ConsumerMode.HYBRID);
+
+        int n = 2_000;
+        AtomicBoolean sharedOnVirtual = new AtomicBoolean(true);
+        AtomicBoolean laneOnVirtual = new AtomicBoolean(true);
+        AtomicInteger shared = new AtomicInteger();
+        AtomicInteger laneCount = new AtomicInteger();
+        List<Long> laneSeqs = Collections.synchronizedList(new ArrayList<>());
+        al.subscribe(null, r -> {
+            if (!Thread.currentThread().isVirtual()) {
+                sharedOnVirtual.set(false);
+            }
+            shared.incrementAndGet();
+        });
+        al.subscribe(null, r -> {
+            if (!Thread.currentThread().isVirtual()) {
+                laneOnVirtual.set(false);
+            }
+            laneSeqs.add(r.getSequenceId());
+            laneCount.incrementAndGet();
+        }, 64, LaneOverflow.BLOCK);
+
+        for (int i = 0; i < n; i++) {
+            al.write(createRecord("v", i));
+        }
+        al.flush();
+        awaitCount(shared, n);
+        awaitCount(laneCount, n);
+
+        Assert.assertTrue(sharedOnVirtual.get());
+        Assert.assertTrue(laneOnVirtual.get());
+        for (int i = 1; i < laneSeqs.size(); i++) {
+            Assert.assertTrue(laneSeqs.get(i) > laneSeqs.get(i - 1), "out of order at " + i);
+        }
+        AtomicInteger persisted = new AtomicInteger();
+        al.read(-1, null, r -> {
+            persisted.incrementAndGet();
+            return true;
+        });
+        Assert.assertEquals(persisted.get(), n);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void setThreadMode_afterInit_throwsISE() {
+        ledger = createWriteBehindLedger();
+        ((AbstractLedger<TestRecord>) ledger).setThreadMode(LedgerThreadMode.VIRTUAL);
+    }
+}
@@ -0,0 +1,80 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Mapped reverse line reads: lines that straddle or outgrow the mapping window, a missing final
+ * newline, and plain reverse reads through the driver.
+ */
+public class MappedReverseLineReaderTest extends LedgerTestBase {
+
+    private List<String> readBack(int window) throws Exception {
+        List<String> lines = new ArrayList<>();
+        try (MappedReverseLineReader reader = new MappedReverseLineReader(ledgerFile, window)) {
+            while (reader.previous()) {
+                lines.add(new String(reader.buffer(), 0, reader.lineLength(), StandardCharsets.UTF_8));
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void previous_returnsLinesNewestFirstAcrossSmallWindows() throws Exception {
+        List<String> written = new ArrayList<>();
+        StringBuilder file = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            String line = i % 37 == 0 ? "" : "line-" + i + "-" + "x".repeat(i % 53);
+            written.add(line);
+            file.append(line).append('\n');
+        }
+        Files.write(ledgerFile, file.toString().getBytes(StandardCharsets.UTF_8));
+        written.add("");
+        Collections.reverse(written);
+
+        for (int window : new int[]{7, 16, 64, MappedReverseLineReader.DEFAULT_WINDOW}) {
+            Assert.assertEquals(readBack(window), written, "window " + window);
+        }
+    }
+
+    @Test
+    public void previous_handlesMissingFinalNewlineAndEmptyFile() throws Exception {
+        Files.write(ledgerFile, "first\nsecond".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(readBack(4), List.of("second", "first"));
+
+        Files.write(ledgerFile, new byte[0]);
+        Assert.assertEquals(readBack(4), List.of(""));
+    }
+
+    @Test
+    public void readReverse_plainSkipsBlankAndCrLfLines() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.init();
+        driver.start();
+        for (int i = 1; i <= 50; i++) {
+            TestRecord r = createRecord("r" + i, i);
+            r.setSequenceId((long) i);
+            driver.write(r);
+        }
+        driver.flush();
+        driver.close();
+        Files.write(ledgerFile, "\r\n\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<Long> seqs = new ArrayList<>();
+        DiskPersistenceDriver<TestRecord> reader = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        reader.readReverse(40, r -> {
+            seqs.add(r.getSequenceId());
+            return true;
+        });
+        Assert.assertEquals(seqs.size(), 39);
+        Assert.assertEquals(seqs.get(0).longValue(), 39L);
+        Assert.assertEquals(seqs.get(38).longValue(), 1L);
+    }
+}
@@ -0,0 +1,234 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Off-heap cache: lazy decoding, byte-budget eviction by whole pages, the decoded-record cache,
+ * readers racing page recycling, and {@link MemoryLedger} in off-heap mode.
+ */
+public class OffHeapRecordStoreTest extends LedgerTestBase {
+
+    private TestRecord record(long seq) {
+        TestRecord r = createRecord("r" + seq + "-" + "x".repeat(100), (int) seq);
+        r.setSequenceId(seq);
+        return r;
+    }
+
+    private static List<Long> sequences(MemoryRecordStore<TestRecord> store, long from, boolean descending) {
+        List<Long> seen = new ArrayList<>();
+        ReadCallback<TestRecord> collect = r -> seen.add(r.getSequenceId());
+        if (descending) {
+            store.forEachDescending(from, collect);
+        } else {
+            store.forEach(from, collect);
+        }
+        return seen;
+    }
+
+    @Test
+    public void readsDecodeStoredRecordsBySequence() {
+        OffHeapRecordStore<TestRecord> store = new OffHeapRecordStore<>(new JsonlRecordCodec(ledgerRegistry), 1 << 20, 0);
+        TestRecord original = record(1);
+        store.put(1, original);
+        for (long seq = 2; seq <= 3_000; seq++) {
+            store.put(seq, record(seq));
+        }
+        Assert.assertEquals(store.size(), 3_000L);
+
+        TestRecord first = store.first();
+        Assert.assertNotSame(first, original, "records are decoded from off-heap bytes");
+        Assert.assertEquals(first, original);
+        Assert.assertEquals(sequences(store, 2_990, false).size(), 11);
+        Assert.assertEquals(sequences(store, 5, true), List.of(5L, 4L, 3L, 2L, 1L));
+        Assert.assertEquals(store.last().getData(), "r3000-" + "x".repeat(100));
+    }
+
+    @Test
+    public void budgetEvictsOldestPagesAndKeepsTheNewestRecords() {
+        long budget = 64 * 1024;
+        OffHeapRecordStore<TestRecord> store = new OffHeapRecordStore<>(new JsonlRecordCodec(ledgerRegistry), budget, 0);
+        int count = 20_000;
+        for (long seq = 1; seq <= count; seq++) {
+            store.put(seq, record(seq));
+            Assert.assertTrue(store.allocatedBytes() <= budget);
+        }
+        Assert.assertTrue(store.size() < count);
+        Assert.assertTrue(store.size() > 100);
+
+        List<Long> held = sequences(store, Long.MIN_VALUE, false);
+        Assert.assertEquals(held.size(), store.size());
+        Assert.assertEquals(held.get(held.size() - 1).longValue(), count);
+        Assert.assertEquals(held.get(held.size() - 1) - held.get(0) + 1, (long) held.size(), "a contiguous tail is kept");
+        Assert.assertFalse(store.put(held.get(0) - 1, record(held.get(0) - 1)), "evicted ids are not stored again");
+    }
+
+    @Test
+    public void decodedCacheServesRecentRecordsWithoutDecoding() {
+        OffHeapRecordStore<TestRecord> store = new OffHeapRecordStore<>(new JsonlRecordCodec(ledgerRegistry), 1 << 20, 16);
+        TestRecord newest = null;
+        for (long seq = 1; seq <= 100; seq++) {
+            newest = record(seq);
+            store.put(seq, newest);
+        }
+        Assert.assertSame(store.last(), newest);
+        TestRecord old = store.first();
+        Assert.assertEquals(old.getSequenceId().longValue(), 1L);
+        Assert.assertSame(store.first(), old, "a decoded record is cached for the next read");
+    }
+
+    @Test
+    public void readersRacingEvictionOnlySeeIntactRecords() throws Exception {
+        OffHeapRecordStore<TestRecord> store = new OffHeapRecordStore<>(new JsonlRecordCodec(ledgerRegistry), 32 * 1024, 0);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    long[] previous = {Long.MAX_VALUE};
+                    store.forEachDescending(Long.MAX_VALUE, r -> {
+                        long seq = r.getSequenceId();
+                        if (seq >= previous[0] || !r.getData().startsWith("r" + seq + "-") || r.getValue() != seq) {
+                            throw new AssertionError("torn or out-of-order record " + seq);
+                        }
+                        previous[0] = seq;
+                        return true;
+                    });
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        for (long seq = 1; seq <= 100_000; seq++) {
+            store.put(seq, record(seq));
+        }
+        done.set(true);
+        reader.join();
+        Assert.assertNull(failure.get());
+    }
+
+    @Test
+    public void memoryLedger_offHeapModeWritesReadsAndHydratesWithinBudget() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.init();
+        driver.start();
+        MemoryLedger<TestRecord> memory = new MemoryLedger<>(TestRecord.TYPE, driver, null);
+        memory.setOffHeapBudgetBytes(64 * 1024);
+        memory.setDecodedCacheSize(64);
+        memory.init();
+        ledger = memory;
+        for (int i = 1; i <= 5_000; i++) {
+            memory.write(createRecord("v" + i, i));
+        }
+        memory.housekeeping();
+        long held = memory.size();
+        Assert.assertTrue(held > ledgerRegistry.getDefaultPreferredMaxSize(), "the byte budget, not preferredMaxSize, bounds the cache");
+        Assert.assertTrue(held < 5_000);
+        Map<String, Object> health = memory.healthCheck();
+        Assert.assertTrue((Long) health.get("offHeapBytes") <= 64 * 1024);
+
+        List<Integer> values = new ArrayList<>();
+        memory.read(4_990, null, r -> values.add(r.getValue()));
+        Assert.assertEquals(values, List.of(4_991, 4_992, 4_993, 4_994, 4_995, 4_996, 4_997, 4_998, 4_999, 5_000));
+        int[] all = {0};
+        memory.readReverse(-1, null, r -> ++all[0] > 0);
+        Assert.assertEquals(all[0], 5_000, "older records come from disk");
+        memory.close();
+
+        DiskPersistenceDriver<TestRecord> reopened = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        reopened.init();
+        reopened.start();
+        MemoryLedger<TestRecord> warm = new MemoryLedger<>(TestRecord.TYPE, reopened, null);
+        warm.setOffHeapBudgetBytes(64 * 1024);
+        warm.init();
+        ledger = warm;
+        Assert.assertTrue(warm.size() > 100 && warm.size() < 5_000);
+        Assert.assertEquals(warm.write(createRecord("next", 0)), 5_001L);
+
+        try {
+            warm.setOffHeapBudgetBytes(1);
+            Assert.fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // configured before init()
+        }
+    }
+
+    @Test
+    public void memoryLedger_offHeapHydrationStreamsIntoTheStoreInBoundedBatches() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.init();
+        driver.start();
+        int count = 3 * MemoryLedger.HYDRATE_BATCH + 100;
+        for (int i = 1; i <= count; i++) {
+            driver.write(record(i));
+        }
+        driver.close();
+
+        DiskPersistenceDriver<TestRecord> reopened = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        reopened.init();
+        reopened.start();
+        AtomicReference<MemoryLedger<TestRecord>> warm = new AtomicReference<>();
+        long[] forwarded = {0};
+        long[] maxNotYetCached = {0};
+        PersistenceDriver<TestRecord> counting = new PersistenceDriver<>() {
+            @Override
+            public void write(TestRecord record) throws IOException {
+                reopened.write(record);
+            }
+
+            @Override
+            public void writeBatch(List<TestRecord> records) throws IOException {
+                reopened.writeBatch(records);
+            }
+
+            @Override
+            public void read(long fromSequence, ReadCallback<TestRecord> callback) {
+                reopened.read(fromSequence, r -> {
+                    forwarded[0]++;
+                    maxNotYetCached[0] = Math.max(maxNotYetCached[0], forwarded[0] - warm.get().memory.size());
+                    return callback.onRecord(r);
+                });
+            }
+
+            @Override
+            public void readReverse(long fromSequence, ReadCallback<TestRecord> callback) {
+                reopened.readReverse(fromSequence, callback);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                reopened.flush();
+            }
+
+            @Override
+            public boolean hasUnflushedWrites() {
+                return reopened.hasUnflushedWrites();
+            }
+
+            @Override
+            public void close() throws Exception {
+                reopened.close();
+            }
+        };
+        MemoryLedger<TestRecord> memory = new MemoryLedger<>(TestRecord.TYPE, counting, null);
+        memory.setOffHeapCodec(new JsonlRecordCodec(ledgerRegistry));
+        memory.setOffHeapBudgetBytes(64L * 1024 * 1024);
+        warm.set(memory);
+        memory.init();
+        ledger = memory;
+
+        Assert.assertEquals(memory.size(), count, "the whole history fits the budget");
+        Assert.assertEquals(forwarded[0], count);
+        Assert.assertTrue(maxNotYetCached[0] <= MemoryLedger.HYDRATE_BATCH,
+                "hydration held " + maxNotYetCached[0] + " decoded records before caching them");
+        Assert.assertEquals(memory.memory.last().getSequenceId(), Long.valueOf(count));
+    }
+}
@@ -0,0 +1,95 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Raw-byte pre-filters: probe matching, and forward reads that skip rejected lines before decoding
+ * while returning exactly what the record predicate alone returns.
+ */
+public class RawLineFilterTest extends LedgerTestBase {
+
+    private static boolean test(RawLineFilter filter, String line) {
+        byte[] b = ("xx" + line + "yy").getBytes(StandardCharsets.UTF_8);
+        return filter.test(b, 2, b.length - 4);
+    }
+
+    @Test
+    public void probes_matchCompactJson() {
+        String line = "{\"data\":\"BTC-USD \\u003cx\\u003e\",\"value\":12,\"type\":\"test_record\"}";
+        Assert.assertTrue(test(RawLineFilter.contains("BTC"), line));
+        Assert.assertFalse(test(RawLineFilter.contains("ETH"), line));
+        Assert.assertTrue(test(RawLineFilter.fieldEquals("data", "BTC-USD <x>"), line), "uses Gson escaping");
+        Assert.assertFalse(test(RawLineFilter.fieldEquals("data", "BTC-USD"), line));
+        Assert.assertTrue(test(RawLineFilter.fieldEquals("value", 12), line));
+        Assert.assertFalse(test(RawLineFilter.fieldEquals("value", 1), line));
+        Assert.assertFalse(test(RawLineFilter.fieldEquals("value", 12), "{\"value\":123}"));
+        Assert.assertTrue(test(RawLineFilter.fieldEquals("value", 12), "{\"value\":123,\"value\":12}"));
+        Assert.assertTrue(test(RawLineFilter.contains("ETH").or(RawLineFilter.contains("BTC")), line));
+        Assert.assertFalse(test(RawLineFilter.contains("ETH").and(RawLineFilter.contains("BTC")), line));
+        Assert.assertFalse(test(RawLineFilter.contains("yy"), line), "must not read past the line");
+    }
+
+    private DiskPersistenceDriver<TestRecord> newDriver() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.setAutoFlush(ledgerRegistry.isDefaultAutoFlush());
+        driver.setFlushIntervalWrites(ledgerRegistry.getDefaultFlushIntervalWrites());
+        driver.setFlushIntervalSeconds(ledgerRegistry.getDefaultFlushIntervalSeconds());
+        driver.init();
+        driver.start();
+        return driver;
+    }
+
+    @Test
+    public void diskLedgerRead_rawFilterReturnsWhatThePredicateReturns() throws Exception {
+        ledger = new DiskLedger<>(TestRecord.TYPE, newDriver());
+        for (int i = 0; i < 300; i++) {
+            ledger.write(createRecord("sym-" + (i % 10), i));
+        }
+        ledger.flush();
+        Predicate<TestRecord> isSym3 = r -> "sym-3".equals(r.getData());
+
+        List<Long> expected = new ArrayList<>();
+        ledger.read(-1, isSym3, r -> expected.add(r.getSequenceId()));
+        List<Long> filtered = new ArrayList<>();
+        ledger.read(-1, RawLineFilter.fieldEquals("data", "sym-3"), isSym3, r -> filtered.add(r.getSequenceId()));
+
+        Assert.assertEquals(expected.size(), 30);
+        Assert.assertEquals(filtered, expected);
+    }
+
+    @Test
+    public void binaryLines_areNotRejectedByTheRawFilter() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
+        driver.setCodec(new BinaryRecordCodec(ledgerRegistry));
+        driver.init();
+        driver.start();
+        driver.write(createRecord("sym-3", 1));
+        driver.close();
+
+        List<TestRecord> out = new ArrayList<>();
+        driver.read(-1, RawLineFilter.fieldEquals("data", "sym-3"), out::add);
+        Assert.assertEquals(out.size(), 1);
+    }
+
+    @Test
+    public void writeBehindDiskRead_pendingRecordsUseThePredicate() throws Exception {
+        ledgerRegistry.setDefaultAutoFlush(false);
+        ledgerRegistry.setDefaultFlushIntervalWrites(10_000);
+        ledgerRegistry.setDefaultFlushIntervalSeconds(100.0);
+        WriteBehindDiskLedger<TestRecord> wb = new WriteBehindDiskLedger<>(TestRecord.TYPE, newDriver());
+        wb.init();
+        ledger = wb;
+        for (int i = 0; i < 50; i++) {
+            ledger.write(createRecord("sym-" + (i % 5), i));
+        }
+        List<TestRecord> out = new ArrayList<>();
+        ledger.read(-1, RawLineFilter.contains("sym-2"), r -> "sym-2".equals(r.getData()), out::add);
+        Assert.assertEquals(out.size(), 10);
+    }
+}
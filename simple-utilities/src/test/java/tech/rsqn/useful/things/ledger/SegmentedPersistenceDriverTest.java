@@ -0,0 +1,265 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Rolling segments: reads span segments in order, range reads skip segments via the manifest,
+ * restart only rescans the newest segment, and retention deletes whole files.
+ */
+public class SegmentedPersistenceDriverTest {
+    private static final Instant T0 = Instant.parse("2020-01-01T00:00:00Z");
+
+    private Path tempDir;
+    private LedgerRegistry registry;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("ledger-seg");
+        registry = new LedgerRegistry();
+        registry.setLedgerDir(tempDir);
+        registry.registerRecordType(TestRecord.TYPE, TestRecord.class);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if (tempDir != null && Files.exists(tempDir)) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(p -> {
+                        try {
+                            Files.deleteIfExists(p);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    private SegmentedPersistenceDriver<TestRecord> newDriver(long maxBytes, Duration duration) throws IOException {
+        SegmentedPersistenceDriver<TestRecord> driver =
+                new SegmentedPersistenceDriver<>(tempDir.resolve("seg"), "test", registry);
+        driver.setMaxSegmentBytes(maxBytes);
+        driver.setSegmentDuration(duration);
+        driver.setAutoFlush(false);
+        driver.init();
+        driver.start();
+        return driver;
+    }
+
+    private TestRecord rec(int value, Instant ts) {
+        TestRecord r = new TestRecord(ts, "payload-" + value, value);
+        r.setSequenceId((long) value);
+        return r;
+    }
+
+    private void writeRange(SegmentedPersistenceDriver<TestRecord> driver, int fromInclusive, int toInclusive) throws IOException {
+        for (int i = fromInclusive; i <= toInclusive; i++) {
+            driver.write(rec(i, T0.plusSeconds(i)));
+        }
+    }
+
+    private static List<Integer> range(int fromInclusive, int toInclusive) {
+        List<Integer> out = new ArrayList<>();
+        for (int i = fromInclusive; i <= toInclusive; i++) {
+            out.add(i);
+        }
+        return out;
+    }
+
+    private List<Integer> readFrom(SegmentedPersistenceDriver<TestRecord> driver, long fromSequence) {
+        List<Integer> out = new ArrayList<>();
+        driver.read(fromSequence, r -> {
+            out.add(r.getValue());
+            return true;
+        });
+        return out;
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir.resolve("seg"))) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".jsonl")).count();
+        }
+    }
+
+    @Test
+    public void sizeRoll_readsSpanSegmentsInOrder() throws Exception {
+        SegmentedPersistenceDriver<TestRecord> d = newDriver(1024, null);
+        writeRange(d, 1, 100);
+        d.flush();
+
+        Assert.assertTrue(d.getSegmentCount() > 3, "expected several segments, got " + d.getSegmentCount());
+        Assert.assertEquals(segmentFiles(), d.getSegmentCount());
+        Assert.assertEquals(d.count(), 100);
+        Assert.assertEquals(readFrom(d, -1), range(1, 100));
+        Assert.assertEquals(readFrom(d, 73), range(74, 100));
+        Assert.assertEquals(readFrom(d, 100), List.of());
+
+        List<Integer> reversed = new ArrayList<>();
+        d.readReverse(30, r -> {
+            reversed.add(r.getValue());
+            return reversed.size() < 5;
+        });
+        Assert.assertEquals(reversed, List.of(29, 28, 27, 26, 25));
+        d.close();
+    }
+
+    @Test
+    public void readSequenceRange_spansOnlyOverlappingSegments() throws Exception {
+        SegmentedPersistenceDriver<TestRecord> d = newDriver(1024, null);
+        writeRange(d, 1, 100);
+        d.flush();
+
+        List<Integer> out = new ArrayList<>();
+        d.readSequenceRange(37, 64, r -> out.add(r.getValue()));
+        Assert.assertEquals(out, range(37, 64));
+
+        out.clear();
+        d.readSequenceRange(95, Long.MAX_VALUE, r -> out.add(r.getValue()));
+        Assert.assertEquals(out, range(95, 100));
+
+        out.clear();
+        d.readSequenceRange(10, 90, r -> {
+            out.add(r.getValue());
+            return out.size() < 3;
+        });
+        Assert.assertEquals(out, range(10, 12));
+        d.close();
+    }
+
+    @Test
+    public void segmentDriverSettings_areRejectedAfterStart() throws Exception {
+        SegmentedPersistenceDriver<TestRecord> d = newDriver(1024, null);
+        List<Runnable> setters = List.of(
+                () -> d.setCodec(new JsonlRecordCodec(registry)),
+                () -> d.setDurabilityPolicy(DurabilityPolicy.NONE),
+                () -> d.setWriteBufferBytes(4096),
+                () -> d.setReadParallelism(2));
+        for (Runnable setter : setters) {
+            try {
+                setter.run();
+                Assert.fail("expected IllegalStateException");
+            } catch (IllegalStateException expected) {
+                // after start()
+            }
+        }
+        d.close();
+    }
+
+    @Test
+    public void reopen_usesManifestAndAppendsToNewestSegment() throws Exception {
+        SegmentedPersistenceDriver<TestRecord> d1 = newDriver(1024, null);
+        writeRange(d1, 1, 60);
+        int segmentsBefore = d1.getSegmentCount();
+        d1.close();
+        Assert.assertTrue(Files.exists(d1.getManifestFile()));
+
+        SegmentedPersistenceDriver<TestRecord> d2 = newDriver(1024, null);
+        Assert.assertEquals(d2.getSegmentCount(), segmentsBefore);
+        Assert.assertEquals(d2.count(), 60);
+        writeRange(d2, 61, 80);
+        d2.flush();
+        Assert.assertEquals(readFrom(d2, 55), range(56, 80));
+        d2.close();
+
+        // A lost manifest is rebuilt from the segment files on disk.
+        Files.delete(d2.getManifestFile());
+        SegmentedPersistenceDriver<TestRecord> d3 = newDriver(1024, null);
+        Assert.assertEquals(d3.count(), 80);
+        Assert.assertEquals(readFrom(d3, -1), range(1, 80));
+        d3.close();
+    }
+
+    @Test
+    public void timeRoll_readTimeRangeAndPurge() throws Exception {
+        SegmentedPersistenceDriver<TestRecord> d = newDriver(0, Duration.ofMinutes(1));
+        // 200 records one second apart: three full one-minute segments plus the active one.
+        for (int i = 0; i < 200; i++) {
+            d.write(rec(i + 1, T0.plusSeconds(i)));
+        }
+        d.flush();
+        Assert.assertEquals(d.getSegmentCount(), 4);
+
+        List<Integer> window = new ArrayList<>();
+        d.readTimeRange(T0.plusSeconds(70), T0.plusSeconds(75), r -> {
+            window.add(r.getValue());
+            return true;
+        });
+        Assert.assertEquals(window, range(71, 75));
+
+        Assert.assertEquals(d.purgeSegmentsBefore(T0.plusSeconds(130)), 2);
+        Assert.assertEquals(d.getSegmentCount(), 2);
+        Assert.assertEquals(segmentFiles(), 2);
+        Assert.assertEquals(d.count(), 80);
+        Assert.assertEquals(readFrom(d, -1), range(121, 200));
+        d.close();
+    }
+
+    @Test
+    public void outOfOrderIds_segmentBoundsStillCoverThem() throws Exception {
+        SegmentedPersistenceDriver<TestRecord> d = newDriver(0, Duration.ofMinutes(1));
+        writeRange(d, 1, 10);
+        // Two producers persisted 12 before 11; the first segment's last id (11) is not its highest.
+        d.write(rec(12, T0.plusSeconds(20)));
+        d.write(rec(11, T0.plusSeconds(21)));
+        for (int i = 13; i <= 15; i++) {
+            d.write(rec(i, T0.plusSeconds(60 + i)));
+        }
+        d.flush();
+        Assert.assertEquals(d.getSegmentCount(), 2);
+
+        Assert.assertEquals(readFrom(d, 11), List.of(12, 13, 14, 15));
+        List<Integer> out = new ArrayList<>();
+        d.readSequenceRange(12, 12, r -> out.add(r.getValue()));
+        Assert.assertEquals(out, List.of(12));
+        Assert.assertEquals(d.lastSequenceId(), 15);
+        d.close();
+
+        SegmentedPersistenceDriver<TestRecord> reopened = newDriver(0, Duration.ofMinutes(1));
+        Assert.assertEquals(readFrom(reopened, 11), List.of(12, 13, 14, 15));
+        reopened.close();
+    }
+
+    @Test
+    public void purge_keepsSegmentsWithoutTimestamps() throws Exception {
+        SegmentedPersistenceDriver<TestRecord> d = newDriver(1024, null);
+        for (int i = 1; i <= 30; i++) {
+            d.write(rec(i, null));
+        }
+        writeRange(d, 31, 60);
+        d.flush();
+        int segments = d.getSegmentCount();
+        Assert.assertTrue(segments > 3, "expected several segments, got " + segments);
+
+        Assert.assertEquals(d.purgeSegmentsBefore(T0.plusSeconds(3600)), 0);
+        Assert.assertEquals(d.getSegmentCount(), segments);
+        Assert.assertEquals(readFrom(d, -1), range(1, 60));
+        d.close();
+    }
+
+    @Test
+    public void registryDefault_createsSegmentedLedger() throws Exception {
+        registry.setDefaultSegmentMaxBytes(1024);
+        Ledger<TestRecord> ledger = registry.getLedger(TestRecord.TYPE);
+        for (int i = 1; i <= 50; i++) {
+            ledger.write(new TestRecord(T0.plusSeconds(i), "payload-" + i, i));
+        }
+        ledger.flush();
+
+        Path manifest = tempDir.resolve(TestRecord.TYPE.getValue()).resolve(TestRecord.TYPE.getValue() + ".manifest.json");
+        Assert.assertTrue(Files.exists(manifest));
+        Assert.assertEquals(ledger.size(), 50);
+        ledger.close();
+    }
+}
@@ -0,0 +1,129 @@
+package tech.rsqn.useful.things.ledger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sequence-indexed chunk store: seeks, range walks across chunk boundaries and gaps, trimming that
+ * releases whole chunks, and concurrent writers racing a trim.
+ */
+public class SequenceChunkStoreTest {
+
+    private static List<Long> ascending(SequenceChunkStore<Long> store, long from) {
+        List<Long> seen = new ArrayList<>();
+        store.forEach(from, seen::add);
+        return seen;
+    }
+
+    private static List<Long> descending(SequenceChunkStore<Long> store, long from) {
+        List<Long> seen = new ArrayList<>();
+        store.forEachDescending(from, seen::add);
+        return seen;
+    }
+
+    @Test
+    public void forEach_seeksToSequenceAndWalksAcrossChunks() {
+        SequenceChunkStore<Long> store = new SequenceChunkStore<>();
+        for (long seq = 1; seq <= 10_000; seq++) {
+            Assert.assertTrue(store.put(seq, seq));
+        }
+        Assert.assertEquals(store.size(), 10_000L);
+        Assert.assertEquals(store.get(9_000).longValue(), 9_000L);
+        Assert.assertNull(store.get(10_001));
+
+        List<Long> range = new ArrayList<>();
+        store.forEach(9_000, seq -> {
+            range.add(seq);
+            return seq < 9_100;
+        });
+        Assert.assertEquals(range.size(), 101);
+        Assert.assertEquals(range.get(0).longValue(), 9_000L);
+        Assert.assertEquals(range.get(100).longValue(), 9_100L);
+
+        List<Long> reverse = descending(store, 1_030);
+        Assert.assertEquals(reverse.size(), 1_030);
+        Assert.assertEquals(reverse.get(0).longValue(), 1_030L);
+        Assert.assertEquals(reverse.get(1_029).longValue(), 1L);
+        Assert.assertEquals(store.first().longValue(), 1L);
+        Assert.assertEquals(store.last().longValue(), 10_000L);
+    }
+
+    @Test
+    public void gapsAndOutOfOrderPutsAreSkippedAndOrdered() {
+        SequenceChunkStore<Long> store = new SequenceChunkStore<>();
+        store.put(5_000, 5_000L);
+        store.put(3, 3L);
+        store.put(2_048, 2_048L);
+        store.put(3, 3L);
+
+        Assert.assertEquals(store.size(), 3L);
+        Assert.assertEquals(ascending(store, Long.MIN_VALUE), List.of(3L, 2_048L, 5_000L));
+        Assert.assertEquals(ascending(store, 4), List.of(2_048L, 5_000L));
+        Assert.assertEquals(descending(store, 4_999), List.of(2_048L, 3L));
+        Assert.assertEquals(store.firstSequence(), 3L);
+    }
+
+    @Test
+    public void trim_releasesWholeChunksAndRejectsPutsBelowTheFloor() {
+        SequenceChunkStore<Long> store = new SequenceChunkStore<>();
+        int chunk = SequenceChunkStore.CHUNK_SIZE;
+        for (long seq = 0; seq < 4L * chunk; seq++) {
+            store.put(seq, seq);
+        }
+        Assert.assertEquals(store.chunkCount(), 4);
+
+        Assert.assertEquals(store.trimToSize(chunk + 10), 3L * chunk - 10);
+        Assert.assertEquals(store.size(), (long) chunk + 10);
+        Assert.assertEquals(store.first().longValue(), 3L * chunk - 10);
+        Assert.assertEquals(store.chunkCount(), 2, "chunks below the floor are released");
+
+        Assert.assertEquals(store.pollFirst().longValue(), 3L * chunk - 10);
+        Assert.assertFalse(store.put(5, 5L));
+        Assert.assertNull(store.get(5));
+        Assert.assertEquals(store.size(), (long) chunk + 9);
+
+        store.trimBefore(Long.MAX_VALUE);
+        Assert.assertTrue(store.isEmpty());
+        Assert.assertEquals(store.chunkCount(), 0);
+    }
+
+    @Test
+    public void concurrentWritersAndTrims_keepSizeConsistent() throws Exception {
+        SequenceChunkStore<Long> store = new SequenceChunkStore<>();
+        AtomicLong next = new AtomicLong();
+        int perWriter = 50_000;
+        Thread[] writers = new Thread[3];
+        for (int w = 0; w < writers.length; w++) {
+            writers[w] = new Thread(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    long seq = next.incrementAndGet();
+                    store.put(seq, seq);
+                }
+            });
+            writers[w].start();
+        }
+        Thread trimmer = new Thread(() -> {
+            while (next.get() < (long) perWriter * writers.length) {
+                store.trimToSize(5_000);
+            }
+        });
+        trimmer.start();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        trimmer.join();
+
+        List<Long> held = ascending(store, Long.MIN_VALUE);
+        Assert.assertEquals(store.size(), held.size());
+        for (int i = 1; i < held.size(); i++) {
+            Assert.assertTrue(held.get(i) > held.get(i - 1));
+        }
+        store.trimToSize(100);
+        Assert.assertEquals(store.size(), 100L);
+        Assert.assertEquals(store.last().longValue(), (long) perWriter * writers.length);
+    }
+}
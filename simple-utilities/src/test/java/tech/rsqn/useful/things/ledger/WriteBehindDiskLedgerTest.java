@@ -24,6 +24,21 @@ public class WriteBehindDiskLedgerTest extends LedgerTestBase {
         }
     }
 
+    @Test
+    public void writeBeforeInit_doesNotConsumeASequenceId() throws Exception {
+        DiskPersistenceDriver<TestRecord> driver = createDriver();
+        WriteBehindDiskLedger<TestRecord> wb = new WriteBehindDiskLedger<>(TestRecord.TYPE, driver);
+        this.ledger = wb;
+        try {
+            wb.write(createRecord("early", 0));
+            Assert.fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // init() not called yet
+        }
+        wb.init();
+        Assert.assertEquals(wb.write(createRecord("first", 1)), 1L);
+    }
+
     @Test
     public void flushPersistsAllQueuedRecords() throws Exception {
         ledgerRegistry.setDefaultAutoFlush(false);
@@ -142,6 +157,255 @@ public class WriteBehindDiskLedgerTest extends LedgerTestBase {
         Assert.assertEquals(values.get(2).intValue(), 1);
     }
 
+    @Test
+    public void queuedRecordsArePersistedInOrderedBatches() throws Exception {
+        ledgerRegistry.setDefaultAutoFlush(true);
+        DiskPersistenceDriver<TestRecord> disk = createDriver();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> batchSizes = new ArrayList<>();
+        PersistenceDriver<TestRecord> driver = new PersistenceDriver<>() {
+            @Override
+            public void write(TestRecord record) throws IOException {
+                writeBatch(List.of(record));
+            }
+
+            @Override
+            public void writeBatch(List<TestRecord> records) throws IOException {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                batchSizes.add(records.size());
+                disk.writeBatch(records);
+            }
+
+            @Override
+            public void read(long fromSequence, ReadCallback<TestRecord> callback) {
+                disk.read(fromSequence, callback);
+            }
+
+            @Override
+            public void readReverse(long fromSequence, ReadCallback<TestRecord> callback) {
+                disk.readReverse(fromSequence, callback);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                disk.flush();
+            }
+
+            @Override
+            public void close() throws Exception {
+                disk.close();
+            }
+        };
+        WriteBehindDiskLedger<TestRecord> wb = new WriteBehindDiskLedger<>(TestRecord.TYPE, driver);
+        wb.setWriteBatchSize(64);
+        wb.init();
+        this.ledger = wb;
+
+        for (int i = 1; i <= 200; i++) {
+            wb.write(createRecord("r" + i, i));
+        }
+        release.countDown();
+        wb.flush();
+
+        Assert.assertEquals(batchSizes.stream().mapToInt(Integer::intValue).sum(), 200);
+        Assert.assertTrue(batchSizes.stream().anyMatch(n -> n > 1), "expected grouped writes, got " + batchSizes);
+        Assert.assertTrue(batchSizes.stream().allMatch(n -> n <= 64), "batch size cap exceeded: " + batchSizes);
+        List<Integer> values = new ArrayList<>();
+        wb.read(-1, null, r -> {
+            values.add(r.getValue());
+            return true;
+        });
+        Assert.assertEquals(values.size(), 200);
+        for (int i = 0; i < 200; i++) {
+            Assert.assertEquals(values.get(i).intValue(), i + 1);
+        }
+    }
+
+    @Test
+    public void includePending_readsMergeUnflushedRecordsWithoutFlushing() throws Exception {
+        ledgerRegistry.setDefaultAutoFlush(false);
+        ledgerRegistry.setDefaultFlushIntervalWrites(10_000);
+        ledgerRegistry.setDefaultFlushIntervalSeconds(100.0);
+
+        DiskPersistenceDriver<TestRecord> driver = createDriver();
+        WriteBehindDiskLedger<TestRecord> wb = new WriteBehindDiskLedger<>(TestRecord.TYPE, driver);
+        wb.init();
+        this.ledger = wb;
+
+        for (int i = 1; i <= 3; i++) {
+            wb.write(createRecord("p" + i, i));
+        }
+        wb.flush();
+        for (int i = 4; i <= 6; i++) {
+            wb.write(createRecord("p" + i, i));
+        }
+
+        Assert.assertEquals(wb.size(), 6L);
+        Assert.assertEquals(readValues(wb, -1, false), List.of(1, 2, 3, 4, 5, 6));
+        Assert.assertEquals(readValues(wb, -1, true), List.of(6, 5, 4, 3, 2, 1));
+        Assert.assertEquals(readValues(wb, 2, false), List.of(3, 4, 5, 6));
+        Assert.assertEquals(readValues(wb, 5, true), List.of(4, 3, 2, 1));
+        List<Integer> even = new ArrayList<>();
+        wb.read(-1, r -> r.getValue() % 2 == 0, r -> {
+            even.add(r.getValue());
+            return true;
+        });
+        Assert.assertEquals(even, List.of(2, 4, 6));
+        Assert.assertEquals(Files.readAllLines(ledgerFile).size(), 3, "reads must not flush the writer");
+
+        wb.flush();
+        Assert.assertEquals(readValues(wb, -1, false), List.of(1, 2, 3, 4, 5, 6));
+        Assert.assertEquals(wb.healthCheck().get("pendingReadViewSize"), 0);
+    }
+
+    @Test
+    public void includePending_readReverseLeavesOutRecordsPersistedDuringTheRead() throws Exception {
+        ledgerRegistry.setDefaultAutoFlush(false);
+        ledgerRegistry.setDefaultFlushIntervalWrites(10_000);
+        ledgerRegistry.setDefaultFlushIntervalSeconds(100.0);
+
+        DiskPersistenceDriver<TestRecord> driver = createDriver();
+        WriteBehindDiskLedger<TestRecord> wb = new WriteBehindDiskLedger<>(TestRecord.TYPE, driver);
+        wb.init();
+        this.ledger = wb;
+
+        for (int i = 1; i <= 3; i++) {
+            wb.write(createRecord("p" + i, i));
+        }
+        wb.flush();
+        wb.write(createRecord("p4", 4));
+        wb.write(createRecord("p5", 5));
+
+        // Record 6 is written and flushed after the pending view (5, 4) was taken.
+        List<Integer> values = new ArrayList<>();
+        wb.readReverse(-1, null, r -> {
+            if (values.isEmpty()) {
+                wb.write(createRecord("p6", 6));
+                wb.flush();
+            }
+            values.add(r.getValue());
+            return true;
+        });
+        Assert.assertEquals(values, List.of(5, 4, 3, 2, 1));
+        Assert.assertEquals(readValues(wb, -1, true), List.of(6, 5, 4, 3, 2, 1));
+    }
+
+    @Test
+    public void persistedOnly_readsOnlyWhatTheDriverReturns() throws Exception {
+        ledgerRegistry.setDefaultAutoFlush(false);
+        ledgerRegistry.setDefaultFlushIntervalWrites(10_000);
+        ledgerRegistry.setDefaultFlushIntervalSeconds(100.0);
+
+        DiskPersistenceDriver<TestRecord> driver = createDriver();
+        WriteBehindDiskLedger<TestRecord> wb = new WriteBehindDiskLedger<>(TestRecord.TYPE, driver);
+        wb.setReadConsistency(ReadConsistency.PERSISTED_ONLY);
+        wb.init();
+        this.ledger = wb;
+
+        wb.write(createRecord("a", 1));
+        wb.write(createRecord("b", 2));
+        Assert.assertEquals(readValues(wb, -1, false), List.of());
+        Assert.assertEquals(wb.healthCheck().get("pendingReadViewSize"), 0);
+
+        wb.flush();
+        Assert.assertEquals(readValues(wb, -1, false), List.of(1, 2));
+        Assert.assertEquals(wb.size(), 2L);
+    }
+
+    @Test
+    public void persistedOnly_sizeCountsQueuedRecordsButNotFlushMarkers() throws Exception {
+        DiskPersistenceDriver<TestRecord> disk = createDriver();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PersistenceDriver<TestRecord> driver = new PersistenceDriver<>() {
+            @Override
+            public void write(TestRecord record) throws IOException {
+                writeBatch(List.of(record));
+            }
+
+            @Override
+            public void writeBatch(List<TestRecord> records) throws IOException {
+                if (records.get(0).getValue() > 1) {
+                    entered.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                disk.writeBatch(records);
+            }
+
+            @Override
+            public void read(long fromSequence, ReadCallback<TestRecord> callback) {
+                disk.read(fromSequence, callback);
+            }
+
+            @Override
+            public void readReverse(long fromSequence, ReadCallback<TestRecord> callback) {
+                disk.readReverse(fromSequence, callback);
+            }
+
+            @Override
+            public long count() {
+                return disk.count();
+            }
+
+            @Override
+            public void flush() throws IOException {
+                disk.flush();
+            }
+
+            @Override
+            public void close() throws Exception {
+                disk.close();
+            }
+        };
+        WriteBehindDiskLedger<TestRecord> wb = new WriteBehindDiskLedger<>(TestRecord.TYPE, driver);
+        wb.setReadConsistency(ReadConsistency.PERSISTED_ONLY);
+        wb.init();
+        this.ledger = wb;
+
+        wb.write(createRecord("a", 1));
+        wb.flush();
+        wb.write(createRecord("b", 2));
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+        List<Thread> flushers = List.of(new Thread(wb::flush), new Thread(wb::flush));
+        flushers.forEach(Thread::start);
+        wb.write(createRecord("c", 3));
+        long deadline = System.currentTimeMillis() + 5_000;
+        while ((int) wb.healthCheck().get("writeQueueSize") < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(wb.healthCheck().get("writeQueueSize"), 3);
+        Assert.assertEquals(wb.size(), 1L, "b is being written and c is queued; flush markers are not records");
+
+        release.countDown();
+        for (Thread t : flushers) {
+            t.join(10_000);
+        }
+        wb.flush();
+        Assert.assertEquals(wb.size(), 3L);
+    }
+
+    private static List<Integer> readValues(WriteBehindDiskLedger<TestRecord> wb, long fromSequence, boolean reverse) {
+        List<Integer> values = new ArrayList<>();
+        ReadCallback<TestRecord> collect = r -> {
+            values.add(r.getValue());
+            return true;
+        };
+        if (reverse) {
+            wb.readReverse(fromSequence, null, collect);
+        } else {
+            wb.read(fromSequence, null, collect);
+        }
+        return values;
+    }
+
     private DiskPersistenceDriver<TestRecord> createDriver() {
         DiskPersistenceDriver<TestRecord> driver = new DiskPersistenceDriver<>(ledgerFile, ledgerRegistry);
         driver.setAutoFlush(ledgerRegistry.isDefaultAutoFlush());
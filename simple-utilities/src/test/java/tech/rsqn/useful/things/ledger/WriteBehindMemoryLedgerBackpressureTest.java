@@ -135,5 +135,61 @@ public class WriteBehindMemoryLedgerBackpressureTest {
             ledger.close();
         }
     }
-}
 
+    @Test
+    public void writerPersistsQueuedRecordsAsBatches() throws Exception {
+        BlockingDriver driver = new BlockingDriver();
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        PersistenceDriver<TestRecord> batching = new PersistenceDriver<>() {
+            @Override
+            public void write(TestRecord record) throws IOException {
+                driver.write(record);
+            }
+
+            @Override
+            public void writeBatch(List<TestRecord> records) throws IOException {
+                batchSizes.add(records.size());
+                for (TestRecord r : records) {
+                    driver.write(r);
+                }
+            }
+
+            @Override
+            public void read(long fromSequence, ReadCallback<TestRecord> callback) {
+            }
+
+            @Override
+            public void readReverse(long fromSequence, ReadCallback<TestRecord> callback) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        WriteBehindMemoryLedger<TestRecord> ledger = new WriteBehindMemoryLedger<>(TestRecord.TYPE, batching, null);
+        ledger.setWriteBatchSize(16);
+        ledger.init();
+        try {
+            ledger.write(rec(0));
+            Assert.assertTrue(driver.firstWriteStarted.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i <= 100; i++) {
+                ledger.write(rec(i));
+            }
+            driver.releaseWrites();
+            ledger.flush();
+
+            Assert.assertEquals(driver.persistedSeq.size(), 101);
+            for (int i = 1; i < driver.persistedSeq.size(); i++) {
+                Assert.assertTrue(driver.persistedSeq.get(i) > driver.persistedSeq.get(i - 1));
+            }
+            Assert.assertTrue(batchSizes.stream().allMatch(n -> n <= 16), "batch size cap exceeded: " + batchSizes);
+            Assert.assertTrue(batchSizes.size() < 101, "expected grouped writes, got " + batchSizes);
+        } finally {
+            ledger.close();
+        }
+    }
+}
@@ -108,4 +108,35 @@ public class ZstdLedgerIndexTest {
         Assert.assertEquals(reloaded.size(), 1);
         Assert.assertEquals(reloaded.get(0).uncompressedOffset, 8L);
     }
+
+    @Test
+    public void appendEntries_acrossMappedPageBoundary_readsBackAfterReload() throws Exception {
+        ZstdLedgerIndex idx = new ZstdLedgerIndex(ledgerFile);
+        final int total = ZstdLedgerIndex.PAGE_ENTRIES * 2 + 777;
+        final int batchSize = 1000;
+        for (int base = 0; base < total; base += batchSize) {
+            ZstdLedgerIndex.EntryBuffer batch = new ZstdLedgerIndex.EntryBuffer(batchSize);
+            for (int ord = base; ord < Math.min(total, base + batchSize); ord++) {
+                batch.add(ord * 7L, ord * 3L);
+            }
+            idx.appendEntries(batch);
+        }
+        Assert.assertEquals(idx.size(), total);
+        Assert.assertEquals(Files.size(idx.getIndexPath()),
+                ZstdLedgerIndex.HEADER_SIZE + total * (long) ZstdLedgerIndex.ENTRY_SIZE);
+
+        ZstdLedgerIndex reloaded = new ZstdLedgerIndex(ledgerFile);
+        Assert.assertEquals(reloaded.size(), total);
+        for (int ord : new int[]{0, ZstdLedgerIndex.PAGE_ENTRIES - 1, ZstdLedgerIndex.PAGE_ENTRIES,
+                ZstdLedgerIndex.PAGE_ENTRIES * 2, total - 1}) {
+            Assert.assertEquals(reloaded.frameFileOffset(ord), ord * 7L);
+            Assert.assertEquals(reloaded.uncompressedOffset(ord), ord * 3L);
+            Assert.assertEquals(idx.frameFileOffset(ord), ord * 7L);
+        }
+
+        // Appending to the reloaded index continues the partial tail page.
+        reloaded.appendEntries(List.of(new ZstdLedgerIndex.Entry(5, 6)));
+        Assert.assertEquals(reloaded.size(), total + 1);
+        Assert.assertEquals(new ZstdLedgerIndex(ledgerFile).get(total).uncompressedOffset, 6L);
+    }
 }